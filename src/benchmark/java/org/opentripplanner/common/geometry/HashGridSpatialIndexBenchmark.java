@@ -0,0 +1,74 @@
+package org.opentripplanner.common.geometry;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.SyntheticStreetGrid;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures edge lookups in the hash grid spatial index, as done when linking origins and destinations
+ * to the street network, on the edges of a synthetic 100 x 100 street grid. Each invocation runs 1000
+ * queries around random points of the grid.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HashGridSpatialIndexBenchmark {
+
+    private static final int N_QUERIES = 1000;
+
+    /** Half the width of the envelope queried, in meters. */
+    @Param({"50", "500"})
+    public int radius;
+
+    private HashGridSpatialIndex<Edge> index;
+
+    private Envelope[] envelopes;
+
+    @Setup
+    public void setup() {
+        SyntheticStreetGrid grid = new SyntheticStreetGrid(100);
+        index = new HashGridSpatialIndex<>();
+        for (Edge e : grid.graph.getEdges()) {
+            index.insert(e.getGeometry(), e);
+        }
+        Coordinate min = grid.getVertex(0, 0).getCoordinate();
+        Coordinate max = grid.getVertex(grid.getSize() - 1, grid.getSize() - 1).getCoordinate();
+        Random random = new Random(42);
+        envelopes = new Envelope[N_QUERIES];
+        for (int i = 0; i < N_QUERIES; i++) {
+            Coordinate c = new Coordinate(min.x + random.nextDouble() * (max.x - min.x),
+                    min.y + random.nextDouble() * (max.y - min.y));
+            Envelope env = new Envelope(c);
+            env.expandBy(SphericalDistanceLibrary.metersToLonDegrees(radius, c.y),
+                    SphericalDistanceLibrary.metersToDegrees(radius));
+            envelopes[i] = env;
+        }
+    }
+
+    @Benchmark
+    public void query(Blackhole blackhole) {
+        for (Envelope env : envelopes) {
+            blackhole.consume(index.query(env));
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+package org.opentripplanner.common.pqueue;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the priority queue used by A*: filling it with randomly weighted elements and emptying it,
+ * and an interleaved pattern closer to a search, where each extraction is followed by a few
+ * insertions of slightly heavier elements.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BinHeapBenchmark {
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    private double[] priorities;
+
+    private Integer[] elements;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        priorities = new double[size];
+        elements = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            priorities[i] = random.nextDouble() * 10000;
+            elements[i] = i;
+        }
+    }
+
+    @Benchmark
+    public void insertThenExtract(Blackhole blackhole) {
+        BinHeap<Integer> heap = new BinHeap<>();
+        for (int i = 0; i < size; i++) {
+            heap.insert(elements[i], priorities[i]);
+        }
+        while (!heap.empty()) {
+            blackhole.consume(heap.extract_min());
+        }
+    }
+
+    @Benchmark
+    public void searchPattern(Blackhole blackhole) {
+        BinHeap<Integer> heap = new BinHeap<>();
+        heap.insert(elements[0], 0);
+        int next = 1;
+        while (!heap.empty()) {
+            double min = heap.peek_min_key();
+            blackhole.consume(heap.extract_min());
+            // Like the branching of a street search, where new states are a bit heavier than the one expanded.
+            for (int k = 0; k < 3 && next < size; k++, next++) {
+                heap.insert(elements[next], min + priorities[next] / 100);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,69 @@
+package org.opentripplanner.routing.algorithm;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.CompactStreetGraph;
+import org.opentripplanner.routing.graph.SyntheticStreetGrid;
+import org.opentripplanner.routing.spt.DominanceFunction;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a street search across a synthetic 100 x 100 street grid, from one corner to the opposite
+ * one, with and without the compact street graph and the reused shortest path tree.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AStarBenchmark {
+
+    private static final int GRID_SIZE = 100;
+
+    @Param({"WALK", "BICYCLE", "CAR"})
+    public TraverseMode mode;
+
+    @Param({"false", "true"})
+    public boolean compact;
+
+    @Param({"false", "true"})
+    public boolean reuseShortestPathTree;
+
+    private SyntheticStreetGrid grid;
+
+    @Setup
+    public void setup() {
+        grid = new SyntheticStreetGrid(GRID_SIZE);
+        grid.graph.compactStreetGraph = compact ? new CompactStreetGraph(grid.graph) : null;
+    }
+
+    @Benchmark
+    public void search(Blackhole blackhole) {
+        RoutingRequest options = new RoutingRequest(new TraverseModeSet(mode));
+        options.dateTime = 1500000000;
+        // As set up by GraphPathFinder
+        options.numItineraries = 1;
+        options.dominanceFunction = new DominanceFunction.MinimumWeight();
+        options.setRoutingContext(grid.graph, grid.getVertex(0, 0), grid.getVertex(GRID_SIZE - 1, GRID_SIZE - 1));
+        AStar aStar = new AStar();
+        aStar.setReuseShortestPathTree(reuseShortestPathTree);
+        aStar.getShortestPathTree(options);
+        blackhole.consume(aStar.getPathsToTarget());
+    }
+
+}
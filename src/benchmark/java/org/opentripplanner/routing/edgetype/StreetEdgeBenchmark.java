@@ -0,0 +1,111 @@
+package org.opentripplanner.routing.edgetype;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.StateEditor;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.CompactStreetGraph;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.SyntheticStreetGrid;
+import org.opentripplanner.routing.graph.Vertex;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the traversal of street edges, on its own and through the compact street graph, and the
+ * StateEditor operations every traversal goes through. Each invocation traverses all the outgoing
+ * edges of every intersection of a synthetic 30 x 30 street grid once.
+ */
+@org.openjdk.jmh.annotations.State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StreetEdgeBenchmark {
+
+    private static final int GRID_SIZE = 30;
+
+    @Param({"WALK", "BICYCLE", "CAR"})
+    public TraverseMode mode;
+
+    private State[] states;
+
+    private StreetEdge[][] edges;
+
+    private CompactStreetGraph compactStreetGraph;
+
+    private int[][] edgeNumbers;
+
+    @Setup
+    public void setup() {
+        SyntheticStreetGrid grid = new SyntheticStreetGrid(GRID_SIZE);
+        compactStreetGraph = new CompactStreetGraph(grid.graph);
+        RoutingRequest options = new RoutingRequest(new TraverseModeSet(mode));
+        options.dateTime = 1500000000;
+        options.setRoutingContext(grid.graph, grid.getVertex(0, 0), grid.getVertex(GRID_SIZE - 1, GRID_SIZE - 1));
+        states = new State[GRID_SIZE * GRID_SIZE];
+        edges = new StreetEdge[states.length][];
+        edgeNumbers = new int[states.length][];
+        for (int i = 0; i < GRID_SIZE; i++) {
+            for (int j = 0; j < GRID_SIZE; j++) {
+                int n = i * GRID_SIZE + j;
+                Vertex v = grid.getVertex(i, j);
+                states[n] = new State(v, options.dateTime, options);
+                edges[n] = v.getOutgoing().toArray(new StreetEdge[0]);
+                int start = compactStreetGraph.getStart(v, false);
+                edgeNumbers[n] = new int[compactStreetGraph.getEnd(v, false) - start];
+                for (int k = 0; k < edgeNumbers[n].length; k++) {
+                    edgeNumbers[n][k] = compactStreetGraph.getEdgeNumber(start + k, false);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public void traverse(Blackhole blackhole) {
+        for (int n = 0; n < states.length; n++) {
+            for (StreetEdge e : edges[n]) {
+                blackhole.consume(e.traverse(states[n]));
+            }
+        }
+    }
+
+    @Benchmark
+    public void traverseCompact(Blackhole blackhole) {
+        for (int n = 0; n < states.length; n++) {
+            for (int e : edgeNumbers[n]) {
+                StreetEdge edge = (StreetEdge) compactStreetGraph.getEdge(e);
+                blackhole.consume(edge.traverse(states[n], compactStreetGraph, e));
+            }
+        }
+    }
+
+    /** The minimum work of any traversal: copy the state, update its weight and time, make the new state. */
+    @Benchmark
+    public void stateEditor(Blackhole blackhole) {
+        for (int n = 0; n < states.length; n++) {
+            for (Edge e : edges[n]) {
+                StateEditor editor = states[n].edit(e);
+                editor.setBackMode(mode);
+                editor.incrementWeight(100);
+                editor.incrementTimeInSeconds(72);
+                editor.incrementWalkDistance(100);
+                blackhole.consume(editor.makeState());
+            }
+        }
+    }
+
+}
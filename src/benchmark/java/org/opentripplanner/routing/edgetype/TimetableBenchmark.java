@@ -0,0 +1,94 @@
+package org.opentripplanner.routing.edgetype;
+
+import com.google.common.collect.Iterables;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.ServiceDay;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.util.TestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares finding the next departure (arrival) on a pattern using the per-stop sorted index with the linear scan
+ * over all trips, on the busiest pattern of the Portland test feed. Each benchmark invocation searches at every
+ * stop of the pattern for a range of times spread over the service day.
+ */
+@org.openjdk.jmh.annotations.State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TimetableBenchmark {
+
+    @Param({"true", "false"})
+    public boolean boarding;
+
+    private Timetable timetable;
+
+    private ServiceDay serviceDay;
+
+    private State[] states;
+
+    private int nStops;
+
+    @Setup
+    public void setup() {
+        Graph graph = ConstantsForTests.getInstance().getPortlandGraph();
+        String feedId = graph.getFeedIds().iterator().next();
+        Vertex start = graph.getVertex(feedId + ":8371");
+        Vertex end = graph.getVertex(feedId + ":8374");
+        RoutingRequest options = new RoutingRequest();
+        long midnight = TestUtils.dateInSeconds("America/Los_Angeles", 2009, 11, 1, 0, 0, 0);
+        options.dateTime = midnight;
+        options.setRoutingContext(graph, start, end);
+        serviceDay = options.rctx.serviceDays.get(0);
+
+        for (TransitBoardAlight tba : Iterables.filter(graph.getEdges(), TransitBoardAlight.class)) {
+            Timetable candidate = tba.getPattern().scheduledTimetable;
+            if (timetable == null || candidate.tripTimes.size() > timetable.tripTimes.size()) {
+                timetable = candidate;
+            }
+        }
+        nStops = timetable.pattern.getStops().size();
+
+        // One search every five minutes from 4 AM to midnight.
+        states = new State[16 * 12];
+        for (int i = 0; i < states.length; i++) {
+            states[i] = new State(start, midnight + 4 * 3600 + i * 300, options);
+        }
+    }
+
+    @Benchmark
+    public void indexed(Blackhole blackhole) {
+        for (State s0 : states) {
+            for (int stop = 0; stop < nStops; stop++) {
+                blackhole.consume(timetable.getNextTrip(s0, serviceDay, stop, boarding, 0, 0, 0, true));
+            }
+        }
+    }
+
+    @Benchmark
+    public void linearScan(Blackhole blackhole) {
+        for (State s0 : states) {
+            for (int stop = 0; stop < nStops; stop++) {
+                blackhole.consume(timetable.getNextTrip(s0, serviceDay, stop, boarding, 0, 0, 0, false));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,71 @@
+package org.opentripplanner.routing.graph;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+/**
+ * A square grid of two-way streets with an intersection every 100 meters, for benchmarks of street
+ * routing that should not depend on the contents of a real street network. Every fifth street is
+ * closed to cars, so car searches take detours.
+ */
+public class SyntheticStreetGrid {
+
+    private static final double SPACING_METERS = 100;
+
+    private static final double ORIGIN_LAT = 45.5;
+
+    private static final double ORIGIN_LON = -122.7;
+
+    public final Graph graph = new Graph();
+
+    private final IntersectionVertex[][] vertices;
+
+    public SyntheticStreetGrid(int size) {
+        double dLat = SphericalDistanceLibrary.metersToDegrees(SPACING_METERS);
+        double dLon = SphericalDistanceLibrary.metersToLonDegrees(SPACING_METERS, ORIGIN_LAT);
+        vertices = new IntersectionVertex[size][size];
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                vertices[i][j] = new IntersectionVertex(graph, "grid_" + i + "_" + j,
+                        ORIGIN_LON + j * dLon, ORIGIN_LAT + i * dLat);
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                if (j + 1 < size) {
+                    connect(vertices[i][j], vertices[i][j + 1], i % 5 == 4);
+                }
+                if (i + 1 < size) {
+                    connect(vertices[i][j], vertices[i + 1][j], j % 5 == 4);
+                }
+            }
+        }
+        graph.rebuildVertexAndEdgeIndices();
+    }
+
+    private static void connect(IntersectionVertex a, IntersectionVertex b, boolean carFree) {
+        GeometryFactory gf = GeometryUtils.getGeometryFactory();
+        LineString forward = gf.createLineString(new Coordinate[] { a.getCoordinate(), b.getCoordinate() });
+        LineString backward = gf.createLineString(new Coordinate[] { b.getCoordinate(), a.getCoordinate() });
+        StreetTraversalPermission permission = carFree ?
+                StreetTraversalPermission.PEDESTRIAN_AND_BICYCLE : StreetTraversalPermission.ALL;
+        String name = a.getLabel() + "-" + b.getLabel();
+        new StreetEdge(a, b, forward, name, SPACING_METERS, permission, false);
+        new StreetEdge(b, a, backward, name, SPACING_METERS, permission, true);
+    }
+
+    /** @return the intersection in row i and column j of the grid. */
+    public Vertex getVertex(int i, int j) {
+        return vertices[i][j];
+    }
+
+    public int getSize() {
+        return vertices.length;
+    }
+}
@@ -0,0 +1,90 @@
+package org.opentripplanner.routing.impl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.standalone.Router;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of complete trip planning requests through GraphPathFinder, on the Vermont
+ * test graph (OpenStreetMap data and a GTFS-Flex feed), for each kind of request. The requests are
+ * those of VermontFlexRoutingTest, so they are known to find itineraries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class GraphPathFinderBenchmark {
+
+    public enum RequestType {
+        WALK("WALK", "44.4214596,-72.019371", "44.4277732,-72.01203514"),
+        BICYCLE("BICYCLE", "44.38485134435363,-72.05881118774415", "44.422379116722084,-72.0198440551758"),
+        CAR("CAR", "44.38485134435363,-72.05881118774415", "44.422379116722084,-72.0198440551758"),
+        /* Flag stops at both ends */
+        TRANSIT("WALK,TRANSIT", "44.4214596,-72.019371", "44.4277732,-72.01203514"),
+        /* Deviated route (call-and-ride) at both ends */
+        FLEX("WALK,TRANSIT", "44.38485134435363,-72.05881118774415", "44.422379116722084,-72.0198440551758");
+
+        final String modes;
+        final String from;
+        final String to;
+
+        RequestType(String modes, String from, String to) {
+            this.modes = modes;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    @Param({"WALK", "BICYCLE", "CAR", "TRANSIT", "FLEX"})
+    public RequestType requestType;
+
+    private Graph graph;
+
+    private Router router;
+
+    @Setup
+    public void setup() {
+        graph = ConstantsForTests.getInstance().getVermontGraph();
+        router = new Router("default", graph);
+    }
+
+    @Benchmark
+    public void plan(Blackhole blackhole) {
+        RoutingRequest request = new RoutingRequest(new TraverseModeSet(requestType.modes));
+        // As in the Vermont router config
+        request.setMaxWalkDistance(804);
+        request.flexCallAndRideReluctance = 3.0;
+        request.walkReluctance = 3.0;
+        request.waitAtBeginningFactor = 0;
+        request.transferPenalty = 600;
+        request.flexIgnoreDrtAdvanceBookMin = true;
+        request.setDateTime("2018-05-23", "1:37pm", graph.getTimeZone());
+        request.setFromString(requestType.from);
+        request.setToString(requestType.to);
+        request.setRoutingContext(graph);
+        try {
+            blackhole.consume(new GraphPathFinder(router).graphPathFinderEntryPoint(request));
+        } finally {
+            request.cleanup();
+        }
+    }
+
+}
@@ -0,0 +1,42 @@
+package org.opentripplanner.api.resource;
+
+import org.opentripplanner.standalone.OTPServer;
+import org.opentripplanner.standalone.Router;
+import org.opentripplanner.updater.GraphUpdaterManager;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.Map;
+
+/**
+ * Report the routing metrics of a router via a web service: distributions of the time spent in
+ * each phase of trip planning and realtime updating, and counts of timed out searches.
+ */
+@Path("/routers/{routerId}/metrics")
+@Produces(MediaType.APPLICATION_JSON)
+public class MetricsResource {
+
+    Router router;
+
+    public MetricsResource (@Context OTPServer otpServer, @PathParam("routerId") String routerId) {
+        router = otpServer.getRouter(routerId);
+    }
+
+    /** Return a summary of all metrics accumulated since the router started. */
+    @GET
+    public Response getMetrics () {
+        Map<String, Object> metrics = router.graph.getRoutingMetrics().summarize();
+        GraphUpdaterManager updaterManager = router.graph.updaterManager;
+        metrics.put("updaterQueueLength", updaterManager == null ? 0 : updaterManager.getQueueDepth());
+        if (updaterManager != null) {
+            metrics.put("updaterLanes", updaterManager.summarizeLanes());
+        }
+        return Response.status(Response.Status.OK).entity(metrics).build();
+    }
+
+}
@@ -68,7 +68,9 @@ public class PlannerResource extends RoutingResource {
             paths = gpFinder.graphPathFinderEntryPoint(request);
 
             /* Convert the internal GraphPaths to a TripPlan object that is included in an OTP web service Response. */
+            long planBeginNanos = System.nanoTime();
             TripPlan plan = GraphPathToTripPlanConverter.generatePlan(paths, request);
+            router.graph.getRoutingMetrics().tripPlanTime.recordMicrosSince(planBeginNanos);
             response.setPlan(plan);
 
         } catch (Exception e) {
@@ -8,71 +8,44 @@ import java.util.Set;
 
 import org.opentripplanner.util.MapUtils;
 
-/** basic union-find data structure with path compression */
+/**
+ * basic union-find data structure with path compression, over arbitrary objects. The sets are kept in an
+ * {@link IntDisjointSet}, which can be used directly when the elements are already numbered.
+ */
 public class DisjointSet<T> {
 
-    ArrayList<Integer> sets = new ArrayList<Integer>();
+    IntDisjointSet sets = new IntDisjointSet();
     HashMap<T, Integer> setMapping = new HashMap<T, Integer>();
-    
+
     public DisjointSet() {}
-    
-    public int union(T element1, T element2) {
-        Integer p1 = find(element1);
-        Integer p2 = find(element2);
-        
-        if (p1.equals(p2)) {
-            return p1;
-        }
-        
-        int p1size = -sets.get(p1);
-        int p2size = -sets.get(p2);
 
-        int totalSize = p1size + p2size;
-        
-        if (p1size > p2size) {
-            sets.set(p2, p1);
-            sets.set(p1, -totalSize);
-            return p2;
-        } else {
-            sets.set(p1, p2);
-            sets.set(p2, -totalSize);
-            return p1;
-        }
+    public int union(T element1, T element2) {
+        return sets.union(find(element1), find(element2));
     }
-    
+
     public int find(T element) {
         Integer i = setMapping.get(element);
         if (i == null) {
-            setMapping.put(element, sets.size());
-            sets.add(-1);
-            return sets.size() -1;
+            i = sets.add();
+            setMapping.put(element, i);
+            return i;
         }
-        return compact(i);
+        return sets.find(i);
     }
 
     public boolean exists(T element) {
         return setMapping.containsKey(element);
     }
-    
+
     public List<Set<T>> sets() {
         HashMap<Integer, Set<T>> out = new HashMap<Integer, Set<T>>();
         for (Map.Entry<T, Integer> entry : setMapping.entrySet()) {
-            MapUtils.addToMapSet(out, compact(entry.getValue()), entry.getKey());
+            MapUtils.addToMapSet(out, sets.find(entry.getValue()), entry.getKey());
         }
         return new ArrayList<Set<T>>(out.values());
     }
 
-    private int compact(int i) {
-        int key = sets.get(i);
-        if (key < 0) {
-            return i;
-        }
-        int j = compact(key);
-        sets.set(i, j);
-        return j;
-    }
-
     public int size(int component) {
-        return -sets.get(component);
+        return sets.setSize(component);
     }
 }
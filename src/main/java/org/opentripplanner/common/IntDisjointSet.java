@@ -0,0 +1,90 @@
+package org.opentripplanner.common;
+
+import java.util.Arrays;
+
+/**
+ * Union-find over the integers 0 to size() - 1, with union by size and path compression, kept in a single int array.
+ * Each entry is either the parent of an element or, for the root of a set, minus the size of that set.
+ * This takes four bytes per element, so it can be used on every vertex of a large graph, indexed by vertex index.
+ */
+public class IntDisjointSet {
+
+    private int[] sets;
+
+    private int size;
+
+    /** An empty set of elements, to which elements are added with {@link #add()}. */
+    public IntDisjointSet() {
+        this(0);
+    }
+
+    /** The elements 0 to n - 1, each in its own set. */
+    public IntDisjointSet(int n) {
+        sets = new int[Math.max(n, 10)];
+        Arrays.fill(sets, 0, n, -1);
+        size = n;
+    }
+
+    /** Add an element in its own set, and return it. */
+    public int add() {
+        if (size == sets.length) {
+            sets = Arrays.copyOf(sets, sets.length * 2);
+        }
+        sets[size] = -1;
+        return size++;
+    }
+
+    /** The number of elements. */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Merge the sets of the two elements.
+     *
+     * @return the root that was attached to the other one, or the common root if they were already in the same set
+     */
+    public int union(int element1, int element2) {
+        int p1 = find(element1);
+        int p2 = find(element2);
+
+        if (p1 == p2) {
+            return p1;
+        }
+
+        int p1size = -sets[p1];
+        int p2size = -sets[p2];
+
+        int totalSize = p1size + p2size;
+
+        if (p1size > p2size) {
+            sets[p2] = p1;
+            sets[p1] = -totalSize;
+            return p2;
+        } else {
+            sets[p1] = p2;
+            sets[p2] = -totalSize;
+            return p1;
+        }
+    }
+
+    /** Return the root of the set of the given element. */
+    public int find(int element) {
+        int root = element;
+        while (sets[root] >= 0) {
+            root = sets[root];
+        }
+        // Point every element on the path directly to the root.
+        while (element != root) {
+            int parent = sets[element];
+            sets[element] = root;
+            element = parent;
+        }
+        return root;
+    }
+
+    /** The size of the set with the given root. */
+    public int setSize(int root) {
+        return -sets[root];
+    }
+}
@@ -1,5 +1,6 @@
 package org.opentripplanner.common;
 
+import gnu.trove.list.array.TIntArrayList;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.Polygon;
 import org.opentripplanner.common.geometry.Subgraph;
@@ -13,20 +14,38 @@ import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.vertextype.StreetVertex;
+import org.opentripplanner.routing.vertextype.TransitVertex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.PrintWriter;
 import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class StreetUtils {
 
     private static Logger LOG = LoggerFactory.getLogger(StreetUtils.class);
     private static int islandCounter = 0;
 
+    /** Number of vertices whose edges are traversed in one task when looking for connections in parallel. */
+    private static final int CHUNK_SIZE = 10_000;
+
     public static void pruneFloatingIslands(Graph graph, int maxIslandSize, 
             int islandWithStopMaxSize, String islandLogName) {
+        pruneFloatingIslands(graph, maxIslandSize, islandWithStopMaxSize, islandLogName, false);
+    }
+
+    /**
+     * Find the islands of the street network, that is the sets of vertices connected by walkable edges, and remove
+     * those that are too small. The islands are found with a union-find over vertex indexes, so this needs a few bytes
+     * per vertex whatever the size of the islands.
+     *
+     * @param parallel whether to traverse the edges of the graph on several threads
+     */
+    public static void pruneFloatingIslands(Graph graph, int maxIslandSize,
+            int islandWithStopMaxSize, String islandLogName, boolean parallel) {
         LOG.debug("pruning");
         PrintWriter islandLog = null;
         if (islandLogName != null && !islandLogName.isEmpty()) {
@@ -39,86 +58,84 @@ public class StreetUtils {
         if (islandLog != null) {
             islandLog.printf("%s\t%s\t%s\t%s\t%s\n","id","stopCount", "streetCount","wkt" ,"hadRemoved");
         }
-        Map<Vertex, Subgraph> subgraphs = new HashMap<Vertex, Subgraph>();
-        Map<Vertex, ArrayList<Vertex>> neighborsForVertex = new HashMap<Vertex, ArrayList<Vertex>>();
+        List<Vertex> vertices = new ArrayList<Vertex>(graph.getVertices());
+        int nVertices = Vertex.getMaxIndex();
 
-//        RoutingRequest options = new RoutingRequest(new TraverseModeSet(TraverseMode.WALK, TraverseMode.TRANSIT));
-        RoutingRequest options = new RoutingRequest(new TraverseModeSet(TraverseMode.WALK));
-
-        for (Vertex gv : graph.getVertices()) {
-            if (!(gv instanceof StreetVertex)) {
-                continue;
+        /* join the vertices connected by a walkable edge, keeping track of the vertices that have any */
+        IntDisjointSet components = new IntDisjointSet(nVertices);
+        BitSet connected = new BitSet(nVertices);
+        for (TIntArrayList connections : findConnections(vertices, parallel)) {
+            for (int i = 0; i < connections.size(); i += 2) {
+                int in = connections.get(i);
+                int out = connections.get(i + 1);
+                connected.set(in);
+                connected.set(out);
+                components.union(in, out);
             }
-            State s0 = new State(gv, options);
-            for (Edge e : gv.getOutgoing()) {
-                Vertex in = gv;
-                if (!(e instanceof StreetEdge || e instanceof StreetTransitLink || 
-                      e instanceof ElevatorEdge || e instanceof FreeEdge)) {
-                    continue;
-                }
-                State s1 = e.traverse(s0);
-                if (s1 == null) {
-                    continue;
-                }
-                Vertex out = s1.getVertex();
-
-                ArrayList<Vertex> vertexList = neighborsForVertex.get(in);
-                if (vertexList == null) {
-                    vertexList = new ArrayList<Vertex>();
-                    neighborsForVertex.put(in, vertexList);
-                }
-                vertexList.add(out);
+        }
 
-                vertexList = neighborsForVertex.get(out);
-                if (vertexList == null) {
-                    vertexList = new ArrayList<Vertex>();
-                    neighborsForVertex.put(out, vertexList);
+        /* number the islands in the order of the first street vertex of each, and count their vertices */
+        int[] islandForRoot = new int[nVertices];
+        Arrays.fill(islandForRoot, -1);
+        int nIslands = 0;
+        for (Vertex gv : vertices) {
+            if (gv instanceof StreetVertex && connected.get(gv.getIndex())) {
+                int root = components.find(gv.getIndex());
+                if (islandForRoot[root] < 0) {
+                    islandForRoot[root] = nIslands++;
                 }
-                vertexList.add(in);
             }
         }
-
-        ArrayList<Subgraph> islands = new ArrayList<Subgraph>();
-        /* associate each node with a subgraph */
-        for (Vertex gv : graph.getVertices()) {
-            if (!(gv instanceof StreetVertex)) {
+        int[] streetCount = new int[nIslands];
+        int[] stopCount = new int[nIslands];
+        for (Vertex gv : vertices) {
+            int island = islandOf(gv, components, connected, islandForRoot);
+            if (island < 0) {
                 continue;
             }
-            Vertex vertex = gv;
-            if (subgraphs.containsKey(vertex)) {
-                continue;
-            }
-            if (!neighborsForVertex.containsKey(vertex)) {
-                continue;
-            }
-            Subgraph subgraph = computeConnectedSubgraph(neighborsForVertex, vertex);
-            if (subgraph != null){
-                for (Iterator<Vertex> vIter = subgraph.streetIterator(); vIter.hasNext();) {
-                    Vertex subnode = vIter.next();
-                    subgraphs.put(subnode, subgraph);
-                }
-                islands.add(subgraph);
+            if (gv instanceof TransitVertex) {
+                stopCount[island]++;
+            } else {
+                streetCount[island]++;
             }
         }
-        LOG.info(islands.size() + " sub graphs found");
+        LOG.info(nIslands + " sub graphs found");
+
         /* remove all tiny subgraphs and large subgraphs without stops */
-        for (Subgraph island : islands) {
-            boolean hadRemoved = false;
-            if(island.stopSize() > 0){
-            //for islands with stops
-                if (island.streetSize() < islandWithStopMaxSize) {
-                    depedestrianizeOrRemove(graph, island);
-                    hadRemoved = true;
+        BitSet removed = new BitSet(nIslands);
+        for (int island = 0; island < nIslands; island++) {
+            if (stopCount[island] > 0) {
+                //for islands with stops
+                if (streetCount[island] < islandWithStopMaxSize) {
+                    removed.set(island);
                 }
-            }else{
-            //for islands without stops
-                if (island.streetSize() < maxIslandSize) {
-                    depedestrianizeOrRemove(graph, island);
-                    hadRemoved = true;
+            } else {
+                //for islands without stops
+                if (streetCount[island] < maxIslandSize) {
+                    removed.set(island);
                 }
             }
+        }
+        /* only the removed islands need their vertices, unless all islands are logged */
+        Subgraph[] subgraphs = new Subgraph[nIslands];
+        for (int island = 0; island < nIslands; island++) {
+            if (islandLog != null || removed.get(island)) {
+                subgraphs[island] = new Subgraph();
+            }
+        }
+        for (Vertex gv : vertices) {
+            int island = islandOf(gv, components, connected, islandForRoot);
+            if (island >= 0 && subgraphs[island] != null) {
+                subgraphs[island].addVertex(gv);
+            }
+        }
+        for (int island = 0; island < nIslands; island++) {
+            boolean hadRemoved = removed.get(island);
+            if (hadRemoved) {
+                depedestrianizeOrRemove(graph, subgraphs[island]);
+            }
             if (islandLog != null) {
-                WriteNodesInSubGraph(island, islandLog, hadRemoved);
+                WriteNodesInSubGraph(subgraphs[island], islandLog, hadRemoved);
             }
         }
         if (graph.removeEdgelessVertices() > 0) {
@@ -126,6 +143,51 @@ public class StreetUtils {
         }
     }
 
+    /** Return the island of a vertex, or -1 if it has no walkable edge. */
+    private static int islandOf(Vertex v, IntDisjointSet components, BitSet connected, int[] islandForRoot) {
+        if (!connected.get(v.getIndex())) {
+            return -1;
+        }
+        return islandForRoot[components.find(v.getIndex())];
+    }
+
+    /**
+     * Walk every street edge, street transit link, elevator edge and free edge going out of the street vertices. For
+     * each edge that can be traversed, the indexes of the vertices before and after it are returned as a pair. The
+     * vertices are split into chunks, each of which gives one list of pairs.
+     */
+    private static List<TIntArrayList> findConnections(List<Vertex> vertices, boolean parallel) {
+        RoutingRequest options = new RoutingRequest(new TraverseModeSet(TraverseMode.WALK));
+        int nChunks = (vertices.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        IntStream chunks = IntStream.range(0, nChunks);
+        if (parallel) {
+            chunks = chunks.parallel();
+        }
+        return chunks.mapToObj(chunk -> {
+            TIntArrayList connections = new TIntArrayList();
+            int end = Math.min(vertices.size(), (chunk + 1) * CHUNK_SIZE);
+            for (Vertex gv : vertices.subList(chunk * CHUNK_SIZE, end)) {
+                if (!(gv instanceof StreetVertex)) {
+                    continue;
+                }
+                State s0 = new State(gv, options);
+                for (Edge e : gv.getOutgoing()) {
+                    if (!(e instanceof StreetEdge || e instanceof StreetTransitLink ||
+                          e instanceof ElevatorEdge || e instanceof FreeEdge)) {
+                        continue;
+                    }
+                    State s1 = e.traverse(s0);
+                    if (s1 == null) {
+                        continue;
+                    }
+                    connections.add(gv.getIndex());
+                    connections.add(s1.getVertex().getIndex());
+                }
+            }
+            return connections;
+        }).collect(Collectors.toList());
+    }
+
     private static void depedestrianizeOrRemove(Graph graph, Subgraph island) {
         //iterate over the street vertex of the subgraph
         for (Iterator<Vertex> vIter = island.streetIterator(); vIter.hasNext();) {
@@ -166,25 +228,6 @@ public class StreetUtils {
         LOG.debug(graph.addBuilderAnnotation(new GraphConnectivity(island.getRepresentativeVertex(), island.streetSize())));
     }
 
-    private static Subgraph computeConnectedSubgraph(
-            Map<Vertex, ArrayList<Vertex>> neighborsForVertex, Vertex startVertex) {
-        Subgraph subgraph = new Subgraph();
-        Queue<Vertex> q = new LinkedList<Vertex>();
-        q.add(startVertex);
-        while (!q.isEmpty()) {
-            Vertex vertex = q.poll();
-            for (Vertex neighbor : neighborsForVertex.get(vertex)) {
-                if (!subgraph.contains(neighbor)) {
-                    subgraph.addVertex(neighbor);
-                    q.add(neighbor);
-                }
-            }
-        }
-        return subgraph;
-//        if(subgraph.size()>1) return subgraph;
-//        return null;
-    }
-
     private static void WriteNodesInSubGraph(Subgraph subgraph, PrintWriter islandLog, boolean hadRemoved){
         Geometry convexHullGeom = subgraph.getConvexHull();
         if (convexHullGeom != null && !(convexHullGeom instanceof Polygon)) {
@@ -1,6 +1,7 @@
 package org.opentripplanner.common.geometry;
 
 import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.procedure.TLongObjectProcedure;
 import gnu.trove.procedure.TLongProcedure;
 import gnu.trove.set.TLongSet;
 import gnu.trove.set.hash.TLongHashSet;
@@ -78,6 +79,39 @@ public class HashGridSpatialIndex<T> implements SpatialIndex, Serializable {
         this(DEFAULT_X_BIN_SIZE, DEFAULT_Y_BIN_SIZE);
     }
 
+    /**
+     * Create a HashGrid from the bins of another one, as visited by {@link #forEachBin}, for
+     * instance when restoring an index saved with a graph. The bins are used as-is.
+     */
+    public HashGridSpatialIndex(double xBinSize, double yBinSize, TLongObjectHashMap<List<T>> bins,
+            int nObjects) {
+        this(xBinSize, yBinSize);
+        this.bins.putAll(bins);
+        this.nBins = bins.size();
+        this.nObjects = nObjects;
+        for (List<T> bin : bins.valueCollection()) {
+            this.nEntries += bin.size();
+        }
+    }
+
+    public double getXBinSize() {
+        return xBinSize;
+    }
+
+    public double getYBinSize() {
+        return yBinSize;
+    }
+
+    /** Number of objects inserted, each of which may be in several bins. */
+    public int getObjectCount() {
+        return nObjects;
+    }
+
+    /** Visit all the bins with their keys. The bins must not be modified. */
+    public void forEachBin(TLongObjectProcedure<List<T>> procedure) {
+        bins.forEachEntry(procedure);
+    }
+
     @Override
     public final void insert(Envelope envelope, final Object item) {
         visit(envelope, true, new BinVisitor<T>() {
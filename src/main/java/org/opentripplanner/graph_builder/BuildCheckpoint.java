@@ -0,0 +1,99 @@
+package org.opentripplanner.graph_builder;
+
+import org.opentripplanner.graph_builder.annotation.GraphBuilderAnnotation;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The state of a graph build after one of its modules: the graph, and what is not saved with the graph but needed by
+ * the following modules. This is saved with the graph in a checkpoint file, from which the build can be resumed.
+ */
+class BuildCheckpoint {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BuildCheckpoint.class);
+
+    /** The simple class name of the module after which the checkpoint was saved. */
+    private String moduleName;
+
+    /** The objects passed from module to module besides the graph. */
+    private HashMap<Class<?>, Object> extra;
+
+    /** The annotations added by the modules so far, which are not saved with the graph. */
+    private List<GraphBuilderAnnotation> annotations;
+
+    /** The vertices without any edge, which are not saved with the graph, but may be linked by later modules. */
+    private List<Vertex> verticesWithoutEdges;
+
+    /** For Kryo. */
+    private BuildCheckpoint() { }
+
+    private BuildCheckpoint(String moduleName, HashMap<Class<?>, Object> extra, Graph graph) {
+        this.moduleName = moduleName;
+        this.extra = extra;
+        this.annotations = graph.getBuilderAnnotations() == null ? null
+                : new ArrayList<>(graph.getBuilderAnnotations());
+        this.verticesWithoutEdges = new ArrayList<>();
+        for (Vertex v : graph.getVertices()) {
+            if (v.getDegreeOut() + v.getDegreeIn() == 0) {
+                verticesWithoutEdges.add(v);
+            }
+        }
+    }
+
+    /**
+     * Save the graph and the rest of the build state to the given file. The file is written under another name first
+     * and then renamed, so an interrupted save does not leave a partial checkpoint behind.
+     */
+    static void save(File file, String moduleName, Graph graph, HashMap<Class<?>, Object> extra) {
+        LOG.info("Saving a checkpoint of the graph build after {} to {}", moduleName, file);
+        File tempFile = new File(file.getPath() + ".tmp");
+        try {
+            Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+            graph.save(tempFile, new BuildCheckpoint(moduleName, extra, graph));
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not save the checkpoint after " + moduleName + " to " + file, e);
+        }
+    }
+
+    /**
+     * Load the graph saved in the given checkpoint file, restoring the annotations and the vertices without edges,
+     * and put the other objects passed between modules in the given map.
+     */
+    static Graph load(File file, String moduleName, HashMap<Class<?>, Object> extra) {
+        LOG.info("Resuming the graph build from the checkpoint after {} in {}", moduleName, file);
+        List<BuildCheckpoint> checkpoints = new ArrayList<>();
+        Graph graph;
+        try {
+            graph = Graph.load(file, attachment -> checkpoints.add((BuildCheckpoint) attachment));
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read the checkpoint " + file, e);
+        }
+        if (checkpoints.isEmpty() || !moduleName.equals(checkpoints.get(0).moduleName)) {
+            throw new IllegalStateException(file + " is not a checkpoint saved after " + moduleName);
+        }
+        BuildCheckpoint checkpoint = checkpoints.get(0);
+        graph.addSavedVertices(checkpoint.verticesWithoutEdges);
+        if (checkpoint.annotations != null) {
+            for (GraphBuilderAnnotation annotation : checkpoint.annotations) {
+                graph.addBuilderAnnotation(annotation);
+            }
+        }
+        extra.putAll(checkpoint.extra);
+        // The indexes built on load will not cover what the following modules add. Modules needing them build them
+        // again.
+        graph.index = null;
+        graph.streetIndex = null;
+        return graph;
+    }
+}
@@ -7,6 +7,7 @@ import org.opentripplanner.graph_builder.module.DirectTransferGenerator;
 import org.opentripplanner.graph_builder.module.EmbedConfig;
 import org.opentripplanner.graph_builder.module.GtfsModule;
 import org.opentripplanner.graph_builder.module.PruneFloatingIslands;
+import org.opentripplanner.graph_builder.module.SaveStreetGraphModule;
 import org.opentripplanner.graph_builder.module.StreetLinkerModule;
 import org.opentripplanner.graph_builder.module.TransitToTaggedStopsModule;
 import org.opentripplanner.graph_builder.module.map.BusRouteStreetMatcher;
@@ -22,6 +23,7 @@ import org.opentripplanner.openstreetmap.impl.AnyFileBasedOpenStreetMapProviderI
 import org.opentripplanner.openstreetmap.services.OpenStreetMapProvider;
 import org.opentripplanner.reflect.ReflectionLibrary;
 import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.StopClusterMode;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.standalone.CommandLineParameters;
 import org.opentripplanner.standalone.GraphBuilderParameters;
@@ -49,6 +51,12 @@ public class GraphBuilder implements Runnable {
 
     public static final String BUILDER_CONFIG_FILENAME = "build-config.json";
 
+    /** The graph saved with the saveStreetGraph parameter, before transit data is added. */
+    public static final String STREET_GRAPH_FILENAME = "StreetGraph.obj";
+
+    /** The directory, in the graph directory, where the checkpoints of the build are saved. */
+    public static final String CHECKPOINT_DIRECTORY = "checkpoints";
+
     private List<GraphBuilderModule> _graphBuilderModules = new ArrayList<GraphBuilderModule>();
 
     private final File graphFile;
@@ -64,9 +72,23 @@ public class GraphBuilder implements Runnable {
     /** Should the graph be serialized to disk after being created or not? */
     public boolean serializeGraph = true;
 
+    private final File checkpointDirectory;
+
+    /** The simple class names of the modules after which a checkpoint is saved. */
+    private final List<String> checkpointModules;
+
+    /** Whether to save the street edge geometries in a file next to the graph file. */
+    private final boolean separateEdgeGeometries;
+
+    /** The simple class name of the module from which to resume the build, or null to run all modules. */
+    private String resumeFrom = null;
+
     public GraphBuilder(File path, GraphBuilderParameters builderParams) {
         graphFile = new File(path, "Graph.obj");
+        checkpointDirectory = new File(path, CHECKPOINT_DIRECTORY);
         graph.stopClusterMode = builderParams.stopClusterMode;
+        checkpointModules = builderParams.checkpoints;
+        separateEdgeGeometries = builderParams.separateEdgeGeometries;
     }
 
     public void addModule(GraphBuilderModule loader) {
@@ -83,11 +105,25 @@ public class GraphBuilder implements Runnable {
     
     public void setBaseGraph(String baseGraph) {
         this.baseGraph = baseGraph;
+        StopClusterMode stopClusterMode = graph.stopClusterMode;
         try {
             graph = Graph.load(new File(baseGraph));
         } catch (Exception e) {
-            throw new RuntimeException("error loading base graph");
+            throw new RuntimeException("error loading base graph", e);
         }
+        graph.stopClusterMode = stopClusterMode;
+        // The indexes built on load will not cover what the graph builder modules add. Modules needing them
+        // build them again.
+        graph.index = null;
+        graph.streetIndex = null;
+    }
+
+    /**
+     * Resume the build at the module with the given simple class name, from the last checkpoint saved after one of the
+     * modules before it. The modules before the checkpoint are not run.
+     */
+    public void setResumeFrom(String resumeFrom) {
+        this.resumeFrom = resumeFrom;
     }
 
     public void addMode(RoutingRequest mo) {
@@ -129,19 +165,29 @@ public class GraphBuilder implements Runnable {
             }
         }
 
+        int checkpointIndex = resumeFrom == null ? -1 : findResumeCheckpoint();
+
         // Check all graph builder inputs, and fail fast to avoid waiting until the build process advances.
-        for (GraphBuilderModule builder : _graphBuilderModules) {
+        for (GraphBuilderModule builder : _graphBuilderModules.subList(checkpointIndex + 1, _graphBuilderModules.size())) {
             builder.checkInputs();
         }
         
         HashMap<Class<?>, Object> extra = new HashMap<Class<?>, Object>();
-        for (GraphBuilderModule load : _graphBuilderModules)
-            load.buildGraph(graph, extra);
+        if (checkpointIndex >= 0) {
+            graph = BuildCheckpoint.load(checkpointFile(checkpointIndex), moduleName(checkpointIndex), extra);
+        }
+        for (int i = checkpointIndex + 1; i < _graphBuilderModules.size(); i++) {
+            LOG.info("Running graph builder module {}", moduleName(i));
+            _graphBuilderModules.get(i).buildGraph(graph, extra);
+            if (checkpointModules.contains(moduleName(i))) {
+                BuildCheckpoint.save(checkpointFile(i), moduleName(i), graph, extra);
+            }
+        }
 
         graph.summarizeBuilderAnnotations();
         if (serializeGraph) {
             try {
-                graph.save(graphFile);
+                graph.save(graphFile, null, separateEdgeGeometries);
             } catch (Exception ex) {
                 throw new IllegalStateException(ex);
             }
@@ -154,6 +200,45 @@ public class GraphBuilder implements Runnable {
     }
 
 
+    private String moduleName(int index) {
+        return _graphBuilderModules.get(index).getClass().getSimpleName();
+    }
+
+    private File checkpointFile(int index) {
+        return new File(checkpointDirectory, moduleName(index) + ".obj");
+    }
+
+    /**
+     * Find the last module before the one to resume from that has a saved checkpoint.
+     *
+     * @return the index of that module, or -1 if the build resumes from the first module
+     */
+    private int findResumeCheckpoint() {
+        int resumeIndex = -1;
+        for (int i = 0; i < _graphBuilderModules.size(); i++) {
+            if (moduleName(i).equals(resumeFrom)) {
+                resumeIndex = i;
+                break;
+            }
+        }
+        if (resumeIndex < 0) {
+            throw new IllegalArgumentException("This build has no module named " + resumeFrom + " to resume from.");
+        }
+        for (int i = resumeIndex - 1; i >= 0; i--) {
+            if (checkpointFile(i).exists()) {
+                if (i < resumeIndex - 1) {
+                    LOG.warn("No checkpoint was saved just before {}, resuming after {}.", resumeFrom, moduleName(i));
+                }
+                return i;
+            }
+        }
+        if (resumeIndex > 0) {
+            throw new IllegalStateException("No checkpoint was saved in " + checkpointDirectory + " before " + resumeFrom
+                    + ", add the modules to checkpoint to the checkpoints build parameter.");
+        }
+        return -1;
+    }
+
     /**
      * Factory method to create and configure a GraphBuilder with all the appropriate modules to build a graph from
      * the files in the given directory, accounting for any configuration files located there.
@@ -206,16 +291,58 @@ public class GraphBuilder implements Runnable {
                     LOG.warn("Skipping unrecognized file '{}'", file);
             }
         }
-        boolean hasOSM  = builderParams.streets && !osmFiles.isEmpty();
+        File streetGraphFile = new File(dir, STREET_GRAPH_FILENAME);
+        boolean reuseStreets = builderParams.loadStreetGraph && streetGraphFile.exists();
+        if (builderParams.loadStreetGraph && !reuseStreets) {
+            LOG.warn("No street graph found in {}, building the streets from OSM data.", dir);
+        }
+        boolean hasOSM  = builderParams.streets && !osmFiles.isEmpty() && !reuseStreets;
         boolean hasGTFS = builderParams.transit && !gtfsFiles.isEmpty();
-        if ( ! ( hasOSM || hasGTFS )) {
+        if ( ! ( hasOSM || hasGTFS || reuseStreets )) {
             LOG.error("Found no input files from which to build a graph in {}", dir);
             return null;
         }
-        if ( hasOSM ) {
+        // Load elevation data and apply it to the streets.
+        // We want to do run this module after loading the OSM street network but before finding transfers.
+        // A street graph loaded from an earlier build already has its elevation data.
+        ElevationGridCoverageFactory gcf = null;
+        if (builderParams.elevationBucket != null) {
+            // Download the elevation tiles from an Amazon S3 bucket
+            S3BucketConfig bucketConfig = builderParams.elevationBucket;
+            File cacheDirectory = new File(params.cacheDirectory, "ned");
+            DegreeGridNEDTileSource awsTileSource = new DegreeGridNEDTileSource();
+            awsTileSource.awsAccessKey = bucketConfig.accessKey;
+            awsTileSource.awsSecretKey = bucketConfig.secretKey;
+            awsTileSource.awsBucketName = bucketConfig.bucketName;
+            gcf = new NEDGridCoverageFactoryImpl(cacheDirectory, awsTileSource);
+        } else if (builderParams.fetchElevationUS) {
+            // Download the elevation tiles from the official web service
+            File cacheDirectory = new File(params.cacheDirectory, "ned");
+            gcf = new NEDGridCoverageFactoryImpl(cacheDirectory);
+        } else if (demFile != null) {
+            // Load the elevation from a file in the graph inputs directory
+            gcf = new GeotiffGridCoverageFactoryImpl(demFile);
+        }
+        GraphBuilderModule elevationModule = null;
+        if (gcf != null && !reuseStreets) {
+            elevationModule = new ElevationModule(
+                    gcf,
+                    params.cacheDirectory,
+                    builderParams.readCachedElevations,
+                    builderParams.writeCachedElevations,
+                    builderParams.elevationUnitMultiplier,
+                    builderParams.includeEllipsoidToGeoidDifference,
+                    builderParams.multiThreadElevationCalculations
+            );
+        }
+        if ( reuseStreets ) {
+            LOG.info("Starting from the streets in {}, skipping OSM and elevation data.", streetGraphFile);
+            graphBuilder.setBaseGraph(streetGraphFile.getPath());
+        } else if ( hasOSM ) {
             List<OpenStreetMapProvider> osmProviders = Lists.newArrayList();
             for (File osmFile : osmFiles) {
-                OpenStreetMapProvider osmProvider = new AnyFileBasedOpenStreetMapProviderImpl(osmFile);
+                AnyFileBasedOpenStreetMapProviderImpl osmProvider = new AnyFileBasedOpenStreetMapProviderImpl(osmFile);
+                osmProvider.setThreads(builderParams.osmReaderThreads);
                 osmProviders.add(osmProvider);
             }
             OpenStreetMapModule osmModule = new OpenStreetMapModule(osmProviders);
@@ -231,11 +358,20 @@ public class GraphBuilder implements Runnable {
             osmModule.staticParkAndRide = builderParams.staticParkAndRide;
             osmModule.banDiscouragedWalking = builderParams.banDiscouragedWalking;
             osmModule.banDiscouragedBiking = builderParams.banDiscouragedBiking;
+            osmModule.nodeStore = builderParams.osmNodeStore;
             graphBuilder.addModule(osmModule);
             PruneFloatingIslands pruneFloatingIslands = new PruneFloatingIslands();
             pruneFloatingIslands.setPruningThresholdIslandWithoutStops(builderParams.pruningThresholdIslandWithoutStops);
             pruneFloatingIslands.setPruningThresholdIslandWithStops(builderParams.pruningThresholdIslandWithStops);
             graphBuilder.addModule(pruneFloatingIslands);
+            if (builderParams.saveStreetGraph) {
+                // Apply elevation data before saving, rather than after linking, so the saved streets include it.
+                if (elevationModule != null) {
+                    graphBuilder.addModule(elevationModule);
+                    elevationModule = null;
+                }
+                graphBuilder.addModule(new SaveStreetGraphModule(streetGraphFile));
+            }
         }
         if ( hasGTFS ) {
             List<GtfsBundle> gtfsBundles = Lists.newArrayList();
@@ -252,8 +388,9 @@ public class GraphBuilder implements Runnable {
             }
             GtfsModule gtfsModule = new GtfsModule(gtfsBundles);
             gtfsModule.setFareServiceFactory(builderParams.fareServiceFactory);
+            gtfsModule.setStreamStopTimes(builderParams.streamStopTimes);
             graphBuilder.addModule(gtfsModule);
-            if ( hasOSM ) {
+            if ( hasOSM || reuseStreets ) {
                 if (builderParams.matchBusRoutesToStreets) {
                     graphBuilder.addModule(new BusRouteStreetMatcher());
                 }
@@ -265,44 +402,15 @@ public class GraphBuilder implements Runnable {
         StreetLinkerModule streetLinkerModule = new StreetLinkerModule();
         streetLinkerModule.setAddExtraEdgesToAreas(builderParams.areaVisibility);
         graphBuilder.addModule(streetLinkerModule);
-        // Load elevation data and apply it to the streets.
-        // We want to do run this module after loading the OSM street network but before finding transfers.
-        ElevationGridCoverageFactory gcf = null;
-        if (builderParams.elevationBucket != null) {
-            // Download the elevation tiles from an Amazon S3 bucket
-            S3BucketConfig bucketConfig = builderParams.elevationBucket;
-            File cacheDirectory = new File(params.cacheDirectory, "ned");
-            DegreeGridNEDTileSource awsTileSource = new DegreeGridNEDTileSource();
-            awsTileSource.awsAccessKey = bucketConfig.accessKey;
-            awsTileSource.awsSecretKey = bucketConfig.secretKey;
-            awsTileSource.awsBucketName = bucketConfig.bucketName;
-            gcf = new NEDGridCoverageFactoryImpl(cacheDirectory, awsTileSource);
-        } else if (builderParams.fetchElevationUS) {
-            // Download the elevation tiles from the official web service
-            File cacheDirectory = new File(params.cacheDirectory, "ned");
-            gcf = new NEDGridCoverageFactoryImpl(cacheDirectory);
-        } else if (demFile != null) {
-            // Load the elevation from a file in the graph inputs directory
-            gcf = new GeotiffGridCoverageFactoryImpl(demFile);
-        }
-        if (gcf != null) {
-            graphBuilder.addModule(
-                new ElevationModule(
-                    gcf,
-                    params.cacheDirectory,
-                    builderParams.readCachedElevations,
-                    builderParams.writeCachedElevations,
-                    builderParams.elevationUnitMultiplier,
-                    builderParams.includeEllipsoidToGeoidDifference,
-                    builderParams.multiThreadElevationCalculations
-                )
-            );
+        // Unless it was applied before saving the street graph, apply elevation data once everything is linked.
+        if (elevationModule != null) {
+            graphBuilder.addModule(elevationModule);
         }
         if ( hasGTFS ) {
             // The stops can be linked to each other once they are already linked to the street network.
             if ( ! builderParams.useTransfersTxt) {
                 // This module will use streets or straight line distance depending on whether OSM data is found in the graph.
-                graphBuilder.addModule(new DirectTransferGenerator(builderParams.maxTransferDistance));
+                graphBuilder.addModule(new DirectTransferGenerator(builderParams.maxTransferDistance, builderParams.transferThreads));
             }
         }
         graphBuilder.addModule(new EmbedConfig(builderConfig, routerConfig));
@@ -310,6 +418,7 @@ public class GraphBuilder implements Runnable {
             graphBuilder.addModule(new AnnotationsToHTML(params.build, builderParams.maxHtmlAnnotationsPerFile));
         }
         graphBuilder.serializeGraph = ( ! params.inMemory ) || params.preFlight;
+        graphBuilder.setResumeFrom(params.resumeFrom);
         return graphBuilder;
     }
 
@@ -334,7 +443,7 @@ public class GraphBuilder implements Runnable {
             if (name.endsWith(".osm")) return OSM;
             if (name.endsWith(".osm.xml")) return OSM;
             if (name.endsWith(".tif") || name.endsWith(".tiff")) return DEM; // Digital elevation model (elevation raster)
-            if (name.equals("Graph.obj")) return GRAPH;
+            if (name.equals("Graph.obj") || name.equals(STREET_GRAPH_FILENAME)) return GRAPH;
             if (name.equals(GraphBuilder.BUILDER_CONFIG_FILENAME) || name.equals(Router.ROUTER_CONFIG_FILENAME)) {
                 return CONFIG;
             }
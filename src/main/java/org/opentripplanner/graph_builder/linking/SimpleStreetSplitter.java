@@ -53,8 +53,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
@@ -139,23 +147,114 @@ public class SimpleStreetSplitter {
         this(graph, null, null, true);
     }
 
-    /** Link all relevant vertices to the street network */
+    /**
+     * Link all relevant vertices to the street network.
+     *
+     * This is done in two phases. First the edges each vertex should be linked to, and the points where, are found
+     * for all vertices in parallel against the street network as it was before linking. Then each edge is split once
+     * at all the points found on it and the link edges are created, in order of vertex label, so the result does not
+     * depend on the order of the vertices in the graph or on thread scheduling.
+     */
     public void link () {
+        List<Vertex> vertices = new ArrayList<>();
         for (Vertex v : graph.getVertices()) {
             if (v instanceof TransitStop || v instanceof BikeRentalStationVertex || v instanceof BikeParkVertex) {
                 boolean alreadyLinked = v.getOutgoing().stream().anyMatch(e -> e instanceof StreetTransitLink);
-                if (alreadyLinked) continue;
-
-                if (!link(v)) {
-                    if (v instanceof TransitStop)
-                        LOG.warn(graph.addBuilderAnnotation(new StopUnlinked((TransitStop) v)));
-                    else if (v instanceof BikeRentalStationVertex)
-                        LOG.warn(graph.addBuilderAnnotation(new BikeRentalStationUnlinked((BikeRentalStationVertex) v)));
-                    else if (v instanceof BikeParkVertex)
-                        LOG.warn(graph.addBuilderAnnotation(new BikeParkUnlinked((BikeParkVertex) v)));
-                };
+                if (!alreadyLinked) vertices.add(v);
+            }
+        }
+        vertices.sort(Comparator.comparing(Vertex::getLabel));
+
+        // The searches only read the graph and the spatial index.
+        List<LinkPlan> plans = vertices.parallelStream().map(this::planLink).collect(Collectors.toList());
+
+        // Group the split points by edge, in order of first use so that edges are split in a stable order.
+        Map<StreetEdge, List<LinearLocation>> splitsByEdge = new LinkedHashMap<>();
+        for (LinkPlan plan : plans) {
+            for (int i = 0; i < plan.edges.size(); i++) {
+                if (snapToEnd(plan.edges.get(i), plan.locations.get(i)) == null) {
+                    splitsByEdge.computeIfAbsent(plan.edges.get(i), e -> new ArrayList<>()).add(plan.locations.get(i));
+                }
             }
         }
+        // The splitter vertices are handed out below in the same order as the split points were added above.
+        Map<StreetEdge, Iterator<SplitterVertex>> splitterVertices = new HashMap<>();
+        splitsByEdge.forEach((edge, locations) -> splitterVertices.put(edge, splitAll(edge, locations).iterator()));
+
+        Set<SplitterVertex> linkedToArea = new HashSet<>();
+        for (LinkPlan plan : plans) {
+            Vertex v = plan.vertex;
+            if (plan.edges.isEmpty()) {
+                if (v instanceof TransitStop)
+                    LOG.warn(graph.addBuilderAnnotation(new StopUnlinked((TransitStop) v)));
+                else if (v instanceof BikeRentalStationVertex)
+                    LOG.warn(graph.addBuilderAnnotation(new BikeRentalStationUnlinked((BikeRentalStationVertex) v)));
+                else if (v instanceof BikeParkVertex)
+                    LOG.warn(graph.addBuilderAnnotation(new BikeParkUnlinked((BikeParkVertex) v)));
+                continue;
+            }
+            for (int i = 0; i < plan.edges.size(); i++) {
+                StreetEdge edge = plan.edges.get(i);
+                StreetVertex snapped = snapToEnd(edge, plan.locations.get(i));
+                if (snapped != null) {
+                    makeLinkEdges(v, snapped);
+                    continue;
+                }
+                SplitterVertex v0 = splitterVertices.get(edge).next();
+                makeLinkEdges(v, v0);
+
+                // If splitter vertex is part of area; link splittervertex to all other vertexes in area, this creates
+                // edges that were missed by WalkableAreaBuilder
+                if (edge instanceof AreaEdge && v instanceof TransitStop && this.addExtraEdgesToAreas
+                        && linkedToArea.add(v0)) {
+                    linkTransitToAreaVertices(v0, ((AreaEdge) edge).getArea());
+                }
+            }
+            // Warn if a linkage was made, but the linkage was suspiciously long.
+            if (v instanceof TransitStop && plan.distanceMeters > WARNING_DISTANCE_METERS) {
+                // Registering an annotation but not logging because tests produce thousands of these warnings.
+                graph.addBuilderAnnotation(new StopLinkedTooFar((TransitStop) v, plan.distanceMeters));
+            }
+        }
+    }
+
+    /** Find the walkable edges a vertex should be linked to and where, without changing the graph. */
+    private LinkPlan planLink(Vertex vertex) {
+        final double radiusDeg = SphericalDistanceLibrary.metersToDegrees(MAX_SEARCH_RADIUS_METERS);
+        final double xscale = Math.cos(vertex.getLat() * Math.PI / 180);
+        Envelope env = new Envelope(vertex.getCoordinate());
+        env.expandBy(radiusDeg / xscale, radiusDeg);
+
+        final TIntDoubleMap distances = new TIntDoubleHashMap();
+        List<StreetEdge> candidateEdges = candidateEdges(vertex, env, new TraverseModeSet(TraverseMode.WALK), xscale, distances);
+
+        LinkPlan plan = new LinkPlan(vertex);
+        if (candidateEdges.isEmpty() || distances.get(candidateEdges.get(0).getId()) > radiusDeg) {
+            return plan;
+        }
+        for (StreetEdge edge : bestEdges(candidateEdges, distances)) {
+            plan.edges.add(edge);
+            plan.locations.add(project(vertex, edge, xscale));
+        }
+        plan.distanceMeters = (int) SphericalDistanceLibrary.degreesLatitudeToMeters(distances.get(candidateEdges.get(0).getId()));
+        return plan;
+    }
+
+    /** The edges a vertex will be linked to and the locations on them closest to the vertex. */
+    private static class LinkPlan {
+
+        final Vertex vertex;
+
+        final List<StreetEdge> edges = new ArrayList<>();
+
+        final List<LinearLocation> locations = new ArrayList<>();
+
+        /** Distance to the closest edge, if there is one. */
+        int distanceMeters;
+
+        LinkPlan(Vertex vertex) {
+            this.vertex = vertex;
+        }
     }
 
     /** Link this vertex into the graph to the closest walkable edge */
@@ -187,36 +286,8 @@ public class SimpleStreetSplitter {
         } else {
             traverseModeSet = new TraverseModeSet(traverseMode);
         }
-        // We sort the list of candidate edges by distance to the stop
-        // This should remove any issues with things coming out of the spatial index in different orders
-        // Then we link to everything that is within DUPLICATE_WAY_EPSILON_METERS of of the best distance
-        // so that we capture back edges and duplicate ways.
-        List<StreetEdge> candidateEdges = idx.query(env).stream()
-            .filter(streetEdge -> streetEdge instanceof  StreetEdge)
-            .map(edge -> (StreetEdge) edge)
-            // note: not filtering by radius here as distance calculation is expensive
-            // we do that below.
-            .filter(edge -> edge.canTraverse(traverseModeSet) &&
-                // only link to edges still in the graph.
-                edge.getToVertex().getIncoming().contains(edge))
-            .collect(Collectors.toList());
-
-        // Make a map of distances to all edges.
         final TIntDoubleMap distances = new TIntDoubleHashMap();
-        for (StreetEdge e : candidateEdges) {
-            distances.put(e.getId(), distance(vertex, e, xscale));
-        }
-
-        // Sort the list.
-        Collections.sort(candidateEdges, (o1, o2) -> {
-            double diff = distances.get(o1.getId()) - distances.get(o2.getId());
-            // A Comparator must return an integer but our distances are doubles.
-            if (diff < 0)
-                return -1;
-            if (diff > 0)
-                return 1;
-            return 0;
-        });
+        List<StreetEdge> candidateEdges = candidateEdges(vertex, env, traverseModeSet, xscale, distances);
 
         // find the closest candidate edges
         if (candidateEdges.isEmpty() || distances.get(candidateEdges.get(0).getId()) > radiusDeg) {
@@ -272,19 +343,7 @@ public class SimpleStreetSplitter {
             }
         } else {
 
-            // find the best edges
-            List<StreetEdge> bestEdges = Lists.newArrayList();
-
-            // add edges until there is a break of epsilon meters.
-            // we do this to enforce determinism. if there are a lot of edges that are all extremely close to each other,
-            // we want to be sure that we deterministically link to the same ones every time. Any hard cutoff means things can
-            // fall just inside or beyond the cutoff depending on floating-point operations.
-            int i = 0;
-            do {
-                bestEdges.add(candidateEdges.get(i++));
-            } while (i < candidateEdges.size() &&
-                distances.get(candidateEdges.get(i).getId()) - distances
-                    .get(candidateEdges.get(i - 1).getId()) < DUPLICATE_WAY_EPSILON_DEGREES);
+            List<StreetEdge> bestEdges = bestEdges(candidateEdges, distances);
 
             for (StreetEdge edge : bestEdges) {
                 link(vertex, edge, xscale, options);
@@ -304,6 +363,62 @@ public class SimpleStreetSplitter {
         }
     }
 
+    /**
+     * Find the street edges near the vertex that can be traversed with the given modes, sorted by distance to the
+     * vertex, and fill in their distances in latitude degrees. This only reads the graph and the spatial index.
+     */
+    private List<StreetEdge> candidateEdges(Vertex vertex, Envelope env, TraverseModeSet traverseModeSet,
+            double xscale, TIntDoubleMap distances) {
+        // We sort the list of candidate edges by distance to the stop
+        // This should remove any issues with things coming out of the spatial index in different orders
+        // Then we link to everything that is within DUPLICATE_WAY_EPSILON_METERS of of the best distance
+        // so that we capture back edges and duplicate ways.
+        List<StreetEdge> candidateEdges = idx.query(env).stream()
+            .filter(streetEdge -> streetEdge instanceof  StreetEdge)
+            .map(edge -> (StreetEdge) edge)
+            // note: not filtering by radius here as distance calculation is expensive
+            // we do that below.
+            .filter(edge -> edge.canTraverse(traverseModeSet) &&
+                // only link to edges still in the graph.
+                edge.getToVertex().getIncoming().contains(edge))
+            .collect(Collectors.toList());
+
+        // Make a map of distances to all edges.
+        for (StreetEdge e : candidateEdges) {
+            distances.put(e.getId(), distance(vertex, e, xscale));
+        }
+
+        // Sort the list, breaking ties by edge ID so that the order does not depend on the spatial index.
+        Collections.sort(candidateEdges, (o1, o2) -> {
+            double diff = distances.get(o1.getId()) - distances.get(o2.getId());
+            // A Comparator must return an integer but our distances are doubles.
+            if (diff < 0)
+                return -1;
+            if (diff > 0)
+                return 1;
+            return Integer.compare(o1.getId(), o2.getId());
+        });
+        return candidateEdges;
+    }
+
+    /**
+     * Take the closest candidate edges until there is a break of epsilon in their distances.
+     * We do this to enforce determinism. If there are a lot of edges that are all extremely close to each other,
+     * we want to be sure that we deterministically link to the same ones every time. Any hard cutoff means things can
+     * fall just inside or beyond the cutoff depending on floating-point operations.
+     */
+    private static List<StreetEdge> bestEdges(List<StreetEdge> candidateEdges, TIntDoubleMap distances) {
+        final double DUPLICATE_WAY_EPSILON_DEGREES = SphericalDistanceLibrary.metersToDegrees(DUPLICATE_WAY_EPSILON_METERS);
+        List<StreetEdge> bestEdges = Lists.newArrayList();
+        int i = 0;
+        do {
+            bestEdges.add(candidateEdges.get(i++));
+        } while (i < candidateEdges.size() &&
+            distances.get(candidateEdges.get(i).getId()) - distances
+                .get(candidateEdges.get(i - 1).getId()) < DUPLICATE_WAY_EPSILON_DEGREES);
+        return bestEdges;
+    }
+
     // Link to all vertices in area/platform
     private void linkTransitToAreaVertices(Vertex splitterVertex, AreaEdgeList area) {
         List<Vertex> vertices = new ArrayList<>();
@@ -328,31 +443,11 @@ public class SimpleStreetSplitter {
 
     /** split the edge and link in the transit stop */
     private void link(Vertex tstop, StreetEdge edge, double xscale, RoutingRequest options) {
-        // TODO: we've already built this line string, we should save it
-        LineString orig = edge.getGeometry();
-        LineString transformed = equirectangularProject(orig, xscale);
-        LocationIndexedLine il = new LocationIndexedLine(transformed);
-        LinearLocation ll = il.project(new Coordinate(tstop.getLon() * xscale, tstop.getLat()));
-
-        // if we're very close to one end of the line or the other, or endwise, don't bother to split,
-        // cut to the chase and link directly
-        // We use a really tiny epsilon here because we only want points that actually snap to exactly the same location on the
-        // street to use the same vertices. Otherwise the order the stops are loaded in will affect where they are snapped.
-        if (ll.getSegmentIndex() == 0 && ll.getSegmentFraction() < 1e-8) {
-            makeLinkEdges(tstop, (StreetVertex) edge.getFromVertex());
-        }
-        // -1 converts from count to index. Because of the fencepost problem, npoints - 1 is the "segment"
-        // past the last point
-        else if (ll.getSegmentIndex() == orig.getNumPoints() - 1) {
-            makeLinkEdges(tstop, (StreetVertex) edge.getToVertex());
-        }
-
-        // nPoints - 2: -1 to correct for index vs count, -1 to account for fencepost problem
-        else if (ll.getSegmentIndex() == orig.getNumPoints() - 2 && ll.getSegmentFraction() > 1 - 1e-8) {
-            makeLinkEdges(tstop, (StreetVertex) edge.getToVertex());
-        }
-
-        else {
+        LinearLocation ll = project(tstop, edge, xscale);
+        StreetVertex snapped = snapToEnd(edge, ll);
+        if (snapped != null) {
+            makeLinkEdges(tstop, snapped);
+        } else {
 
             TemporaryVertex temporaryVertex = null;
             boolean endVertex = false;
@@ -379,6 +474,37 @@ public class SimpleStreetSplitter {
     }
 
 
+    /** Locate the point of the edge geometry closest to the vertex, in the equirectangular projection. */
+    private static LinearLocation project(Vertex tstop, StreetEdge edge, double xscale) {
+        // TODO: we've already built this line string, we should save it
+        LineString transformed = equirectangularProject(edge.getGeometry(), xscale);
+        LocationIndexedLine il = new LocationIndexedLine(transformed);
+        return il.project(new Coordinate(tstop.getLon() * xscale, tstop.getLat()));
+    }
+
+    /**
+     * If the location is very close to one end of the line or the other, or endwise, return the vertex at that end:
+     * there is no need to split, we cut to the chase and link directly. Otherwise return null.
+     */
+    private static StreetVertex snapToEnd(StreetEdge edge, LinearLocation ll) {
+        int nPoints = edge.getGeometry().getNumPoints();
+        // We use a really tiny epsilon here because we only want points that actually snap to exactly the same location on the
+        // street to use the same vertices. Otherwise the order the stops are loaded in will affect where they are snapped.
+        if (ll.getSegmentIndex() == 0 && ll.getSegmentFraction() < 1e-8) {
+            return (StreetVertex) edge.getFromVertex();
+        }
+        // -1 converts from count to index. Because of the fencepost problem, npoints - 1 is the "segment"
+        // past the last point
+        if (ll.getSegmentIndex() == nPoints - 1) {
+            return (StreetVertex) edge.getToVertex();
+        }
+        // nPoints - 2: -1 to correct for index vs count, -1 to account for fencepost problem
+        if (ll.getSegmentIndex() == nPoints - 2 && ll.getSegmentFraction() > 1 - 1e-8) {
+            return (StreetVertex) edge.getToVertex();
+        }
+        return null;
+    }
+
     /**
      * Split the street edge at the given fraction
      *
@@ -421,6 +547,51 @@ public class SimpleStreetSplitter {
         return v;
     }
 
+    /**
+     * Split the street edge permanently at all the given locations in one pass along the edge. Locations which are
+     * the same (to within the epsilon used when snapping to the ends of an edge) share a splitter vertex. Only the
+     * final pieces are added to the spatial index.
+     *
+     * @return the splitter vertex for each location, in the order of the locations
+     */
+    private List<SplitterVertex> splitAll (StreetEdge edge, List<LinearLocation> locations) {
+        LineString geometry = edge.getGeometry();
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < locations.size(); i++) {
+            order.add(i);
+        }
+        order.sort((a, b) -> locations.get(a).compareTo(locations.get(b)));
+
+        SplitterVertex[] splitterVertices = new SplitterVertex[locations.size()];
+        StreetEdge rest = edge;
+        LinearLocation previous = null;
+        SplitterVertex v = null;
+        for (int i : order) {
+            LinearLocation ll = locations.get(i);
+            if (previous == null || ll.getSegmentIndex() != previous.getSegmentIndex()
+                    || ll.getSegmentFraction() - previous.getSegmentFraction() >= 1e-8) {
+                Coordinate splitPoint = ll.getCoordinate(geometry);
+                // every edge can be split exactly once, so this is a valid label
+                v = new SplitterVertex(graph, "split from " + rest.getId(), splitPoint.x, splitPoint.y, rest);
+                P2<StreetEdge> edges = rest.split(v, true);
+                if (rest != edge) {
+                    rest.getToVertex().removeIncoming(rest);
+                    rest.getFromVertex().removeOutgoing(rest);
+                }
+                idx.insert(edges.first.getGeometry(), edges.first);
+                rest = edges.second;
+                previous = ll;
+            }
+            splitterVertices[i] = v;
+        }
+        idx.insert(rest.getGeometry(), rest);
+
+        // (no need to remove original edge from the index, we filter it when it comes out of the index)
+        edge.getToVertex().removeIncoming(edge);
+        edge.getFromVertex().removeOutgoing(edge);
+        return Arrays.asList(splitterVertices);
+    }
+
     /** Make the appropriate type of link edges from a vertex */
     private void makeLinkEdges(Vertex from, StreetVertex to) {
         if (from instanceof TemporaryStreetLocation) {
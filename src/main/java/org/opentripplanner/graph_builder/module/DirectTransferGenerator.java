@@ -12,11 +12,18 @@ import org.opentripplanner.routing.vertextype.TransitStop;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * {@link org.opentripplanner.graph_builder.services.GraphBuilderModule} module that links up the stops of a transit network among themselves. This is necessary for
@@ -25,14 +32,23 @@ import java.util.Set;
  * It will use the street network if OSM data has already been loaded into the graph.
  * Otherwise it will use straight-line distance between stops.
  *
+ * The searches around each stop are independent, so they are run on a pool of threads, each with its own
+ * NearbyStopFinder. The transfer edges are then created on the calling thread, in order of stop label, so the
+ * resulting graph does not depend on the number of threads or their scheduling.
+ *
  * TODO make tests for this that are sensitive to the presence of trip patterns
  */
 public class DirectTransferGenerator implements GraphBuilderModule {
 
     private static Logger LOG = LoggerFactory.getLogger(DirectTransferGenerator.class);
 
+    /** Orders stops by label, which is stable from one build of the same inputs to the next. */
+    private static final Comparator<TransitStop> STOP_ORDER = Comparator.comparing(TransitStop::getLabel);
+
     final double radiusMeters;
 
+    final int threads;
+
     public List<String> provides() {
         return Arrays.asList("linking");
     }
@@ -42,7 +58,13 @@ public class DirectTransferGenerator implements GraphBuilderModule {
     }
 
     public DirectTransferGenerator (double radiusMeters) {
+        this(radiusMeters, Runtime.getRuntime().availableProcessors());
+    }
+
+    /** @param threads the number of threads searching for stops near each stop */
+    public DirectTransferGenerator (double radiusMeters, int threads) {
         this.radiusMeters = radiusMeters;
+        this.threads = Math.max(1, threads);
     }
 
     @Override
@@ -53,51 +75,87 @@ public class DirectTransferGenerator implements GraphBuilderModule {
         }
 
         /* The linker will use streets if they are available, or straight-line distance otherwise. */
-        NearbyStopFinder nearbyStopFinder = new NearbyStopFinder(graph, radiusMeters);
-        if (nearbyStopFinder.useStreets) {
+        if (graph.hasStreets) {
             LOG.info("Creating direct transfer edges between stops using the street network from OSM...");
         } else {
             LOG.info("Creating direct transfer edges between stops using straight line distance (not streets)...");
         }
 
-        int nTransfersTotal = 0;
-        int nLinkableStops = 0;
-
-        for (TransitStop ts0 : Iterables.filter(graph.getVertices(), TransitStop.class)) {
-
-            /* Skip stops that are entrances to stations or whose entrances are coded separately */
-            if (!ts0.isStreetLinkable()) continue;
-            if (++nLinkableStops % 1000 == 0) {
-                LOG.info("Linked {} stops", nLinkableStops);
+        /* Skip stops that are entrances to stations or whose entrances are coded separately */
+        List<TransitStop> stops = new ArrayList<>();
+        for (TransitStop ts : Iterables.filter(graph.getVertices(), TransitStop.class)) {
+            if (ts.isStreetLinkable()) stops.add(ts);
+        }
+        stops.sort(STOP_ORDER);
+
+        /*
+         * Search around every stop in parallel, and only create edges once all searches are done so that no search
+         * sees the transfers created from other stops.
+         */
+        ThreadLocal<NearbyStopFinder> finders = ThreadLocal.withInitial(() -> new NearbyStopFinder(graph, radiusMeters));
+        AtomicInteger nSearched = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<List<NearbyStopFinder.StopAtDistance>>> searches = new ArrayList<>(stops.size());
+        List<List<NearbyStopFinder.StopAtDistance>> nearbyStops = new ArrayList<>(stops.size());
+        try {
+            for (TransitStop ts0 : stops) {
+                searches.add(executor.submit(() -> {
+                    LOG.debug("Finding stops near stop '{}' {}", ts0.getStop(), ts0);
+                    List<NearbyStopFinder.StopAtDistance> nearby =
+                            new ArrayList<>(finders.get().findNearbyStopsConsideringPatterns(ts0));
+                    /* The finder returns a hash set, sort it to create the transfers in a stable order. */
+                    nearby.sort(Comparator.comparing((NearbyStopFinder.StopAtDistance sd) -> sd.tstop, STOP_ORDER)
+                            .thenComparingDouble(sd -> sd.dist));
+                    int n = nSearched.incrementAndGet();
+                    if (n % 1000 == 0) {
+                        LOG.info("Searched around {} stops of {}", n, stops.size());
+                    }
+                    return nearby;
+                }));
+            }
+            for (Future<List<NearbyStopFinder.StopAtDistance>> search : searches) {
+                nearbyStops.add(search.get());
             }
-            LOG.debug("Linking stop '{}' {}", ts0.getStop(), ts0);
-
-            /* Determine the set of stops that are already reachable via other pathways or transfers */
-            Set<TransitStop> pathwayDestinations = new HashSet<TransitStop>();
-            for (Edge e : ts0.getOutgoing()) {
-                if (e instanceof PathwayEdge || e instanceof SimpleTransfer) {
-                    if (e.getToVertex() instanceof TransitStop) {
-                        TransitStop to = (TransitStop) e.getToVertex();
-                        pathwayDestinations.add(to);
+
+            int nTransfersTotal = 0;
+            for (int i = 0; i < stops.size(); i++) {
+                TransitStop ts0 = stops.get(i);
+
+                /* Determine the set of stops that are already reachable via other pathways or transfers */
+                Set<TransitStop> pathwayDestinations = new HashSet<TransitStop>();
+                for (Edge e : ts0.getOutgoing()) {
+                    if (e instanceof PathwayEdge || e instanceof SimpleTransfer) {
+                        if (e.getToVertex() instanceof TransitStop) {
+                            TransitStop to = (TransitStop) e.getToVertex();
+                            pathwayDestinations.add(to);
+                        }
                     }
                 }
-            }
 
-            /* Make transfers to each nearby stop that is the closest stop on some trip pattern. */
-            int n = 0;
-            for (NearbyStopFinder.StopAtDistance sd : nearbyStopFinder.findNearbyStopsConsideringPatterns(ts0)) {
-                /* Skip the origin stop, loop transfers are not needed. */
-                if (sd.tstop == ts0 || pathwayDestinations.contains(sd.tstop)) continue;
-                new SimpleTransfer(ts0, sd.tstop, sd.dist, sd.geom, sd.edges);
-                n += 1;
-            }
-            LOG.debug("Linked stop {} to {} nearby stops on other patterns.", ts0.getStop(), n);
-            if (n == 0) {
-                LOG.debug(graph.addBuilderAnnotation(new StopNotLinkedForTransfers(ts0)));
+                /* Make transfers to each nearby stop that is the closest stop on some trip pattern. */
+                int n = 0;
+                for (NearbyStopFinder.StopAtDistance sd : nearbyStops.get(i)) {
+                    /* Skip the origin stop, loop transfers are not needed. */
+                    if (sd.tstop == ts0 || pathwayDestinations.contains(sd.tstop)) continue;
+                    new SimpleTransfer(ts0, sd.tstop, sd.dist, sd.geom, sd.edges);
+                    n += 1;
+                }
+                nearbyStops.set(i, null);
+                LOG.debug("Linked stop {} to {} nearby stops on other patterns.", ts0.getStop(), n);
+                if (n == 0) {
+                    LOG.debug(graph.addBuilderAnnotation(new StopNotLinkedForTransfers(ts0)));
+                }
+                nTransfersTotal += n;
             }
-            nTransfersTotal += n;
+            LOG.info("Done connecting stops to one another. Created a total of {} transfers from {} stops.", nTransfersTotal, stops.size());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while creating transfers between stops.", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Error while searching for stops near a stop.", e.getCause());
+        } finally {
+            executor.shutdownNow();
         }
-        LOG.info("Done connecting stops to one another. Created a total of {} transfers from {} stops.", nTransfersTotal, nLinkableStops);
         graph.hasDirectTransfers = true;
     }
 
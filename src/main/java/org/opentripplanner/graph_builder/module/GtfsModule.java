@@ -15,6 +15,7 @@ import java.util.Set;
 import org.onebusaway.csv_entities.EntityHandler;
 import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
 import org.onebusaway.gtfs.model.Agency;
+import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.gtfs.model.FareAttribute;
 import org.onebusaway.gtfs.model.IdentityBean;
 import org.onebusaway.gtfs.model.Pathway;
@@ -23,6 +24,7 @@ import org.onebusaway.gtfs.model.ServiceCalendar;
 import org.onebusaway.gtfs.model.ServiceCalendarDate;
 import org.onebusaway.gtfs.model.ShapePoint;
 import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
 import org.onebusaway.gtfs.model.Trip;
 import org.onebusaway.gtfs.serialization.GtfsReader;
 import org.onebusaway.gtfs.services.GenericMutableDao;
@@ -33,6 +35,8 @@ import org.opentripplanner.graph_builder.services.GraphBuilderModule;
 import org.opentripplanner.gtfs.BikeAccess;
 import org.opentripplanner.gtfs.GtfsContext;
 import org.opentripplanner.gtfs.GtfsLibrary;
+import org.opentripplanner.gtfs.StopTimesByTripHandler;
+import org.opentripplanner.gtfs.mapping.GTFSToOtpTransitServiceMapper;
 import org.opentripplanner.model.OtpTransitService;
 import org.opentripplanner.routing.edgetype.factory.PatternHopFactory;
 import org.opentripplanner.routing.edgetype.factory.GtfsStopContext;
@@ -44,7 +48,6 @@ import org.slf4j.LoggerFactory;
 import com.google.common.collect.Sets;
 
 import static org.opentripplanner.calendar.impl.CalendarServiceDataFactoryImpl.createCalendarSrvDataWithoutDatesForLocalizedSrvId;
-import static org.opentripplanner.gtfs.mapping.GTFSToOtpTransitServiceMapper.mapGtfsDaoToOTPTransitService;
 
 public class GtfsModule implements GraphBuilderModule {
 
@@ -60,6 +63,12 @@ public class GtfsModule implements GraphBuilderModule {
     /** will be applied to all bundles which do not have the useCached property set */
     private Boolean useCached;
 
+    /**
+     * Whether to read the stop times of each feed trip by trip while building the patterns, rather than loading them all
+     * before. This is only done for feeds whose stop_times.txt has the rows of each trip next to each other.
+     */
+    private boolean streamStopTimes = false;
+
     Set<String> agencyIdsSeen = Sets.newHashSet();
 
     int nextAgencyId = 1; // used for generating agency IDs to resolve ID conflicts
@@ -82,6 +91,10 @@ public class GtfsModule implements GraphBuilderModule {
         fareServiceFactory = factory;
     }
 
+    public void setStreamStopTimes(boolean streamStopTimes) {
+        this.streamStopTimes = streamStopTimes;
+    }
+
     @Override
     public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
         // we're about to add another agency to the graph, so clear the cached timezone
@@ -105,7 +118,16 @@ public class GtfsModule implements GraphBuilderModule {
                     gtfsBundle.useCached = useCached;
                 }
 
-                OtpTransitService transitService = mapGtfsDaoToOTPTransitService(loadBundle(gtfsBundle));
+                boolean streaming = streamStopTimes
+                        && StopTimesByTripHandler.isGroupedByTrip(gtfsBundle.getCsvInputSource());
+                if (streamStopTimes && !streaming) {
+                    LOG.info("The stop times of {} are not grouped by trip, loading them all at once.", gtfsBundle);
+                }
+                GtfsReader reader = new GtfsReader();
+                StoreImpl store = new StoreImpl(new GtfsRelationalDaoImpl(), streaming);
+                loadBundle(gtfsBundle, reader, store);
+                GTFSToOtpTransitServiceMapper mapper = new GTFSToOtpTransitServiceMapper();
+                OtpTransitService transitService = mapper.map(store.dao);
 
                 GtfsContext context = GtfsLibrary
                         .createContext(gtfsBundle.getFeedId(), transitService, calendarService);
@@ -123,7 +145,11 @@ public class GtfsModule implements GraphBuilderModule {
 
                 hf.subwayAccessTime = gtfsBundle.subwayAccessTime;
                 hf.maxInterlineDistance = gtfsBundle.maxInterlineDistance;
-                hf.run(graph);
+                if (streaming) {
+                    streamTrips(graph, hf, reader, mapper);
+                } else {
+                    hf.run(graph);
+                }
 
                 if (gtfsBundle.doesTransfersTxtDefineStationPaths()) {
                     hf.createTransfersTxtTransfers();
@@ -155,16 +181,42 @@ public class GtfsModule implements GraphBuilderModule {
      * Private Methods
      ****/
 
-    private GtfsMutableRelationalDao loadBundle(GtfsBundle gtfsBundle)
+    /**
+     * Read the stop times of a feed whose other entities are already loaded, handing each trip to the PatternHopFactory
+     * as soon as its stop times have been read. The stop times are mapped to the OTP model one trip at a time, and only
+     * the TripTimes built from them are kept. The factory adds the trips to their patterns in the order of trips.txt,
+     * and reports the trips without any stop time as degenerate, as when the stop times are loaded all at once.
+     */
+    private void streamTrips(Graph graph, PatternHopFactory hf, GtfsReader reader,
+            GTFSToOtpTransitServiceMapper mapper) throws IOException {
+        StopTimesByTripHandler handler = new StopTimesByTripHandler((trip, stopTimes) -> {
+            List<org.opentripplanner.model.StopTime> mappedStopTimes = new ArrayList<>(stopTimes.size());
+            for (StopTime stopTime : stopTimes) {
+                mappedStopTimes.add(mapper.mapStopTime(stopTime));
+            }
+            hf.addTrip(graph, mappedStopTimes.get(0).getTrip(), mappedStopTimes);
+        });
+        hf.startTrips(graph);
+        reader.addEntityHandler(handler);
+        LOG.info("reading entities: " + StopTime.class.getName());
+        reader.readEntities(StopTime.class);
+        handler.finish();
+        hf.finishTrips(graph);
+    }
+
+    /**
+     * Read a feed into the given store. When the store is streaming stop times, they are left to be read later, and
+     * the trips and stops are indexed by their ids once qualified with the feed id below, so the stop times can still
+     * refer to them.
+     */
+    private void loadBundle(GtfsBundle gtfsBundle, GtfsReader reader, StoreImpl store)
             throws IOException {
 
-        StoreImpl store = new StoreImpl(new GtfsRelationalDaoImpl());
         store.open();
         LOG.info("reading {}", gtfsBundle.toString());
 
         GtfsFeedId gtfsFeedId = gtfsBundle.getFeedId();
 
-        GtfsReader reader = new GtfsReader();
         reader.setInputSource(gtfsBundle.getCsvInputSource());
         reader.setEntityStore(store);
         reader.setInternStrings(true);
@@ -177,6 +229,9 @@ public class GtfsModule implements GraphBuilderModule {
             reader.addEntityHandler(new EntityBikeability(true));
 
         for (Class<?> entityClass : reader.getEntityClasses()) {
+            if (store.streamStopTimes && entityClass == StopTime.class) {
+                continue;
+            }
             LOG.info("reading entities: " + entityClass.getName());
             reader.readEntities(entityClass);
             store.flush();
@@ -231,9 +286,12 @@ public class GtfsModule implements GraphBuilderModule {
         for (Pathway pathway : store.getAllEntitiesForType(Pathway.class)) {
             pathway.getId().setAgencyId(reader.getDefaultAgencyId());
         }
+        if (store.streamStopTimes) {
+            store.indexByQualifiedId(Trip.class, reader.getDefaultAgencyId());
+            store.indexByQualifiedId(Stop.class, reader.getDefaultAgencyId());
+        }
 
         store.close();
-        return store.dao;
     }
 
     /**
@@ -281,8 +339,35 @@ public class GtfsModule implements GraphBuilderModule {
 
         private GtfsMutableRelationalDao dao;
 
-        StoreImpl(GtfsMutableRelationalDao dao) {
+        /** Whether stop times are handed to an entity handler one trip at a time rather than saved. */
+        private final boolean streamStopTimes;
+
+        /**
+         * Entities by their ids qualified with the feed id, for the types whose ids are qualified after reading. The
+         * DAO can no longer find these entities, because it indexes them by the ids they were read with.
+         */
+        private final Map<Class<?>, Map<AgencyAndId, Object>> entitiesByQualifiedId = new HashMap<>();
+
+        /** The agency id the ids of the entities indexed above are qualified with. */
+        private String qualifiedAgencyId;
+
+        StoreImpl(GtfsMutableRelationalDao dao, boolean streamStopTimes) {
             this.dao = dao;
+            this.streamStopTimes = streamStopTimes;
+        }
+
+        /**
+         * Index the entities of the given type by their ids, once these have all been qualified with the given agency
+         * id. Later references to these entities are resolved by qualifying the referenced id the same way, whatever
+         * agency id the reader resolved it with.
+         */
+        <T extends IdentityBean<AgencyAndId>> void indexByQualifiedId(Class<T> type, String agencyId) {
+            qualifiedAgencyId = agencyId;
+            Map<AgencyAndId, Object> entities = new HashMap<>();
+            for (T entity : dao.getAllEntitiesForType(type)) {
+                entities.put(new AgencyAndId(agencyId, entity.getId().getId()), entity);
+            }
+            entitiesByQualifiedId.put(type, entities);
         }
 
         @Override
@@ -292,11 +377,18 @@ public class GtfsModule implements GraphBuilderModule {
 
         @Override
         public <T> T getEntityForId(Class<T> type, Serializable id) {
+            Map<AgencyAndId, Object> entities = entitiesByQualifiedId.get(type);
+            if (entities != null) {
+                return type.cast(entities.get(new AgencyAndId(qualifiedAgencyId, ((AgencyAndId) id).getId())));
+            }
             return dao.getEntityForId(type, id);
         }
 
         @Override
         public void saveEntity(Object entity) {
+            if (streamStopTimes && entity instanceof StopTime) {
+                return;
+            }
             dao.saveEntity(entity);
         }
 
@@ -40,6 +40,9 @@ public class PruneFloatingIslands implements GraphBuilderModule {
      */
     private String islandLogFile;
 
+    /** Whether to traverse the edges of the graph on several threads when looking for islands. */
+    private boolean parallel = true;
+
     private StreetLinkerModule transitToStreetNetwork;
 
     public List<String> provides() {
@@ -60,7 +63,7 @@ public class PruneFloatingIslands implements GraphBuilderModule {
         LOG.info("Pruning isolated islands in street network");
         
         StreetUtils.pruneFloatingIslands(graph, pruningThresholdIslandWithoutStops, 
-        		pruningThresholdIslandWithStops, islandLogFile);
+        		pruningThresholdIslandWithStops, islandLogFile, parallel);
         if (transitToStreetNetwork == null) {
             LOG.debug("TransitToStreetNetworkGraphBuilder was not provided to PruneFloatingIslands. Not attempting to reconnect stops.");
         } else {
@@ -80,5 +83,8 @@ public class PruneFloatingIslands implements GraphBuilderModule {
     public void setPruningThresholdIslandWithStops(int pruningThresholdIslandWithStops) {
     	this.pruningThresholdIslandWithStops = pruningThresholdIslandWithStops;
     }
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
 
 }
\ No newline at end of file
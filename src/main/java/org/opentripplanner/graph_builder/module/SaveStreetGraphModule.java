@@ -0,0 +1,53 @@
+package org.opentripplanner.graph_builder.module;
+
+import org.opentripplanner.graph_builder.services.GraphBuilderModule;
+import org.opentripplanner.routing.graph.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A graph builder that saves the graph as it is once the streets are built, before any transit data is added or
+ * anything is linked to the streets. Later builds with the loadStreetGraph parameter start from this file instead of
+ * the OSM and elevation data, so they only have to load the transit data and link it.
+ */
+public class SaveStreetGraphModule implements GraphBuilderModule {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SaveStreetGraphModule.class);
+
+    private final File file;
+
+    public SaveStreetGraphModule(File file) {
+        this.file = file;
+    }
+
+    public List<String> provides() {
+        return Arrays.asList("street graph");
+    }
+
+    public List<String> getPrerequisites() {
+        return Arrays.asList("streets");
+    }
+
+    @Override
+    public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
+        LOG.info("Saving the street graph for later builds...");
+        try {
+            graph.save(file);
+        } catch (Exception ex) {
+            throw new IllegalStateException("Could not save the street graph to " + file, ex);
+        }
+    }
+
+    @Override
+    public void checkInputs() {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.canWrite()) {
+            throw new RuntimeException("Can't write the street graph in " + dir);
+        }
+    }
+}
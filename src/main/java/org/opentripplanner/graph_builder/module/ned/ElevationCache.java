@@ -0,0 +1,206 @@
+package org.opentripplanner.graph_builder.module.ned;
+
+import gnu.trove.impl.Constants;
+import gnu.trove.map.hash.TLongLongHashMap;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.opentripplanner.common.geometry.PackedCoordinateSequence;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Elevation profiles computed in previous graph builds, keyed by a 64-bit hash of the coordinates of the edge
+ * geometry. The profiles are kept in a file of records that is only ever appended to, and read through memory-mapped
+ * regions of that file, so the cache does not need to fit on the heap and is not rewritten in every build.
+ *
+ * A record is the hash, the number of samples and the (distance, elevation) pairs of the samples. A record that was
+ * only partly written, for instance because a build was interrupted, is ignored and overwritten by the next append.
+ */
+class ElevationCache implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ElevationCache.class);
+
+    private static final int MAGIC = 0x4f545045; // "OTPE"
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_BYTES = 2 * Integer.BYTES;
+
+    /** Maximum size of a mapped region. Records never span two regions. */
+    private static final long MAX_REGION_BYTES = 1L << 30;
+
+    private final File file;
+
+    /** For each hash, the index of its region in the high 32 bits and the offset in that region in the low 32 bits. */
+    private final TLongLongHashMap positionByHash = new TLongLongHashMap(Constants.DEFAULT_CAPACITY,
+            Constants.DEFAULT_LOAD_FACTOR, 0, -1);
+
+    private final List<MappedByteBuffer> regions = new ArrayList<>();
+
+    /** Length of the file up to the end of the last complete record. */
+    private long validLength = 0;
+
+    private ElevationCache(File file) {
+        this.file = file;
+    }
+
+    /** Open the cache in the given file, reading the profiles it already holds if any. */
+    static ElevationCache open(File file) throws IOException {
+        ElevationCache cache = new ElevationCache(file);
+        if (file.exists()) {
+            cache.index();
+        }
+        return cache;
+    }
+
+    /** An empty cache that will overwrite the given file when anything is appended to it. */
+    static ElevationCache create(File file) {
+        return new ElevationCache(file);
+    }
+
+    /** Return the hash under which the profile of an edge with the given geometry is kept. */
+    static long hash(Geometry geometry) {
+        long hash = 1125899906842597L;
+        for (Coordinate c : geometry.getCoordinates()) {
+            hash = 31 * hash + Double.doubleToLongBits(c.x);
+            hash = 31 * hash + Double.doubleToLongBits(c.y);
+            hash ^= hash >>> 29;
+            hash *= 0xbf58476d1ce4e5b9L;
+        }
+        return hash ^ (hash >>> 32);
+    }
+
+    int size() {
+        return positionByHash.size();
+    }
+
+    boolean contains(long hash) {
+        return positionByHash.containsKey(hash);
+    }
+
+    /** Return the cached profile for the given hash, or null if there is none. This may be called concurrently. */
+    PackedCoordinateSequence get(long hash) {
+        long position = positionByHash.get(hash);
+        if (position < 0) {
+            return null;
+        }
+        // Only absolute reads are used, so concurrent readers do not interfere with each other.
+        MappedByteBuffer region = regions.get((int) (position >>> 32));
+        int offset = (int) position + Long.BYTES;
+        int n = region.getInt(offset);
+        offset += Integer.BYTES;
+        double[] coords = new double[n * 2];
+        for (int i = 0; i < coords.length; i++, offset += Double.BYTES) {
+            coords[i] = region.getDouble(offset);
+        }
+        return new PackedCoordinateSequence.Double(coords, 2);
+    }
+
+    /**
+     * Append the given profiles, keyed by their hashes, to the end of the file. Profiles are not added to the profiles
+     * that can be read from this instance.
+     */
+    void append(long[] hashes, List<PackedCoordinateSequence> profiles) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (raf.length() != validLength) {
+                // Drop a partly written record, or the whole file if it is being replaced.
+                raf.setLength(validLength);
+            }
+            raf.seek(validLength);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(
+                    raf.getChannel()), 1 << 16));
+            if (validLength == 0) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+            }
+            for (int i = 0; i < hashes.length; i++) {
+                PackedCoordinateSequence profile = profiles.get(i);
+                out.writeLong(hashes[i]);
+                out.writeInt(profile.size());
+                for (int j = 0; j < profile.size(); j++) {
+                    out.writeDouble(profile.getX(j));
+                    out.writeDouble(profile.getY(j));
+                }
+            }
+            out.flush();
+            validLength = raf.length();
+        }
+    }
+
+    /** Read the hashes and positions of the records, and map the file. */
+    private void index() throws IOException {
+        List<long[]> regionBounds = new ArrayList<>();
+        long regionStart = HEADER_BYTES;
+        long position = HEADER_BYTES;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not an elevation cache file: " + file);
+            }
+            while (true) {
+                long hash;
+                int n;
+                try {
+                    hash = in.readLong();
+                    n = in.readInt();
+                    if (n < 0) {
+                        break;
+                    }
+                    skipFully(in, n * 2L * Double.BYTES);
+                } catch (EOFException e) {
+                    break;
+                }
+                long recordBytes = Long.BYTES + Integer.BYTES + n * 2L * Double.BYTES;
+                if (position + recordBytes - regionStart > MAX_REGION_BYTES) {
+                    regionBounds.add(new long[] { regionStart, position });
+                    regionStart = position;
+                }
+                positionByHash.put(hash, ((long) regionBounds.size() << 32) | (position - regionStart));
+                position += recordBytes;
+            }
+        } catch (EOFException e) {
+            throw new IOException("Not an elevation cache file: " + file, e);
+        }
+        regionBounds.add(new long[] { regionStart, position });
+        validLength = position;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            for (long[] bounds : regionBounds) {
+                regions.add(channel.map(FileChannel.MapMode.READ_ONLY, bounds[0], bounds[1] - bounds[0]));
+            }
+        }
+        LOG.info("Read {} cached elevation profiles from {}", positionByHash.size(), file);
+    }
+
+    private static void skipFully(DataInputStream in, long n) throws IOException {
+        while (n > 0) {
+            int skipped = in.skipBytes((int) Math.min(n, Integer.MAX_VALUE));
+            if (skipped <= 0) {
+                throw new EOFException();
+            }
+            n -= skipped;
+        }
+    }
+
+    /** Forget the mapped regions. They are released when garbage collected. */
+    @Override
+    public void close() {
+        regions.clear();
+        positionByHash.clear();
+    }
+}
@@ -1,9 +1,9 @@
 package org.opentripplanner.graph_builder.module.ned;
 
-import com.esotericsoftware.kryo.Kryo;
-import com.esotericsoftware.kryo.io.Input;
-import com.esotericsoftware.kryo.io.Output;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.set.hash.TLongHashSet;
 import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
 import org.geotools.geometry.DirectPosition2D;
 import org.opengis.coverage.Coverage;
@@ -23,21 +23,19 @@ import org.opentripplanner.routing.edgetype.StreetWithElevationEdge;
 import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
-import org.opentripplanner.util.PolylineEncoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -53,11 +51,17 @@ import static org.opentripplanner.util.ElevationUtils.computeEllipsoidToGeoidDif
  * raster data or a GeoTIFF file. The elevation profiles are stored as {@link PackedCoordinateSequence} objects, where
  * each (x,y) pair represents one sample, with the x-coord representing the distance along the edge measured from the
  * start, and the y-coord representing the sampled elevation at that point (both in meters).
+ *
+ * When the elevation data can be split into {@link ElevationTile}s, the edges are grouped by the tile that holds them.
+ * Each tile is then read once into a primitive grid, all of its edges are sampled on that grid, and the grid is dropped
+ * before the next tile is read. Edges that do not fall within a single tile are sampled through the GeoTools coverage.
  */
 public class ElevationModule implements GraphBuilderModule {
 
     private static final Logger log = LoggerFactory.getLogger(ElevationModule.class);
 
+    public static final String CACHED_ELEVATIONS_FILENAME = "cached_elevations.bin";
+
     /** The elevation data to be used in calculating elevations. */
     private final ElevationGridCoverageFactory gridCoverageFactory;
     /* Whether or not to attempt reading in a file of cached elevations */
@@ -75,12 +79,12 @@ public class ElevationModule implements GraphBuilderModule {
     private final boolean multiThreadElevationCalculations;
 
     /**
-     * A map of PackedCoordinateSequence values identified by Strings of encoded polylines.
+     * Elevation profiles from previous graph builds, identified by a hash of the edge geometry.
      *
-     * Note: Since this map has a key of only the encoded polylines, it is assumed that all other inputs are the same as
+     * Note: Since the profiles are keyed by the edge geometry only, it is assumed that all other inputs are the same as
      * those that occurred in the graph build that produced this data.
      */
-    private HashMap<String, PackedCoordinateSequence> cachedElevations;
+    private ElevationCache cachedElevations;
 
     // Keep track of the proportion of elevation fetch operations that fail so we can issue warnings. AtomicInteger is
     // used to provide thread-safe updating capabilities.
@@ -140,7 +144,7 @@ public class ElevationModule implements GraphBuilderModule {
         boolean multiThreadElevationCalculations
     ) {
         gridCoverageFactory = factory;
-        cachedElevationsFile = cacheDirectory != null ? new File(cacheDirectory, "cached_elevations.obj") : null;
+        cachedElevationsFile = cacheDirectory != null ? new File(cacheDirectory, CACHED_ELEVATIONS_FILENAME) : null;
         this.readCachedElevations = readCachedElevations;
         this.writeCachedElevations = writeCachedElevations;
         this.elevationUnitMultiplier = elevationUnitMultiplier;
@@ -148,16 +152,6 @@ public class ElevationModule implements GraphBuilderModule {
         this.multiThreadElevationCalculations = multiThreadElevationCalculations;
     }
 
-    /**
-     * Use Kryo to serialize/deserialize cached elevations
-     */
-    private Kryo makeKryo() {
-        Kryo kryo = new Kryo();
-        kryo.register(HashMap.class);
-        kryo.register(PackedCoordinateSequence.Double.class);
-        return kryo;
-    }
-
     @Override
     public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
         this.graph = graph;
@@ -166,11 +160,8 @@ public class ElevationModule implements GraphBuilderModule {
         if (readCachedElevations) {
             // try to load in the cached elevation data
             try {
-                Kryo kryo = makeKryo();
-                Input input = new Input(new FileInputStream(cachedElevationsFile));
-                cachedElevations = (HashMap<String, PackedCoordinateSequence>) kryo.readClassAndObject(input);
-                log.info("Cached elevation data loaded into memory!");
-            } catch (FileNotFoundException e) {
+                cachedElevations = ElevationCache.open(cachedElevationsFile);
+            } catch (IOException e) {
                 log.warn(graph.addBuilderAnnotation(new Graphwide(
                     String.format("Cached elevations file could not be read in due to error: %s!", e.getMessage()))));
             }
@@ -199,22 +190,56 @@ public class ElevationModule implements GraphBuilderModule {
         // update this value to the now-known amount of edges that are StreetWithElevation edges
         totalElevationEdges = streetsWithElevationEdges.size();
 
-        if (multiThreadElevationCalculations) {
-            // Multi-threaded execution
-            streetsWithElevationEdges.parallelStream().forEach(ee -> processEdgeWithProgress(ee));
-        } else {
-            // If using just a single thread, process each edge inline
-            for (StreetWithElevationEdge ee : streetsWithElevationEdges) {
-                processEdgeWithProgress(ee);
+        // Set the cached profiles first, so that no tile is read only for edges whose profiles are known.
+        List<StreetWithElevationEdge> edgesToCalculate = new ArrayList<>();
+        for (StreetWithElevationEdge ee : streetsWithElevationEdges) {
+            if (!setCachedElevationProfile(ee)) {
+                edgesToCalculate.add(ee);
+            }
+        }
+
+        List<ElevationTile> tiles = gridCoverageFactory.getTiles();
+        if (tiles != null) {
+            Map<ElevationTile, List<StreetWithElevationEdge>> edgesByTile = new LinkedHashMap<>();
+            List<StreetWithElevationEdge> edgesOutsideTiles = new ArrayList<>();
+            for (ElevationTile tile : tiles) {
+                edgesByTile.put(tile, new ArrayList<>());
+            }
+            for (StreetWithElevationEdge ee : edgesToCalculate) {
+                Envelope envelope = ee.getGeometry().getEnvelopeInternal();
+                ElevationTile edgeTile = null;
+                for (ElevationTile tile : tiles) {
+                    if (tile.contains(envelope)) {
+                        edgeTile = tile;
+                        break;
+                    }
+                }
+                if (edgeTile == null) {
+                    edgesOutsideTiles.add(ee);
+                } else {
+                    edgesByTile.get(edgeTile).add(ee);
+                }
+            }
+            for (Map.Entry<ElevationTile, List<StreetWithElevationEdge>> entry : edgesByTile.entrySet()) {
+                if (entry.getValue().isEmpty()) {
+                    continue;
+                }
+                ElevationTile tile = entry.getKey();
+                tile.load();
+                processEdges(entry.getValue(), tile);
+                tile.release();
             }
+            edgesToCalculate = edgesOutsideTiles;
         }
+        processEdges(edgesToCalculate, null);
 
-        double failurePercentage = nPointsOutsideDEM.get() / nPointsEvaluated.get() * 100;
+        double failurePercentage = nPointsEvaluated.get() == 0 ? 0 :
+            100.0 * nPointsOutsideDEM.get() / nPointsEvaluated.get();
         if (failurePercentage > 50) {
             log.warn(graph.addBuilderAnnotation(new Graphwide(
                 String.format(
                     "Fetching elevation failed at %d/%d points (%d%%)",
-                    nPointsOutsideDEM, nPointsEvaluated, failurePercentage
+                    nPointsOutsideDEM.get(), nPointsEvaluated.get(), (int) failurePercentage
                 )
             )));
             log.warn("Elevation is missing at a large number of points. DEM may be for the wrong region. " +
@@ -230,22 +255,32 @@ public class ElevationModule implements GraphBuilderModule {
         }
 
         if (writeCachedElevations) {
-            // write information from edgesWithElevation to a new cache file for subsequent graph builds
-            HashMap<String, PackedCoordinateSequence> newCachedElevations = new HashMap<>();
+            // append the profiles that were not in the cache to the cache file for subsequent graph builds
+            if (cachedElevations == null) {
+                cachedElevations = ElevationCache.create(cachedElevationsFile);
+            }
+            TLongHashSet newHashes = new TLongHashSet();
+            TLongArrayList hashes = new TLongArrayList();
+            List<PackedCoordinateSequence> profiles = new ArrayList<>();
             for (StreetEdge streetEdge : edgesWithCalculatedElevations) {
-                newCachedElevations.put(PolylineEncoder.createEncodings(streetEdge.getGeometry()).getPoints(),
-                    streetEdge.getElevationProfile());
+                long hash = ElevationCache.hash(streetEdge.getGeometry());
+                if (!cachedElevations.contains(hash) && newHashes.add(hash)) {
+                    hashes.add(hash);
+                    profiles.add(streetEdge.getElevationProfile());
+                }
             }
             try {
-                Kryo kryo = makeKryo();
-                Output out = new Output(new BufferedOutputStream(new FileOutputStream(cachedElevationsFile)));
-                kryo.writeClassAndObject(out, newCachedElevations);
-                out.close();
+                cachedElevations.append(hashes.toArray(), profiles);
+                log.info("Added {} elevation profiles to {}", profiles.size(), cachedElevationsFile);
             } catch (IOException e) {
                 log.error(e.getMessage());
                 log.error(graph.addBuilderAnnotation(new Graphwide("Failed to write cached elevation file!")));
             }
         }
+        if (cachedElevations != null) {
+            cachedElevations.close();
+            cachedElevations = null;
+        }
         @SuppressWarnings("unchecked")
         HashMap<Vertex, Double> extraElevation = (HashMap<Vertex, Double>) extra.get(ElevationPoint.class);
         assignMissingElevations(graph, edgesWithCalculatedElevations, extraElevation);
@@ -464,11 +499,50 @@ public class ElevationModule implements GraphBuilderModule {
         }
     }
 
+    /**
+     * Calculate the elevations of the given edges, on multiple threads if so configured.
+     *
+     * @param tile the loaded tile holding all the edges, or null to sample through the coverage
+     */
+    private void processEdges(List<StreetWithElevationEdge> edges, ElevationTile tile) {
+        if (multiThreadElevationCalculations) {
+            // Multi-threaded execution
+            edges.parallelStream().forEach(ee -> processEdgeWithProgress(ee, tile));
+        } else {
+            // If using just a single thread, process each edge inline
+            for (StreetWithElevationEdge ee : edges) {
+                processEdgeWithProgress(ee, tile);
+            }
+        }
+    }
+
+    /**
+     * Set the elevation profile of an edge from the cache.
+     *
+     * @return whether the edge now has an elevation profile
+     */
+    private boolean setCachedElevationProfile(StreetWithElevationEdge ee) {
+        if (ee.hasPackedElevationProfile()) {
+            return true; /* already set up */
+        }
+        if (cachedElevations == null) {
+            return false;
+        }
+        PackedCoordinateSequence coordinateSequence = cachedElevations.get(ElevationCache.hash(ee.getGeometry()));
+        if (coordinateSequence == null) {
+            return false;
+        }
+        // found a cached value! Set the elevation profile with the pre-calculated data.
+        setEdgeElevationProfile(ee, coordinateSequence, graph);
+        nEdgesProcessed.incrementAndGet();
+        return true;
+    }
+
     /**
      * Calculate the elevation for a single street edge. After the calculation is complete, update the current progress.
      */
-    private void processEdgeWithProgress(StreetWithElevationEdge ee) {
-        processEdge(ee);
+    private void processEdgeWithProgress(StreetWithElevationEdge ee, ElevationTile tile) {
+        processEdge(ee, tile);
         int curNumProcessed = nEdgesProcessed.addAndGet(1);
         if (curNumProcessed % 50_000 == 0) {
             log.info("set elevation on {}/{} edges", curNumProcessed, totalElevationEdges);
@@ -479,31 +553,14 @@ public class ElevationModule implements GraphBuilderModule {
      * Calculate the elevation for a single street edge, creating and assigning the elevation profile.
      *
      * @param ee the street edge
+     * @param tile the loaded tile holding the edge, or null to sample through the coverage
      */
-    private void processEdge(StreetWithElevationEdge ee) {
-        // First, check if the edge already has been calculated or if it exists in a pre-calculated cache. Checking
-        // with this method avoids potentially waiting for a lock to be released for calculating the thread-specific
-        // coverage.
-        if (ee.hasPackedElevationProfile()) {
-            return; /* already set up */
-        }
-
-        // first try to find a cached value if possible
+    private void processEdge(StreetWithElevationEdge ee, ElevationTile tile) {
         Geometry edgeGeometry = ee.getGeometry();
-        if (cachedElevations != null) {
-            PackedCoordinateSequence coordinateSequence = cachedElevations.get(
-                PolylineEncoder.createEncodings(edgeGeometry).getPoints()
-            );
-            if (coordinateSequence != null) {
-                // found a cached value! Set the elevation profile with the pre-calculated data.
-                setEdgeElevationProfile(ee, coordinateSequence, graph);
-                return;
-            }
-        }
 
-        // Needs full calculation. Calculate with a thread-specific coverage instance to avoid waiting for any locks on
+        // Without a tile, calculate with a thread-specific coverage instance to avoid waiting for any locks on
         // coverage instances in other threads.
-        Coverage coverage = getThreadSpecificCoverageInterpolator();
+        Coverage coverage = tile == null ? getThreadSpecificCoverageInterpolator() : null;
 
         // did not find a cached value, calculate
         // If any of the coordinates throw an error when trying to lookup their value, immediately bail and do not
@@ -514,7 +571,7 @@ public class ElevationModule implements GraphBuilderModule {
             List<Coordinate> coordList = new LinkedList<Coordinate>();
 
             // initial sample (x = 0)
-            coordList.add(new Coordinate(0, getElevation(coverage, coords[0])));
+            coordList.add(new Coordinate(0, getElevation(tile, coverage, coords[0])));
 
             // iterate through coordinates calculating the edge length and creating intermediate elevation coordinates at
             // the regularly specified interval
@@ -538,6 +595,7 @@ public class ElevationModule implements GraphBuilderModule {
                         new Coordinate(
                             sampleDistance,
                             getElevation(
+                                tile,
                                 coverage,
                                 new Coordinate(
                                     x1 + (pctAlongSeg * (x2 - x1)),
@@ -559,7 +617,7 @@ public class ElevationModule implements GraphBuilderModule {
             }
 
             // final sample (x = edge length)
-            coordList.add(new Coordinate(edgeLenM, getElevation(coverage, coords[coords.length - 1])));
+            coordList.add(new Coordinate(edgeLenM, getElevation(tile, coverage, coords[coords.length - 1])));
 
             // construct the PCS
             Coordinate coordArr[] = new Coordinate[coordList.size()];
@@ -622,31 +680,37 @@ public class ElevationModule implements GraphBuilderModule {
     /**
      * Method for retrieving the elevation at a given Coordinate.
      *
+     * @param tile the loaded tile holding the coordinate, or null to use the coverage
      * @param coverage the specific Coverage instance to use in order to avoid competition between threads
      * @param c the coordinate (NAD83)
      * @return elevation in meters
      */
-    private double getElevation(Coverage coverage, Coordinate c) throws PointOutsideCoverageException, TransformException {
-        return getElevation(coverage, c.x, c.y);
+    private double getElevation(ElevationTile tile, Coverage coverage, Coordinate c)
+        throws PointOutsideCoverageException, TransformException {
+        return getElevation(tile, coverage, c.x, c.y);
     }
 
     /**
      * Method for retrieving the elevation at a given (x, y) pair.
      *
+     * @param tile the loaded tile holding the point, or null to use the coverage
      * @param coverage the specific Coverage instance to use in order to avoid competition between threads
      * @param x the query longitude (NAD83)
      * @param y the query latitude (NAD83)
      * @return elevation in meters
      */
-    private double getElevation(Coverage coverage, double x, double y) throws PointOutsideCoverageException, TransformException {
+    private double getElevation(ElevationTile tile, Coverage coverage, double x, double y)
+        throws PointOutsideCoverageException, TransformException {
         double values[] = new double[1];
         try {
-            // We specify a CRS here because otherwise the coordinates are assumed to be in the coverage's native CRS.
-            // That assumption is fine when the coverage happens to be in longitude-first WGS84 but we want to support
-            // GeoTIFFs in various projections. Note that GeoTools defaults to strict EPSG axis ordering of (lat, long)
-            // for DefaultGeographicCRS.WGS84, but OTP is using (long, lat) throughout and assumes unprojected DEM
-            // rasters to also use (long, lat).
-            coverage.evaluate(new DirectPosition2D(GeometryUtils.WGS84_XY, x, y), values);
+            if (tile != null) {
+                values[0] = tile.sample(x, y);
+                if (Double.isNaN(values[0])) {
+                    throw new PointOutsideCoverageException("No elevation data at " + x + ", " + y);
+                }
+            } else {
+                evaluate(coverage, x, y, values);
+            }
         } catch (PointOutsideCoverageException e) {
             nPointsOutsideDEM.incrementAndGet();
             throw e;
@@ -656,6 +720,15 @@ public class ElevationModule implements GraphBuilderModule {
             (includeEllipsoidToGeoidDifference ? getApproximateEllipsoidToGeoidDifference(y, x) : 0);
     }
 
+    private static void evaluate(Coverage coverage, double x, double y, double[] values) {
+        // We specify a CRS here because otherwise the coordinates are assumed to be in the coverage's native CRS.
+        // That assumption is fine when the coverage happens to be in longitude-first WGS84 but we want to support
+        // GeoTIFFs in various projections. Note that GeoTools defaults to strict EPSG axis ordering of (lat, long)
+        // for DefaultGeographicCRS.WGS84, but OTP is using (long, lat) throughout and assumes unprojected DEM
+        // rasters to also use (long, lat).
+        coverage.evaluate(new DirectPosition2D(GeometryUtils.WGS84_XY, x, y), values);
+    }
+
     /**
      * The Calculation of the EllipsoidToGeoidDifference is a very expensive operation, so the resulting values are
      * cached based on the coordinate values up to 2 significant digits. Two significant digits are often more than enough
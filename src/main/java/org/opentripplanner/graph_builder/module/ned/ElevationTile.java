@@ -0,0 +1,215 @@
+package org.opentripplanner.graph_builder.module.ned;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridEnvelope2D;
+import org.locationtech.jts.geom.Envelope;
+import org.opengis.metadata.spatial.PixelOrientation;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.crs.GeographicCRS;
+import org.opengis.referencing.cs.AxisDirection;
+import org.opengis.referencing.operation.MathTransform2D;
+
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A window of a raster of elevation data, such as a NED tile or GeoTIFF, that can be read into a primitive float grid
+ * and sampled with bilinear interpolation on that grid. This avoids going through a GeoTools Coverage and its
+ * interpolator for every sample, which creates several objects per sample and holds a lock.
+ *
+ * Only unprojected rasters in (longitude, latitude) order with an axis-aligned grid can be sampled this way. Rasters
+ * are split into windows of at most {@link #WINDOW_SIZE} cells on each side, and the grid of a window is only read on
+ * {@link #load()}, so the ElevationModule keeps a bounded amount of elevation data in memory at a time however large
+ * the rasters are.
+ */
+public class ElevationTile {
+
+    /** Rows of the raster read at once when loading the grid. */
+    private static final int STRIP_HEIGHT = 256;
+
+    /** The maximum width and height of a window in cells, so that a loaded window takes at most 16 MB. */
+    static final int WINDOW_SIZE = 2048;
+
+    private final GridCoverage2D coverage;
+
+    /** Datums whose offsets are added to the raster values, as in the {@link UnifiedGridCoverage}. */
+    private final List<VerticalDatum> datums;
+
+    private final int width;
+
+    private final int height;
+
+    /* Coordinates of the center of the first cell and size of a cell, in degrees */
+    private final double originX;
+
+    private final double originY;
+
+    private final double cellSizeX;
+
+    private final double cellSizeY;
+
+    /** The area in which there are cell centers all around a point, so it can be interpolated. */
+    private final Envelope envelope;
+
+    private final double[] noDataValues;
+
+    /* Values of the cells, row after row, while the tile is loaded. */
+    private float[] values;
+
+    /* The cells of the raster covered by this tile. */
+    private final Rectangle window;
+
+    private ElevationTile(GridCoverage2D coverage, List<VerticalDatum> datums, AffineTransform gridToCrs,
+            Rectangle window) {
+        this.coverage = coverage;
+        this.datums = datums;
+        this.window = window;
+        width = window.width;
+        height = window.height;
+        cellSizeX = gridToCrs.getScaleX();
+        cellSizeY = gridToCrs.getScaleY();
+        originX = gridToCrs.getTranslateX() + cellSizeX * window.x;
+        originY = gridToCrs.getTranslateY() + cellSizeY * window.y;
+        double endX = originX + cellSizeX * (width - 1);
+        double endY = originY + cellSizeY * (height - 1);
+        envelope = new Envelope(originX, endX, originY, endY);
+        double[] noData = coverage.getSampleDimension(0).getNoDataValues();
+        noDataValues = noData == null ? new double[0] : noData;
+    }
+
+    /**
+     * Split the given coverage into tiles of at most {@link #WINDOW_SIZE} cells on each side, or return null if its grid
+     * cannot be sampled directly, in which case the coverage itself must be used.
+     */
+    public static List<ElevationTile> split(GridCoverage2D coverage, List<VerticalDatum> datums) {
+        return split(coverage, datums, WINDOW_SIZE);
+    }
+
+    public static List<ElevationTile> split(GridCoverage2D coverage) {
+        return split(coverage, Collections.emptyList());
+    }
+
+    static List<ElevationTile> split(GridCoverage2D coverage, List<VerticalDatum> datums, int windowSize) {
+        AffineTransform gridToCrs = getAffineGridToCrs(coverage);
+        if (gridToCrs == null) {
+            return null;
+        }
+        GridEnvelope2D gridRange = coverage.getGridGeometry().getGridRange2D();
+        List<ElevationTile> tiles = new ArrayList<>();
+        // Neighboring windows share a row or column of cells, so that every point between the centers of two cells is
+        // inside a window and can be interpolated there.
+        for (int row = 0; ; row += windowSize - 1) {
+            int rows = Math.min(windowSize, gridRange.height - row);
+            for (int column = 0; ; column += windowSize - 1) {
+                int columns = Math.min(windowSize, gridRange.width - column);
+                Rectangle window = new Rectangle(gridRange.x + column, gridRange.y + row, columns, rows);
+                tiles.add(new ElevationTile(coverage, datums, gridToCrs, window));
+                if (column + columns >= gridRange.width) {
+                    break;
+                }
+            }
+            if (row + rows >= gridRange.height) {
+                break;
+            }
+        }
+        return tiles;
+    }
+
+    /** @return the transform from grid to (longitude, latitude), or null if the grid cannot be sampled directly */
+    private static AffineTransform getAffineGridToCrs(GridCoverage2D coverage) {
+        CoordinateReferenceSystem crs = coverage.getCoordinateReferenceSystem2D();
+        if (!(crs instanceof GeographicCRS)
+                || crs.getCoordinateSystem().getAxis(0).getDirection().absolute() != AxisDirection.EAST) {
+            return null;
+        }
+        MathTransform2D gridToCrs = coverage.getGridGeometry().getGridToCRS2D(PixelOrientation.CENTER);
+        if (!(gridToCrs instanceof AffineTransform)) {
+            return null;
+        }
+        AffineTransform affine = (AffineTransform) gridToCrs;
+        if (affine.getShearX() != 0 || affine.getShearY() != 0) {
+            return null;
+        }
+        return affine;
+    }
+
+    /** Whether every point of the given envelope can be sampled in this tile. */
+    public boolean contains(Envelope other) {
+        return envelope.contains(other);
+    }
+
+    /** Read the grid of this window into memory. */
+    public void load() {
+        if (values != null) {
+            return;
+        }
+        long size = (long) width * height;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Elevation tile of " + width + "x" + height + " cells is too large to load.");
+        }
+        RenderedImage image = coverage.getRenderedImage();
+        float[] grid = new float[(int) size];
+        float[] strip = null;
+        for (int row = 0; row < height; row += STRIP_HEIGHT) {
+            int rows = Math.min(STRIP_HEIGHT, height - row);
+            Rectangle bounds = new Rectangle(window.x, window.y + row, width, rows);
+            Raster raster = image.getData(bounds);
+            strip = raster.getSamples(bounds.x, bounds.y, width, rows, 0, strip);
+            System.arraycopy(strip, 0, grid, row * width, width * rows);
+        }
+        values = grid;
+    }
+
+    /** Drop the grid read by {@link #load()}. */
+    public void release() {
+        values = null;
+    }
+
+    /**
+     * Interpolate the elevation at the given point, which must be in this tile, from the four surrounding cells. The
+     * tile must be loaded.
+     *
+     * @return the elevation in the units of the raster, or NaN if any of the surrounding cells has no data
+     */
+    public double sample(double x, double y) {
+        double column = (x - originX) / cellSizeX;
+        double row = (y - originY) / cellSizeY;
+        // Points on the last row or column are interpolated in the cells before them.
+        int column0 = Math.min((int) Math.floor(column), width - 2);
+        int row0 = Math.min((int) Math.floor(row), height - 2);
+        if (column0 < 0 || row0 < 0) {
+            return Double.NaN;
+        }
+        double fractionX = column - column0;
+        double fractionY = row - row0;
+        int i = row0 * width + column0;
+        double v00 = value(i);
+        double v01 = value(i + 1);
+        double v10 = value(i + width);
+        double v11 = value(i + width + 1);
+        double top = v00 + (v01 - v00) * fractionX;
+        double bottom = v10 + (v11 - v10) * fractionX;
+        double elevation = top + (bottom - top) * fractionY;
+        for (VerticalDatum datum : datums) {
+            if (datum.covers(x, y)) {
+                return elevation + datum.interpolatedHeight(x, y);
+            }
+        }
+        return datums.isEmpty() ? elevation : Double.NaN;
+    }
+
+    private double value(int i) {
+        float value = values[i];
+        for (double noData : noDataValues) {
+            if (value == noData) {
+                return Double.NaN;
+            }
+        }
+        return value;
+    }
+}
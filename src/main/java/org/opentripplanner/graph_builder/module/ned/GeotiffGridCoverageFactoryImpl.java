@@ -13,6 +13,7 @@ import org.slf4j.LoggerFactory;
 import javax.media.jai.InterpolationBilinear;
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
 /**
  * Implementation of ElevationGridCoverageFactory for Geotiff data.
@@ -62,6 +63,14 @@ public class GeotiffGridCoverageFactoryImpl implements ElevationGridCoverageFact
         return coverage;
     }
 
+    /**
+     * The GeoTIFF split into windows, if it is unprojected.
+     */
+    @Override
+    public List<ElevationTile> getTiles() {
+        return ElevationTile.split(getUninterpolatedGridCoverage());
+    }
+
     @Override
     public void checkInputs() {
         if (!path.canRead()) {
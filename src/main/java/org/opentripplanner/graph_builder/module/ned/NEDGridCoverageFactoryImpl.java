@@ -110,6 +110,29 @@ public class NEDGridCoverageFactoryImpl implements ElevationGridCoverageFactory
      * in the processor cache.
      */
     public Coverage getGridCoverage() {
+        loadRegionCoverages();
+        // Create a new UnifiedGridCoverage using the shared region coverages.
+        return new UnifiedGridCoverage(regionCoverages, datums);
+    }
+
+    /**
+     * The NED tiles split into windows, with the vertical datum applied as in the {@link UnifiedGridCoverage}.
+     */
+    @Override
+    public List<ElevationTile> getTiles() {
+        loadRegionCoverages();
+        List<ElevationTile> tiles = new ArrayList<>();
+        for (GridCoverage2D regionCoverage : regionCoverages) {
+            List<ElevationTile> regionTiles = ElevationTile.split(regionCoverage, datums);
+            if (regionTiles == null) {
+                return null;
+            }
+            tiles.addAll(regionTiles);
+        }
+        return tiles;
+    }
+
+    private synchronized void loadRegionCoverages() {
         // If the tile data hasn't been loaded into memory yet, do that now.
         if (regionCoverages.size() == 0) {
             loadVerticalDatum();
@@ -120,9 +143,6 @@ public class NEDGridCoverageFactoryImpl implements ElevationGridCoverageFactory
                 regionCoverages.add(factory.getUninterpolatedGridCoverage());
             }
         }
-
-        // Create a new UnifiedGridCoverage using the shared region coverages.
-        return new UnifiedGridCoverage(regionCoverages, datums);
     }
 
     /**
@@ -0,0 +1,160 @@
+package org.opentripplanner.graph_builder.module.osm;
+
+import gnu.trove.impl.Constants;
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import org.opentripplanner.openstreetmap.model.OSMNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the coordinates of nodes without tags as pairs of ints in fixed-size chunks, rounded to
+ * 100 nanodegrees (the precision of OSM coordinates), with a primitive map from OSM ID to position.
+ * This takes about 30 bytes per node instead of more than 100 for an OSMNode in a HashMap. Nodes
+ * with tags, and the virtual nodes created where ways cross areas (which have negative IDs and
+ * coordinates computed with more precision), are kept as OSMNode objects.
+ *
+ * The chunks are either int arrays on the heap or memory-mapped regions of a temporary file, which
+ * the operating system can page out when memory is short. OSMNode objects are created on demand
+ * for the nodes kept in chunks.
+ */
+class CompactNodeStore implements OSMNodeStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CompactNodeStore.class);
+
+    private static final int CHUNK_SHIFT = 20;
+
+    /** Number of nodes in a chunk. */
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    private static final double SCALE = 1e7;
+
+    private final TLongIntHashMap positionById = new TLongIntHashMap(Constants.DEFAULT_CAPACITY,
+            Constants.DEFAULT_LOAD_FACTOR, Long.MIN_VALUE, -1);
+
+    private final TLongObjectHashMap<OSMNode> taggedNodes = new TLongObjectHashMap<>();
+
+    /* Latitude and longitude of node i at indices 2i and 2i + 1 of chunk i >> CHUNK_SHIFT */
+    private final List<IntBuffer> chunks = new ArrayList<>();
+
+    private int nPositions = 0;
+
+    private File file;
+
+    private RandomAccessFile randomAccessFile;
+
+    private FileChannel channel;
+
+    /** @param mapped whether to keep the coordinates in a memory-mapped temporary file */
+    CompactNodeStore(boolean mapped) {
+        if (mapped) {
+            try {
+                file = File.createTempFile("otp-osm-nodes", ".bin");
+                file.deleteOnExit();
+                randomAccessFile = new RandomAccessFile(file, "rw");
+                channel = randomAccessFile.getChannel();
+                LOG.info("Storing OSM node coordinates in {}", file);
+            } catch (IOException e) {
+                throw new RuntimeException("Could not create a file for OSM node coordinates.", e);
+            }
+        }
+    }
+
+    @Override
+    public void put(OSMNode node) {
+        // Coordinates read from PBF files are not exactly multiples of 1e-7 once converted to doubles,
+        // so they are rounded instead of being packed only when they round-trip exactly.
+        if (node.getTags() != null || node.getId() < 0) {
+            positionById.remove(node.getId());
+            taggedNodes.put(node.getId(), node);
+            return;
+        }
+        taggedNodes.remove(node.getId());
+        int lat = (int) Math.round(node.lat * SCALE);
+        int lon = (int) Math.round(node.lon * SCALE);
+        int position = positionById.get(node.getId());
+        if (position < 0) {
+            position = nPositions++;
+            positionById.put(node.getId(), position);
+        }
+        IntBuffer chunk = chunk(position);
+        int i = (position & (CHUNK_SIZE - 1)) * 2;
+        chunk.put(i, lat);
+        chunk.put(i + 1, lon);
+    }
+
+    @Override
+    public OSMNode get(long nodeId) {
+        int position = positionById.get(nodeId);
+        if (position < 0) {
+            return taggedNodes.get(nodeId);
+        }
+        IntBuffer chunk = chunks.get(position >>> CHUNK_SHIFT);
+        int i = (position & (CHUNK_SIZE - 1)) * 2;
+        OSMNode node = new OSMNode();
+        node.setId(nodeId);
+        node.lat = chunk.get(i) / SCALE;
+        node.lon = chunk.get(i + 1) / SCALE;
+        return node;
+    }
+
+    /** @return the number of nodes kept in chunks rather than as OSMNode objects */
+    int packedSize() {
+        return positionById.size();
+    }
+
+    @Override
+    public boolean contains(long nodeId) {
+        return positionById.containsKey(nodeId) || taggedNodes.containsKey(nodeId);
+    }
+
+    @Override
+    public int size() {
+        return positionById.size() + taggedNodes.size();
+    }
+
+    private IntBuffer chunk(int position) {
+        int c = position >>> CHUNK_SHIFT;
+        while (chunks.size() <= c) {
+            if (channel == null) {
+                chunks.add(IntBuffer.allocate(CHUNK_SIZE * 2));
+            } else {
+                long chunkBytes = CHUNK_SIZE * 2L * Integer.BYTES;
+                try {
+                    chunks.add(channel.map(FileChannel.MapMode.READ_WRITE, chunks.size() * chunkBytes, chunkBytes)
+                            .asIntBuffer());
+                } catch (IOException e) {
+                    throw new RuntimeException("Could not extend the file of OSM node coordinates.", e);
+                }
+            }
+        }
+        return chunks.get(c);
+    }
+
+    /** Close and delete the temporary file, if any. Mapped chunks are released when garbage collected. */
+    @Override
+    public void close() {
+        chunks.clear();
+        positionById.clear();
+        taggedNodes.clear();
+        if (channel != null) {
+            try {
+                randomAccessFile.close();
+            } catch (IOException e) {
+                LOG.warn("Could not close the file of OSM node coordinates.", e);
+            }
+            if (!file.delete()) {
+                LOG.debug("Could not delete {} now, it will be deleted on exit.", file);
+            }
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package org.opentripplanner.graph_builder.module.osm;
+
+import gnu.trove.map.hash.TLongObjectHashMap;
+import org.opentripplanner.openstreetmap.model.OSMNode;
+
+/**
+ * Keeps every node as an OSMNode object, keyed by its OSM ID.
+ */
+class MapNodeStore implements OSMNodeStore {
+
+    private final TLongObjectHashMap<OSMNode> nodesById = new TLongObjectHashMap<>();
+
+    @Override
+    public void put(OSMNode node) {
+        nodesById.put(node.getId(), node);
+    }
+
+    @Override
+    public OSMNode get(long nodeId) {
+        return nodesById.get(nodeId);
+    }
+
+    @Override
+    public boolean contains(long nodeId) {
+        return nodesById.containsKey(nodeId);
+    }
+
+    @Override
+    public int size() {
+        return nodesById.size();
+    }
+}
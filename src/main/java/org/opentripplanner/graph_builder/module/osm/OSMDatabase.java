@@ -3,6 +3,10 @@ package org.opentripplanner.graph_builder.module.osm;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Multimap;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
 import org.locationtech.jts.geom.*;
 import org.opentripplanner.common.RepeatingTimePeriod;
 import org.opentripplanner.common.TurnRestrictionType;
@@ -17,7 +21,6 @@ import org.opentripplanner.openstreetmap.services.OpenStreetMapContentHandler;
 import org.opentripplanner.routing.core.TraverseMode;
 import org.opentripplanner.routing.core.TraverseModeSet;
 import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
-import org.opentripplanner.util.MapUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -27,8 +30,8 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
 
     private static Logger LOG = LoggerFactory.getLogger(OSMDatabase.class);
 
-    /* Map of all nodes used in ways/areas keyed by their OSM ID */
-    private Map<Long, OSMNode> nodesById = new HashMap<Long, OSMNode>();
+    /* All nodes used in ways/areas keyed by their OSM ID */
+    private final OSMNodeStore nodesById;
 
     /* Map of all bike-rental nodes, keyed by their OSM ID */
     private Map<Long, OSMNode> bikeRentalNodes = new HashMap<Long, OSMNode>();
@@ -37,13 +40,13 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
     private Map<Long, OSMNode> bikeParkingNodes = new HashMap<Long, OSMNode>();
 
     /* Map of all non-area ways keyed by their OSM ID */
-    private Map<Long, OSMWay> waysById = new HashMap<Long, OSMWay>();
+    private TLongObjectMap<OSMWay> waysById = new TLongObjectHashMap<OSMWay>();
 
     /* Map of all area ways keyed by their OSM ID */
-    private Map<Long, OSMWay> areaWaysById = new HashMap<Long, OSMWay>();
+    private TLongObjectMap<OSMWay> areaWaysById = new TLongObjectHashMap<OSMWay>();
 
     /* Map of all relations keyed by their OSM ID */
-    private Map<Long, OSMRelation> relationsById = new HashMap<Long, OSMRelation>();
+    private TLongObjectMap<OSMRelation> relationsById = new TLongObjectHashMap<OSMRelation>();
 
     /* All walkable areas */
     private List<Area> walkableAreas = new ArrayList<Area>();
@@ -55,7 +58,7 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
     private List<Area> bikeParkingAreas = new ArrayList<Area>();
 
     /* Map of all area OSMWay for a given node */
-    private Map<Long, Set<OSMWay>> areasForNode = new HashMap<Long, Set<OSMWay>>();
+    private TLongObjectMap<Set<OSMWay>> areasForNode = new TLongObjectHashMap<Set<OSMWay>>();
 
     /* Map of all area OSMWay for a given node */
     private List<OSMWay> singleWayAreas = new ArrayList<OSMWay>();
@@ -63,13 +66,13 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
     private Set<OSMWithTags> processedAreas = new HashSet<OSMWithTags>();
 
     /* Set of area way IDs */
-    private Set<Long> areaWayIds = new HashSet<Long>();
+    private TLongSet areaWayIds = new TLongHashSet();
 
     /* Set of all node IDs of kept ways. Needed to mark which nodes to keep in stage 3. */
-    private Set<Long> waysNodeIds = new HashSet<Long>();
+    private TLongSet waysNodeIds = new TLongHashSet();
 
     /* Set of all node IDs of kept areas. Needed to mark which nodes to keep in stage 3. */
-    private Set<Long> areaNodeIds = new HashSet<Long>();
+    private TLongSet areaNodeIds = new TLongHashSet();
 
     /* Track which vertical level each OSM way belongs to, for building elevators etc. */
     private Map<OSMWithTags, OSMLevel> wayLevels = new HashMap<OSMWithTags, OSMLevel>();
@@ -102,12 +105,21 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
      */
     public boolean noZeroLevels = true;
 
+    public OSMDatabase() {
+        this(OSMNodeStore.Type.memory);
+    }
+
+    /** @param nodeStore how to store the nodes used in ways and areas */
+    public OSMDatabase(OSMNodeStore.Type nodeStore) {
+        nodesById = OSMNodeStore.create(nodeStore);
+    }
+
     public OSMNode getNode(Long nodeId) {
         return nodesById.get(nodeId);
     }
 
     public Collection<OSMWay> getWays() {
-        return Collections.unmodifiableCollection(waysById.values());
+        return Collections.unmodifiableCollection(waysById.valueCollection());
     }
 
     public Collection<OSMNode> getBikeRentalNodes() {
@@ -181,10 +193,10 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
                 .isStop()))
             return;
 
-        if (nodesById.containsKey(node.getId()))
+        if (nodesById.contains(node.getId()))
             return;
 
-        nodesById.put(node.getId(), node);
+        nodesById.put(node);
 
         if (nodesById.size() % 100000 == 0)
             LOG.debug("nodes=" + nodesById.size());
@@ -218,12 +230,13 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
                 areaWaysById.put(wayId, way);
                 areaWayIds.add(wayId);
                 for (Long node : way.getNodeRefs()) {
-                    MapUtils.addToMapSet(areasForNode, node, way);
+                    addAreaForNode(node, way);
                 }
             }
             return;
         }
 
+        way.trimNodeRefs();
         waysById.put(wayId, way);
 
         if (waysById.size() % 10000 == 0)
@@ -281,8 +294,8 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
         // only 2 steps -- ways+relations, followed by used nodes.
         // Ways can be tag-filtered in phase 1.
 
-        markNodesForKeeping(waysById.values(), waysNodeIds);
-        markNodesForKeeping(areaWaysById.values(), areaNodeIds);
+        markNodesForKeeping(waysById.valueCollection(), waysNodeIds);
+        markNodesForKeeping(areaWaysById.valueCollection(), areaNodeIds);
     }
 
     /**
@@ -294,6 +307,13 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
         processSingleWayAreas();
     }
 
+    /**
+     * Release the resources held by the node store. The database must not be used afterwards.
+     */
+    public void close() {
+        nodesById.close();
+    }
+
     /**
      * After all loading is done (from multiple OSM sources), post-process.
      */
@@ -356,7 +376,7 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
 
         // For each way, intersect with areas
         int nCreatedNodes = 0;
-        for (OSMWay way : waysById.values()) {
+        for (OSMWay way : waysById.valueCollection()) {
             OSMLevel wayLevel = getLevelForWay(way);
 
             // For each segment of the way
@@ -541,7 +561,7 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
         node.setId(virtualNodeId);
         virtualNodeId--;
         waysNodeIds.add(node.getId());
-        nodesById.put(node.getId(), node);
+        nodesById.put(node);
         return node;
     }
 
@@ -569,17 +589,28 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
         }
     }
 
-    private void markNodesForKeeping(Collection<OSMWay> osmWays, Set<Long> nodeSet) {
+    private void markNodesForKeeping(Collection<OSMWay> osmWays, TLongSet nodeSet) {
         for (Iterator<OSMWay> it = osmWays.iterator(); it.hasNext();) {
             OSMWay way = it.next();
             // Since the way is kept, update nodes-with-neighbors
             List<Long> nodes = way.getNodeRefs();
             if (nodes.size() > 1) {
-                nodeSet.addAll(nodes);
+                for (long node : nodes) {
+                    nodeSet.add(node);
+                }
             }
         }
     }
 
+    private void addAreaForNode(long nodeId, OSMWay way) {
+        Set<OSMWay> areas = areasForNode.get(nodeId);
+        if (areas == null) {
+            areas = new HashSet<OSMWay>();
+            areasForNode.put(nodeId, areas);
+        }
+        areas.add(way);
+    }
+
     /**
      * Create areas from single ways.
      */
@@ -589,7 +620,7 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
                 continue;
             }
             for (Long nodeRef : way.getNodeRefs()) {
-                if (!nodesById.containsKey(nodeRef)) {
+                if (!nodesById.contains(nodeRef)) {
                     continue AREA;
                 }
             }
@@ -613,7 +644,7 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
      * the used ways.
      */
     private void processMultipolygonRelations() {
-        RELATION: for (OSMRelation relation : relationsById.values()) {
+        RELATION: for (OSMRelation relation : relationsById.valueCollection()) {
             if (processedAreas.contains(relation)) {
                 continue;
             }
@@ -632,12 +663,12 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
                     continue RELATION;
                 }
                 for (Long nodeId : way.getNodeRefs()) {
-                    if (!nodesById.containsKey(nodeId)) {
+                    if (!nodesById.contains(nodeId)) {
                         // this area is missing some nodes, perhaps because it is on
                         // the edge of the region, so we will simply not route on it.
                         continue RELATION;
                     }
-                    MapUtils.addToMapSet(areasForNode, nodeId, way);
+                    addAreaForNode(nodeId, way);
                 }
                 if (role.equals("inner")) {
                     innerWays.add(way);
@@ -708,7 +739,7 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
     private void processRelations() {
         LOG.debug("Processing relations...");
 
-        for (OSMRelation relation : relationsById.values()) {
+        for (OSMRelation relation : relationsById.valueCollection()) {
             if (relation.isTag("type", "restriction")) {
                 processRestriction(relation);
             } else if (relation.isTag("type", "level_map")) {
@@ -896,7 +927,7 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
                     platformArea = relationsById.get(member.getRef());
                 else
                     LOG.warn("Too many areas in relation " + relation.getId());
-            } else if ("node".equals(member.getType()) && nodesById.containsKey(member.getRef())) {
+            } else if ("node".equals(member.getType()) && nodesById.contains(member.getRef())) {
                 platformsNodes.add(nodesById.get(member.getRef()));
             }
         }
@@ -0,0 +1,48 @@
+package org.opentripplanner.graph_builder.module.osm;
+
+import org.opentripplanner.openstreetmap.model.OSMNode;
+
+/**
+ * The OSM nodes kept by the OSMDatabase while building the street graph, keyed by their OSM ID.
+ * Nodes are by far the most numerous OSM entities, so how they are stored decides how much memory
+ * the OSM phase of a large graph build needs.
+ *
+ * Stores may return a new OSMNode object each time a node is requested. OSMNodes are equal when
+ * they have the same ID, so they can still be used in sets and as map keys.
+ */
+public interface OSMNodeStore {
+
+    /** How nodes are stored, selected with the osmNodeStore build parameter. */
+    enum Type {
+        /** Every node as an OSMNode object in a hash map. Fastest, but uses the most memory. */
+        memory,
+        /** Coordinates of nodes without tags packed in primitive arrays. */
+        compact,
+        /** Like compact, with the coordinates in a memory-mapped temporary file rather than on the heap. */
+        mapped
+    }
+
+    /** Add a node, or replace the node with the same ID. */
+    void put(OSMNode node);
+
+    /** Return the node with the given ID, or null if there is none. */
+    OSMNode get(long nodeId);
+
+    boolean contains(long nodeId);
+
+    int size();
+
+    /** Release any resources held by this store. It must not be used afterwards. */
+    default void close() { }
+
+    static OSMNodeStore create(Type type) {
+        switch (type) {
+            case compact:
+                return new CompactNodeStore(false);
+            case mapped:
+                return new CompactNodeStore(true);
+            default:
+                return new MapNodeStore();
+        }
+    }
+}
@@ -137,6 +137,11 @@ public class OpenStreetMapModule implements GraphBuilderModule {
         source.populateProperties(wayPropertySet);
     }
 
+    /**
+     * How to store OSM nodes while building the street graph.
+     */
+    public OSMNodeStore.Type nodeStore = OSMNodeStore.Type.memory;
+
     /**
      * Whether ways tagged foot/bicycle=discouraged should be marked as inaccessible
      */
@@ -155,18 +160,22 @@ public class OpenStreetMapModule implements GraphBuilderModule {
 
     @Override
     public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
-        OSMDatabase osmdb = new OSMDatabase();
-        Handler handler = new Handler(graph, osmdb);
-        for (OpenStreetMapProvider provider : _providers) {
-            LOG.info("Gathering OSM from provider: " + provider);
-            provider.readOSM(osmdb);
-        }
-        osmdb.postLoad();
-        for (GraphBuilderAnnotation annotation : osmdb.getAnnotations()) {
-            graph.addBuilderAnnotation(annotation);
+        OSMDatabase osmdb = new OSMDatabase(nodeStore);
+        try {
+            Handler handler = new Handler(graph, osmdb);
+            for (OpenStreetMapProvider provider : _providers) {
+                LOG.info("Gathering OSM from provider: " + provider);
+                provider.readOSM(osmdb);
+            }
+            osmdb.postLoad();
+            for (GraphBuilderAnnotation annotation : osmdb.getAnnotations()) {
+                graph.addBuilderAnnotation(annotation);
+            }
+            LOG.info("Building street graph from OSM");
+            handler.buildGraph(extra);
+        } finally {
+            osmdb.close();
         }
-        LOG.info("Building street graph from OSM");
-        handler.buildGraph(extra);
         graph.hasStreets = true;
         //Calculates envelope for OSM
         graph.calculateEnvelope();
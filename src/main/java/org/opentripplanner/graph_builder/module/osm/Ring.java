@@ -3,7 +3,6 @@ package org.opentripplanner.graph_builder.module.osm;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
 import org.opentripplanner.common.geometry.GeometryUtils;
 import org.opentripplanner.openstreetmap.model.OSMNode;
@@ -54,7 +53,7 @@ public class Ring {
         geometry = new VLPolygon(vertices);
     }
 
-    public Ring(List<Long> osmNodes, Map<Long, OSMNode> _nodes) {
+    public Ring(List<Long> osmNodes, OSMNodeStore _nodes) {
         ArrayList<VLPoint> vertices = new ArrayList<VLPoint>();
         nodes = new ArrayList<OSMNode>(osmNodes.size());
         for (long nodeId : osmNodes) {
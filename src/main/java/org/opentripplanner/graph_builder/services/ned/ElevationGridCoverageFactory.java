@@ -2,8 +2,11 @@ package org.opentripplanner.graph_builder.services.ned;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.opengis.coverage.Coverage;
+import org.opentripplanner.graph_builder.module.ned.ElevationTile;
 import org.opentripplanner.routing.graph.Graph;
 
+import java.util.List;
+
 /**
  * Factory interface specifying the ability to generate GeoTools {@link GridCoverage2D} objects 
  * representing National Elevation Dataset (NED) raster data. 
@@ -16,6 +19,14 @@ public interface ElevationGridCoverageFactory {
     /** Creates a new coverage instance from files already fetched */
     public Coverage getGridCoverage();
 
+    /**
+     * Returns the elevation data as tiles that can each be read into memory and sampled on their own, or null if the
+     * data cannot be split that way, in which case all samples are taken from {@link #getGridCoverage()}.
+     */
+    public default List<ElevationTile> getTiles() {
+        return null;
+    }
+
     public void checkInputs();
 
     /** Sets the graph of the factory and initiates the fetching of data that is not present in the cache */
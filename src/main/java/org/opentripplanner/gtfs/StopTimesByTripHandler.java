@@ -0,0 +1,169 @@
+package org.opentripplanner.gtfs;
+
+import org.onebusaway.csv_entities.CsvInputSource;
+import org.onebusaway.csv_entities.EntityHandler;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * Groups the stop times read by a GtfsReader by trip, and hands each group to a consumer as soon as the rows of the
+ * next trip start. Only the stop times of one trip are held at a time, so a feed can be loaded without keeping all of
+ * its stop times in memory. This requires the rows of each trip to be next to each other in stop_times.txt, which
+ * {@link #isGroupedByTrip} checks before the stop times are read.
+ */
+public class StopTimesByTripHandler implements EntityHandler {
+
+    private static final String STOP_TIMES_FILE = "stop_times.txt";
+
+    private final BiConsumer<Trip, List<StopTime>> consumer;
+
+    private final Set<Trip> tripsDone = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private Trip trip = null;
+
+    private List<StopTime> stopTimes = new ArrayList<>();
+
+    /** @param consumer receives each trip with its stop times sorted by stop sequence */
+    public StopTimesByTripHandler(BiConsumer<Trip, List<StopTime>> consumer) {
+        this.consumer = consumer;
+    }
+
+    @Override
+    public void handleEntity(Object bean) {
+        if (!(bean instanceof StopTime)) {
+            return;
+        }
+        StopTime stopTime = (StopTime) bean;
+        if (stopTime.getTrip() != trip) {
+            flush();
+            trip = stopTime.getTrip();
+            if (!tripsDone.add(trip)) {
+                throw new IllegalStateException("The stop times of trip " + trip.getId()
+                        + " are not next to each other in " + STOP_TIMES_FILE);
+            }
+        }
+        stopTimes.add(stopTime);
+    }
+
+    /** Hand the stop times of the last trip to the consumer, once all stop times have been read. */
+    public void finish() {
+        flush();
+    }
+
+    private void flush() {
+        if (trip == null) {
+            return;
+        }
+        // The sort is stable, so stop times with the same sequence stay in file order.
+        stopTimes.sort(Comparator.comparingInt(StopTime::getStopSequence));
+        consumer.accept(trip, stopTimes);
+        trip = null;
+        stopTimes = new ArrayList<>();
+    }
+
+    /**
+     * Check whether the rows of each trip are next to each other in stop_times.txt, reading only the trip_id column.
+     * This is the case in most feeds, which are sorted by trip. The file is read line by line, so a file with a quoted
+     * field spanning several lines is reported as not grouped, rather than risking reading the trip ids of the wrong
+     * column.
+     */
+    public static boolean isGroupedByTrip(CsvInputSource source) throws IOException {
+        if (!source.hasResource(STOP_TIMES_FILE)) {
+            return true;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                source.getResource(STOP_TIMES_FILE), StandardCharsets.UTF_8))) {
+            String header = reader.readLine();
+            if (header == null) {
+                return true;
+            }
+            // Skip a byte order mark.
+            if (header.startsWith("\uFEFF")) {
+                header = header.substring(1);
+            }
+            int tripIdColumn = -1;
+            List<String> columns = splitLine(header);
+            if (columns == null) {
+                return false;
+            }
+            for (int i = 0; i < columns.size(); i++) {
+                if (columns.get(i).trim().equals("trip_id")) {
+                    tripIdColumn = i;
+                }
+            }
+            if (tripIdColumn < 0) {
+                return true;
+            }
+            Set<String> tripsDone = new HashSet<>();
+            String currentTripId = null;
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                List<String> fields = splitLine(line);
+                if (fields == null) {
+                    return false;
+                }
+                String tripId = tripIdColumn < fields.size() ? fields.get(tripIdColumn) : "";
+                if (!tripId.equals(currentTripId)) {
+                    if (!tripsDone.add(tripId)) {
+                        return false;
+                    }
+                    currentTripId = tripId;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Split a line of a CSV file into fields, removing the quotes around quoted fields.
+     *
+     * @return null if the line ends within a quoted field, which then continues on the next line
+     */
+    static List<String> splitLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            return null;
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
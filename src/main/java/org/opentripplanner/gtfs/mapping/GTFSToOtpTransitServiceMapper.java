@@ -51,7 +51,11 @@ public class GTFSToOtpTransitServiceMapper {
         return new GTFSToOtpTransitServiceMapper().map(data);
     }
 
-    private OtpTransitService map(org.onebusaway.gtfs.services.GtfsRelationalDao data) {
+    /**
+     * Map from GTFS data to the internal OTP model. The stop times not in the DAO can be mapped afterwards with
+     * {@link #mapStopTime}, and refer to the same trips and stops as the returned transit service.
+     */
+    public OtpTransitService map(org.onebusaway.gtfs.services.GtfsRelationalDao data) {
         OtpTransitServiceBuilder builder = new OtpTransitServiceBuilder();
 
         builder.getAgencies().addAll(agencyMapper.map(data.getAllAgencies()));
@@ -72,4 +76,12 @@ public class GTFSToOtpTransitServiceMapper {
 
         return builder.build();
     }
+
+    /**
+     * Map a stop time read after the rest of the feed. Unlike the stop times mapped with the feed, it is not kept by
+     * this mapper.
+     */
+    public org.opentripplanner.model.StopTime mapStopTime(org.onebusaway.gtfs.model.StopTime stopTime) {
+        return stopTimeMapper.mapWithoutCache(stopTime);
+    }
 }
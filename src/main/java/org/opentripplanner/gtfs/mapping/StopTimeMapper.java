@@ -29,6 +29,11 @@ class StopTimeMapper {
         return orginal == null ? null : mappedStopTimes.computeIfAbsent(orginal, this::doMap);
     }
 
+    /** Map from GTFS to OTP model without keeping the result, {@code null} safe. */
+    StopTime mapWithoutCache(org.onebusaway.gtfs.model.StopTime orginal) {
+        return orginal == null ? null : doMap(orginal);
+    }
+
     private StopTime doMap(org.onebusaway.gtfs.model.StopTime rhs) {
         StopTime lhs = new StopTime();
 
@@ -9,6 +9,8 @@ public class AnyFileBasedOpenStreetMapProviderImpl implements OpenStreetMapProvi
 
     private File path;
 
+    private int threads = Runtime.getRuntime().availableProcessors();
+
     public void setPath(File path) {
         this.path = path;
     }
@@ -19,12 +21,18 @@ public class AnyFileBasedOpenStreetMapProviderImpl implements OpenStreetMapProvi
     
     public AnyFileBasedOpenStreetMapProviderImpl() { };
 
+    /** Set the number of threads decoding the blocks of PBF files, by default the number of processors. */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
     @Override
     public void readOSM(OpenStreetMapContentHandler handler) {
         try {
             if (path.getName().endsWith(".pbf")) {
                 BinaryFileBasedOpenStreetMapProviderImpl p = new BinaryFileBasedOpenStreetMapProviderImpl();
                 p.setPath(path);
+                p.setThreads(threads);
                 p.readOSM(handler);
             } else {
                 StreamedFileBasedOpenStreetMapProviderImpl p = new StreamedFileBasedOpenStreetMapProviderImpl();
@@ -4,13 +4,14 @@ import org.opentripplanner.openstreetmap.services.OpenStreetMapContentHandler;
 import org.opentripplanner.openstreetmap.services.OpenStreetMapProvider;
 
 import java.io.File;
-import java.io.FileInputStream;
-
-import crosby.binary.file.BlockInputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Parser for the OpenStreetMap PBF format. Parses files in three passes:
  * First the relations, then the ways, then the nodes are also loaded.
+ * Blocks are decompressed and decoded on a pool of threads, and passes skip the blocks which do
+ * not contain the entities they load.
  *
  * @see http://wiki.openstreetmap.org/wiki/PBF_Format
  * @see org.opentripplanner.openstreetmap.services.graph_builder.services.osm.OpenStreetMapContentHandler#biPhase
@@ -20,29 +21,30 @@ public class BinaryFileBasedOpenStreetMapProviderImpl implements OpenStreetMapPr
 
     private File path;
 
+    private int threads = Runtime.getRuntime().availableProcessors();
+
     public void readOSM(OpenStreetMapContentHandler handler) {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
         try {
-            BinaryOpenStreetMapParser parser = new BinaryOpenStreetMapParser(handler);
-
-            FileInputStream input = new FileInputStream(path);
-            parser.setParseNodes(false);
-            parser.setParseWays(false);
-            (new BlockInputStream(input, parser)).process();
+            ParallelPbfReader reader = new ParallelPbfReader(path, executor, threads * 2);
+            reader.read(handler, ParallelPbfReader.RELATIONS);
             handler.doneFirstPhaseRelations();
 
-            input = new FileInputStream(path);
-            parser.setParseRelations(false);
-            parser.setParseWays(true);
-            (new BlockInputStream(input, parser)).process();
+            reader.read(handler, ParallelPbfReader.WAYS);
             handler.doneSecondPhaseWays();
 
-            input = new FileInputStream(path);
-            parser.setParseNodes(true);
-            parser.setParseWays(false);
-            (new BlockInputStream(input, parser)).process();
+            reader.read(handler, ParallelPbfReader.NODES);
             handler.doneThirdPhaseNodes();
         } catch (Exception ex) {
-            throw new IllegalStateException("error loading OSM from path " + path, ex);        }
+            throw new IllegalStateException("error loading OSM from path " + path, ex);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /** Set the number of threads decoding blocks, by default the number of processors. */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
     }
 
     public void setPath(File path) {
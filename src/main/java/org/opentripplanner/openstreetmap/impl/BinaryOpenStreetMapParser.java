@@ -191,6 +191,11 @@ public class BinaryOpenStreetMapParser extends BinaryParser {
         }
     }
 
+    /** Parse the entities of a data block which has already been decoded. */
+    public void parseBlock(Osmformat.PrimitiveBlock block) {
+        parse(block);
+    }
+
     @Override
     public void parse(Osmformat.HeaderBlock block) {
         for (String s : block.getRequiredFeaturesList()) {
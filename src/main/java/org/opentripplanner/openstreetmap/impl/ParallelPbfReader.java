@@ -0,0 +1,244 @@
+package org.opentripplanner.openstreetmap.impl;
+
+import crosby.binary.Fileformat;
+import crosby.binary.Osmformat;
+import gnu.trove.list.array.TIntArrayList;
+import org.opentripplanner.openstreetmap.model.OSMNode;
+import org.opentripplanner.openstreetmap.model.OSMRelation;
+import org.opentripplanner.openstreetmap.model.OSMWay;
+import org.opentripplanner.openstreetmap.model.OSMWithTags;
+import org.opentripplanner.openstreetmap.services.OpenStreetMapContentHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the entities of a PBF file, decompressing and decoding its blocks on a thread pool. The
+ * calling thread reads the raw blocks in file order and hands the decoded entities to the content
+ * handler in that same order, so the handler sees exactly the sequence a single-threaded parser
+ * would produce and needs no synchronization.
+ *
+ * The file is read once per pass. The first pass decodes every block and records which kinds of
+ * entities each one holds; later passes skip the blocks holding none of the kinds they need, which
+ * in a sorted file means all the node blocks when reading ways and relations.
+ *
+ * @see <a href="http://wiki.openstreetmap.org/wiki/PBF_Format">PBF Format</a>
+ */
+class ParallelPbfReader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelPbfReader.class);
+
+    static final int NODES = 1;
+
+    static final int WAYS = 2;
+
+    static final int RELATIONS = 4;
+
+    /* Maximum sizes of a blob header and of a blob allowed by the format */
+    private static final int MAX_HEADER_SIZE = 64 * 1024;
+
+    private static final int MAX_BLOB_SIZE = 32 * 1024 * 1024;
+
+    private final File path;
+
+    private final ExecutorService executor;
+
+    /** Maximum number of blocks read ahead of the one being handed to the handler. */
+    private final int maxPending;
+
+    /** The kinds of entities in each data block, in file order, once the whole file has been read. */
+    private final TIntArrayList blockContents = new TIntArrayList();
+
+    private boolean indexed = false;
+
+    ParallelPbfReader(File path, ExecutorService executor, int maxPending) {
+        this.path = path;
+        this.executor = executor;
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * Read the entities of the given kinds (a combination of NODES, WAYS and RELATIONS) and hand
+     * them to the handler in file order.
+     */
+    void read(OpenStreetMapContentHandler handler, int kinds) throws IOException, InterruptedException, ExecutionException {
+        Deque<Future<DecodedBlock>> pending = new ArrayDeque<>();
+        int nBlocks = 0;
+        int nSkipped = 0;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(path), 1 << 16))) {
+            while (true) {
+                int headerSize;
+                try {
+                    headerSize = input.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (headerSize < 0 || headerSize > MAX_HEADER_SIZE) {
+                    throw new IOException("Invalid PBF blob header size " + headerSize);
+                }
+                byte[] headerBytes = new byte[headerSize];
+                input.readFully(headerBytes);
+                Fileformat.BlobHeader header = Fileformat.BlobHeader.parseFrom(headerBytes);
+                int dataSize = header.getDatasize();
+                if (dataSize < 0 || dataSize > MAX_BLOB_SIZE) {
+                    throw new IOException("Invalid PBF blob size " + dataSize);
+                }
+                if ("OSMData".equals(header.getType())) {
+                    if (indexed && (blockContents.get(nBlocks) & kinds) == 0) {
+                        skipFully(input, dataSize);
+                        nSkipped++;
+                    } else {
+                        byte[] blob = new byte[dataSize];
+                        input.readFully(blob);
+                        pending.add(executor.submit(() -> decode(blob, kinds)));
+                        if (pending.size() >= maxPending) {
+                            deliver(pending.poll().get(), handler);
+                        }
+                    }
+                    nBlocks++;
+                } else if ("OSMHeader".equals(header.getType())) {
+                    byte[] blob = new byte[dataSize];
+                    input.readFully(blob);
+                    new BinaryOpenStreetMapParser(handler).parse(Osmformat.HeaderBlock.parseFrom(inflate(blob)));
+                } else {
+                    // Blocks of unknown types must be skipped.
+                    skipFully(input, dataSize);
+                }
+            }
+            while (!pending.isEmpty()) {
+                deliver(pending.poll().get(), handler);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid compressed PBF header block", e);
+        } finally {
+            for (Future<DecodedBlock> future : pending) {
+                future.cancel(true);
+            }
+        }
+        indexed = true;
+        LOG.debug("Read {} PBF blocks of {}, skipped {}.", nBlocks - nSkipped, nBlocks, nSkipped);
+    }
+
+    private void deliver(DecodedBlock block, OpenStreetMapContentHandler handler) {
+        if (!indexed) {
+            blockContents.add(block.kinds);
+        }
+        for (OSMWithTags entity : block.entities) {
+            if (entity instanceof OSMNode) {
+                handler.addNode((OSMNode) entity);
+            } else if (entity instanceof OSMWay) {
+                handler.addWay((OSMWay) entity);
+            } else {
+                handler.addRelation((OSMRelation) entity);
+            }
+        }
+    }
+
+    /** Decompress and decode a data block, keeping only the entities of the given kinds. */
+    private static DecodedBlock decode(byte[] blob, int kinds) throws IOException, DataFormatException {
+        Osmformat.PrimitiveBlock block = Osmformat.PrimitiveBlock.parseFrom(inflate(blob));
+        DecodedBlock decoded = new DecodedBlock();
+        for (Osmformat.PrimitiveGroup group : block.getPrimitivegroupList()) {
+            if (group.getNodesCount() > 0 || group.hasDense()) {
+                decoded.kinds |= NODES;
+            }
+            if (group.getWaysCount() > 0) {
+                decoded.kinds |= WAYS;
+            }
+            if (group.getRelationsCount() > 0) {
+                decoded.kinds |= RELATIONS;
+            }
+        }
+        if ((decoded.kinds & kinds) != 0) {
+            BinaryOpenStreetMapParser parser = new BinaryOpenStreetMapParser(decoded);
+            parser.setParseNodes((kinds & NODES) != 0);
+            parser.setParseWays((kinds & WAYS) != 0);
+            parser.setParseRelations((kinds & RELATIONS) != 0);
+            parser.parseBlock(block);
+        }
+        return decoded;
+    }
+
+    private static byte[] inflate(byte[] blobBytes) throws IOException, DataFormatException {
+        Fileformat.Blob blob = Fileformat.Blob.parseFrom(blobBytes);
+        if (blob.hasRaw()) {
+            return blob.getRaw().toByteArray();
+        }
+        if (!blob.hasZlibData()) {
+            throw new IOException("Unsupported PBF blob compression");
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(blob.getZlibData().toByteArray());
+            byte[] data = new byte[blob.getRawSize()];
+            int n = 0;
+            while (n < data.length) {
+                int inflated = inflater.inflate(data, n, data.length - n);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("PBF blob is smaller than its declared size");
+                }
+                n += inflated;
+            }
+            return data;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void skipFully(DataInputStream input, int n) throws IOException {
+        while (n > 0) {
+            int skipped = input.skipBytes(n);
+            if (skipped <= 0) {
+                throw new EOFException("Truncated PBF file");
+            }
+            n -= skipped;
+        }
+    }
+
+    /** The entities of one block, as the parser produced them, and the kinds of entities it holds. */
+    private static class DecodedBlock implements OpenStreetMapContentHandler {
+
+        private final List<OSMWithTags> entities = new ArrayList<>();
+
+        private int kinds = 0;
+
+        @Override
+        public void addNode(OSMNode node) {
+            entities.add(node);
+        }
+
+        @Override
+        public void addWay(OSMWay way) {
+            entities.add(way);
+        }
+
+        @Override
+        public void addRelation(OSMRelation relation) {
+            entities.add(relation);
+        }
+
+        @Override
+        public void doneFirstPhaseRelations() { }
+
+        @Override
+        public void doneSecondPhaseWays() { }
+
+        @Override
+        public void doneThirdPhaseNodes() { }
+    }
+}
@@ -1,11 +1,14 @@
 package org.opentripplanner.openstreetmap.model;
 
-import java.util.ArrayList;
+import gnu.trove.TDecorators;
+import gnu.trove.list.array.TLongArrayList;
+
 import java.util.List;
 
 public class OSMWay extends OSMWithTags {
 
-    private List<Long> nodes = new ArrayList<Long>();
+    /* Node references are kept unboxed, as there are many of them in large OSM extracts. */
+    private TLongArrayList nodes = new TLongArrayList(4);
 
     public void addNodeRef(OSMNodeRef nodeRef) {
         nodes.add(nodeRef.getRef());
@@ -16,11 +19,17 @@ public class OSMWay extends OSMWithTags {
     }
 
     public void addNodeRef(long nodeRef, int index) {
-        nodes.add(index, nodeRef);
+        nodes.insert(index, nodeRef);
     }
 
+    /** The node references of this way, as a list view of the unboxed references. */
     public List<Long> getNodeRefs() {
-        return nodes;
+        return TDecorators.wrap(nodes);
+    }
+
+    /** Release the unused capacity of the node references, once all of them have been added. */
+    public void trimNodeRefs() {
+        nodes.trimToSize();
     }
 
     public String toString() {
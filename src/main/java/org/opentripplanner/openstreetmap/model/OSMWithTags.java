@@ -1,5 +1,8 @@
 package org.opentripplanner.openstreetmap.model;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
 import java.util.HashMap;
 import java.util.Map;
 
@@ -14,6 +17,9 @@ import org.opentripplanner.util.TranslatedString;
 
 public class OSMWithTags {
 
+    /* Tag keys and many tag values (yes, no, residential...) repeat over millions of entities. */
+    private static final Interner<String> TAG_INTERNER = Interners.newWeakInterner();
+
     /* To save memory this is only created when an entity actually has tags. */
     private Map<String, String> tags;
 
@@ -42,7 +48,8 @@ public class OSMWithTags {
         if (tags == null)
             tags = new HashMap<String, String>();
 
-        tags.put(tag.getK().toLowerCase(), tag.getV());
+        String value = tag.getV();
+        tags.put(TAG_INTERNER.intern(tag.getK().toLowerCase()), value == null ? null : TAG_INTERNER.intern(value));
     }
 
     /**
@@ -55,7 +62,7 @@ public class OSMWithTags {
         if (tags == null)
             tags = new HashMap<String, String>();
 
-        tags.put(key.toLowerCase(), value);
+        tags.put(TAG_INTERNER.intern(key.toLowerCase()), value == null ? null : TAG_INTERNER.intern(value));
     }
 
     /**
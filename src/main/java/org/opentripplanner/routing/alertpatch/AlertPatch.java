@@ -38,6 +38,9 @@ public class AlertPatch implements Serializable {
 
     private List<TimePeriod> timePeriods = new ArrayList<TimePeriod>();
 
+    /** The time periods sorted for {@link #displayDuring}, computed on first use. */
+    private transient SortedPeriods sortedPeriods;
+
     private String agency;
 
     private FeedScopedId route;
@@ -65,15 +68,17 @@ public class AlertPatch implements Serializable {
         return alert;
     }
 
+    /**
+     * Return true if one of the time periods starts before the time of the given state and ends after the start time
+     * of its search.
+     */
     public boolean displayDuring(State state) {
-        for (TimePeriod timePeriod : timePeriods) {
-            if (state.getTimeSeconds() >= timePeriod.startTime) {
-                if (state.getStartTimeSeconds() < timePeriod.endTime) {
-                    return true;
-                }
-            }
+        SortedPeriods periods = sortedPeriods;
+        if (periods == null) {
+            periods = new SortedPeriods(timePeriods);
+            sortedPeriods = periods;
         }
-        return false;
+        return periods.endsAfter(state.getTimeSeconds(), state.getStartTimeSeconds());
     }
 
     public String getId() {
@@ -219,6 +224,7 @@ public class AlertPatch implements Serializable {
 
     public void setTimePeriods(List<TimePeriod> periods) {
         timePeriods = periods;
+        sortedPeriods = null;
     }
 
     public String getAgency() {
@@ -386,4 +392,43 @@ public class AlertPatch implements Serializable {
                 (alert == null ? 0 : alert.hashCode()) +
                 (feedId == null ? 0 : feedId.hashCode()));
     }
+
+    /**
+     * The start times of the time periods in ascending order, with the latest end time of the periods starting at or
+     * before each of them, so the periods starting before a given time are found by a binary search.
+     */
+    private static final class SortedPeriods {
+
+        private final long[] startTimes;
+
+        private final long[] latestEndTimes;
+
+        SortedPeriods(List<TimePeriod> timePeriods) {
+            TimePeriod[] periods = timePeriods.toArray(new TimePeriod[timePeriods.size()]);
+            Arrays.sort(periods, Comparator.comparingLong(period -> period.startTime));
+            startTimes = new long[periods.length];
+            latestEndTimes = new long[periods.length];
+            long latestEndTime = Long.MIN_VALUE;
+            for (int i = 0; i < periods.length; i++) {
+                startTimes[i] = periods[i].startTime;
+                latestEndTime = Math.max(latestEndTime, periods[i].endTime);
+                latestEndTimes[i] = latestEndTime;
+            }
+        }
+
+        /** @return true if a period starting at or before the given time ends after the given search start time */
+        boolean endsAfter(long time, long searchStartTime) {
+            int i = Arrays.binarySearch(startTimes, time);
+            if (i < 0) {
+                // The index of the last period starting before the time
+                i = -i - 2;
+            } else {
+                // The last of the periods starting at the time
+                while (i + 1 < startTimes.length && startTimes[i + 1] == time) {
+                    i++;
+                }
+            }
+            return i >= 0 && latestEndTimes[i] > searchStartTime;
+        }
+    }
 }
@@ -0,0 +1,54 @@
+package org.opentripplanner.routing.alertpatch;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable index of alert patches by edge, stop or route. The patches of each key are kept in an array which is
+ * returned to every lookup, and lookups of keys without patches return one shared empty array, so looking up alerts
+ * on the routing threads does not allocate. The index is never modified: the alert patch services build a new one
+ * after each batch of changes and replace the previous one as a whole.
+ *
+ * The arrays returned must not be modified.
+ */
+public class AlertPatchIndex<K> {
+
+    public static final AlertPatch[] NO_PATCHES = new AlertPatch[0];
+
+    private static final AlertPatchIndex<?> EMPTY = new AlertPatchIndex<>(new HashMap<>(0));
+
+    private final Map<K, AlertPatch[]> patches;
+
+    private AlertPatchIndex(Map<K, AlertPatch[]> patches) {
+        this.patches = patches;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K> AlertPatchIndex<K> empty() {
+        return (AlertPatchIndex<K>) EMPTY;
+    }
+
+    /** Index a snapshot of the given patches by key. Keys without patches are left out. */
+    public static <K> AlertPatchIndex<K> of(Map<K, ? extends Collection<AlertPatch>> patchesByKey) {
+        Map<K, AlertPatch[]> patches = new HashMap<>(patchesByKey.size());
+        for (Map.Entry<K, ? extends Collection<AlertPatch>> entry : patchesByKey.entrySet()) {
+            Collection<AlertPatch> value = entry.getValue();
+            if (!value.isEmpty()) {
+                patches.put(entry.getKey(), value.toArray(new AlertPatch[value.size()]));
+            }
+        }
+        return new AlertPatchIndex<>(patches);
+    }
+
+    /** @return the patches of the given key, or an empty array if it has none */
+    public AlertPatch[] get(K key) {
+        AlertPatch[] result = key == null ? null : patches.get(key);
+        return result == null ? NO_PATCHES : result;
+    }
+
+    /** @return the number of keys with at least one patch */
+    public int size() {
+        return patches.size();
+    }
+}
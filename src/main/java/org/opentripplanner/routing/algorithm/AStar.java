@@ -9,15 +9,19 @@ import org.opentripplanner.common.pqueue.BinHeap;
 import org.opentripplanner.routing.algorithm.strategies.RemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.SearchTerminationStrategy;
 import org.opentripplanner.routing.algorithm.strategies.TrivialRemainingWeightHeuristic;
+import org.opentripplanner.routing.core.OverlayGraph;
 import org.opentripplanner.routing.core.RoutingContext;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.graph.CompactStreetGraph;
 import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.spt.*;
 import org.opentripplanner.util.DateUtils;
 import org.opentripplanner.util.monitoring.MonitoringStore;
 import org.opentripplanner.util.monitoring.MonitoringStoreFactory;
+import org.opentripplanner.util.monitoring.RoutingMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,6 +45,12 @@ public class AStar {
 
     private TraverseVisitor traverseVisitor;
 
+    /**
+     * If true, each search reuses the vertex-indexed state storage of the previous search on the same thread instead
+     * of allocating a new ShortestPathTree. The tree returned by a search is then only valid until the next search.
+     */
+    private boolean reuseShortestPathTree = false;
+
     enum RunStatus {
         RUNNING, STOPPED
     }
@@ -54,12 +64,15 @@ public class AStar {
         RemainingWeightHeuristic heuristic;
         public RoutingContext rctx;
         public int nVisited;
+        int nEnqueued;
         public List<State> targetAcceptedStates;
         public RunStatus status;
         private RoutingRequest options;
         private SearchTerminationStrategy terminationStrategy;
         public Vertex u_vertex;
         Double foundPathWeight = null;
+        CompactStreetGraph compactStreetGraph;
+        RoutingMetrics metrics;
 
         public RunState(RoutingRequest options, SearchTerminationStrategy terminationStrategy) {
             this.options = options;
@@ -96,7 +109,11 @@ public class AStar {
 
         runState = new RunState( options, terminationStrategy );
         runState.rctx = options.getRoutingContext();
-        runState.spt = options.getNewShortestPathTree();
+        runState.compactStreetGraph = runState.rctx.graph == null ? null : runState.rctx.graph.compactStreetGraph;
+        runState.metrics = runState.rctx.graph == null ? null : runState.rctx.graph.getRoutingMetrics();
+        runState.spt = reuseShortestPathTree ?
+                VertexArrayShortestPathTree.reuseForCurrentThread(options, options.dominanceFunction) :
+                options.getNewShortestPathTree();
 
         // We want to reuse the heuristic instance in a series of requests for the same target to avoid repeated work.
         // "Batch" means one-to-many mode, where there is no goal to reach so we use a trivial heuristic.
@@ -111,6 +128,9 @@ public class AStar {
         if (abortTime < Long.MAX_VALUE  && System.currentTimeMillis() > abortTime) {
             LOG.warn("Timeout during initialization of goal direction heuristic.");
             options.rctx.debugOutput.timedOut = true;
+            if (runState.metrics != null) {
+                runState.metrics.searchTimeouts.increment();
+            }
             runState = null; // Search timed out
             return;
         }
@@ -123,12 +143,14 @@ public class AStar {
         initialSize = (int) Math.ceil(2 * (Math.sqrt((double) initialSize + 1)));
         runState.pq = new BinHeap<>(initialSize);
         runState.nVisited = 0;
+        runState.nEnqueued = 0;
         runState.targetAcceptedStates = Lists.newArrayList();
         
         if (addToQueue) {
             State initialState = new State(options);
             runState.spt.add(initialState);
             runState.pq.insert(initialState, 0);
+            runState.nEnqueued++;
         }
     }
 
@@ -164,60 +186,85 @@ public class AStar {
 
         runState.nVisited += 1;
         
-        Collection<Edge> edges = runState.options.arriveBy ? runState.u_vertex.getIncoming() : runState.u_vertex.getOutgoing();
-        for (Edge edge : edges) {
-
-            // Iterate over traversal results. When an edge leads nowhere (as indicated by
-            // returning NULL), the iteration is over. TODO Use this to board multiple trips.
-            for (State v = edge.traverse(runState.u); v != null; v = v.getNextResult()) {
-                // Could be: for (State v : traverseEdge...)
+        boolean arriveBy = runState.options.arriveBy;
+        CompactStreetGraph csg = runState.compactStreetGraph;
+        if (csg != null && csg.covers(runState.u_vertex, arriveBy)) {
+            // Read the edges and street edge attributes from the compact view of the graph.
+            int end = csg.getEnd(runState.u_vertex, arriveBy);
+            for (int i = csg.getStart(runState.u_vertex, arriveBy); i < end; i++) {
+                int e = csg.getEdgeNumber(i, arriveBy);
+                Edge edge = csg.getEdge(e);
+                State results = edge instanceof StreetEdge ?
+                        ((StreetEdge) edge).traverse(runState.u, csg, e) : edge.traverse(runState.u);
+                enqueueResults(edge, results);
+            }
+        } else {
+            Collection<Edge> edges = arriveBy ? runState.u_vertex.getIncoming() : runState.u_vertex.getOutgoing();
+            for (Edge edge : edges) {
+                enqueueResults(edge, edge.traverse(runState.u));
+            }
+        }
+        // The temporary edges of this request are not in the edge lists of the permanent vertices they touch.
+        OverlayGraph temporaryEdges = runState.rctx.temporaryEdges;
+        for (Edge edge : arriveBy ? temporaryEdges.getIncoming(runState.u_vertex)
+                : temporaryEdges.getOutgoing(runState.u_vertex)) {
+            enqueueResults(edge, edge.traverse(runState.u));
+        }
+        
+        return true;
+    }
 
-                if (traverseVisitor != null) {
-                    traverseVisitor.visitEdge(edge, v);
-                }
+    /**
+     * Add the states resulting from the traversal of an edge to the queue if they are hopeful.
+     * Iterate over traversal results. When an edge leads nowhere (as indicated by returning NULL),
+     * the iteration is over. TODO Use this to board multiple trips.
+     */
+    private void enqueueResults(Edge edge, State results) {
+        for (State v = results; v != null; v = v.getNextResult()) {
+            if (traverseVisitor != null) {
+                traverseVisitor.visitEdge(edge, v);
+            }
 
-                double remaining_w = runState.heuristic.estimateRemainingWeight(v);
+            double remaining_w = runState.heuristic.estimateRemainingWeight(v);
 
 //                LOG.info("{} {}", v, remaining_w);
 
-                if (remaining_w < 0 || Double.isInfinite(remaining_w) ) {
-                    continue;
-                }
-                double estimate = v.getWeight() + remaining_w;
+            if (remaining_w < 0 || Double.isInfinite(remaining_w) ) {
+                continue;
+            }
+            double estimate = v.getWeight() + remaining_w;
 
-                if (verbose) {
-                    System.out.println("      edge " + edge);
-                    System.out.println("      " + runState.u.getWeight() + " -> " + v.getWeight()
-                            + "(w) + " + remaining_w + "(heur) = " + estimate + " vert = "
-                            + v.getVertex());
-                }
+            if (verbose) {
+                System.out.println("      edge " + edge);
+                System.out.println("      " + runState.u.getWeight() + " -> " + v.getWeight()
+                        + "(w) + " + remaining_w + "(heur) = " + estimate + " vert = "
+                        + v.getVertex());
+            }
 
-                // avoid enqueuing useless branches 
-                if (estimate > runState.options.maxWeight) {
-                    // too expensive to get here
-                    if (verbose)
-                        System.out.println("         too expensive to reach, not enqueued. estimated weight = " + estimate);
-                    continue;
-                }
-                if (isWorstTimeExceeded(v, runState.options)) {
-                    // too much time to get here
-                    if (verbose)
-                        System.out.println("         too much time to reach, not enqueued. time = " + v.getTimeSeconds());
-                    continue;
-                }
-                
-                // spt.add returns true if the state is hopeful; enqueue state if it's hopeful
-                if (runState.spt.add(v)) {
-                    // report to the visitor if there is one
-                    if (traverseVisitor != null)
-                        traverseVisitor.visitEnqueue(v);
-                    //LOG.info("u.w={} v.w={} h={}", runState.u.weight, v.weight, remaining_w);
-                    runState.pq.insert(v, estimate);
-                } 
+            // avoid enqueuing useless branches 
+            if (estimate > runState.options.maxWeight) {
+                // too expensive to get here
+                if (verbose)
+                    System.out.println("         too expensive to reach, not enqueued. estimated weight = " + estimate);
+                continue;
+            }
+            if (isWorstTimeExceeded(v, runState.options)) {
+                // too much time to get here
+                if (verbose)
+                    System.out.println("         too much time to reach, not enqueued. time = " + v.getTimeSeconds());
+                continue;
             }
-        }
         
-        return true;
+            // spt.add returns true if the state is hopeful; enqueue state if it's hopeful
+            if (runState.spt.add(v)) {
+                // report to the visitor if there is one
+                if (traverseVisitor != null)
+                    traverseVisitor.visitEnqueue(v);
+                //LOG.info("u.w={} v.w={} h={}", runState.u.weight, v.weight, remaining_w);
+                runState.pq.insert(v, estimate);
+                runState.nEnqueued++;
+            }
+        }
     }
     
     void runSearch(long abortTime){
@@ -233,6 +280,9 @@ public class AStar {
                 // allows returning a partial list results even when a timeout occurs.
                 runState.options.rctx.aborted = true; // signal search cancellation up to higher stack frames
                 runState.options.rctx.debugOutput.timedOut = true; // signal timeout in debug output object
+                if (runState.metrics != null) {
+                    runState.metrics.searchTimeouts.increment();
+                }
 
                 break;
             }
@@ -290,12 +340,14 @@ public class AStar {
             SearchTerminationStrategy terminationStrategy) {
         ShortestPathTree spt = null;
         long abortTime = DateUtils.absoluteTimeout(relTimeoutSeconds);
+        long startNanos = System.nanoTime();
 
         startSearch (options, terminationStrategy, abortTime);
 
         if (runState != null) {
             runSearch(abortTime);
             spt = runState.spt;
+            recordMetrics(startNanos);
         }
         
         storeMemory();
@@ -308,6 +360,7 @@ public class AStar {
         
         ShortestPathTree spt = null;
         long abortTime = DateUtils.absoluteTimeout(relTimeoutSeconds);
+        long startNanos = System.nanoTime();
 
         startSearch (options, terminationStrategy, abortTime, false);
         
@@ -317,15 +370,25 @@ public class AStar {
                 // TODO: hardwired for earliest arrival
                 // TODO: weights are seconds, no?
                 runState.pq.insert(state, state.getElapsedTimeSeconds());
+                runState.nEnqueued++;
             }
             
             runSearch(abortTime);
             spt = runState.spt;
+            recordMetrics(startNanos);
         }
         
         return spt;
     }
 
+    private void recordMetrics(long startNanos) {
+        if (runState.metrics != null) {
+            runState.metrics.searchTime.recordMicrosSince(startNanos);
+            runState.metrics.statesVisited.record(runState.nVisited);
+            runState.metrics.statesEnqueued.record(runState.nEnqueued);
+        }
+    }
+
     private void storeMemory() {
         if (store.isMonitoring("memoryUsed")) {
             System.gc();
@@ -346,6 +409,14 @@ public class AStar {
         this.traverseVisitor = traverseVisitor;
     }
 
+    /**
+     * Reuse one thread-local, vertex-indexed SPT for all searches on this thread rather than allocating a new tree for
+     * each search. Only enable this when the caller does not hold on to the trees returned by previous searches.
+     */
+    public void setReuseShortestPathTree(boolean reuseShortestPathTree) {
+        this.reuseShortestPathTree = reuseShortestPathTree;
+    }
+
     public List<GraphPath> getPathsToTarget() {
         if (runState == null) {
             return Collections.emptyList();
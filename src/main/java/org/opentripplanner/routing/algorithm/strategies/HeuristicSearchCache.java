@@ -0,0 +1,138 @@
+package org.opentripplanner.routing.algorithm.strategies;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.locationtech.jts.geom.Coordinate;
+import org.opentripplanner.routing.algorithm.strategies.InterleavedBidirectionalHeuristic.VertexModeWeight;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.TemporaryVertex;
+import org.opentripplanner.routing.vertextype.TransitStop;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Results of the street searches run by the InterleavedBidirectionalHeuristic around the origin and
+ * target of a request, so that repeated searches between the same places (the successive searches
+ * of a request, speculative searches, or the same trip requested again) do not search the streets
+ * again. Results are keyed on the exact endpoint and the request parameters which change street
+ * traversal: reusing the search of a nearby point would not give an admissible heuristic.
+ *
+ * A temporary endpoint is identified by its coordinate, and the temporary vertices of the request a
+ * result was found for are left out of it; the heuristic estimates 0 for any temporary vertex anyway.
+ * Searches depending on realtime bike rental or parking availability or on traffic, and car searches
+ * around the target (which stop at the origin) are not cached.
+ *
+ * Results are evicted, least recently used first, when the total number of vertices they hold
+ * exceeds the maximum given. Cached maps are shared between requests and must not be modified.
+ */
+public class HeuristicSearchCache {
+
+    private final Cache<Key, SearchResult> cache;
+
+    /** @param maxVertices maximum total number of vertices held by the cached search results */
+    public HeuristicSearchCache(long maxVertices) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxVertices)
+                .weigher((Key key, SearchResult result) -> result.vertices.size() + result.transitStops.length)
+                .build();
+    }
+
+    /**
+     * Return the key under which the result of a street search for the given request is kept, or
+     * null if the result cannot be reused by other requests. The request must already be set up for
+     * the search, with arriveBy matching the direction of the search.
+     */
+    Key key(RoutingRequest rr, boolean fromTarget) {
+        if (rr.useTraffic || rr.allowBikeRental || rr.bikeParkAndRide || rr.useBikeRentalAvailabilityInformation) {
+            return null;
+        }
+        if (fromTarget && rr.modes.getCar()) {
+            return null;
+        }
+        Vertex endpoint = fromTarget ? rr.rctx.target : rr.rctx.origin;
+        return new Key(endpoint, rr, fromTarget);
+    }
+
+    SearchResult get(Key key) {
+        return cache.getIfPresent(key);
+    }
+
+    void put(Key key, SearchResult result) {
+        cache.put(key, result);
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    /** Identifies a street search: its endpoint, direction and the parameters of street traversal. */
+    static class Key {
+
+        private final Object[] fields;
+
+        private Key(Vertex endpoint, RoutingRequest rr, boolean fromTarget) {
+            // Temporary vertices are created for each request, so compare them by where they are.
+            Object place = endpoint instanceof TemporaryVertex ? new Coordinate(endpoint.getCoordinate()) : endpoint;
+            fields = new Object[] {
+                    place, endpoint.getClass(), fromTarget, rr.arriveBy, rr.modes.clone(), rr.optimize,
+                    rr.maxWalkDistance, rr.maxPreTransitTime, rr.wheelchairAccessible, rr.maxSlope,
+                    rr.walkSpeed, rr.bikeSpeed, rr.carSpeed, rr.walkReluctance, rr.stairsReluctance,
+                    rr.turnReluctance, rr.elevatorBoardTime, rr.elevatorBoardCost, rr.elevatorHopTime,
+                    rr.elevatorHopCost, rr.bikeSwitchTime, rr.bikeSwitchCost, rr.carDropoffTime,
+                    rr.triangleTimeFactor, rr.triangleSlopeFactor, rr.triangleSafetyFactor,
+                    rr.parkAndRide, rr.kissAndRide, rr.walkingBike, rr.enterStationsWithCar,
+                    rr.driveOnRight, rr.carDecelerationSpeed, rr.carAccelerationSpeed,
+                    rr.traversalCostModel.getClass()
+            };
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            return Arrays.equals(fields, ((Key) o).fields);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(fields);
+        }
+    }
+
+    /**
+     * What a street search found: the lower bound weights of the permanent vertices it reached and,
+     * for searches around the target, the transit stops it reached with their weights.
+     */
+    static class SearchResult {
+
+        final Map<Vertex, VertexModeWeight> vertices;
+
+        final TransitStop[] transitStops;
+
+        final double[] transitStopWeights;
+
+        SearchResult(Map<Vertex, VertexModeWeight> vertices, List<TransitStop> transitStops, List<Double> transitStopWeights) {
+            Map<Vertex, VertexModeWeight> permanent = new HashMap<>(vertices.size());
+            for (Map.Entry<Vertex, VertexModeWeight> entry : vertices.entrySet()) {
+                if (!(entry.getKey() instanceof TemporaryVertex)) {
+                    permanent.put(entry.getKey(), entry.getValue());
+                }
+            }
+            this.vertices = Collections.unmodifiableMap(permanent);
+            this.transitStops = transitStops.toArray(new TransitStop[0]);
+            this.transitStopWeights = new double[transitStopWeights.size()];
+            for (int i = 0; i < this.transitStopWeights.length; i++) {
+                this.transitStopWeights[i] = transitStopWeights.get(i);
+            }
+        }
+    }
+}
@@ -20,7 +20,9 @@ import org.opentripplanner.routing.vertextype.TransitVertex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -199,6 +201,7 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
         LOG.debug("Initializing heuristic computation.");
         this.graph = request.rctx.graph;
         long start = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
         this.target = target;
         this.routingRequest = request;
         request.softWalkLimiting = false;
@@ -255,6 +258,8 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
 
         LOG.debug("initialized SSSP");
         request.rctx.debugOutput.finishedPrecalculating();
+        // Timeouts during initialization are counted by the search.
+        graph.getRoutingMetrics().heuristicInitTime.recordMicrosSince(startNanos);
     }
 
     /**
@@ -443,6 +448,9 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
      * of hailing a car after taking transit or renting a car after transit.  Since the calculation
      * of the estimated remaining weight after transit will be the largest weight seen, we can
      * safely cut off the post-transit search once the origin is found.
+     *
+     * If the graph has a {@link HeuristicSearchCache}, a previous search from the same endpoint
+     * with the same street parameters is reused instead of searching again.
      */
     private Map<Vertex, VertexModeWeight> streetSearch (RoutingRequest rr, boolean fromTarget, long abortTime) {
         LOG.debug("Heuristic street search around the {}.", fromTarget ? "target" : "origin");
@@ -450,6 +458,24 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
         if (fromTarget) {
             rr.setArriveBy(!rr.arriveBy);
         }
+        HeuristicSearchCache cache = graph.heuristicSearchCache;
+        HeuristicSearchCache.Key key = cache == null ? null : cache.key(rr, fromTarget);
+        if (key != null) {
+            HeuristicSearchCache.SearchResult cached = cache.get(key);
+            if (cached != null) {
+                graph.getRoutingMetrics().heuristicCacheHits.increment();
+                for (int i = 0; i < cached.transitStops.length; i++) {
+                    transitQueue.insert(cached.transitStops[i], cached.transitStopWeights[i]);
+                    maxWeightSeen = Math.max(maxWeightSeen, cached.transitStopWeights[i]);
+                }
+                LOG.debug("Reusing cached heuristic street search with {} vertices.", cached.vertices.size());
+                return cached.vertices;
+            }
+            graph.getRoutingMetrics().heuristicCacheMisses.increment();
+        }
+        // Transit stops reached, in the order they were reached, for caching the search.
+        List<TransitStop> transitStops = new ArrayList<>();
+        List<Double> transitStopWeights = new ArrayList<>();
         // Create a map that returns Infinity when it does not contain a vertex.
         Map<Vertex, VertexModeWeight> vertices = new HashMap<>();
         ShortestPathTree spt = new DominanceFunction.MinimumWeight().getNewShortestPathTree(rr);
@@ -475,6 +501,12 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
                     if (weight > maxWeightSeen) {
                         maxWeightSeen = weight;
                     }
+                    if (v instanceof TemporaryVertex) {
+                        // A stop created for this request only (e.g. a flex stop), don't reuse the search.
+                        key = null;
+                    }
+                    transitStops.add((TransitStop) v);
+                    transitStopWeights.add(weight);
                 }
                 continue;
             }
@@ -509,7 +541,7 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
             }
 
             // Attempt to traverse all edges going in the direction desired
-            for (Edge e : rr.arriveBy ? v.getIncoming() : v.getOutgoing()) {
+            for (Edge e : rr.arriveBy ? rr.rctx.getIncoming(v) : rr.rctx.getOutgoing(v)) {
                 // arriveBy has been set to match actual directional behavior in this subsearch.
                 // Max walk distance cutoff or pre transit time cutoff will happen in the street
                 // edge traversal method.
@@ -524,6 +556,9 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
         }
         LOG.debug("Heuristic street search hit {} vertices.", vertices.size());
         LOG.debug("Heuristic street search hit {} transit stops.", transitQueue.size());
+        if (key != null) {
+            cache.put(key, new HeuristicSearchCache.SearchResult(vertices, transitStops, transitStopWeights));
+        }
         return vertices;
     }
 
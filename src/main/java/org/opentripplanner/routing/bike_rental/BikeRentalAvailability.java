@@ -0,0 +1,106 @@
+package org.opentripplanner.routing.bike_rental;
+
+import org.opentripplanner.routing.vertextype.BikeRentalStationVertex;
+
+import java.util.Arrays;
+
+/**
+ * The state of the bike rental stations updated in real time, as of one update: whether each station is in service,
+ * and the bikes and spaces available there. The states are kept in arrays indexed by the availability index of the
+ * station vertices (see {@link BikeRentalStationVertex#getAvailabilityIndex()}).
+ *
+ * Instances are immutable. Each update publishes a new version in the {@link BikeRentalStationService}, and each
+ * request uses the version published when its routing context was created, so a search sees the same state from
+ * start to end while the stations are updated. Stations without an availability index (those loaded when building
+ * the graph) are always in service, with the availability stored in their vertex.
+ */
+public class BikeRentalAvailability {
+
+    public static final BikeRentalAvailability EMPTY =
+            new BikeRentalAvailability(0, new boolean[0], new int[0], new int[0]);
+
+    /** The number of updates before this one. */
+    public final int version;
+
+    private final boolean[] inService;
+
+    private final int[] bikesAvailable;
+
+    private final int[] spacesAvailable;
+
+    private BikeRentalAvailability(int version, boolean[] inService, int[] bikesAvailable, int[] spacesAvailable) {
+        this.version = version;
+        this.inService = inService;
+        this.bikesAvailable = bikesAvailable;
+        this.spacesAvailable = spacesAvailable;
+    }
+
+    /**
+     * Return true if bikes can be rented and dropped off at the given station. Stations added by an update are not in
+     * service in earlier versions, and stations which are no longer in the feed are not in service from then on.
+     */
+    public boolean isInService(BikeRentalStationVertex station) {
+        int i = station.getAvailabilityIndex();
+        return i < 0 || (i < inService.length && inService[i]);
+    }
+
+    public int getBikesAvailable(BikeRentalStationVertex station) {
+        int i = station.getAvailabilityIndex();
+        if (i < 0) {
+            return station.getBikesAvailable();
+        }
+        return i < bikesAvailable.length ? bikesAvailable[i] : 0;
+    }
+
+    public int getSpacesAvailable(BikeRentalStationVertex station) {
+        int i = station.getAvailabilityIndex();
+        if (i < 0) {
+            return station.getSpacesAvailable();
+        }
+        return i < spacesAvailable.length ? spacesAvailable[i] : 0;
+    }
+
+    /** Start the next version, for the given number of stations, from the state of this one. */
+    Builder edit(int nStations) {
+        return new Builder(this, Math.max(nStations, inService.length));
+    }
+
+    /** The next version of the state, on copies of the arrays of the previous one. */
+    public static class Builder {
+
+        private final int version;
+
+        private final boolean[] inService;
+
+        private final int[] bikesAvailable;
+
+        private final int[] spacesAvailable;
+
+        private Builder(BikeRentalAvailability previous, int nStations) {
+            this.version = previous.version + 1;
+            this.inService = Arrays.copyOf(previous.inService, nStations);
+            this.bikesAvailable = Arrays.copyOf(previous.bikesAvailable, nStations);
+            this.spacesAvailable = Arrays.copyOf(previous.spacesAvailable, nStations);
+        }
+
+        /** Put the given station in service with the given availability. */
+        public void setAvailable(BikeRentalStationVertex station, int bikes, int spaces) {
+            int i = station.getAvailabilityIndex();
+            inService[i] = true;
+            bikesAvailable[i] = bikes;
+            spacesAvailable[i] = spaces;
+        }
+
+        /** Take the given station out of service. */
+        public void setOutOfService(BikeRentalStationVertex station) {
+            int i = station.getAvailabilityIndex();
+            inService[i] = false;
+            bikesAvailable[i] = 0;
+            spacesAvailable[i] = 0;
+        }
+
+        BikeRentalAvailability build() {
+            return new BikeRentalAvailability(version, inService, bikesAvailable, spacesAvailable);
+        }
+    }
+}
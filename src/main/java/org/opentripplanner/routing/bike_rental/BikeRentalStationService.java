@@ -4,8 +4,10 @@ import java.io.Serializable;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.function.Consumer;
 
 import org.opentripplanner.routing.bike_park.BikePark;
+import org.opentripplanner.routing.vertextype.BikeRentalStationVertex;
 
 public class BikeRentalStationService implements Serializable {
     private static final long serialVersionUID = -1288992939159246764L;
@@ -14,6 +16,12 @@ public class BikeRentalStationService implements Serializable {
 
     private Set<BikePark> bikeParks = new HashSet<>();
 
+    /** The number of station vertices given an availability index. */
+    private transient int nAvailabilityIndexes;
+
+    /** The last published state of the stations updated in real time. */
+    private transient volatile BikeRentalAvailability availability;
+
     public Collection<BikeRentalStation> getBikeRentalStations() {
         return bikeRentalStations;
     }
@@ -41,4 +49,28 @@ public class BikeRentalStationService implements Serializable {
     public void removeBikePark(BikePark bikePark) {
         bikeParks.remove(bikePark);
     }
+
+    /**
+     * Give the station vertex the next availability index, so that its state can be updated in real time. The
+     * station is not in service until an update puts it in service.
+     */
+    public synchronized void addAvailabilityIndex(BikeRentalStationVertex station) {
+        station.setAvailabilityIndex(nAvailabilityIndexes++);
+    }
+
+    /** The last published state of the stations updated in real time. */
+    public BikeRentalAvailability getAvailability() {
+        BikeRentalAvailability availability = this.availability;
+        return availability == null ? BikeRentalAvailability.EMPTY : availability;
+    }
+
+    /**
+     * Apply the given changes to a copy of the last published state of the stations, and publish it. Requests
+     * already running keep the state they started with.
+     */
+    public synchronized void updateAvailability(Consumer<BikeRentalAvailability.Builder> changes) {
+        BikeRentalAvailability.Builder builder = getAvailability().edit(nAvailabilityIndexes);
+        changes.accept(builder);
+        availability = builder.build();
+    }
 }
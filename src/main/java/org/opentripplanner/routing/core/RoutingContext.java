@@ -12,7 +12,10 @@ import org.opentripplanner.common.geometry.GeometryUtils;
 import org.opentripplanner.routing.algorithm.strategies.EuclideanRemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.RemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.TrivialRemainingWeightHeuristic;
+import org.opentripplanner.routing.bike_rental.BikeRentalAvailability;
+import org.opentripplanner.routing.bike_rental.BikeRentalStationService;
 import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.TemporaryEdge;
 import org.opentripplanner.routing.edgetype.TemporaryPartialStreetEdge;
 import org.opentripplanner.routing.edgetype.TimetableSnapshot;
 import org.opentripplanner.routing.error.GraphNotFoundException;
@@ -87,6 +90,12 @@ public class RoutingContext implements Cloneable {
     /** The timetableSnapshot is a {@link TimetableSnapshot} for looking up real-time updates. */
     public final TimetableSnapshot timetableSnapshot;
 
+    /**
+     * The state of the bike rental stations updated in real time, as of the start of this request. Held for the whole
+     * request so that the stations do not change during the search.
+     */
+    public final BikeRentalAvailability bikeRentalAvailability;
+
     /**
      * Cache lists of which transit services run on which midnight-to-midnight periods. This ties a TraverseOptions to a particular start time for the
      * duration of a search so the same options cannot be used for multiple searches concurrently. To do so this cache would need to be moved into
@@ -120,6 +129,14 @@ public class RoutingContext implements Cloneable {
      */
     public Collection<Vertex> temporaryVertices = new ArrayList<>();
 
+    /**
+     * The request-scoped temporary edges (see {@link TemporaryEdge#isRequestScoped()}) joining the temporary origin and
+     * destination of this request to permanent vertices, keyed on the permanent vertex. They are not in the edge lists
+     * of the permanent vertices, which are shared by all requests, so searches look them up here, usually through
+     * {@link #getOutgoing(Vertex)} and {@link #getIncoming(Vertex)}.
+     */
+    public final OverlayGraph temporaryEdges = new OverlayGraph();
+
     /* CONSTRUCTORS */
 
     /**
@@ -240,6 +257,10 @@ public class RoutingContext implements Cloneable {
             calendarService = null;
         }
 
+        BikeRentalStationService bikeRentalStationService = graph.getService(BikeRentalStationService.class);
+        bikeRentalAvailability = bikeRentalStationService == null ? BikeRentalAvailability.EMPTY
+                : bikeRentalStationService.getAvailability();
+
         Edge fromBackEdge = null;
         Edge toBackEdge = null;
         if (findPlaces) {
@@ -306,8 +327,12 @@ public class RoutingContext implements Cloneable {
         if (temporaryVerticesParam != null) {
             temporaryVertices = temporaryVerticesParam;
         }
-        temporaryVertices.addAll(TemporaryVertex.findSubgraph(fromVertex));
-        temporaryVertices.addAll(TemporaryVertex.findSubgraph(toVertex));
+        Collection<Vertex> fromSubgraph = TemporaryVertex.findSubgraph(fromVertex);
+        Collection<Vertex> toSubgraph = TemporaryVertex.findSubgraph(toVertex);
+        temporaryVertices.addAll(fromSubgraph);
+        temporaryVertices.addAll(toSubgraph);
+        addTemporaryEdges(fromSubgraph);
+        addTemporaryEdges(toSubgraph);
 
         if (opt.startingTransitStopId != null) {
             Stop stop = graph.index.stopForId.get(opt.startingTransitStopId);
@@ -337,6 +362,74 @@ public class RoutingContext implements Cloneable {
 
     /* INSTANCE METHODS */
 
+    /**
+     * Add the edges of the given temporary vertices which are not listed by the permanent vertex at their other end to
+     * the temporary edges of this request.
+     */
+    private void addTemporaryEdges(Collection<Vertex> vertices) {
+        for (Vertex v : vertices) {
+            for (Edge e : v.getOutgoing()) {
+                if (!e.isListedBy(e.getToVertex())) {
+                    temporaryEdges.addIncoming(e.getToVertex(), e);
+                }
+            }
+            for (Edge e : v.getIncoming()) {
+                if (!e.isListedBy(e.getFromVertex())) {
+                    temporaryEdges.addOutgoing(e.getFromVertex(), e);
+                }
+            }
+        }
+    }
+
+    /** The edges leaving the given vertex in this request: its own, and the temporary edges of this request. */
+    public Collection<Edge> getOutgoing(Vertex v) {
+        List<Edge> extra = temporaryEdges.getOutgoing(v);
+        if (extra.isEmpty()) {
+            return v.getOutgoing();
+        }
+        List<Edge> edges = new ArrayList<>(v.getOutgoing());
+        edges.addAll(extra);
+        return edges;
+    }
+
+    /** The edges arriving at the given vertex in this request: its own, and the temporary edges of this request. */
+    public Collection<Edge> getIncoming(Vertex v) {
+        List<Edge> extra = temporaryEdges.getIncoming(v);
+        if (extra.isEmpty()) {
+            return v.getIncoming();
+        }
+        List<Edge> edges = new ArrayList<>(v.getIncoming());
+        edges.addAll(extra);
+        return edges;
+    }
+
+    /**
+     * Make a copy of this routing context for another search that will run concurrently with searches using this
+     * context, for example a search at a slightly different time. The copy shares the endpoint vertices, timetable
+     * snapshot and transfer table, but has its own service days (computed for the time in the given request), its own
+     * debug and abort flags, and its own remaining weight heuristic which the caller must set. The copy does not own
+     * any temporary vertices, so destroying it will not remove the endpoints from the graph. It sees the same temporary
+     * edges as this context.
+     */
+    public RoutingContext copyForConcurrentSearch(RoutingRequest routingRequest) {
+        try {
+            RoutingContext copy = (RoutingContext) super.clone();
+            copy.opt = routingRequest;
+            copy.debugOutput = new DebugOutput();
+            copy.debugOutput.startedCalculating();
+            copy.aborted = false;
+            copy.remainingWeightHeuristic = null;
+            copy.temporaryVertices = new ArrayList<>();
+            if (routingRequest.modes.isTransit()) {
+                copy.setServiceDays();
+            }
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            /* this will never happen since our super is the cloneable object */
+            throw new RuntimeException(e);
+        }
+    }
+
     public void check() {
         ArrayList<String> notFound = new ArrayList<String>();
 
@@ -433,7 +526,9 @@ public class RoutingContext implements Cloneable {
     /**
      * Tear down this routing context, removing any temporary edges from
      * the "permanent" graph objects. This enables all temporary objects
-     * for garbage collection.
+     * for garbage collection. The request-scoped temporary edges of the
+     * origin and destination were never added to permanent objects, so
+     * only other temporary edges (such as those of GTFS-Flex) are removed.
      */
     public void destroy() {
        TemporaryVertex.disposeAll(temporaryVertices);
@@ -2,7 +2,7 @@ package org.opentripplanner.routing.edgetype;
 
 import java.util.Set;
 
-import org.opentripplanner.routing.bike_rental.BikeRentalStation;
+import org.opentripplanner.routing.bike_rental.BikeRentalAvailability;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.core.StateEditor;
@@ -46,7 +46,11 @@ public abstract class RentABikeAbstractEdge extends Edge {
             return null;
 
         BikeRentalStationVertex dropoff = (BikeRentalStationVertex) tov;
-        if (options.useBikeRentalAvailabilityInformation && dropoff.getBikesAvailable() == 0) {
+        BikeRentalAvailability availability = getAvailability(options);
+        if (!availability.isInService(dropoff)) {
+            return null;
+        }
+        if (options.useBikeRentalAvailabilityInformation && availability.getBikesAvailable(dropoff) == 0) {
             return null;
         }
 
@@ -68,7 +72,11 @@ public abstract class RentABikeAbstractEdge extends Edge {
         if (!s0.isBikeRenting() || !hasCompatibleNetworks(networks, s0.getBikeRentalNetworks()))
             return null;
         BikeRentalStationVertex pickup = (BikeRentalStationVertex) tov;
-        if (options.useBikeRentalAvailabilityInformation && pickup.getSpacesAvailable() == 0) {
+        BikeRentalAvailability availability = getAvailability(options);
+        if (!availability.isInService(pickup)) {
+            return null;
+        }
+        if (options.useBikeRentalAvailabilityInformation && availability.getSpacesAvailable(pickup) == 0) {
             return null;
         }
 
@@ -81,6 +89,11 @@ public abstract class RentABikeAbstractEdge extends Edge {
         return s1;
     }
 
+    /** The state of the stations as of the start of the request. */
+    private static BikeRentalAvailability getAvailability(RoutingRequest options) {
+        return options.rctx == null ? BikeRentalAvailability.EMPTY : options.rctx.bikeRentalAvailability;
+    }
+
     @Override
     public double getDistance() {
         return 0;
@@ -8,7 +8,9 @@ import org.opentripplanner.common.TurnRestrictionType;
 import org.opentripplanner.common.geometry.*;
 import org.opentripplanner.common.model.P2;
 import org.opentripplanner.routing.core.*;
+import org.opentripplanner.routing.graph.CompactStreetGraph;
 import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.EdgeGeometryFile;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.util.ElevationUtils;
 import org.opentripplanner.routing.vertextype.BarrierVertex;
@@ -82,7 +84,11 @@ public class StreetEdge extends Edge implements Cloneable {
      */
     protected float bicycleSafetyFactor;
 
+    /** Null when the geometry is read from the geometries file of the graph, see {@link EdgeGeometryFile}. */
     private int[] compactGeometry;
+
+    /** The geometries file of the graph this edge was loaded from, if it was saved with one. */
+    private transient EdgeGeometryFile geometryFile;
     
     private I18NString name;
 
@@ -241,9 +247,20 @@ public class StreetEdge extends Edge implements Cloneable {
 
     @Override
     public State traverse(State s0) {
+        return traverse(s0, null, -1);
+    }
+
+    /**
+     * Traverse this edge reading its attributes from a compact street graph rather than from this
+     * object. The result is the same as that of {@link #traverse(State)}.
+     *
+     * @param csg compact street graph containing this edge, or null to use the fields of this edge
+     * @param e number of this edge in the compact street graph
+     */
+    public State traverse(State s0, CompactStreetGraph csg, int e) {
         final RoutingRequest options = s0.getOptions();
         final TraverseMode currMode = s0.getNonTransitMode();
-        StateEditor editor = doTraverse(s0, options, s0.getNonTransitMode());
+        StateEditor editor = doTraverse(s0, options, s0.getNonTransitMode(), csg, e);
         State state = (editor == null) ? null : editor.makeState();
         /* Kiss and ride support. Mode transitions occur without the explicit loop edges used in park-and-ride. */
         if (options.kissAndRide) {
@@ -251,7 +268,7 @@ public class StreetEdge extends Edge implements Cloneable {
                 // Branch search to "unparked" CAR mode ASAP after transit has been used.
                 // Final WALK check prevents infinite recursion.
                 if (s0.isCarParked() && s0.isEverBoarded() && currMode == TraverseMode.WALK) {
-                    editor = doTraverse(s0, options, TraverseMode.CAR);
+                    editor = doTraverse(s0, options, TraverseMode.CAR, csg, e);
                     if (editor != null) {
                         editor.setCarParked(false); // Also has the effect of switching to CAR
                         State forkState = editor.makeState();
@@ -265,7 +282,7 @@ public class StreetEdge extends Edge implements Cloneable {
                 // Irrevocable transition from driving to walking. "Parking" means being dropped off in this case.
                 // Final CAR check needed to prevent infinite recursion.
                 if ( ! s0.isCarParked() && ! getPermission().allows(TraverseMode.CAR) && currMode == TraverseMode.CAR) {
-                    editor = doTraverse(s0, options, TraverseMode.WALK);
+                    editor = doTraverse(s0, options, TraverseMode.WALK, csg, e);
                     if (editor != null) {
                         editor.setCarParked(true); // has the effect of switching to WALK and preventing further car use
                         return editor.makeState(); // return only the "parked" walking state
@@ -278,7 +295,8 @@ public class StreetEdge extends Edge implements Cloneable {
     }
 
     /** return a StateEditor rather than a State so that we can make parking/mode switch modifications for kiss-and-ride. */
-    private StateEditor doTraverse(State s0, RoutingRequest options, TraverseMode traverseMode) {
+    private StateEditor doTraverse(State s0, RoutingRequest options, TraverseMode traverseMode,
+                                   CompactStreetGraph csg, int e) {
         boolean walkingBike = options.walkingBike;
         boolean backWalkingBike = s0.isBackWalkingBike();
         TraverseMode backMode = s0.getBackMode();
@@ -300,29 +318,37 @@ public class StreetEdge extends Edge implements Cloneable {
         walkingBike &= TraverseMode.WALK.equals(traverseMode);
 
         /* Check whether this street allows the current mode. If not and we are biking, attempt to walk the bike. */
-        if (!canTraverse(options, traverseMode)) {
+        if (csg == null ? !canTraverse(options, traverseMode) : !csg.canTraverse(e, options, traverseMode)) {
             if (traverseMode == TraverseMode.BICYCLE) {
-                return doTraverse(s0, options.bikeWalkingOptions, TraverseMode.WALK);
+                return doTraverse(s0, options.bikeWalkingOptions, TraverseMode.WALK, csg, e);
             }
             return null;
         }
 
+        final double distance = csg == null ? getDistance() : csg.getDistance(e);
+        final double slopeSpeedEffectiveLength = csg == null ?
+                getSlopeSpeedEffectiveLength() : csg.getSlopeSpeedEffectiveLength(e);
+        final double slopeWorkCostEffectiveLength = csg == null ?
+                getSlopeWorkCostEffectiveLength() : csg.getSlopeWorkCostEffectiveLength(e);
+        final float bicycleSafetyFactor = csg == null ? this.bicycleSafetyFactor : csg.getBicycleSafetyFactor(e);
+
         // Automobiles have variable speeds depending on the edge type
-        double speed = calculateSpeed(options, traverseMode, s0.getTimeInMillis());
+        double speed = csg != null && traverseMode.isDriving() ?
+                csg.getCarSpeed(e) : calculateSpeed(options, traverseMode, s0.getTimeInMillis());
         
-        double time = getDistance() / speed;
+        double time = distance / speed;
         double weight;
         // TODO(flamholz): factor out this bike, wheelchair and walking specific logic to somewhere central.
         if (options.wheelchairAccessible) {
-            weight = getSlopeSpeedEffectiveLength() / speed;
+            weight = slopeSpeedEffectiveLength / speed;
         } else if (traverseMode.equals(TraverseMode.BICYCLE)) {
-            time = getSlopeSpeedEffectiveLength() / speed;
+            time = slopeSpeedEffectiveLength / speed;
             switch (options.optimize) {
             case SAFE:
-                weight = bicycleSafetyFactor * getDistance() / speed;
+                weight = bicycleSafetyFactor * distance / speed;
                 break;
             case GREENWAYS:
-                weight = bicycleSafetyFactor * getDistance() / speed;
+                weight = bicycleSafetyFactor * distance / speed;
                 if (bicycleSafetyFactor <= GREENWAY_SAFETY_FACTOR) {
                     // greenways are treated as even safer than they really are
                     weight *= 0.66;
@@ -330,35 +356,36 @@ public class StreetEdge extends Edge implements Cloneable {
                 break;
             case FLAT:
                 /* see notes in StreetVertex on speed overhead */
-                weight = getDistance() / speed + getSlopeWorkCostEffectiveLength();
+                weight = distance / speed + slopeWorkCostEffectiveLength;
                 break;
             case QUICK:
-                weight = getSlopeSpeedEffectiveLength() / speed;
+                weight = slopeSpeedEffectiveLength / speed;
                 break;
             case TRIANGLE:
-                double quick = getSlopeSpeedEffectiveLength();
-                double safety = bicycleSafetyFactor * getDistance();
+                double quick = slopeSpeedEffectiveLength;
+                double safety = bicycleSafetyFactor * distance;
                 // TODO This computation is not coherent with the one for FLAT
-                double slope = getSlopeWorkCostEffectiveLength();
+                double slope = slopeWorkCostEffectiveLength;
                 weight = quick * options.triangleTimeFactor + slope
                         * options.triangleSlopeFactor + safety
                         * options.triangleSafetyFactor;
                 weight /= speed;
                 break;
             default:
-                weight = getDistance() / speed;
+                weight = distance / speed;
             }
         } else {
             if (walkingBike) {
                 // take slopes into account when walking bikes
-                time = getSlopeSpeedEffectiveLength() / speed;
+                time = slopeSpeedEffectiveLength / speed;
             }
             weight = time;
             if (traverseMode.equals(TraverseMode.WALK)) {
                 // take slopes into account when walking
                 // FIXME: this causes steep stairs to be avoided. see #1297.
-                double distance = getSlopeWalkSpeedEffectiveLength();
-                weight = distance / speed;
+                double walkDistance = csg == null ?
+                        getSlopeWalkSpeedEffectiveLength() : csg.getSlopeWalkSpeedEffectiveLength(e);
+                weight = walkDistance / speed;
                 time = weight; //treat cost as time, as in the current model it actually is the same (this can be checked for maxSlope == 0)
                 /*
                 // debug code
@@ -372,7 +399,7 @@ public class StreetEdge extends Edge implements Cloneable {
             }
         }
 
-        if (isStairs()) {
+        if (csg == null ? isStairs() : csg.isStairs(e)) {
             weight *= options.stairsReluctance;
         } else {
             // TODO: this is being applied even when biking or driving.
@@ -384,7 +411,7 @@ public class StreetEdge extends Edge implements Cloneable {
         s1.setBackWalkingBike(walkingBike);
 
         /* Handle no through traffic areas. */
-        if (this.isNoThruTraffic()) {
+        if (csg == null ? this.isNoThruTraffic() : csg.isNoThruTraffic(e)) {
             // Record transition into no-through-traffic area.
             if (backEdge instanceof StreetEdge && !((StreetEdge)backEdge).isNoThruTraffic()) {
                 s1.setEnteredNoThroughTrafficArea();
@@ -467,7 +494,7 @@ public class StreetEdge extends Edge implements Cloneable {
         }
 
         if (!traverseMode.isDriving()) {
-            s1.incrementWalkDistance(getDistance());
+            s1.incrementWalkDistance(distance);
         }
 
         /* On the pre-kiss/pre-park leg, limit both walking and driving, either soft or hard. */
@@ -643,7 +670,20 @@ public class StreetEdge extends Edge implements Cloneable {
 	}
 
 	public LineString getGeometry() {
-		return CompactLineString.uncompactLineString(fromv.getLon(), fromv.getLat(), tov.getLon(), tov.getLat(), compactGeometry, isBack());
+		return CompactLineString.uncompactLineString(fromv.getLon(), fromv.getLat(), tov.getLon(), tov.getLat(), getCompactGeometry(), isBack());
+	}
+
+	/** @return the geometry of this edge as compacted by CompactLineString, which must not be modified. */
+	public int[] getCompactGeometry() {
+		if (compactGeometry == null && geometryFile != null) {
+			return geometryFile.get(getId());
+		}
+		return compactGeometry;
+	}
+
+	/** Read the geometry of this edge, which was loaded without it, from the given file from now on. */
+	public void setGeometryFile(EdgeGeometryFile geometryFile) {
+		this.geometryFile = geometryFile;
 	}
 
 	private void setGeometry(LineString geometry) {
@@ -651,7 +691,7 @@ public class StreetEdge extends Edge implements Cloneable {
 	}
 
 	public void shareData(StreetEdge reversedEdge) {
-	    if (Arrays.equals(compactGeometry, reversedEdge.compactGeometry)) {
+	    if (Arrays.equals(getCompactGeometry(), reversedEdge.getCompactGeometry())) {
 	        compactGeometry = reversedEdge.compactGeometry;
 	    } else {
 	        LOG.warn("Can't share geometry between {} and {}", this, reversedEdge);
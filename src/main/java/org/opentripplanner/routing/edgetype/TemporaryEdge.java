@@ -1,4 +1,15 @@
 package org.opentripplanner.routing.edgetype;
 
 /** Marker interface for temporary edges */
-public interface TemporaryEdge { }
+public interface TemporaryEdge {
+
+    /**
+     * Return true if this edge is only seen by the request which created it. Such an edge, when it joins a temporary
+     * vertex to a permanent one, is not added to the edges of the permanent vertex, which is shared by all requests;
+     * searches find it in {@link org.opentripplanner.routing.core.RoutingContext#temporaryEdges} instead.
+     * Other temporary edges are added to both their vertices, and removed when the temporary vertices are disposed.
+     */
+    default boolean isRequestScoped() {
+        return false;
+    }
+}
@@ -21,6 +21,12 @@ public class TemporaryFreeEdge extends FreeEdge implements TemporaryEdge {
         }
     }
 
+    /** Origin and destination links are only seen by their own request. */
+    @Override
+    public boolean isRequestScoped() {
+        return true;
+    }
+
     @Override
     public String toString() {
         return "Temporary" + super.toString();
@@ -68,6 +68,14 @@ final public class TemporaryPartialStreetEdge extends StreetWithElevationEdge im
         return true;
     }
 
+    /**
+     * Partial edges to and from split points of origins and destinations are only seen by their own request.
+     */
+    @Override
+    public boolean isRequestScoped() {
+        return true;
+    }
+
     /**
      * Have the ID of their parent.
      */
@@ -75,6 +75,13 @@ public class Timetable implements Serializable {
      * Helps determine whether a particular pattern is worth searching for departures at a given time. 
      */
     private transient int minTime, maxTime;
+
+    /**
+     * Trips sorted by departure and arrival time at each stop, used to find the next trip without scanning them all.
+     * This is built when the Timetable is finished and replaced (never modified) whenever its trips change, so that
+     * searches running concurrently with a realtime update always see a consistent index.
+     */
+    private transient volatile TimetableIndex index;
     
     /** Construct an empty Timetable. */
     public Timetable(TripPattern pattern) {
@@ -158,6 +165,17 @@ public class Timetable implements Serializable {
      */
     public TripTimes getNextTrip(State s0, ServiceDay serviceDay, int stopIndex, boolean boarding, double flexOffsetScale,
                                  int flexPreBoardDirectTime, int flexPostAlightDirectTime) {
+        return getNextTrip(s0, serviceDay, stopIndex, boarding, flexOffsetScale, flexPreBoardDirectTime,
+                flexPostAlightDirectTime, true);
+    }
+
+    /**
+     * Implementation of the above method, which may optionally be told not to use the departure/arrival index.
+     * The index cannot be used for GTFS-Flex board/alight points, because the flex time adjustments differ per trip
+     * and would reorder the trips. Searching without the index is retained for comparison in tests and benchmarks.
+     */
+    TripTimes getNextTrip(State s0, ServiceDay serviceDay, int stopIndex, boolean boarding, double flexOffsetScale,
+                          int flexPreBoardDirectTime, int flexPostAlightDirectTime, boolean useIndex) {
         /* Search at the state's time, but relative to midnight on the given service day. */
         int time = serviceDay.secondsSinceMidnight(s0.getTimeSeconds());
         // NOTE the time is sometimes negative here. That is fine, we search for the first trip of the day.
@@ -169,66 +187,68 @@ public class Timetable implements Serializable {
         }
         TripTimes bestTrip = null;
         Stop currentStop = pattern.getStop(stopIndex);
-        // Linear search through the timetable looking for the best departure.
-        // We no longer use a binary search on Timetables because:
-        // 1. we allow combining trips from different service IDs on the same tripPattern.
-        // 2. We mix frequency-based and one-off TripTimes together on tripPatterns.
-        // 3. Stoptimes may change with realtime updates, and we cannot count on them being sorted.
-        //    The complexity of keeping sorted indexes up to date does not appear to be worth the
-        //    apparently minor speed improvement.
         int bestTime = boarding ? Integer.MAX_VALUE : Integer.MIN_VALUE;
-        // Hoping JVM JIT will distribute the loop over the if clauses as needed.
-        // We could invert this and skip some service days based on schedule overlap as in RRRR.
-        for (TripTimes tt : tripTimes) {
-            if (tt.isCanceled()) continue;
-            if ( ! serviceDay.serviceRunning(tt.serviceCode)) continue; // TODO merge into call on next line
-            if ( ! tt.tripAcceptable(s0, stopIndex)) continue;
-            int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, boarding, serviceDay, time);
-            if (adjustedTime == -1) continue;
-            if (boarding) {
-                // For GTFS-Flex, if this is a flag-stop or deviated-route board/alight, we need to
-                // add to the scheduled timepoint the amount of time the vehicle travels along the
-                // hop before the board/alight, and subtract the amount of time the vehicle travels
-                // off-route before rejoining the route. Both these values are 0 for regular fixed-
-                // route board/alights.
-                int flexTimeAdjustment = 0;
-                if (flexOffsetScale != 0 || flexPreBoardDirectTime != 0) {
-                    int timeIntoHop = 0;
-                    if (stopIndex + 1 < tt.getNumStops() && flexOffsetScale != 0.0) {
-                        timeIntoHop = (int) Math.round(flexOffsetScale * tt.getRunningTime(stopIndex));
+        boolean flex = flexOffsetScale != 0 || flexPreBoardDirectTime != 0 || flexPostAlightDirectTime != 0;
+        if (useIndex && !flex) {
+            // Binary search in the per-stop index, which is split by service ID and rebuilt whenever realtime
+            // updates change the trips. Frequency-based trips are not in the index and are handled below.
+            bestTrip = getNextTripFromIndex(s0, serviceDay, stopIndex, boarding, currentStop, time);
+            if (bestTrip != null) {
+                bestTime = boarding ? bestTrip.getDepartureTime(stopIndex) : bestTrip.getArrivalTime(stopIndex);
+            }
+        } else {
+            // Linear search through the timetable looking for the best departure.
+            for (TripTimes tt : tripTimes) {
+                if (tt.isCanceled()) continue;
+                if ( ! serviceDay.serviceRunning(tt.serviceCode)) continue; // TODO merge into call on next line
+                if ( ! tt.tripAcceptable(s0, stopIndex)) continue;
+                int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, boarding, serviceDay, time);
+                if (adjustedTime == -1) continue;
+                if (boarding) {
+                    // For GTFS-Flex, if this is a flag-stop or deviated-route board/alight, we need to
+                    // add to the scheduled timepoint the amount of time the vehicle travels along the
+                    // hop before the board/alight, and subtract the amount of time the vehicle travels
+                    // off-route before rejoining the route. Both these values are 0 for regular fixed-
+                    // route board/alights.
+                    int flexTimeAdjustment = 0;
+                    if (flexOffsetScale != 0 || flexPreBoardDirectTime != 0) {
+                        int timeIntoHop = 0;
+                        if (stopIndex + 1 < tt.getNumStops() && flexOffsetScale != 0.0) {
+                            timeIntoHop = (int) Math.round(flexOffsetScale * tt.getRunningTime(stopIndex));
+                        }
+                        int vehicleTime = (flexPreBoardDirectTime == 0) ? 0 : tt.getDemandResponseMaxTime(flexPreBoardDirectTime);
+                        flexTimeAdjustment = timeIntoHop - vehicleTime;
                     }
-                    int vehicleTime = (flexPreBoardDirectTime == 0) ? 0 : tt.getDemandResponseMaxTime(flexPreBoardDirectTime);
-                    flexTimeAdjustment = timeIntoHop - vehicleTime;
-                }
 
-                int depTime = tt.getDepartureTime(stopIndex) + flexTimeAdjustment;
-                if (depTime < 0) continue; // negative values were previously used for canceled trips/passed stops/skipped stops, but
-                                           // now its not sure if this check should be still in place because there is a boolean field
-                                           // for canceled trips
-                if (depTime >= adjustedTime && depTime < bestTime) {
-                    bestTrip = tt;
-                    bestTime = depTime;
-                }
-            } else {
-                // For GTFS-Flex, subtract from the scheduled timepoint the amount of time left in
-                // the hop after the vehicle drops off the passenger (note flexOffsetScale < 0
-                // in this case), and add the amount of time the vehicle travels off-route before
-                // the passenger alights.
-                int flexTimeAdjustment = 0;
-                if (flexOffsetScale != 0 || flexPostAlightDirectTime != 0) {
-                    int timeIntoHop = 0;
-                    if (stopIndex - 1 >= 0 && flexOffsetScale != 0.0) {
-                        timeIntoHop = (int) Math.round(flexOffsetScale * tt.getRunningTime(stopIndex - 1));
+                    int depTime = tt.getDepartureTime(stopIndex) + flexTimeAdjustment;
+                    if (depTime < 0) continue; // negative values were previously used for canceled trips/passed stops/skipped stops, but
+                                               // now its not sure if this check should be still in place because there is a boolean field
+                                               // for canceled trips
+                    if (depTime >= adjustedTime && depTime < bestTime) {
+                        bestTrip = tt;
+                        bestTime = depTime;
+                    }
+                } else {
+                    // For GTFS-Flex, subtract from the scheduled timepoint the amount of time left in
+                    // the hop after the vehicle drops off the passenger (note flexOffsetScale < 0
+                    // in this case), and add the amount of time the vehicle travels off-route before
+                    // the passenger alights.
+                    int flexTimeAdjustment = 0;
+                    if (flexOffsetScale != 0 || flexPostAlightDirectTime != 0) {
+                        int timeIntoHop = 0;
+                        if (stopIndex - 1 >= 0 && flexOffsetScale != 0.0) {
+                            timeIntoHop = (int) Math.round(flexOffsetScale * tt.getRunningTime(stopIndex - 1));
+                        }
+                        int vehicleTime = (flexPostAlightDirectTime == 0) ? 0 : tt.getDemandResponseMaxTime(flexPostAlightDirectTime);
+                        flexTimeAdjustment = timeIntoHop + vehicleTime;
                     }
-                    int vehicleTime = (flexPostAlightDirectTime == 0) ? 0 : tt.getDemandResponseMaxTime(flexPostAlightDirectTime);
-                    flexTimeAdjustment = timeIntoHop + vehicleTime;
-                }
 
-                int arvTime = tt.getArrivalTime(stopIndex) + flexTimeAdjustment;
-                if (arvTime < 0) continue;
-                if (arvTime <= adjustedTime && arvTime > bestTime) {
-                    bestTrip = tt;
-                    bestTime = arvTime;
+                    int arvTime = tt.getArrivalTime(stopIndex) + flexTimeAdjustment;
+                    if (arvTime < 0) continue;
+                    if (arvTime <= adjustedTime && arvTime > bestTime) {
+                        bestTrip = tt;
+                        bestTime = arvTime;
+                    }
                 }
             }
         }
@@ -284,6 +304,71 @@ public class Timetable implements Serializable {
         return getNextTrip(s0, serviceDay, stopIndex, boarding, 0, 0, 0);
     }
 
+    /**
+     * Find the best non-frequency trip using the departure/arrival index. The trips for each running service are
+     * sorted by time at the stop, so we binary search for the search time and scan forward (backward) until we find
+     * a trip that is acceptable to the state and respects any transfer rules. Transfer rules only ever push the
+     * earliest acceptable time further away from the search time, so the first such trip is the best one for that
+     * service. Ties are broken in favor of the trip that comes first in the tripTimes list, like a linear scan would.
+     */
+    private TripTimes getNextTripFromIndex(State s0, ServiceDay serviceDay, int stopIndex, boolean boarding,
+                                           Stop currentStop, int time) {
+        TimetableIndex index = getIndex();
+        int bestTripIndex = -1;
+        int bestTime = boarding ? Integer.MAX_VALUE : Integer.MIN_VALUE;
+        for (int s = 0; s < index.serviceCodes.length; s++) {
+            if ( ! serviceDay.serviceRunning(index.serviceCodes[s])) continue;
+            int[] trips = index.trips(stopIndex, s, boarding);
+            int[] times = index.times(stopIndex, s, boarding);
+            if (boarding) {
+                for (int i = TimetableIndex.firstAtOrAfter(times, time); i < times.length; i++) {
+                    int depTime = times[i];
+                    if (depTime > bestTime) break;
+                    if (depTime == bestTime && trips[i] > bestTripIndex) break;
+                    if (tripBoardableAt(s0, serviceDay, stopIndex, boarding, currentStop, time, trips[i], depTime)) {
+                        bestTripIndex = trips[i];
+                        bestTime = depTime;
+                        break;
+                    }
+                }
+            } else {
+                for (int i = TimetableIndex.lastAtOrBefore(times, time); i >= 0; i--) {
+                    int arvTime = times[i];
+                    if (arvTime < bestTime) break;
+                    if (arvTime == bestTime && trips[i] > bestTripIndex) continue;
+                    if (tripBoardableAt(s0, serviceDay, stopIndex, boarding, currentStop, time, trips[i], arvTime)) {
+                        bestTripIndex = trips[i];
+                        bestTime = arvTime;
+                        // Keep scanning trips with the same arrival time, which may come earlier in the list.
+                    }
+                }
+            }
+        }
+        return bestTripIndex < 0 ? null : tripTimes.get(bestTripIndex);
+    }
+
+    /** Check one candidate trip from the index, applying the same filters as the linear search in getNextTrip. */
+    private boolean tripBoardableAt(State s0, ServiceDay serviceDay, int stopIndex, boolean boarding,
+                                    Stop currentStop, int time, int tripIndex, int tripTime) {
+        TripTimes tt = tripTimes.get(tripIndex);
+        if (tt.isCanceled()) return false;
+        if ( ! tt.tripAcceptable(s0, stopIndex)) return false;
+        int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, boarding, serviceDay, time);
+        if (adjustedTime == -1) return false;
+        return boarding ? tripTime >= adjustedTime : tripTime <= adjustedTime;
+    }
+
+    /** @return the departure/arrival index for this timetable, building it if the trips have changed. */
+    private TimetableIndex getIndex() {
+        TimetableIndex index = this.index;
+        if (index == null) {
+            // Benign race: concurrent searches may each build an identical index, and the last one is kept.
+            index = new TimetableIndex(tripTimes, pattern.stopPattern.size);
+            this.index = index;
+        }
+        return index;
+    }
+
     // could integrate with getNextTrip
     public TripTimes getNextCallNRideTrip(State s0, ServiceDay serviceDay, int stopIndex, boolean boarding, int directTime) {
         /* Search at the state's time, but relative to midnight on the given service day. */
@@ -409,6 +494,7 @@ public class Timetable implements Serializable {
             minTime = Math.min(minTime, freq.getMinDeparture());
             maxTime = Math.max(maxTime, freq.getMaxArrival());
         }
+        index = new TimetableIndex(tripTimes, nStops);
     }
 
     /** @return the index of TripTimes for this trip ID in this particular Timetable */
@@ -452,6 +538,7 @@ public class Timetable implements Serializable {
      * @return old trip times of trip
      */
     public TripTimes setTripTimes(int tripIndex, TripTimes tt) {
+        index = null;
         return tripTimes.set(tripIndex, tt);
     }
 
@@ -632,6 +719,7 @@ public class Timetable implements Serializable {
      * Here we don't know if it's a scheduled trip or a realtime-added trip.
      */
     public void addTripTimes(TripTimes tt) {
+        index = null;
         tripTimes.add(tt);
     }
 
@@ -679,6 +767,8 @@ public class Timetable implements Serializable {
         for (TripTimes tt : this.tripTimes) {
             tt.serviceCode = serviceCodes.get(tt.trip.getServiceId());
         }
+        // The index is split by service code, so it must be rebuilt.
+        index = null;
         // Repeated code... bad sign...
         for (FrequencyEntry freq : this.frequencyEntries) {
             TripTimes tt = freq.tripTimes;
@@ -0,0 +1,130 @@
+package org.opentripplanner.routing.edgetype;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import org.opentripplanner.routing.trippattern.TripTimes;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A read-only index over the TripTimes of a single Timetable, allowing departure and arrival searches to be performed
+ * with a binary search instead of a linear scan over all trips on the pattern.
+ *
+ * For every stop in the pattern and every service code used by the trips, the trips are sorted by their departure
+ * (arrival) time at that stop. Trips are split by service code because only a few service codes are running on any
+ * given service day, and realtime updates may cause trips to overtake one another, so the order is computed per stop.
+ * Cancelled trips and trips that do not serve the stop (negative times) are left out of the index.
+ *
+ * Ties between trips with equal times are broken by their position in the Timetable's tripTimes list, which
+ * reproduces the choices made by a linear scan over that list.
+ *
+ * An index is never modified once built. When the underlying Timetable changes, a new index is built and swapped in.
+ */
+final class TimetableIndex {
+
+    /** The distinct service codes of the indexed trips, in ascending order. */
+    final int[] serviceCodes;
+
+    /** [stop][service] -> indexes into Timetable.tripTimes, sorted by departure time at that stop. */
+    private final int[][][] departureTrips;
+
+    /** [stop][service] -> the departure times matching departureTrips. */
+    private final int[][][] departureTimes;
+
+    /** [stop][service] -> indexes into Timetable.tripTimes, sorted by arrival time at that stop. */
+    private final int[][][] arrivalTrips;
+
+    /** [stop][service] -> the arrival times matching arrivalTrips. */
+    private final int[][][] arrivalTimes;
+
+    TimetableIndex(List<TripTimes> tripTimes, int nStops) {
+        // Group trip indexes by service code.
+        TIntObjectMap<TIntArrayList> tripsForService = new TIntObjectHashMap<>();
+        for (int t = 0; t < tripTimes.size(); t++) {
+            TripTimes tt = tripTimes.get(t);
+            if (tt.isCanceled()) continue;
+            TIntArrayList trips = tripsForService.get(tt.serviceCode);
+            if (trips == null) {
+                trips = new TIntArrayList();
+                tripsForService.put(tt.serviceCode, trips);
+            }
+            trips.add(t);
+        }
+        serviceCodes = tripsForService.keys();
+        Arrays.sort(serviceCodes);
+        int nServices = serviceCodes.length;
+        departureTrips = new int[nStops][nServices][];
+        departureTimes = new int[nStops][nServices][];
+        arrivalTrips = new int[nStops][nServices][];
+        arrivalTimes = new int[nStops][nServices][];
+        for (int s = 0; s < nServices; s++) {
+            int[] trips = tripsForService.get(serviceCodes[s]).toArray();
+            for (int stop = 0; stop < nStops; stop++) {
+                long[] departures = new long[trips.length];
+                long[] arrivals = new long[trips.length];
+                int nDepartures = 0, nArrivals = 0;
+                for (int trip : trips) {
+                    TripTimes tt = tripTimes.get(trip);
+                    int departure = tt.getDepartureTime(stop);
+                    if (departure >= 0) departures[nDepartures++] = pack(departure, trip);
+                    int arrival = tt.getArrivalTime(stop);
+                    if (arrival >= 0) arrivals[nArrivals++] = pack(arrival, trip);
+                }
+                departureTrips[stop][s] = new int[nDepartures];
+                departureTimes[stop][s] = new int[nDepartures];
+                unpackSorted(departures, nDepartures, departureTimes[stop][s], departureTrips[stop][s]);
+                arrivalTrips[stop][s] = new int[nArrivals];
+                arrivalTimes[stop][s] = new int[nArrivals];
+                unpackSorted(arrivals, nArrivals, arrivalTimes[stop][s], arrivalTrips[stop][s]);
+            }
+        }
+    }
+
+    /** Combine a non-negative time and trip index into a long whose natural order sorts by time, then trip index. */
+    private static long pack(int time, int trip) {
+        return ((long) time << 32) | trip;
+    }
+
+    private static void unpackSorted(long[] packed, int n, int[] times, int[] trips) {
+        Arrays.sort(packed, 0, n);
+        for (int i = 0; i < n; i++) {
+            times[i] = (int) (packed[i] >>> 32);
+            trips[i] = (int) packed[i];
+        }
+    }
+
+    /** @return the trip indexes for the given stop and service (position in serviceCodes), sorted by time. */
+    int[] trips(int stop, int service, boolean boarding) {
+        return boarding ? departureTrips[stop][service] : arrivalTrips[stop][service];
+    }
+
+    /** @return the departure (boarding) or arrival (alighting) times matching the result of trips(). */
+    int[] times(int stop, int service, boolean boarding) {
+        return boarding ? departureTimes[stop][service] : arrivalTimes[stop][service];
+    }
+
+    /** @return the position of the first element of the sorted array that is greater than or equal to the key. */
+    static int firstAtOrAfter(int[] sorted, int key) {
+        int low = 0, high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] < key) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    /** @return the position of the last element of the sorted array that is less than or equal to the key, or -1. */
+    static int lastAtOrBefore(int[] sorted, int key) {
+        int low = 0, high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] <= key) low = mid + 1;
+            else high = mid;
+        }
+        return low - 1;
+    }
+
+}
@@ -1,7 +1,7 @@
 package org.opentripplanner.routing.edgetype;
 
 import java.util.*;
-import java.util.Map.Entry;
+import java.util.function.Predicate;
 
 import org.opentripplanner.model.calendar.ServiceDate;
 import org.opentripplanner.routing.trippattern.TripTimes;
@@ -22,6 +22,11 @@ import com.google.common.base.Preconditions;
  * relative arrival and departure times of other trips that have not necessarily been boarded.
  *
  * At this point, only one writing thread at a time is supported.
+ *
+ * Committing does not copy the whole map of timetables. The maps are split into buckets that are shared between the
+ * working buffer and the snapshots committed from it, and a bucket is only copied the first time the buffer modifies
+ * it after a commit. The cost of a commit therefore depends on the number of patterns changed since the previous
+ * commit rather than on the total number of patterns with realtime data.
  */
 public class TimetableSnapshot {
 
@@ -83,12 +88,9 @@ public class TimetableSnapshot {
 
     private static final Logger LOG = LoggerFactory.getLogger(TimetableSnapshot.class);
     
-    // Use HashMap not Map so we can clone.
-    // if this turns out to be slow/spacious we can use an array with integer pattern indexes
-    // The SortedSet members are copy-on-write
+    // The SortedSet members are copy-on-write, and so are the buckets of the map itself.
     // FIXME: this could be made into a flat hashtable with compound keys.
-    private HashMap<TripPattern, SortedSet<Timetable>> timetables =
-            new HashMap<TripPattern, SortedSet<Timetable>>();
+    private SharedMap<TripPattern, SortedSet<Timetable>> timetables = new SharedMap<>();
 
     /**
      * <p>
@@ -96,11 +98,8 @@ public class TimetableSnapshot {
      * service date as a result of a call to {@link #update(String feedId, TripPattern, TripTimes, ServiceDate)}
      * with trip times of a trip that didn't exist yet in the trip pattern.
      * </p>
-     * <p>
-     * This is a HashMap and not a Map so the clone function is available.
-     * </p>
      */
-    private HashMap<TripIdAndServiceDate, TripPattern> lastAddedTripPattern = new HashMap<>();
+    private SharedMap<TripIdAndServiceDate, TripPattern> lastAddedTripPattern = new SharedMap<>();
     
     /**
      * Boolean value indicating that timetable snapshot is read only if true. Once it is true, it shouldn't
@@ -217,20 +216,19 @@ public class TimetableSnapshot {
     }
 
     /**
-     * This produces a small delay of typically around 50ms, which is almost entirely due to
-     * the indexing step. Cloning the map is much faster (2ms).
+     * The cost of a commit is dominated by indexing the timetables modified since the previous
+     * commit. The maps themselves are not copied: the new snapshot shares all their buckets with
+     * this buffer, which copies a bucket again the next time it modifies it.
      * It is perhaps better to index timetables as they are changed to avoid experiencing all
      * this lag at once, but we want to avoid re-indexing when receiving multiple updates for
      * the same timetable in rapid succession. This compromise is expressed by the
-     * maxSnapshotFrequency property of StoptimeUpdater. The indexing could be made much more
-     * efficient as well.
+     * maxSnapshotFrequency property of StoptimeUpdater.
      * @return an immutable copy of this TimetableSnapshot with all updates applied
      */
     public TimetableSnapshot commit() {
         return commit(false);
     }
 
-    @SuppressWarnings("unchecked")
     public TimetableSnapshot commit(boolean force) {
         if (readOnly) {
             throw new ConcurrentModificationException("This TimetableSnapshot is read-only.");
@@ -241,9 +239,8 @@ public class TimetableSnapshot {
         for (Timetable tt : dirtyTimetables) {
             tt.finish(); // summarize, index, etc. the new timetables
         }
-        ret.timetables = (HashMap<TripPattern, SortedSet<Timetable>>) this.timetables.clone();
-        ret.lastAddedTripPattern = (HashMap<TripIdAndServiceDate, TripPattern>)
-                this.lastAddedTripPattern.clone();
+        ret.timetables = this.timetables.share();
+        ret.lastAddedTripPattern = this.lastAddedTripPattern.share();
         this.dirtyTimetables.clear();
         this.dirty = false;
 
@@ -277,7 +274,7 @@ public class TimetableSnapshot {
      * @return true if the timetable changed as a result of the call
      */
     protected boolean clearTimetable(String feedId) {
-        return timetables.keySet().removeIf(tripPattern -> feedId.equals(tripPattern.getFeedId()));
+        return timetables.removeIf(tripPattern -> feedId.equals(tripPattern.getFeedId()));
     }
 
     /**
@@ -287,7 +284,7 @@ public class TimetableSnapshot {
      * @return true if the lastAddedTripPattern changed as a result of the call
      */
     protected boolean clearLastAddedTripPattern(String feedId) {
-        return lastAddedTripPattern.keySet().removeIf(lastAddedTripPattern -> feedId.equals(lastAddedTripPattern.getFeedId()));
+        return lastAddedTripPattern.removeIf(lastAddedTripPattern -> feedId.equals(lastAddedTripPattern.getFeedId()));
     }
 
     /**
@@ -299,34 +296,34 @@ public class TimetableSnapshot {
         }
 
         boolean modified = false;
-        for (Iterator<TripPattern> it = timetables.keySet().iterator(); it.hasNext();){
-            TripPattern pattern = it.next();
+        for (TripPattern pattern : timetables.keys()) {
             SortedSet<Timetable> sortedTimetables = timetables.get(pattern);
+            // The sets are sorted by service date, so the expired timetables are at the start.
+            if (!sortedTimetables.isEmpty() && serviceDate.compareTo(sortedTimetables.first().serviceDate) < 0) {
+                continue;
+            }
             SortedSet<Timetable> toKeepTimetables =
                     new TreeSet<Timetable>(new SortedTimetableComparator());
             for(Timetable timetable : sortedTimetables) {
                 if(serviceDate.compareTo(timetable.serviceDate) < 0) {
                     toKeepTimetables.add(timetable);
-                } else {
-                    modified = true;
                 }
             }
+            if (toKeepTimetables.size() < sortedTimetables.size()) {
+                modified = true;
+            }
 
             if(toKeepTimetables.isEmpty()) {
-                it.remove();
+                timetables.remove(pattern);
             } else {
                 timetables.put(pattern, toKeepTimetables);
             }
         }
         
         // Also remove last added trip pattern for days that are purged
-        for (Iterator<Entry<TripIdAndServiceDate, TripPattern>> iterator = lastAddedTripPattern
-                .entrySet().iterator(); iterator.hasNext();) {
-            TripIdAndServiceDate tripIdAndServiceDate = iterator.next().getKey();
-            if (serviceDate.compareTo(tripIdAndServiceDate.getServiceDate()) >= 0) {
-                iterator.remove();
-                modified = true;
-            }
+        if (lastAddedTripPattern.removeIf(tripIdAndServiceDate ->
+                serviceDate.compareTo(tripIdAndServiceDate.getServiceDate()) >= 0)) {
+            modified = true;
         }
 
         return modified;
@@ -341,4 +338,100 @@ public class TimetableSnapshot {
         String d = readOnly ? "committed" : String.format("%d dirty", dirtyTimetables.size());
         return String.format("Timetable snapshot: %d timetables (%s)", timetables.size(), d);
     }
+
+    /**
+     * A hash map split into a fixed number of buckets, each of which is an ordinary HashMap. Calling share() returns
+     * a read-only view of the current contents that shares all buckets with this map, in time proportional to the
+     * number of buckets. Afterwards this map copies a bucket before its first modification, so the shared view never
+     * changes. Only the buckets modified between two calls to share() are ever copied.
+     *
+     * Like the rest of TimetableSnapshot this is not thread safe: only one thread may modify a map, although any
+     * number of threads may read the maps returned by share().
+     */
+    static class SharedMap<K, V> {
+
+        private static final int N_BUCKETS = 1024;
+
+        private final HashMap<K, V>[] buckets;
+
+        /** Which buckets were copied since the last call to share(), so can be modified in place. */
+        private final boolean[] owned = new boolean[N_BUCKETS];
+
+        private int size;
+
+        @SuppressWarnings("unchecked")
+        SharedMap() {
+            this.buckets = new HashMap[N_BUCKETS];
+        }
+
+        private SharedMap(HashMap<K, V>[] buckets, int size) {
+            this.buckets = buckets;
+            this.size = size;
+        }
+
+        private static int bucket(Object key) {
+            int h = key.hashCode();
+            return (h ^ (h >>> 16)) & (N_BUCKETS - 1);
+        }
+
+        /** @return a bucket of this map which may be modified in place, copying it if necessary. */
+        private HashMap<K, V> ownBucket(int b) {
+            if (!owned[b]) {
+                buckets[b] = buckets[b] == null ? new HashMap<>() : new HashMap<>(buckets[b]);
+                owned[b] = true;
+            }
+            return buckets[b];
+        }
+
+        V get(K key) {
+            HashMap<K, V> bucket = buckets[bucket(key)];
+            return bucket == null ? null : bucket.get(key);
+        }
+
+        void put(K key, V value) {
+            HashMap<K, V> bucket = ownBucket(bucket(key));
+            if (bucket.put(key, value) == null) size++;
+        }
+
+        void remove(K key) {
+            int b = bucket(key);
+            if (buckets[b] != null && buckets[b].containsKey(key)) {
+                ownBucket(b).remove(key);
+                size--;
+            }
+        }
+
+        /** Remove all entries whose key matches the predicate, copying only the buckets containing such keys. */
+        boolean removeIf(Predicate<K> predicate) {
+            boolean modified = false;
+            for (int b = 0; b < N_BUCKETS; b++) {
+                if (buckets[b] == null || buckets[b].keySet().stream().noneMatch(predicate)) continue;
+                HashMap<K, V> bucket = ownBucket(b);
+                int before = bucket.size();
+                bucket.keySet().removeIf(predicate);
+                size -= before - bucket.size();
+                modified = true;
+            }
+            return modified;
+        }
+
+        /** @return a copy of the keys of this map, so the map may be modified while iterating over them. */
+        List<K> keys() {
+            List<K> keys = new ArrayList<>(size);
+            for (HashMap<K, V> bucket : buckets) {
+                if (bucket != null) keys.addAll(bucket.keySet());
+            }
+            return keys;
+        }
+
+        int size() {
+            return size;
+        }
+
+        /** @return a view of the current contents of this map that will not change when this map is modified. */
+        SharedMap<K, V> share() {
+            Arrays.fill(owned, false);
+            return new SharedMap<>(buckets.clone(), size);
+        }
+    }
 }
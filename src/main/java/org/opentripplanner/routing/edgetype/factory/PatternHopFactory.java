@@ -38,6 +38,7 @@ import org.opentripplanner.common.model.P2;
 import org.opentripplanner.graph_builder.annotation.BogusShapeDistanceTraveled;
 import org.opentripplanner.graph_builder.annotation.BogusShapeGeometry;
 import org.opentripplanner.graph_builder.annotation.BogusShapeGeometryCaught;
+import org.opentripplanner.graph_builder.annotation.GraphBuilderAnnotation;
 import org.opentripplanner.graph_builder.annotation.HopSpeedFast;
 import org.opentripplanner.graph_builder.annotation.HopSpeedSlow;
 import org.opentripplanner.graph_builder.annotation.HopZeroTime;
@@ -72,6 +73,7 @@ import org.opentripplanner.routing.impl.OnBoardDepartServiceImpl;
 import org.opentripplanner.routing.services.FareService;
 import org.opentripplanner.routing.services.FareServiceFactory;
 import org.opentripplanner.routing.services.OnBoardDepartService;
+import org.opentripplanner.routing.trippattern.Deduplicator;
 import org.opentripplanner.routing.trippattern.FrequencyEntry;
 import org.opentripplanner.routing.trippattern.TripTimes;
 import org.opentripplanner.routing.vertextype.TransitStation;
@@ -88,10 +90,17 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 // Filtering out (removing) stoptimes from a trip forces us to either have two copies of that list,
 // or do all the steps within one loop over trips. It would be clearer if there were multiple loops over the trips.
@@ -250,7 +259,8 @@ public class PatternHopFactory {
 
     private CalendarService calendarService;
     
-    private Map<ShapeSegmentKey, LineString> geometriesByShapeSegmentKey = new HashMap<ShapeSegmentKey, LineString>();
+    /** Written while matching the trips of different shapes to their shapes in parallel. */
+    private Map<ShapeSegmentKey, LineString> geometriesByShapeSegmentKey = new ConcurrentHashMap<ShapeSegmentKey, LineString>();
 
     private Map<FeedScopedId, LineString> geometriesByShapeId = new HashMap<FeedScopedId, LineString>();
 
@@ -264,6 +274,42 @@ public class PatternHopFactory {
 
     private GtfsStopContext context = new GtfsStopContext();
 
+    /* The state of the trips being added, from startTrips to finishTrips */
+
+    private ListMultimap<Trip, Frequency> frequenciesForTrip;
+
+    /**
+     * For each pattern, the trip with a shape from which the pattern geometry is made: the first one handed over, which
+     * is also the first one in feed order unless the trips are handed over in another order.
+     */
+    private Map<TripPattern, PreparedTrip> shapedTripsByTripPattern;
+
+    /**
+     * The trips of the transit service in feed order. Trips are added to their patterns in this order whatever the order
+     * they are handed to {@link #addTrip} in, so that the patterns and annotations are the same as with {@link #run}.
+     */
+    private List<Trip> tripsInFeedOrder;
+
+    /** The index in tripsInFeedOrder of the next trip to add to its pattern. */
+    private int nextTripIndex;
+
+    /** Trips prepared before the trips that come before them in feed order, waiting for their turn to be added. */
+    private Map<Trip, PreparedTrip> preparedTripsAhead;
+
+    /** The patterns for which a trip with a shape has already kept its stop times to make the pattern geometry. */
+    private Set<PatternKey> patternsWithShapedTrip;
+
+    private int tripCount;
+
+    private int freqCount;
+
+    private int nonFreqCount;
+
+    /** Number of trips prepared in parallel before they are added to their patterns. */
+    private static final int TRIP_BATCH_SIZE = 10000;
+
+    private boolean parallel = true;
+
     // the location types for transfers.txt
     public static final int STOP_LOCATION_TYPE = 0;
     public static final int PARENT_STATION_LOCATION_TYPE = 1;
@@ -286,8 +332,43 @@ public class PatternHopFactory {
         this.calendarService = null;
     }
 
-    /** Generate the edges. Assumes that there are already vertices in the graph for the stops. */
+    /**
+     * Generate the edges. Assumes that there are already vertices in the graph for the stops.
+     *
+     * The stop times of each trip are repaired and turned into TripTimes in parallel, in batches of trips. The trips of
+     * each batch are then added to their patterns in the order of the feed, so that the patterns do not depend on the
+     * number of threads.
+     */
     public void run(Graph graph) {
+        startTrips(graph);
+        List<Trip> trips = new ArrayList<>(transitService.getAllTrips());
+        for (int start = 0; start < trips.size(); start += TRIP_BATCH_SIZE) {
+            List<Trip> batch = trips.subList(start, Math.min(start + TRIP_BATCH_SIZE, trips.size()));
+            // The transit service indexes the stop times on first use, so they are fetched on this thread.
+            List<List<StopTime>> stopTimesForTrips = new ArrayList<>(batch.size());
+            for (Trip trip : batch) {
+                stopTimesForTrips.add(transitService.getStopTimesForTrip(trip));
+            }
+            IntStream indexes = IntStream.range(0, batch.size());
+            if (parallel) {
+                indexes = indexes.parallel();
+            }
+            List<PreparedTrip> preparedTrips = indexes
+                    .mapToObj(i -> prepareTrip(batch.get(i), stopTimesForTrips.get(i), graph.deduplicator))
+                    .collect(Collectors.toList());
+            for (PreparedTrip preparedTrip : preparedTrips) {
+                addInFeedOrder(graph, preparedTrip);
+            }
+        }
+        finishTrips(graph);
+    }
+
+    /**
+     * Load everything but the trips, and prepare for adding the trips one at a time with {@link #addTrip}. This and
+     * {@link #finishTrips} make up {@link #run}, for callers that read the stop times trip by trip rather than keeping
+     * them all in the transit service.
+     */
+    public void startTrips(Graph graph) {
         if (fareServiceFactory == null) {
             fareServiceFactory = new DefaultFareServiceFactory();
         }
@@ -312,109 +393,228 @@ public class PatternHopFactory {
         }
         
         LOG.debug("building hops from trips");
-        Collection<Trip> trips = transitService.getAllTrips();
-        int tripCount = 0;
+        tripCount = 0;
 
         /* First, record which trips are used by one or more frequency entries.
          * These trips will be ignored for the purposes of non-frequency routing, and
          * all the frequency entries referencing the same trip can be added at once to the same
          * Timetable/TripPattern.
          */
-        ListMultimap<Trip, Frequency> frequenciesForTrip = ArrayListMultimap.create();        
+        frequenciesForTrip = ArrayListMultimap.create();
         for(Frequency freq : transitService.getAllFrequencies()) {
             frequenciesForTrip.put(freq.getTrip(), freq);
         }
         
-        /* Then loop over all trips, handling each one as a frequency-based or scheduled trip. */
-        int freqCount = 0;
-        int nonFreqCount = 0;
+        /* Then each trip will be handled as a frequency-based or scheduled trip. */
+        freqCount = 0;
+        nonFreqCount = 0;
         
         /* The hops don't actually exist when we build their geometries, but we have to build their geometries
-         * below, before we throw away the modified stopTimes, saving only the tripTimes (which don't have enough
-         * information to build a geometry). So we keep them here.
-         *
-         *  A trip pattern actually does not have a single geometry, but one per hop, so we store an array.
-         *  FIXME _why_ doesn't it have a single geometry?
+         * from the modified stopTimes, while only the tripTimes (which don't have enough information to build a
+         * geometry) are kept for most trips. So we keep the stopTimes of one trip with a shape per pattern here.
          */
-        Map<TripPattern, LineString[]> geometriesByTripPattern = Maps.newHashMap();
-        
-        TRIP : for (Trip trip : trips) {
-            if (++tripCount % 100000 == 0) {
-                LOG.debug("loading trips {}/{}", tripCount, trips.size());
-            }
+        shapedTripsByTripPattern = new LinkedHashMap<>();
 
-            // TODO: move to a validator module
-            if ( ! calendarService.getServiceIds().contains(trip.getServiceId())) {
-                LOG.warn(graph.addBuilderAnnotation(new TripUndefinedService(trip)));
-                continue TRIP; // Invalid trip, skip it, it will break later
-            }
+        tripsInFeedOrder = new ArrayList<>(transitService.getAllTrips());
+        nextTripIndex = 0;
+        preparedTripsAhead = new LinkedHashMap<>();
+        patternsWithShapedTrip = new HashSet<>();
+    }
 
-            /* Fetch the stop times for this trip. Copy the list since it's immutable. */
-            List<StopTime> stopTimes = new ArrayList<StopTime>(transitService.getStopTimesForTrip(trip));
+    /**
+     * Add one trip to the pattern for its stops, creating the pattern if needed. The trip is prepared immediately, but
+     * only added once all the trips before it in the feed have been added.
+     *
+     * @param stopTimes the stop times of the trip sorted by stop sequence. The list is copied, but the stop times in it
+     *                  may be repaired in place.
+     */
+    public void addTrip(Graph graph, Trip trip, List<StopTime> stopTimes) {
+        addInFeedOrder(graph, prepareTrip(trip, stopTimes, graph.deduplicator));
+    }
 
-            /* GTFS stop times frequently contain duplicate, missing, or incorrect entries. Repair them. */
-            TIntList removedStopSequences = removeRepeatedStops(stopTimes);
-            if (!removedStopSequences.isEmpty()) {
-                LOG.warn(graph.addBuilderAnnotation(new RepeatedStops(trip, removedStopSequences)));
-            }
-            filterStopTimes(stopTimes, graph);
-            interpolateStopTimes(stopTimes);   
-            
-            /* If after filtering this trip does not contain at least 2 stoptimes, it does not serve any purpose. */
-            if (stopTimes.size() < 2) {
-                LOG.warn(graph.addBuilderAnnotation(new TripDegenerate(trip)));
-                continue TRIP;
+    /**
+     * Add a prepared trip to its pattern once all the trips before it in feed order have been added. When trips are
+     * handed over in feed order, as by {@link #run}, each one is added immediately.
+     */
+    private void addInFeedOrder(Graph graph, PreparedTrip preparedTrip) {
+        // Only one trip with a shape per pattern is used to make the pattern geometry, so the other trips drop their
+        // stop times before waiting for their turn. Otherwise a feed whose stop times are not in the order of its
+        // trips would keep most of its stop times in memory.
+        if (preparedTrip.stopTimes != null && !patternsWithShapedTrip.add(new PatternKey(preparedTrip))) {
+            preparedTrip.stopTimes = null;
+        }
+        preparedTripsAhead.put(preparedTrip.trip, preparedTrip);
+        while (nextTripIndex < tripsInFeedOrder.size()) {
+            PreparedTrip next = preparedTripsAhead.remove(tripsInFeedOrder.get(nextTripIndex));
+            if (next == null) {
+                break;
             }
+            addPreparedTrip(graph, next);
+            nextTripIndex++;
+        }
+    }
 
-            /* Try to get the direction id for the trip, set to -1 if not found */
-            int directionId;
-            try {
-                directionId = Integer.parseInt(trip.getDirectionId());
-            } catch (NumberFormatException e) {
-                LOG.debug("Trip {} does not have direction id, defaults to -1");
-                directionId = -1;
-            }
+    /** The number of trips waiting for the trips before them in feed order to be added. */
+    int countTripsAhead() {
+        return preparedTripsAhead.size();
+    }
 
-            boolean hasFlexService = stopTimes.stream().anyMatch(this::stopTimeHasFlex);
+    /** The number of trips waiting for their turn that still hold their stop times. */
+    int countTripsAheadWithStopTimes() {
+        return (int) preparedTripsAhead.values().stream().filter(t -> t.stopTimes != null).count();
+    }
 
-            /* Get the existing TripPattern for this filtered StopPattern, or create one. */
-            StopPattern stopPattern = new StopPattern(stopTimes, graph.deduplicator);
-            if (hasFlexService) {
-                stopPattern.setFlexFields(new StopPatternFlexFields(stopTimes, flexAreasById, graph.deduplicator));
-            }
-            TripPattern tripPattern = findOrCreateTripPattern(stopPattern, trip.getRoute(), directionId);
+    /**
+     * Repair the stop times of a trip and make its stop pattern and TripTimes. This only reads the state of this
+     * factory, so it can be called for several trips in parallel.
+     */
+    private PreparedTrip prepareTrip(Trip trip, List<StopTime> stopTimes, Deduplicator deduplicator) {
+        PreparedTrip preparedTrip = new PreparedTrip(trip);
 
-            /* Create a TripTimes object for this list of stoptimes, which form one trip. */
-            TripTimes tripTimes = new TripTimes(trip, stopTimes, graph.deduplicator);
+        // TODO: move to a validator module
+        if ( ! calendarService.getServiceIds().contains(trip.getServiceId())) {
+            LOG.warn(annotate(preparedTrip.annotations, new TripUndefinedService(trip)));
+            return preparedTrip; // Invalid trip, skip it, it will break later
+        }
 
-            /* If this trip is referenced by one or more lines in frequencies.txt, wrap it in a FrequencyEntry. */
-            List<Frequency> frequencies = frequenciesForTrip.get(trip);
-            if (frequencies != null && !(frequencies.isEmpty())) {
-                for (Frequency freq : frequencies) {
-                    tripPattern.add(new FrequencyEntry(freq, tripTimes));
-                    freqCount++;
-                }
-                // TODO replace: createGeometry(graph, trip, stopTimes, hops);
+        /* Copy the list of stop times for this trip since it may be immutable. */
+        stopTimes = new ArrayList<StopTime>(stopTimes);
+
+        /* GTFS stop times frequently contain duplicate, missing, or incorrect entries. Repair them. */
+        TIntList removedStopSequences = removeRepeatedStops(stopTimes);
+        if (!removedStopSequences.isEmpty()) {
+            LOG.warn(annotate(preparedTrip.annotations, new RepeatedStops(trip, removedStopSequences)));
+        }
+        filterStopTimes(stopTimes, preparedTrip.annotations);
+        interpolateStopTimes(stopTimes);   
+        
+        /* If after filtering this trip does not contain at least 2 stoptimes, it does not serve any purpose. */
+        if (stopTimes.size() < 2) {
+            LOG.warn(annotate(preparedTrip.annotations, new TripDegenerate(trip)));
+            return preparedTrip;
+        }
+
+        /* Try to get the direction id for the trip, set to -1 if not found */
+        try {
+            preparedTrip.directionId = Integer.parseInt(trip.getDirectionId());
+        } catch (NumberFormatException e) {
+            LOG.debug("Trip {} does not have direction id, defaults to -1");
+            preparedTrip.directionId = -1;
+        }
+
+        boolean hasFlexService = stopTimes.stream().anyMatch(this::stopTimeHasFlex);
+
+        preparedTrip.stopPattern = new StopPattern(stopTimes, deduplicator);
+        if (hasFlexService) {
+            preparedTrip.stopPattern.setFlexFields(new StopPatternFlexFields(stopTimes, flexAreasById, deduplicator));
+        }
+
+        /* Create a TripTimes object for this list of stoptimes, which form one trip. */
+        preparedTrip.tripTimes = new TripTimes(trip, stopTimes, deduplicator);
+
+        /* Keep the stop times only if they may be needed to make the geometry of the pattern. */
+        if (trip.getShapeId() != null && trip.getShapeId().getId() != null && !trip.getShapeId().getId().equals("")) {
+            preparedTrip.stopTimes = stopTimes;
+        }
+        return preparedTrip;
+    }
+
+    /** Register the annotations of a prepared trip, and add it to the pattern for its stops. */
+    private void addPreparedTrip(Graph graph, PreparedTrip preparedTrip) {
+        if (++tripCount % 100000 == 0) {
+            LOG.debug("loading trips {}/{}", tripCount, transitService.getAllTrips().size());
+        }
+        for (GraphBuilderAnnotation annotation : preparedTrip.annotations) {
+            graph.addBuilderAnnotation(annotation);
+        }
+        if (preparedTrip.tripTimes == null) {
+            return;
+        }
+        Trip trip = preparedTrip.trip;
+
+        /* Get the existing TripPattern for this filtered StopPattern, or create one. */
+        TripPattern tripPattern = findOrCreateTripPattern(preparedTrip.stopPattern, trip.getRoute(),
+                preparedTrip.directionId);
+        TripTimes tripTimes = preparedTrip.tripTimes;
+
+        /* If this trip is referenced by one or more lines in frequencies.txt, wrap it in a FrequencyEntry. */
+        List<Frequency> frequencies = frequenciesForTrip.get(trip);
+        if (frequencies != null && !(frequencies.isEmpty())) {
+            for (Frequency freq : frequencies) {
+                tripPattern.add(new FrequencyEntry(freq, tripTimes));
+                freqCount++;
             }
+            // TODO replace: createGeometry(graph, trip, stopTimes, hops);
+        }
 
-            /* This trip was not frequency-based. Add the TripTimes directly to the TripPattern's scheduled timetable. */
-            else {
-                tripPattern.add(tripTimes);
-                nonFreqCount++;
+        /* This trip was not frequency-based. Add the TripTimes directly to the TripPattern's scheduled timetable. */
+        else {
+            tripPattern.add(tripTimes);
+            nonFreqCount++;
+        }
+        
+        // keep the stop times to create the geometry later if none was kept yet
+        // note that this is not only done on new trip patterns, because it is possible that
+        // there would be a trip pattern with no geometry yet because it failed some of these tests
+        if (preparedTrip.stopTimes != null && !shapedTripsByTripPattern.containsKey(tripPattern)) {
+            preparedTrip.tripPattern = tripPattern;
+            shapedTripsByTripPattern.put(tripPattern, preparedTrip);
+        }
+    }
+
+    /**
+     * Create the hop geometries of each pattern from the first of its trips that has a shape. The trips are grouped by
+     * shape, and the groups are matched to their shapes in parallel. The trips of a shape are matched in turn on the
+     * same thread, so the shape segments cached for later trips and the annotations do not depend on thread timing.
+     *
+     * A trip pattern actually does not have a single geometry, but one per hop, so we store an array.
+     * FIXME _why_ doesn't it have a single geometry?
+     */
+    private Map<TripPattern, LineString[]> createGeometries(Graph graph) {
+        Map<FeedScopedId, List<PreparedTrip>> tripsByShapeId = new LinkedHashMap<>();
+        for (PreparedTrip preparedTrip : shapedTripsByTripPattern.values()) {
+            tripsByShapeId.computeIfAbsent(preparedTrip.trip.getShapeId(), k -> new ArrayList<>()).add(preparedTrip);
+        }
+        // Make the shape line strings up front, so their caches are only read while matching.
+        for (FeedScopedId shapeId : tripsByShapeId.keySet()) {
+            getLineStringForShapeId(shapeId);
+        }
+        Stream<List<PreparedTrip>> groups = parallel ? tripsByShapeId.values().parallelStream()
+                : tripsByShapeId.values().stream();
+        List<List<GraphBuilderAnnotation>> annotationsForGroups = groups.map(group -> {
+            List<GraphBuilderAnnotation> annotations = new ArrayList<>();
+            for (PreparedTrip preparedTrip : group) {
+                preparedTrip.geometries = createGeometry(annotations, preparedTrip.trip, preparedTrip.stopTimes);
             }
-            
-            // create geometries if they aren't already created
-            // note that this is not only done on new trip patterns, because it is possible that
-            // there would be a trip pattern with no geometry yet because it failed some of these tests
-            if (!geometriesByTripPattern.containsKey(tripPattern) && 
-                    trip.getShapeId() != null && trip.getShapeId().getId() != null &&
-                    !trip.getShapeId().getId().equals("")) {
-                // save the geometry to later be applied to the hops
-                geometriesByTripPattern.put(tripPattern,  createGeometry(graph, trip, stopTimes));
+            return annotations;
+        }).collect(Collectors.toList());
+        for (List<GraphBuilderAnnotation> annotations : annotationsForGroups) {
+            for (GraphBuilderAnnotation annotation : annotations) {
+                graph.addBuilderAnnotation(annotation);
             }
+        }
+        Map<TripPattern, LineString[]> geometriesByTripPattern = Maps.newHashMap();
+        for (PreparedTrip preparedTrip : shapedTripsByTripPattern.values()) {
+            geometriesByTripPattern.put(preparedTrip.tripPattern, preparedTrip.geometries);
+        }
+        return geometriesByTripPattern;
+    }
 
+    /** Create the edges of the patterns of all the trips added, and load the transfers. */
+    public void finishTrips(Graph graph) {
+        // The trips never handed to addTrip have no stop times, and are reported as degenerate in their turn.
+        while (nextTripIndex < tripsInFeedOrder.size()) {
+            Trip trip = tripsInFeedOrder.get(nextTripIndex);
+            addInFeedOrder(graph, prepareTrip(trip, Collections.emptyList(), graph.deduplicator));
+        }
+        // Trips unknown to the transit service come last.
+        for (PreparedTrip preparedTrip : preparedTripsAhead.values()) {
+            addPreparedTrip(graph, preparedTrip);
+        }
+        tripsInFeedOrder = null;
+        preparedTripsAhead = null;
+        patternsWithShapedTrip = null;
 
-        } // end foreach TRIP
         LOG.info("Added {} frequency-based and {} single-trip timetable entries.", freqCount, nonFreqCount);
         graph.hasFrequencyService = graph.hasFrequencyService || freqCount > 0;
         graph.hasScheduledService = graph.hasScheduledService || nonFreqCount > 0;
@@ -425,6 +625,9 @@ public class PatternHopFactory {
         /* Generate unique short IDs for all the TableTripPatterns. */
         TripPattern.generateUniqueIds(tripPatterns.values());
 
+        Map<TripPattern, LineString[]> geometriesByTripPattern = createGeometries(graph);
+        shapedTripsByTripPattern = null;
+
         /* Loop over all new TripPatterns, creating edges, setting the service codes and geometries, etc. */
         for (TripPattern tripPattern : tripPatterns.values()) {
             tripPattern.makePatternVerticesAndEdges(graph, context.stationStopNodes);
@@ -474,6 +677,7 @@ public class PatternHopFactory {
         }
         
         clearCachedData(); // eh?
+        frequenciesForTrip = null;
         graph.putService(FareService.class, fareServiceFactory.makeFareService());
         graph.putService(OnBoardDepartService.class, new OnBoardDepartServiceImpl());
     }
@@ -582,7 +786,7 @@ public class PatternHopFactory {
      * This geometry will in fact be used for an entire set of trips in a trip pattern. Technically one of the trips
      * with exactly the same sequence of stops could follow a different route on the streets, but that's very uncommon.
      */
-    private LineString[] createGeometry(Graph graph, Trip trip, List<StopTime> stopTimes) {
+    private LineString[] createGeometry(List<GraphBuilderAnnotation> annotations, Trip trip, List<StopTime> stopTimes) {
         FeedScopedId shapeId = trip.getShapeId();
         
         // One less geometry than stoptime as array indexes represetn hops not stops (fencepost problem).
@@ -596,7 +800,7 @@ public class PatternHopFactory {
             for (int i = 0; i < stopTimes.size() - 1; ++i) {
                 st0 = stopTimes.get(i);
                 StopTime st1 = stopTimes.get(i + 1);
-                geoms[i] = getHopGeometryViaShapeDistTraveled(graph, shapeId, st0, st1);
+                geoms[i] = getHopGeometryViaShapeDistTraveled(annotations, shapeId, st0, st1);
             }
             return geoms;
         }
@@ -682,7 +886,7 @@ public class PatternHopFactory {
                 LineString geometry = createSimpleGeometry(st0.getStop(), st1.getStop());
                 geoms[i] = geometry;
                 //this warning is not strictly correct, but will do
-                LOG.warn(graph.addBuilderAnnotation(new BogusShapeGeometryCaught(shapeId, st0, st1)));
+                LOG.warn(annotate(annotations, new BogusShapeGeometryCaught(shapeId, st0, st1)));
             }
             return geoms;
         }
@@ -773,13 +977,13 @@ public class PatternHopFactory {
      * Scan through the given list, looking for clearly incorrect series of stoptimes and unsetting
      * them. This includes duplicate times (0-time hops), as well as negative, fast or slow hops.
      * Unsetting the arrival/departure time of clearly incorrect stoptimes will cause them to be
-     * interpolated in the next step. Annotations are also added to the graph to reveal the problems
+     * interpolated in the next step. Annotations are also collected to reveal the problems
      * to the user.
      * 
      * @param stopTimes the stoptimes to be filtered (from a single trip)
-     * @param graph the graph where annotations will be registered
+     * @param annotations the list where annotations will be added, to be registered in the graph
      */
-    private void filterStopTimes(List<StopTime> stopTimes, Graph graph) {
+    private void filterStopTimes(List<StopTime> stopTimes, List<GraphBuilderAnnotation> annotations) {
         
         if (stopTimes.size() < 2) return;
         StopTime st0 = stopTimes.get(0);
@@ -830,7 +1034,7 @@ public class PatternHopFactory {
             }
             int dwellTime = st0.getDepartureTime() - st0.getArrivalTime(); 
             if (dwellTime < 0) {
-                LOG.warn(graph.addBuilderAnnotation(new NegativeDwellTime(st0)));
+                LOG.warn(annotate(annotations, new NegativeDwellTime(st0)));
                 if (st0.getArrivalTime() > 23 * SECONDS_IN_HOUR && st0.getDepartureTime() < 1 * SECONDS_IN_HOUR) {
                     midnightCrossed = true;
                     st0.setDepartureTime(st0.getDepartureTime() + 24 * SECONDS_IN_HOUR);
@@ -841,7 +1045,7 @@ public class PatternHopFactory {
             int runningTime = st1.getArrivalTime() - st0.getDepartureTime();
 
             if (runningTime < 0) {
-                LOG.warn(graph.addBuilderAnnotation(new NegativeHopTime(new StopTime(st0), new StopTime(st1))));
+                LOG.warn(annotate(annotations, new NegativeHopTime(new StopTime(st0), new StopTime(st1))));
                 // negative hops are usually caused by incorrect coding of midnight crossings
                 midnightCrossed = true;
                 if (st0.getDepartureTime() > 23 * SECONDS_IN_HOUR && st1.getArrivalTime() < 1 * SECONDS_IN_HOUR) {
@@ -868,7 +1072,7 @@ public class PatternHopFactory {
                 st0.getDepartureTime() == st1.getDepartureTime()) {
                 LOG.trace("{} {}", st0, st1);
                 // series of identical stop times at different stops
-                LOG.trace(graph.addBuilderAnnotation(new HopZeroTime((float) hopDistance, 
+                LOG.trace(annotate(annotations, new HopZeroTime((float) hopDistance, 
                           st1.getTrip(), st1.getStopSequence())));
                 // clear stoptimes that are obviously wrong, causing them to later be interpolated
 /* FIXME (lines commented out because they break routability in multi-feed NYC for some reason -AMB) */
@@ -878,11 +1082,11 @@ public class PatternHopFactory {
             } else if (hopSpeed > 45) {
                 // 45 m/sec ~= 100 miles/hr
                 // elapsed time of 0 will give speed of +inf
-                LOG.trace(graph.addBuilderAnnotation(new HopSpeedFast((float) hopSpeed, 
+                LOG.trace(annotate(annotations, new HopSpeedFast((float) hopSpeed, 
                         (float) hopDistance, st0.getTrip(), st0.getStopSequence())));
             } else if (hopSpeed < 0.1) {
                 // 0.1 m/sec ~= 0.2 miles/hr
-                LOG.trace(graph.addBuilderAnnotation(new HopSpeedSlow((float) hopSpeed, 
+                LOG.trace(annotate(annotations, new HopSpeedSlow((float) hopSpeed, 
                         (float) hopDistance, st0.getTrip(), st0.getStopSequence())));
             }
             // st0 should reflect the last stoptime that was not clearly incorrect
@@ -891,6 +1095,12 @@ public class PatternHopFactory {
         } // END for loop over stop times
     }
     
+    /** Add an annotation to be registered in the graph later, returning its message for logging. */
+    private static String annotate(List<GraphBuilderAnnotation> annotations, GraphBuilderAnnotation annotation) {
+        annotations.add(annotation);
+        return annotation.getMessage();
+    }
+
     private void loadAgencies(Graph graph) {
         for (Agency agency : transitService.getAllAgencies()) {
             graph.addAgency(feedId.getId(), agency);
@@ -1088,7 +1298,8 @@ public class PatternHopFactory {
     }
 
     
-    private LineString getHopGeometryViaShapeDistTraveled(Graph graph, FeedScopedId shapeId, StopTime st0, StopTime st1) {
+    private LineString getHopGeometryViaShapeDistTraveled(List<GraphBuilderAnnotation> annotations,
+            FeedScopedId shapeId, StopTime st0, StopTime st1) {
 
         double startDistance = st0.getShapeDistTraveled();
         double endDistance = st1.getShapeDistTraveled();
@@ -1101,7 +1312,7 @@ public class PatternHopFactory {
         double[] distances = getDistanceForShapeId(shapeId);
 
         if (distances == null) {
-            LOG.warn(graph.addBuilderAnnotation(new BogusShapeGeometry(shapeId)));
+            LOG.warn(annotate(annotations, new BogusShapeGeometry(shapeId)));
             return null;
         } else {
             LinearLocation startIndex = getSegmentFraction(distances, startDistance);
@@ -1109,13 +1320,13 @@ public class PatternHopFactory {
 
             if (equals(startIndex, endIndex)) {
                 //bogus shape_dist_traveled 
-                graph.addBuilderAnnotation(new BogusShapeDistanceTraveled(st1));
+                annotate(annotations, new BogusShapeDistanceTraveled(st1));
                 return createSimpleGeometry(st0.getStop(), st1.getStop());
             }
             LineString line = getLineStringForShapeId(shapeId);
             LocationIndexedLine lol = new LocationIndexedLine(line);
 
-            geometry = getSegmentGeometry(graph, shapeId, lol, startIndex, endIndex, startDistance,
+            geometry = getSegmentGeometry(annotations, shapeId, lol, startIndex, endIndex, startDistance,
                     endDistance, st0, st1);
 
             return geometry;
@@ -1166,7 +1377,7 @@ public class PatternHopFactory {
         return true;
     }
 
-    private LineString getSegmentGeometry(Graph graph, FeedScopedId shapeId,
+    private LineString getSegmentGeometry(List<GraphBuilderAnnotation> annotations, FeedScopedId shapeId,
             LocationIndexedLine locationIndexedLine, LinearLocation startIndex,
             LinearLocation endIndex, double startDistance, double endDistance, 
             StopTime st0, StopTime st1) {
@@ -1184,7 +1395,7 @@ public class PatternHopFactory {
             geometry = _geometryFactory.createLineString(sequence);
             
             if (!isValid(geometry, st0.getStop(), st1.getStop())) {
-                LOG.warn(graph.addBuilderAnnotation(new BogusShapeGeometryCaught(shapeId, st0, st1)));
+                LOG.warn(annotate(annotations, new BogusShapeGeometryCaught(shapeId, st0, st1)));
                 //fall back to trivial geometry
                 geometry = createSimpleGeometry(st0.getStop(), st1.getStop());
             }
@@ -1461,6 +1672,11 @@ public class PatternHopFactory {
         }
     }
 
+    /** Whether to prepare trips and match them to their shapes on several threads. */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
     public void setStopContext(GtfsStopContext context) {
         this.context = context;
     }
@@ -1546,4 +1762,63 @@ public class PatternHopFactory {
                 || st.getStartServiceAreaRadius() != StopTime.MISSING_VALUE
                 || st.getEndServiceAreaRadius() != StopTime.MISSING_VALUE;
     }
+
+    /** A trip with its repaired stop times, ready to be added to its pattern. */
+    private static class PreparedTrip {
+
+        final Trip trip;
+
+        /** The annotations about the trip, registered in the graph when it is added. */
+        final List<GraphBuilderAnnotation> annotations = new ArrayList<>();
+
+        int directionId;
+
+        /** Null if the trip is not to be added to any pattern. */
+        StopPattern stopPattern;
+
+        TripTimes tripTimes;
+
+        /** The repaired stop times, only kept for the first trip with a shape handed over for each pattern. */
+        List<StopTime> stopTimes;
+
+        /** The pattern of the trip, set if its stop times are used to make the pattern geometry. */
+        TripPattern tripPattern;
+
+        LineString[] geometries;
+
+        PreparedTrip(Trip trip) {
+            this.trip = trip;
+        }
+    }
+
+    /** What identifies the pattern of a trip in {@link #findOrCreateTripPattern}. */
+    private static class PatternKey {
+
+        private final StopPattern stopPattern;
+
+        private final Route route;
+
+        private final int directionId;
+
+        PatternKey(PreparedTrip preparedTrip) {
+            this.stopPattern = preparedTrip.stopPattern;
+            this.route = preparedTrip.trip.getRoute();
+            this.directionId = preparedTrip.directionId;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof PatternKey)) {
+                return false;
+            }
+            PatternKey other = (PatternKey) obj;
+            return stopPattern.equals(other.stopPattern) && route.equals(other.route)
+                    && directionId == other.directionId;
+        }
+
+        @Override
+        public int hashCode() {
+            return (stopPattern.hashCode() * 31 + route.hashCode()) * 31 + directionId;
+        }
+    }
 }
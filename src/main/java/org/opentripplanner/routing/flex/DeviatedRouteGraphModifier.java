@@ -1,7 +1,6 @@
 package org.opentripplanner.routing.flex;
 
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 import org.locationtech.jts.geom.LineString;
 import org.locationtech.jts.geom.Point;
 import org.locationtech.jts.linearref.LengthIndexedLine;
@@ -18,7 +17,6 @@ import org.opentripplanner.routing.edgetype.TripPattern;
 import org.opentripplanner.routing.edgetype.flex.TemporaryPartialPatternHop;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
-import org.opentripplanner.routing.spt.GraphPath;
 import org.opentripplanner.routing.spt.ShortestPathTree;
 import org.opentripplanner.routing.vertextype.PatternArriveVertex;
 import org.opentripplanner.routing.vertextype.PatternDepartVertex;
@@ -30,7 +28,6 @@ import org.opentripplanner.routing.vertextype.flex.TemporaryTransitStop;
 
 import java.util.Collection;
 import java.util.Map;
-import java.util.Set;
 
 /**
  * Add temporary vertices/edges for deviated-route service.
@@ -39,7 +36,6 @@ public class DeviatedRouteGraphModifier extends GtfsFlexGraphModifier {
 
     // want to ensure we only keep one pattern hop per trip pattern
     private Map<TripPattern, FlexPatternHop> directServices = Maps.newHashMap();
-    private Set<State> transitStopStates = Sets.newHashSet();
 
     public DeviatedRouteGraphModifier(Graph graph) {
         super(graph);
@@ -61,47 +57,44 @@ public class DeviatedRouteGraphModifier extends GtfsFlexGraphModifier {
     }
 
     @Override
-    public TemporaryPartialPatternHop makeHopNewTo(RoutingRequest opt, State state, FlexPatternHop hop, PatternArriveVertex to, Stop toStop) {
-        GraphPath path = new GraphPath(state, false);
+    public TemporaryPartialPatternHop makeHopNewTo(RoutingRequest opt, FlexHopCandidate candidate, FlexPatternHop hop, PatternArriveVertex to, Stop toStop) {
         LengthIndexedLine line = new LengthIndexedLine(hop.getGeometry());
         double startIndex = line.getStartIndex();
-        double endIndex = line.project(state.getBackEdge().getToVertex().getCoordinate());
+        double endIndex = line.project(candidate.getMeetCoordinate(opt));
         if (hop.getStopIndex() == 0 && tooLittleOnRoute(hop, line, startIndex, endIndex)) {
             StreetVertex toVertex = findFirstStreetVertex(opt.rctx, true);
             TemporaryTransitStop toTempStop = getTemporaryStop(toVertex, null, opt.rctx, opt);
             TransitStop fromStop = graph.index.stopVertexForStop.get(hop.getBeginStop());
-            createDirectHop(opt, hop, fromStop, toTempStop, path);
+            createDirectHop(opt, hop, fromStop, toTempStop, candidate.getGeometry(), candidate.getDuration());
             return null;
         }
         return new TemporaryPartialPatternHop(hop, (PatternStopVertex) hop.getFromVertex(), to, hop.getBeginStop(), toStop,
-                startIndex, endIndex, null, 0, path.getGeometry(), path.getDuration(), opt.flexFlagStopBufferSize);
+                startIndex, endIndex, null, 0, candidate.getGeometry(), candidate.getDuration(), opt.flexFlagStopBufferSize);
     }
 
     @Override
-    public TemporaryPartialPatternHop makeHopNewFrom(RoutingRequest opt, State state, FlexPatternHop hop, PatternDepartVertex from, Stop fromStop) {
-        GraphPath path = new GraphPath(state, false);
+    public TemporaryPartialPatternHop makeHopNewFrom(RoutingRequest opt, FlexHopCandidate candidate, FlexPatternHop hop, PatternDepartVertex from, Stop fromStop) {
         LengthIndexedLine line = new LengthIndexedLine(hop.getGeometry());
-        // state is place where we meet line
-        double startIndex = line.project(state.getBackEdge().getFromVertex().getCoordinate());
+        // candidate is place where we meet line
+        double startIndex = line.project(candidate.getMeetCoordinate(opt));
         double endIndex = line.getEndIndex();
         if (hop.getStopIndex() + 1 == hop.getPattern().getPatternHops().size() && tooLittleOnRoute(hop, line, startIndex, endIndex)) {
             StreetVertex fromVertex = findFirstStreetVertex(opt.rctx, false);
             TemporaryTransitStop fromTempStop = getTemporaryStop(fromVertex, null, opt.rctx, opt);
             TransitStop toStop = graph.index.stopVertexForStop.get(hop.getEndStop());
-            createDirectHop(opt, hop, fromTempStop, toStop, path);
+            createDirectHop(opt, hop, fromTempStop, toStop, candidate.getGeometry(), candidate.getDuration());
             return null;
         }
         return new TemporaryPartialPatternHop(hop, from, (PatternStopVertex) hop.getToVertex(), fromStop, hop.getEndStop(),
-                startIndex, endIndex, path.getGeometry(), path.getDuration(), null, 0, opt.flexFlagStopBufferSize);
+                startIndex, endIndex, candidate.getGeometry(), candidate.getDuration(), null, 0, opt.flexFlagStopBufferSize);
     }
 
     @Override
-    public TemporaryPartialPatternHop shortenEnd(RoutingRequest opt, State state, TemporaryPartialPatternHop hop, PatternStopVertex to, Stop toStop) {
+    public TemporaryPartialPatternHop shortenEnd(RoutingRequest opt, FlexHopCandidate candidate, TemporaryPartialPatternHop hop, PatternStopVertex to, Stop toStop) {
         FlexPatternHop originalHop = hop.getOriginalHop();
-        GraphPath path = new GraphPath(state, false);
         LengthIndexedLine line = new LengthIndexedLine(originalHop.getGeometry());
         double startIndex = hop.getStartIndex();
-        double endIndex = line.project(state.getBackEdge().getToVertex().getCoordinate());
+        double endIndex = line.project(candidate.getMeetCoordinate(opt));
         if (endIndex < startIndex)
             return null;
         // we may want to create a ~direct~ hop.
@@ -110,7 +103,7 @@ public class DeviatedRouteGraphModifier extends GtfsFlexGraphModifier {
             return null;
         } else {
             return new TemporaryPartialPatternHop(originalHop, (PatternStopVertex) hop.getFromVertex(), to, hop.getBeginStop(), toStop,
-                    startIndex, endIndex, hop.getStartGeometry(), hop.getStartVehicleTime(), path.getGeometry(), path.getDuration(), opt.flexFlagStopBufferSize);
+                    startIndex, endIndex, hop.getStartGeometry(), hop.getStartVehicleTime(), candidate.getGeometry(), candidate.getDuration(), opt.flexFlagStopBufferSize);
         }
     }
 
@@ -120,7 +113,7 @@ public class DeviatedRouteGraphModifier extends GtfsFlexGraphModifier {
     }
 
     @Override
-    public boolean checkHopAllowsBoardAlight(State s, FlexPatternHop hop, boolean boarding) {
+    public boolean checkHopAllowsBoardAlight(State s, FlexPatternHop hop, boolean boarding, FlexHopCache.SearchResult result) {
         StreetVertex sv = findFirstStreetVertex(s);
         // If first vertex is not a StreetVertex, it's a transit vertex, which we'll catch later.
         if (sv == null) {
@@ -128,7 +121,7 @@ public class DeviatedRouteGraphModifier extends GtfsFlexGraphModifier {
             if (!s.getOptions().arriveBy) {
                 Point pt = GeometryUtils.getGeometryFactory().createPoint(s.getOptions().rctx.fromVertex.getCoordinate());
                 if (addHopAsDirectService(hop, pt)) {
-                    directServices.put(hop.getPattern(), hop);
+                    result.addDirectService(hop);
                 }
             }
             return false;
@@ -147,39 +140,50 @@ public class DeviatedRouteGraphModifier extends GtfsFlexGraphModifier {
             ret = distance < hop.getServiceAreaRadius();
         }
         if (addHopAsDirectService(hop, orig)) {
-            directServices.put(hop.getPattern(), hop);
+            result.addDirectService(hop);
         }
         return ret;
     }
 
     private boolean addHopAsDirectService(FlexPatternHop hop, Point orig) {
-        return hop.hasServiceArea() && hop.getServiceArea().contains(orig) && directServices.get(hop.getPattern()) == null;
+        return hop.hasServiceArea() && hop.getServiceArea().contains(orig);
     }
 
     @Override
-    public void vertexVisitor(State state) {
+    public void vertexVisitor(State state, FlexHopCache.SearchResult result) {
         if (state.getVertex() instanceof TransitStop && !(state.getVertex() instanceof TemporaryVertex)) {
             if (((TransitStop) state.getVertex()).getModes().contains(TraverseMode.BUS)) {
-                transitStopStates.add(state);
+                result.addStopCandidate(new FlexHopCandidate(state, null, true, true));
+                return;
             }
         }
         // Direct hop to destination if found
         boolean foundTarget = state.getVertex() == state.getOptions().rctx.toVertex;
         if (!state.getOptions().arriveBy && foundTarget) {
-            transitStopStates.add(state);
+            result.addStopCandidate(new FlexHopCandidate(state, null, true, true));
+            // the destination is specific to this request
+            result.setNotReusable();
         }
     }
 
-    protected void streetSearch(RoutingRequest rr) {
-        transitStopStates.clear();
-        super.streetSearch(rr);
-        createDirectHopsToStops(rr);
+    @Override
+    protected boolean keepsStreetPaths() {
+        return true;
+    }
+
+    @Override
+    protected void applySearchResult(RoutingRequest rr, FlexHopCache.SearchResult result) {
+        for (FlexPatternHop hop : result.getDirectServices()) {
+            directServices.putIfAbsent(hop.getPattern(), hop);
+        }
+        super.applySearchResult(rr, result);
+        createDirectHopsToStops(rr, result.getStopCandidates());
     }
 
-    private void createDirectHopsToStops(RoutingRequest opt) {
+    private void createDirectHopsToStops(RoutingRequest opt, Collection<FlexHopCandidate> stopCandidates) {
         Collection<FlexPatternHop> services = directServices.values();
-        for (State state : transitStopStates) {
-            Vertex v = state.getVertex();
+        for (FlexHopCandidate candidate : stopCandidates) {
+            Vertex v = candidate.getVertex(opt);
             Point dest = GeometryUtils.getGeometryFactory().createPoint(v.getCoordinate());
             for (FlexPatternHop hop : services) {
                 if (hop.getServiceArea().contains(dest)) {
@@ -212,7 +216,7 @@ public class DeviatedRouteGraphModifier extends GtfsFlexGraphModifier {
                             continue;
                         }
                         if (!(v instanceof TransitStop)) {
-                            if (v == state.getOptions().rctx.toVertex) {
+                            if (v == opt.rctx.toVertex) {
                                 StreetVertex toVertex = findFirstStreetVertex(opt.rctx, true);
                                 toStop = getTemporaryStop(toVertex, null, opt.rctx, opt, false);
                             } else {
@@ -222,15 +226,15 @@ public class DeviatedRouteGraphModifier extends GtfsFlexGraphModifier {
                             toStop = (TransitStop) v;
                         }
                     }
-                    createDirectHop(opt, hop, fromStop, toStop, new GraphPath(state, true));
+                    createDirectHop(opt, hop, fromStop, toStop, candidate.getGeometry(), candidate.getDuration());
                 }
             }
         }
     }
 
     @Override
-    public StreetVertex getLocationForTemporaryStop(State s, FlexPatternHop hop) {
-        return findFirstStreetVertex(s);
+    public StreetVertex getLocationForTemporaryStop(RoutingRequest rr, FlexHopCandidate candidate) {
+        return findFirstStreetVertex(rr.rctx, rr.arriveBy);
     }
 
     // Return null if first vertex is not a street vertex
@@ -42,19 +42,19 @@ public class FlagStopGraphModifier extends GtfsFlexGraphModifier {
     }
 
     @Override
-    public TemporaryPartialPatternHop makeHopNewTo(RoutingRequest opt, State state, FlexPatternHop hop, PatternArriveVertex to, Stop toStop) {
+    public TemporaryPartialPatternHop makeHopNewTo(RoutingRequest opt, FlexHopCandidate candidate, FlexPatternHop hop, PatternArriveVertex to, Stop toStop) {
         LengthIndexedLine line = new LengthIndexedLine(hop.getGeometry());
         return new TemporaryPartialPatternHop(hop, (PatternStopVertex) hop.getFromVertex(), to, hop.getBeginStop(), toStop, line.getStartIndex(), line.project(to.getCoordinate()), opt.flexFlagStopBufferSize);
     }
 
     @Override
-    public TemporaryPartialPatternHop makeHopNewFrom(RoutingRequest opt, State state, FlexPatternHop hop, PatternDepartVertex from, Stop fromStop) {
+    public TemporaryPartialPatternHop makeHopNewFrom(RoutingRequest opt, FlexHopCandidate candidate, FlexPatternHop hop, PatternDepartVertex from, Stop fromStop) {
         LengthIndexedLine line = new LengthIndexedLine(hop.getGeometry());
         return new TemporaryPartialPatternHop(hop, from, (PatternStopVertex) hop.getToVertex(), fromStop, hop.getEndStop(), line.project(from.getCoordinate()), line.getEndIndex(), opt.flexFlagStopBufferSize);
     }
 
     @Override
-    public TemporaryPartialPatternHop shortenEnd(RoutingRequest opt, State state, TemporaryPartialPatternHop hop, PatternStopVertex to, Stop toStop) {
+    public TemporaryPartialPatternHop shortenEnd(RoutingRequest opt, FlexHopCandidate candidate, TemporaryPartialPatternHop hop, PatternStopVertex to, Stop toStop) {
         FlexPatternHop originalHop = hop.getOriginalHop();
         LengthIndexedLine line = new LengthIndexedLine(originalHop.getGeometry());
         double endIndex = line.project(to.getCoordinate());
@@ -65,17 +65,16 @@ public class FlagStopGraphModifier extends GtfsFlexGraphModifier {
     }
 
     @Override
-    public StreetVertex getLocationForTemporaryStop(State s, FlexPatternHop hop) {
-        RoutingRequest rr = s.getOptions();
-        Vertex initVertex = rr.arriveBy ? rr.rctx.toVertex : rr.rctx.fromVertex;
+    public StreetVertex getLocationForTemporaryStop(RoutingRequest rr, FlexHopCandidate candidate) {
+        FlexPatternHop hop = candidate.getHop();
 
         Vertex v;
-        if(s.getVertex() == initVertex){
+        if (candidate.isAtInitVertex()) {
             //the origin/destination lies along a flag stop route
             LOG.debug("the origin/destination lies along a flag stop route.");
-            v = initVertex;
+            v = candidate.getVertex(rr);
         } else {
-            v = rr.arriveBy ? s.getBackEdge().getToVertex() : s.getBackEdge().getFromVertex();
+            v = candidate.getMeetVertex(rr);
         }
 
         // Ensure on line
@@ -104,7 +103,7 @@ public class FlagStopGraphModifier extends GtfsFlexGraphModifier {
     }
 
     @Override
-    public boolean checkHopAllowsBoardAlight(State state, FlexPatternHop hop, boolean boarding) {
+    public boolean checkHopAllowsBoardAlight(State state, FlexPatternHop hop, boolean boarding, FlexHopCache.SearchResult result) {
         return hop.canRequestService(boarding);
     }
 }
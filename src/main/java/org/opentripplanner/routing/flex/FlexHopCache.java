@@ -0,0 +1,198 @@
+package org.opentripplanner.routing.flex;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.locationtech.jts.geom.Coordinate;
+import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.edgetype.TripPattern;
+import org.opentripplanner.routing.edgetype.flex.FlexPatternHop;
+import org.opentripplanner.routing.graph.Vertex;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Results of the street searches run by the GTFS-Flex graph modifiers, keyed on the grid cell
+ * containing the vertex the search started from. Requests starting (or ending) close to each other
+ * reuse the pattern hops and stops found by the first search instead of searching again.
+ *
+ * The street paths to the board/alight points are those found from the first origin in the cell, so
+ * the call-and-ride geometries and times of later requests are approximate within the cell size.
+ * A cache belongs to a FlexIndex and is dropped with it when the index is rebuilt.
+ */
+public class FlexHopCache {
+
+    private final double cellSizeMeters;
+
+    private final double cellSizeDegrees;
+
+    private final Cache<Key, SearchResult> cache;
+
+    /**
+     * @param cellSizeMeters size of the grid cells on which origins and destinations are snapped
+     * @param maxSize maximum number of search results kept
+     */
+    public FlexHopCache(double cellSizeMeters, int maxSize) {
+        this.cellSizeMeters = cellSizeMeters;
+        this.cellSizeDegrees = SphericalDistanceLibrary.metersToDegrees(cellSizeMeters);
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .build();
+    }
+
+    public double getCellSizeMeters() {
+        return cellSizeMeters;
+    }
+
+    /**
+     * Return the key under which the result of a street search for the given modifier and request
+     * is kept. The request must already be set up for the search (mode, direction and routing context).
+     */
+    public Key key(GtfsFlexGraphModifier modifier, RoutingRequest rr) {
+        Vertex initVertex = rr.arriveBy ? rr.rctx.toVertex : rr.rctx.fromVertex;
+        Coordinate c = initVertex.getCoordinate();
+        long y = (long) Math.floor(c.y / cellSizeDegrees);
+        // Use the latitude of the cell rather than of the point so the cell boundaries are consistent.
+        double lonCellSize = SphericalDistanceLibrary.metersToLonDegrees(cellSizeMeters, y * cellSizeDegrees);
+        long x = (long) Math.floor(c.x / lonCellSize);
+        return new Key(modifier.getClass(), rr, x, y);
+    }
+
+    public SearchResult get(Key key) {
+        return cache.getIfPresent(key);
+    }
+
+    public void put(Key key, SearchResult result) {
+        cache.put(key, result);
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * Identifies a street search: the kind of modifier, the grid cell of its starting point, and the
+     * request parameters which change which hops it finds.
+     */
+    public static class Key {
+
+        private final Class<? extends GtfsFlexGraphModifier> modifier;
+        private final long x;
+        private final long y;
+        private final boolean arriveBy;
+        private final double maxWalkDistance;
+        private final double walkSpeed;
+        private final double carSpeed;
+        private final boolean wheelchairAccessible;
+        private final int flexMaxCallAndRideSeconds;
+
+        private Key(Class<? extends GtfsFlexGraphModifier> modifier, RoutingRequest rr, long x, long y) {
+            this.modifier = modifier;
+            this.x = x;
+            this.y = y;
+            this.arriveBy = rr.arriveBy;
+            this.maxWalkDistance = rr.maxWalkDistance;
+            this.walkSpeed = rr.walkSpeed;
+            this.carSpeed = rr.carSpeed;
+            this.wheelchairAccessible = rr.wheelchairAccessible;
+            this.flexMaxCallAndRideSeconds = rr.flexMaxCallAndRideSeconds;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return x == key.x &&
+                    y == key.y &&
+                    arriveBy == key.arriveBy &&
+                    Double.compare(key.maxWalkDistance, maxWalkDistance) == 0 &&
+                    Double.compare(key.walkSpeed, walkSpeed) == 0 &&
+                    Double.compare(key.carSpeed, carSpeed) == 0 &&
+                    wheelchairAccessible == key.wheelchairAccessible &&
+                    flexMaxCallAndRideSeconds == key.flexMaxCallAndRideSeconds &&
+                    modifier.equals(key.modifier);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(modifier, x, y, arriveBy, maxWalkDistance, walkSpeed, carSpeed,
+                    wheelchairAccessible, flexMaxCallAndRideSeconds);
+        }
+    }
+
+    /**
+     * What a flex street search found: the pattern hops which may be boarded or alighted near the
+     * starting point and, for deviated-route searches, the hops offering direct service from it and
+     * the stops reached.
+     */
+    public static class SearchResult {
+
+        private final List<FlexHopCandidate> hopCandidates = new ArrayList<>();
+
+        private final Map<TripPattern, FlexPatternHop> directServices = new LinkedHashMap<>();
+
+        private final List<FlexHopCandidate> stopCandidates = new ArrayList<>();
+
+        private boolean reusable = true;
+
+        public void addHopCandidate(FlexHopCandidate candidate) {
+            hopCandidates.add(candidate);
+            reusable &= candidate.isReusable();
+        }
+
+        /** Keep the first hop found for each pattern. */
+        public void addDirectService(FlexPatternHop hop) {
+            directServices.putIfAbsent(hop.getPattern(), hop);
+        }
+
+        public void addStopCandidate(FlexHopCandidate candidate) {
+            stopCandidates.add(candidate);
+            reusable &= candidate.isReusable();
+        }
+
+        /** Mark this result as depending on something other than its starting point. */
+        public void setNotReusable() {
+            reusable = false;
+        }
+
+        public List<FlexHopCandidate> getHopCandidates() {
+            return Collections.unmodifiableList(hopCandidates);
+        }
+
+        public Collection<FlexPatternHop> getDirectServices() {
+            return Collections.unmodifiableCollection(directServices.values());
+        }
+
+        public List<FlexHopCandidate> getStopCandidates() {
+            return Collections.unmodifiableList(stopCandidates);
+        }
+
+        /** Return true if this result can be applied to other requests starting nearby. */
+        public boolean isReusable() {
+            return reusable;
+        }
+
+        /**
+         * Return a copy of this reusable result which does not refer to the temporary vertices of
+         * the request it was found for.
+         */
+        public SearchResult detach() {
+            SearchResult copy = new SearchResult();
+            for (FlexHopCandidate candidate : hopCandidates) {
+                copy.addHopCandidate(candidate.detach());
+            }
+            copy.directServices.putAll(directServices);
+            for (FlexHopCandidate candidate : stopCandidates) {
+                copy.addStopCandidate(candidate.detach());
+            }
+            return copy;
+        }
+    }
+}
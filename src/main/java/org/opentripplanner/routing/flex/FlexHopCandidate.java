@@ -0,0 +1,157 @@
+package org.opentripplanner.routing.flex;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.LineString;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.TemporaryPartialStreetEdge;
+import org.opentripplanner.routing.edgetype.flex.FlexPatternHop;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.vertextype.TemporaryVertex;
+
+/**
+ * The part of a State found during a flex street search that is needed to create temporary flex
+ * stops and hops: where the search met a FlexPatternHop (or reached a stop), and the street path
+ * leading there. Unlike a State it does not refer to the request which produced it, so it can be
+ * reused by later requests starting nearby (see {@link FlexHopCache}).
+ *
+ * References to the vertex the search started from are not kept; they are resolved against the
+ * request the candidate is applied to. The temporary vertices linking that vertex to the street
+ * network are replaced by it when the candidate is detached from its request for reuse. A
+ * candidate referring to any other temporary vertex is specific to its own request and is not
+ * reusable.
+ */
+public class FlexHopCandidate {
+
+    /** Pattern hop met by the search, or null if this candidate is a stop reached by the search. */
+    private final FlexPatternHop hop;
+
+    /** Vertex of the state, or null if it is the vertex the search started from. */
+    private final Vertex vertex;
+
+    /**
+     * Vertex at which the search met the street edge incident with the hop (the from vertex of the
+     * back edge in a forward search, the to vertex in a backward search), or null if it is the vertex
+     * the search started from.
+     */
+    private final Vertex meetVertex;
+
+    /** Street edge by which the state was reached, if any. Used to name temporary stops. */
+    private final StreetEdge streetEdge;
+
+    private final LineString geometry;
+
+    private final long duration;
+
+    private final boolean reusable;
+
+    /**
+     * @param state state found during the search
+     * @param hop pattern hop met at this state, or null for a stop reached by the search
+     * @param path whether to keep the geometry and duration of the street path to this state
+     * @param optimize passed on to the GraphPath from which the street path is taken
+     */
+    public FlexHopCandidate(State state, FlexPatternHop hop, boolean path, boolean optimize) {
+        RoutingRequest rr = state.getOptions();
+        Vertex initVertex = rr.arriveBy ? rr.rctx.toVertex : rr.rctx.fromVertex;
+        Edge backEdge = state.getBackEdge();
+        Vertex meet = state.getVertex();
+        if (backEdge != null) {
+            meet = rr.arriveBy ? backEdge.getToVertex() : backEdge.getFromVertex();
+        }
+        this.hop = hop;
+        this.vertex = state.getVertex() == initVertex ? null : state.getVertex();
+        this.meetVertex = meet == initVertex ? null : meet;
+        if (backEdge instanceof TemporaryPartialStreetEdge) {
+            this.streetEdge = ((TemporaryPartialStreetEdge) backEdge).getParentEdge();
+        } else if (backEdge instanceof StreetEdge) {
+            this.streetEdge = (StreetEdge) backEdge;
+        } else {
+            this.streetEdge = null;
+        }
+        if (path) {
+            GraphPath graphPath = new GraphPath(state, optimize);
+            this.geometry = graphPath.getGeometry();
+            this.duration = graphPath.getDuration();
+        } else {
+            this.geometry = null;
+            this.duration = 0;
+        }
+        this.reusable = !isOtherTemporaryVertex(vertex, rr.arriveBy) && !isOtherTemporaryVertex(meetVertex, rr.arriveBy);
+    }
+
+    private FlexHopCandidate(FlexHopCandidate other) {
+        this.hop = other.hop;
+        this.vertex = other.vertex instanceof TemporaryVertex ? null : other.vertex;
+        this.meetVertex = other.meetVertex instanceof TemporaryVertex ? null : other.meetVertex;
+        this.streetEdge = other.streetEdge;
+        this.geometry = other.geometry;
+        this.duration = other.duration;
+        this.reusable = other.reusable;
+    }
+
+    /**
+     * Return a copy of this reusable candidate which does not refer to the temporary vertices of
+     * its request, for use by other requests.
+     */
+    public FlexHopCandidate detach() {
+        if (!reusable) {
+            throw new IllegalStateException("Flex hop candidate is specific to its request.");
+        }
+        return new FlexHopCandidate(this);
+    }
+
+    // Temporary vertices on the side the search started from are those linking its initial vertex.
+    private static boolean isOtherTemporaryVertex(Vertex v, boolean arriveBy) {
+        return v instanceof TemporaryVertex && ((TemporaryVertex) v).isEndVertex() != arriveBy;
+    }
+
+    public FlexPatternHop getHop() {
+        return hop;
+    }
+
+    /** Return the vertex of the state, given the request this candidate is applied to. */
+    public Vertex getVertex(RoutingRequest rr) {
+        return vertex == null ? initVertex(rr) : vertex;
+    }
+
+    /** Return true if the state was at the vertex the search started from. */
+    public boolean isAtInitVertex() {
+        return vertex == null;
+    }
+
+    /** Return the vertex at which the street edge leading to the hop was met. */
+    public Vertex getMeetVertex(RoutingRequest rr) {
+        return meetVertex == null ? initVertex(rr) : meetVertex;
+    }
+
+    public Coordinate getMeetCoordinate(RoutingRequest rr) {
+        return getMeetVertex(rr).getCoordinate();
+    }
+
+    public StreetEdge getStreetEdge() {
+        return streetEdge;
+    }
+
+    /** Geometry of the street path to this candidate, if it was kept. */
+    public LineString getGeometry() {
+        return geometry;
+    }
+
+    /** Duration in seconds of the street path to this candidate, if it was kept. */
+    public long getDuration() {
+        return duration;
+    }
+
+    /** Return true if this candidate can be detached from the temporary vertices of its request. */
+    public boolean isReusable() {
+        return reusable;
+    }
+
+    private static Vertex initVertex(RoutingRequest rr) {
+        return rr.arriveBy ? rr.rctx.toVertex : rr.rctx.fromVertex;
+    }
+}
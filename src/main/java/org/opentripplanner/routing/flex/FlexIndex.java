@@ -36,9 +36,30 @@ public class FlexIndex {
 
     private final Multimap<Edge, FlexPatternHop> hopsForEdge = HashMultimap.create();
 
+    private volatile FlexHopCache hopCache;
+
     public void init(Graph graph) {
         LOG.info("initializing hops-for-edge map...");
         initializeHopsForEdgeMap(graph);
+        initHopCache(graph.flexHopCacheCellSize, graph.flexHopCacheSize);
+    }
+
+    /**
+     * Set up a cache of flex street search results on a grid of the given cell size in meters,
+     * replacing any existing one. A cell size of zero disables the cache.
+     */
+    public void initHopCache(double cellSizeMeters, int maxSize) {
+        if (cellSizeMeters > 0 && maxSize > 0) {
+            LOG.info("Caching flex street searches on a grid of {} meter cells.", cellSizeMeters);
+            hopCache = new FlexHopCache(cellSizeMeters, maxSize);
+        } else {
+            hopCache = null;
+        }
+    }
+
+    /** Return the cache of flex street search results, or null if there is none. */
+    public FlexHopCache getHopCache() {
+        return hopCache;
     }
 
     public Collection<FlexPatternHop> getHopsForEdge(Edge e) {
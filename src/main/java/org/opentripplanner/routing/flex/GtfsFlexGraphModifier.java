@@ -2,7 +2,7 @@ package org.opentripplanner.routing.flex;
 
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
-import org.apache.commons.math3.util.Pair;
+import org.locationtech.jts.geom.LineString;
 import org.opentripplanner.model.FeedScopedId;
 import org.opentripplanner.model.Stop;
 import org.opentripplanner.routing.algorithm.GenericDijkstra;
@@ -25,7 +25,6 @@ import org.opentripplanner.routing.edgetype.flex.TemporaryStreetTransitLink;
 import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
-import org.opentripplanner.routing.spt.GraphPath;
 import org.opentripplanner.routing.vertextype.PatternArriveVertex;
 import org.opentripplanner.routing.vertextype.PatternDepartVertex;
 import org.opentripplanner.routing.vertextype.PatternStopVertex;
@@ -50,7 +49,6 @@ import java.util.LinkedList;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Queue;
-import java.util.stream.Collectors;
 
 /**
  * Create temporary vertices and edges for GTFS-flex service.
@@ -90,25 +88,25 @@ public abstract class GtfsFlexGraphModifier {
      * Create a new {@link FlexPatternHop} with a new "to" location (from the route to a new destination).
      *
      * @param opt Options for the graph search
-     * @param state State at which the original FlexPatternHop was found during the graph search
+     * @param candidate Where the original FlexPatternHop was found during the graph search
      * @param hop Original pattern hop to modify
      * @param to New "to" location
      * @param toStop Stop for new "to" location
      * @return new pattern hop
      */
-    public abstract TemporaryPartialPatternHop makeHopNewTo(RoutingRequest opt, State state, FlexPatternHop hop, PatternArriveVertex to, Stop toStop);
+    public abstract TemporaryPartialPatternHop makeHopNewTo(RoutingRequest opt, FlexHopCandidate candidate, FlexPatternHop hop, PatternArriveVertex to, Stop toStop);
 
     /**
      * Create a new {@link FlexPatternHop} with a new "from" location (from a new destination to the route).
      *
      * @param opt Options for the graph search
-     * @param state Options for the graph search
+     * @param candidate Where the original FlexPatternHop was found during the graph search
      * @param hop Original pattern hop to modify
      * @param from New "from" location
      * @param fromStop Stop for new "from" location
      * @return new pattern hop
      */
-    public abstract TemporaryPartialPatternHop makeHopNewFrom(RoutingRequest opt, State state, FlexPatternHop hop, PatternDepartVertex from, Stop fromStop);
+    public abstract TemporaryPartialPatternHop makeHopNewFrom(RoutingRequest opt, FlexHopCandidate candidate, FlexPatternHop hop, PatternDepartVertex from, Stop fromStop);
 
     /**
      * From an existing TemporaryPartialPatternHop which has a new "from" location, create a new
@@ -117,30 +115,42 @@ public abstract class GtfsFlexGraphModifier {
      * to searches from the destination.
      *
      * @param opt Options for the graph search
-     * @param state ptions for the graph search
+     * @param candidate Where the original FlexPatternHop was found during the graph search
      * @param hop Temporary pattern hop to modify
      * @param to New "to" location
      * @param toStop Stop for new "to" location
      * @return new pattern hop
      */
-    public abstract TemporaryPartialPatternHop shortenEnd(RoutingRequest opt, State state, TemporaryPartialPatternHop hop, PatternStopVertex to, Stop toStop);
+    public abstract TemporaryPartialPatternHop shortenEnd(RoutingRequest opt, FlexHopCandidate candidate, TemporaryPartialPatternHop hop, PatternStopVertex to, Stop toStop);
 
     /**
-     * Returns true if the given hop can be boarded/alighted.
+     * Returns true if the given hop can be boarded/alighted. Called during the graph search;
+     * anything else learned about the hop should be recorded in the search result.
      */
-    public abstract boolean checkHopAllowsBoardAlight(State state, FlexPatternHop hop, boolean boarding);
+    public abstract boolean checkHopAllowsBoardAlight(State state, FlexPatternHop hop, boolean boarding, FlexHopCache.SearchResult result);
 
     /**
      * Subclasses can specify where the new temporary stop should be created, given a nearby
      * PatternHop.
      *
-     * @param s State at which PatternHop was found
-     * @param hop PatternHop found during graph search
+     * @param rr Request for which the stop is created
+     * @param candidate Where the PatternHop was found during the graph search
      * @return location for new stop
      */
-    public abstract StreetVertex getLocationForTemporaryStop(State s, FlexPatternHop hop);
+    public abstract StreetVertex getLocationForTemporaryStop(RoutingRequest rr, FlexHopCandidate candidate);
 
-    public void vertexVisitor(State state) {}
+    /**
+     * Called for each vertex visited during the graph search.
+     */
+    public void vertexVisitor(State state, FlexHopCache.SearchResult result) {}
+
+    /**
+     * Return true if the hop candidates found by the graph search should keep the street path
+     * (geometry and duration) leading to them.
+     */
+    protected boolean keepsStreetPaths() {
+        return false;
+    }
 
     /**
      * Create temporary edges and vertices from the origin into the transit network.
@@ -169,40 +179,62 @@ public abstract class GtfsFlexGraphModifier {
         streetSearch(backward);
     }
 
+    /**
+     * Search the streets around the origin or destination of the request and create temporary
+     * stops and hops for what was found. If the flex index has a hop cache, the result of an earlier
+     * search starting nearby is used instead when there is one.
+     */
     protected void streetSearch(RoutingRequest rr) {
         if (TraverseMode.CAR.equals(getMode())) {
             modifyRequestForCarAccess(rr);
         }
-        for(Pair<State, FlexPatternHop> p : getClosestPatternHops(rr)) {
-            State s = p.getKey();
-            FlexPatternHop hop = p.getValue();
-            TemporaryTransitStop flagTransitStop = getTemporaryStop(s, hop);
+        FlexHopCache cache = graph.flexIndex.getHopCache();
+        FlexHopCache.Key key = cache == null ? null : cache.key(this, rr);
+        FlexHopCache.SearchResult result = key == null ? null : cache.get(key);
+        if (result == null) {
+            result = getClosestPatternHops(rr);
+            if (key != null && result.isReusable()) {
+                cache.put(key, result.detach());
+            }
+        } else {
+            LOG.debug("Reusing flex street search result for {}", getClass().getSimpleName());
+        }
+        applySearchResult(rr, result);
+    }
+
+    /**
+     * Create temporary stops and hops from the result of a street search.
+     */
+    protected void applySearchResult(RoutingRequest rr, FlexHopCache.SearchResult result) {
+        for (FlexHopCandidate candidate : result.getHopCandidates()) {
+            FlexPatternHop hop = candidate.getHop();
+            TemporaryTransitStop flagTransitStop = getTemporaryStop(rr, candidate);
             if (flagTransitStop == null) {
                 continue;
             }
             if (rr.arriveBy) {
-                createHopsToTemporaryStop(rr, s, flagTransitStop, hop);
+                createHopsToTemporaryStop(rr, candidate, flagTransitStop, hop);
             } else {
-                createHopsFromTemporaryStop(rr, s, flagTransitStop, hop);
+                createHopsFromTemporaryStop(rr, candidate, flagTransitStop, hop);
             }
         }
     }
 
-    private TemporaryTransitStop getTemporaryStop(State s, FlexPatternHop hop) {
-        StreetVertex streetVertex = getLocationForTemporaryStop(s, hop);
+    private TemporaryTransitStop getTemporaryStop(RoutingRequest rr, FlexHopCandidate candidate) {
+        StreetVertex streetVertex = getLocationForTemporaryStop(rr, candidate);
         if (streetVertex == null) {
             return null;
         }
-        return getTemporaryStop(streetVertex, s, s.getContext(), s.getOptions());
+        return getTemporaryStop(streetVertex, candidate.getStreetEdge(), rr.rctx, rr);
     }
 
-    protected TemporaryTransitStop getTemporaryStop(StreetVertex streetVertex, State s, RoutingContext rctx, RoutingRequest options) {
-        return getTemporaryStop(streetVertex, s, rctx, options, !options.arriveBy);
+    protected TemporaryTransitStop getTemporaryStop(StreetVertex streetVertex, StreetEdge streetEdge, RoutingContext rctx, RoutingRequest options) {
+        return getTemporaryStop(streetVertex, streetEdge, rctx, options, !options.arriveBy);
     }
 
-    protected TemporaryTransitStop getTemporaryStop(StreetVertex streetVertex, State s, RoutingContext rctx, RoutingRequest options, boolean forwards) {
+    protected TemporaryTransitStop getTemporaryStop(StreetVertex streetVertex, StreetEdge streetEdge, RoutingContext rctx, RoutingRequest options, boolean forwards) {
         if (temporaryTransitStopsForLocation.get(streetVertex) == null) {
-            String name = findName(s, streetVertex, options.locale, forwards);
+            String name = findName(streetEdge, streetVertex, options.locale, forwards);
             TemporaryTransitStop stop = createTemporaryTransitStop(name, streetVertex, rctx);
             temporaryTransitStopsForLocation.put(streetVertex, stop);
             return stop;
@@ -211,7 +243,7 @@ public abstract class GtfsFlexGraphModifier {
     }
 
     // Return a reasonable name for a vertex.
-    private String findName(State state, StreetVertex vertex, Locale locale, boolean forwards) {
+    private String findName(StreetEdge streetEdge, StreetVertex vertex, Locale locale, boolean forwards) {
         I18NString unnamed = new LocalizedString("unnamedStreet", (String[]) null);
         I18NString name = vertex.getIntersectionName(locale);
         if (!name.equals(unnamed)) {
@@ -232,25 +264,26 @@ public abstract class GtfsFlexGraphModifier {
             }
             n++;
         }
-        if (state != null && state.backEdge instanceof StreetEdge) { // this really assumes flag stops
-            return state.backEdge.getName(locale);
+        if (streetEdge != null) { // this really assumes flag stops
+            return streetEdge.getName(locale);
         }
         return unnamed.toString();
     }
 
-    private Collection<Pair<State, FlexPatternHop>> getClosestPatternHops(RoutingRequest rr) {
-        Map<FlexPatternHop, State> patternHopStateMap = Maps.newHashMap();
+    private FlexHopCache.SearchResult getClosestPatternHops(RoutingRequest rr) {
+        FlexHopCache.SearchResult result = new FlexHopCache.SearchResult();
+        Map<FlexPatternHop, State> patternHopStateMap = Maps.newLinkedHashMap();
         GenericDijkstra gd = new GenericDijkstra(rr);
         gd.setHeuristic(new TrivialRemainingWeightHeuristic());
         gd.traverseVisitor = new TraverseVisitor() {
             @Override
             public void visitEdge(Edge edge, State state) {
-                addStateToPatternHopStateMap(edge, state, patternHopStateMap);
+                addStateToPatternHopStateMap(edge, state, patternHopStateMap, result);
             }
 
             @Override
             public void visitVertex(State state) {
-                vertexVisitor(state);
+                vertexVisitor(state, result);
             }
 
             @Override
@@ -263,10 +296,10 @@ public abstract class GtfsFlexGraphModifier {
         Vertex initVertex = rr.arriveBy ? rr.rctx.toVertex : rr.rctx.fromVertex;
         gd.getShortestPathTree(new State(initVertex, rr));
 
-        return patternHopStateMap.entrySet()
-                .stream()
-                .map(e -> new Pair<>(e.getValue(), e.getKey()))
-                .collect(Collectors.toList());
+        for (Map.Entry<FlexPatternHop, State> e : patternHopStateMap.entrySet()) {
+            result.addHopCandidate(new FlexHopCandidate(e.getValue(), e.getKey(), keepsStreetPaths(), false));
+        }
+        return result;
     }
 
     private TemporaryTransitStop createTemporaryTransitStop(String name, StreetVertex v, RoutingContext rctx) {
@@ -281,7 +314,7 @@ public abstract class GtfsFlexGraphModifier {
         return flagTransitStop;
     }
 
-    private void createHopsToTemporaryStop(RoutingRequest rr, State state, TemporaryTransitStop flagTransitStop, FlexPatternHop originalPatternHop) {
+    private void createHopsToTemporaryStop(RoutingRequest rr, FlexHopCandidate candidate, TemporaryTransitStop flagTransitStop, FlexPatternHop originalPatternHop) {
         Stop flagStop = flagTransitStop.getStop();
 
         TransitStopArrive transitStopArrive = createTransitStopArrive(rr, flagTransitStop);
@@ -291,7 +324,7 @@ public abstract class GtfsFlexGraphModifier {
             // create new shortened hop
             TemporaryPatternArriveVertex patternArriveVertex = createPatternArriveVertex(rr, originalPatternHop, flagStop);
 
-            TemporaryPartialPatternHop newHop = shortenEnd(rr, state, reverseHop, patternArriveVertex, flagStop);
+            TemporaryPartialPatternHop newHop = shortenEnd(rr, candidate, reverseHop, patternArriveVertex, flagStop);
             if (newHop == null || newHop.isTrivial(rr)) {
                 if (newHop != null) {
                     removeEdge(newHop);
@@ -303,7 +336,7 @@ public abstract class GtfsFlexGraphModifier {
 
         TemporaryPatternArriveVertex patternArriveVertex = createPatternArriveVertex(rr, originalPatternHop, flagStop);
 
-        TemporaryPartialPatternHop hop = makeHopNewTo(rr, state, originalPatternHop, patternArriveVertex, flagStop);
+        TemporaryPartialPatternHop hop = makeHopNewTo(rr, candidate, originalPatternHop, patternArriveVertex, flagStop);
         if (hop == null || hop.isTrivial(rr)) {
             if (hop != null) {
                 removeEdge(hop);
@@ -313,14 +346,14 @@ public abstract class GtfsFlexGraphModifier {
         createAlightEdge(rr, transitStopArrive, patternArriveVertex, hop);
     }
 
-    private void createHopsFromTemporaryStop(RoutingRequest rr, State state, TemporaryTransitStop flagTransitStop, FlexPatternHop originalPatternHop) {
+    private void createHopsFromTemporaryStop(RoutingRequest rr, FlexHopCandidate candidate, TemporaryTransitStop flagTransitStop, FlexPatternHop originalPatternHop) {
         Stop flagStop = flagTransitStop.getStop();
 
         TransitStopDepart transitStopDepart = createTransitStopDepart(rr, flagTransitStop);
 
         TemporaryPatternDepartVertex patternDepartVertex = createPatternDepartVertex(rr, originalPatternHop, flagStop);
 
-        TemporaryPartialPatternHop hop = makeHopNewFrom(rr, state, originalPatternHop, patternDepartVertex, flagStop);
+        TemporaryPartialPatternHop hop = makeHopNewFrom(rr, candidate, originalPatternHop, patternDepartVertex, flagStop);
         if (hop == null || hop.isTrivial(rr)) {
             if (hop != null) {
                 removeEdge(hop);
@@ -330,7 +363,7 @@ public abstract class GtfsFlexGraphModifier {
         createBoardEdge(rr, transitStopDepart, patternDepartVertex, hop);
     }
 
-    public void createDirectHop(RoutingRequest rr, FlexPatternHop originalPatternHop, TransitStop fromStop, TransitStop toStop, GraphPath path) {
+    public void createDirectHop(RoutingRequest rr, FlexPatternHop originalPatternHop, TransitStop fromStop, TransitStop toStop, LineString geometry, long duration) {
         if (fromStop instanceof TemporaryTransitStop && fromStop.departVertex == null) {
             createTransitStopDepart(rr, (TemporaryTransitStop) fromStop);
         }
@@ -343,13 +376,13 @@ public abstract class GtfsFlexGraphModifier {
 
         // direct hop
         TemporaryDirectPatternHop newHop = new TemporaryDirectPatternHop(originalPatternHop, patternDepartVertex, patternArriveVertex, fromStop.getStop(), toStop.getStop(),
-                path.getGeometry(), path.getDuration());
+                geometry, duration);
 
         createBoardEdge(rr, fromStop.departVertex, patternDepartVertex, newHop);
         createAlightEdge(rr, toStop.arriveVertex, patternArriveVertex, newHop);
     }
 
-    private void addStateToPatternHopStateMap(Edge edge, State s, Map<FlexPatternHop, State> patternHopStateMap) {
+    private void addStateToPatternHopStateMap(Edge edge, State s, Map<FlexPatternHop, State> patternHopStateMap, FlexHopCache.SearchResult result) {
         Collection<FlexPatternHop> hops = graph.flexIndex.getHopsForEdge(edge);
         for(FlexPatternHop hop : hops){
             if(patternHopStateMap.containsKey(hop)){
@@ -358,7 +391,7 @@ public abstract class GtfsFlexGraphModifier {
                     continue;
                 }
             }
-            if (checkHopAllowsBoardAlight(s, hop, !s.getOptions().arriveBy)) {
+            if (checkHopAllowsBoardAlight(s, hop, !s.getOptions().arriveBy, result)) {
                 patternHopStateMap.put(hop, s);
             }
         }
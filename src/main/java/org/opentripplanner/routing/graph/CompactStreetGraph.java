@@ -0,0 +1,276 @@
+package org.opentripplanner.routing.graph;
+
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.vertextype.BarrierVertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A read-only, compressed sparse row view of the adjacency of a graph, with the street edge
+ * attributes used by StreetEdge traversal held in primitive arrays.
+ *
+ * Edges are numbered in the order of the outgoing edge lists of the vertices, which are laid out
+ * one after the other by vertex index. The outgoing edges of vertex v are then the edge numbers
+ * outStart[v] to outStart[v + 1] (exclusive). Incoming edges are stored as lists of edge numbers in
+ * the same way. The attributes of street edges are precomputed at build time: lengths, permissions
+ * intersected with those of barriers at either end, and lengths adjusted for slope.
+ *
+ * The view is a snapshot. The edge lists of a vertex are only used while that vertex still holds
+ * the edge array it had when the view was built; vertices whose edges changed since then (for
+ * example permanent vertices linked to temporary GTFS-Flex stops) and vertices created since then
+ * are reported as not covered, and callers fall back on the Vertex edge lists. The edges of
+ * temporary origins and destinations are kept in the routing context and do not change permanent
+ * vertices. Changes to street edge attributes after the view was built are not seen; rebuild it
+ * after such changes.
+ */
+public class CompactStreetGraph {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CompactStreetGraph.class);
+
+    private static final byte STAIRS = 1;
+    private static final byte NO_THRU_TRAFFIC = 2;
+    private static final byte WHEELCHAIR_ACCESSIBLE = 4;
+
+    /* Per vertex, indexed by Vertex.getIndex() */
+
+    private final Vertex[] vertices;
+
+    private final Edge[][] outSource;
+
+    private final Edge[][] inSource;
+
+    private final int[] outStart;
+
+    private final int[] inStart;
+
+    /* Incoming edge lists, as edge numbers */
+
+    private final int[] inEdges;
+
+    /* Per edge, indexed by edge number */
+
+    private final Edge[] edges;
+
+    private final int[] lengthMm;
+
+    private final StreetTraversalPermission[] permissions;
+
+    private final byte[] flags;
+
+    private final float[] bicycleSafetyFactor;
+
+    private final float[] carSpeed;
+
+    private final float[] maxSlope;
+
+    private final double[] slopeSpeedLength;
+
+    private final double[] slopeWorkLength;
+
+    private final double[] slopeWalkLength;
+
+    public CompactStreetGraph(Graph graph) {
+        int nVertices = 0;
+        int nEdges = 0;
+        for (Vertex v : graph.getVertices()) {
+            nVertices = Math.max(nVertices, v.getIndex() + 1);
+        }
+        vertices = new Vertex[nVertices];
+        outSource = new Edge[nVertices][];
+        inSource = new Edge[nVertices][];
+        for (Vertex v : graph.getVertices()) {
+            vertices[v.getIndex()] = v;
+            outSource[v.getIndex()] = v.getOutgoingArray();
+            inSource[v.getIndex()] = v.getIncomingArray();
+            nEdges += outSource[v.getIndex()].length;
+        }
+
+        outStart = new int[nVertices + 1];
+        edges = new Edge[nEdges];
+        lengthMm = new int[nEdges];
+        permissions = new StreetTraversalPermission[nEdges];
+        flags = new byte[nEdges];
+        bicycleSafetyFactor = new float[nEdges];
+        carSpeed = new float[nEdges];
+        maxSlope = new float[nEdges];
+        slopeSpeedLength = new double[nEdges];
+        slopeWorkLength = new double[nEdges];
+        slopeWalkLength = new double[nEdges];
+
+        int e = 0;
+        for (int v = 0; v < nVertices; v++) {
+            outStart[v] = e;
+            if (outSource[v] == null) {
+                continue;
+            }
+            for (Edge edge : outSource[v]) {
+                edges[e] = edge;
+                if (edge instanceof StreetEdge) {
+                    setStreetAttributes(e, (StreetEdge) edge);
+                }
+                e++;
+            }
+        }
+        outStart[nVertices] = e;
+
+        // Incoming lists refer to the edge numbers of the outgoing lists of their from vertices.
+        inStart = new int[nVertices + 1];
+        int nInEdges = 0;
+        for (int v = 0; v < nVertices; v++) {
+            inStart[v] = nInEdges;
+            if (inSource[v] != null) {
+                nInEdges += inSource[v].length;
+            }
+        }
+        inStart[nVertices] = nInEdges;
+        inEdges = new int[nInEdges];
+        int missing = 0;
+        for (int v = 0; v < nVertices; v++) {
+            if (inSource[v] == null) {
+                continue;
+            }
+            for (int i = 0; i < inSource[v].length; i++) {
+                int number = findEdgeNumber(inSource[v][i]);
+                if (number < 0) {
+                    // An edge which is not in the outgoing list of its from vertex; don't use this vertex.
+                    inSource[v] = null;
+                    missing++;
+                    break;
+                }
+                inEdges[inStart[v] + i] = number;
+            }
+        }
+        if (missing > 0) {
+            LOG.warn("{} vertices have incoming edges missing from the outgoing edges of their from vertex.", missing);
+        }
+        LOG.info("Built compact street graph with {} vertices and {} edges.", nVertices, nEdges);
+    }
+
+    private void setStreetAttributes(int e, StreetEdge edge) {
+        StreetTraversalPermission permission = edge.getPermission();
+        if (edge.getFromVertex() instanceof BarrierVertex) {
+            permission = permission.intersection(((BarrierVertex) edge.getFromVertex()).getBarrierPermissions());
+        }
+        if (edge.getToVertex() instanceof BarrierVertex) {
+            permission = permission.intersection(((BarrierVertex) edge.getToVertex()).getBarrierPermissions());
+        }
+        byte f = 0;
+        if (edge.isStairs()) f |= STAIRS;
+        if (edge.isNoThruTraffic()) f |= NO_THRU_TRAFFIC;
+        if (edge.isWheelchairAccessible()) f |= WHEELCHAIR_ACCESSIBLE;
+        lengthMm[e] = (int) Math.round(edge.getDistance() * 1000);
+        permissions[e] = permission;
+        flags[e] = f;
+        bicycleSafetyFactor[e] = edge.getBicycleSafetyFactor();
+        carSpeed[e] = edge.getCarSpeed();
+        maxSlope[e] = edge.getMaxSlope();
+        slopeSpeedLength[e] = edge.getSlopeSpeedEffectiveLength();
+        slopeWorkLength[e] = edge.getSlopeWorkCostEffectiveLength();
+        slopeWalkLength[e] = edge.getSlopeWalkSpeedEffectiveLength();
+    }
+
+    private int findEdgeNumber(Edge edge) {
+        Vertex from = edge.getFromVertex();
+        if (from == null || !covers(from, false)) {
+            return -1;
+        }
+        int v = from.getIndex();
+        for (int e = outStart[v]; e < outStart[v + 1]; e++) {
+            if (edges[e] == edge) {
+                return e;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return true if the outgoing (incoming if reverse is true) edges of the given vertex are the
+     * same as when this view was built, so they may be read from this view.
+     */
+    public boolean covers(Vertex vertex, boolean reverse) {
+        int v = vertex.getIndex();
+        if (v >= vertices.length || vertices[v] != vertex) {
+            return false;
+        }
+        if (reverse) {
+            return inSource[v] != null && inSource[v] == vertex.getIncomingArray();
+        }
+        return outSource[v] == vertex.getOutgoingArray();
+    }
+
+    /** First position in the edge list of a covered vertex. */
+    public int getStart(Vertex vertex, boolean reverse) {
+        return reverse ? inStart[vertex.getIndex()] : outStart[vertex.getIndex()];
+    }
+
+    /** Position after the last one in the edge list of a covered vertex. */
+    public int getEnd(Vertex vertex, boolean reverse) {
+        return reverse ? inStart[vertex.getIndex() + 1] : outStart[vertex.getIndex() + 1];
+    }
+
+    /** Return the edge number at the given position of an edge list. */
+    public int getEdgeNumber(int position, boolean reverse) {
+        return reverse ? inEdges[position] : position;
+    }
+
+    public Edge getEdge(int e) {
+        return edges[e];
+    }
+
+    public int getEdgeCount() {
+        return outStart[vertices.length];
+    }
+
+    /* Street edge attributes. Only meaningful for edge numbers of StreetEdges. */
+
+    public double getDistance(int e) {
+        return lengthMm[e] / 1000.0;
+    }
+
+    /**
+     * Same as StreetEdge.canTraverse(RoutingRequest, TraverseMode): checks wheelchair accessibility
+     * and the permissions of the edge and of any barriers at its ends.
+     */
+    public boolean canTraverse(int e, RoutingRequest options, TraverseMode mode) {
+        if (options.wheelchairAccessible) {
+            if ((flags[e] & WHEELCHAIR_ACCESSIBLE) == 0) {
+                return false;
+            }
+            if (maxSlope[e] > options.maxSlope) {
+                return false;
+            }
+        }
+        return permissions[e].allows(mode);
+    }
+
+    public boolean isStairs(int e) {
+        return (flags[e] & STAIRS) != 0;
+    }
+
+    public boolean isNoThruTraffic(int e) {
+        return (flags[e] & NO_THRU_TRAFFIC) != 0;
+    }
+
+    public float getBicycleSafetyFactor(int e) {
+        return bicycleSafetyFactor[e];
+    }
+
+    public float getCarSpeed(int e) {
+        return carSpeed[e];
+    }
+
+    public double getSlopeSpeedEffectiveLength(int e) {
+        return slopeSpeedLength[e];
+    }
+
+    public double getSlopeWorkCostEffectiveLength(int e) {
+        return slopeWorkLength[e];
+    }
+
+    public double getSlopeWalkSpeedEffectiveLength(int e) {
+        return slopeWalkLength[e];
+    }
+}
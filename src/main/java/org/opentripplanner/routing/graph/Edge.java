@@ -5,8 +5,9 @@ import org.opentripplanner.model.Trip;
 import org.opentripplanner.common.MavenVersion;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.edgetype.TemporaryEdge;
 import org.opentripplanner.routing.util.IncrementingIdGenerator;
-import org.opentripplanner.routing.util.UniqueIdGenerator;
+import org.opentripplanner.routing.vertextype.TemporaryVertex;
 
 import javax.xml.bind.annotation.XmlTransient;
 import java.io.IOException;
@@ -26,7 +27,7 @@ public abstract class Edge implements Serializable {
     /**
      * Generates globally unique edge IDs.
      */
-    private static final UniqueIdGenerator<Edge> idGenerator = new IncrementingIdGenerator<Edge>();
+    private static final IncrementingIdGenerator<Edge> idGenerator = new IncrementingIdGenerator<Edge>();
 
     /**
      * Identifier of the edge. Negative means not set.
@@ -53,8 +54,25 @@ public abstract class Edge implements Serializable {
         // " constructed with bad vertex types");
         // }
 
-        fromv.addOutgoing(this);
-        tov.addIncoming(this);
+        if (isListedBy(fromv)) {
+            fromv.addOutgoing(this);
+        }
+        if (isListedBy(tov)) {
+            tov.addIncoming(this);
+        }
+    }
+
+    /**
+     * Return true if this edge is in the edge lists of the given vertex, one of its ends. This is the case for all
+     * edges except request-scoped temporary edges (see {@link TemporaryEdge#isRequestScoped()}) joining a temporary
+     * vertex to a permanent one, which are only listed by the temporary vertex.
+     */
+    public boolean isListedBy(Vertex vertex) {
+        if (vertex instanceof TemporaryVertex || !(this instanceof TemporaryEdge)
+                || !((TemporaryEdge) this).isRequestScoped()) {
+            return true;
+        }
+        return !(fromv instanceof TemporaryVertex) && !(tov instanceof TemporaryVertex);
     }
 
     public Vertex getFromVertex() {
@@ -209,6 +227,14 @@ public abstract class Edge implements Serializable {
         return 0;
     }
 
+    /**
+     * Make sure the edges created from now on get IDs above the given one. This is needed after edges were
+     * deserialized with their IDs, which does not go through the generator.
+     */
+    static void reserveIds(int id) {
+        idGenerator.reserve(id);
+    }
+
     /* SERIALIZATION */
 
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
@@ -0,0 +1,170 @@
+package org.opentripplanner.routing.graph;
+
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The compacted geometries of the street edges of a graph, saved in a file next to the graph file
+ * rather than in it. When the graph is loaded the file is memory-mapped, and the geometry of an edge
+ * is read from the mapping each time it is needed instead of being held on the heap.
+ *
+ * The file starts with a token, which is also saved in front of the graph so that a graph is never
+ * loaded with the geometries of another one. Then come ints: the number of edge ids n, the start and
+ * length of the geometry of each edge id among the ints, and the geometries. Edges sharing a
+ * geometry array, like the two directions of a street, share its ints.
+ */
+public class EdgeGeometryFile {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EdgeGeometryFile.class);
+
+    /** Appended to the name of the graph file to get the name of its geometries file. */
+    public static final String SUFFIX = ".geometries";
+
+    /** The file must be mapped at once. */
+    private static final long MAX_INTS = (Integer.MAX_VALUE - Long.BYTES) / Integer.BYTES;
+
+    private static final int[] STRAIGHT_LINE = new int[0];
+
+    private final IntBuffer ints;
+
+    private EdgeGeometryFile(IntBuffer ints) {
+        this.ints = ints;
+    }
+
+    /** Saved in front of a graph whose street edges are saved without their geometries. */
+    static class Header {
+
+        long token;
+
+        /** For use with Kryo library only. */
+        private Header() {
+        }
+
+        Header(long token) {
+            this.token = token;
+        }
+    }
+
+    public static File forGraph(File graphFile) {
+        return new File(graphFile.getPath() + SUFFIX);
+    }
+
+    /**
+     * Write the geometries of the street edges among the given ones to the given file, replacing it
+     * rather than overwriting it as it may be mapped by a graph loaded from it.
+     * @return the header to save in front of the graph, or null if there are too many geometries to
+     *         map them at once, in which case nothing is written.
+     */
+    static Header write(File file, Collection<Edge> edges) throws IOException {
+        List<StreetEdge> streetEdges = new ArrayList<>();
+        Map<int[], Integer> starts = new IdentityHashMap<>();
+        int nIds = 0;
+        long nInts = 0;
+        for (Edge edge : edges) {
+            if (edge instanceof StreetEdge && edge.getId() >= 0) {
+                StreetEdge streetEdge = (StreetEdge) edge;
+                streetEdges.add(streetEdge);
+                nIds = Math.max(nIds, edge.getId() + 1);
+                int[] geometry = streetEdge.getCompactGeometry();
+                if (geometry != null && !starts.containsKey(geometry)) {
+                    starts.put(geometry, -1);
+                    nInts += geometry.length;
+                }
+            }
+        }
+        long headerInts = 1 + 2L * nIds;
+        if (headerInts + nInts > MAX_INTS) {
+            LOG.warn("Street edge geometries are too large to be mapped, saving them with the graph.");
+            return null;
+        }
+        int[] geometryStarts = new int[nIds];
+        int[] geometryLengths = new int[nIds];
+        List<int[]> geometries = new ArrayList<>(starts.size());
+        int n = (int) headerInts;
+        for (StreetEdge edge : streetEdges) {
+            int[] geometry = edge.getCompactGeometry();
+            if (geometry == null) {
+                continue;
+            }
+            int start = starts.get(geometry);
+            if (start < 0) {
+                start = n;
+                starts.put(geometry, start);
+                geometries.add(geometry);
+                n += geometry.length;
+            }
+            geometryStarts[edge.getId()] = start;
+            geometryLengths[edge.getId()] = geometry.length;
+        }
+        Header header = new Header(ThreadLocalRandom.current().nextLong());
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeLong(header.token);
+            out.writeInt(nIds);
+            for (int id = 0; id < nIds; id++) {
+                out.writeInt(geometryStarts[id]);
+                out.writeInt(geometryLengths[id]);
+            }
+            for (int[] geometry : geometries) {
+                for (int i : geometry) {
+                    out.writeInt(i);
+                }
+            }
+        } catch (IOException e) {
+            tempFile.delete();
+            throw e;
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        LOG.info("Wrote {} street edge geometries to {}", geometries.size(), file);
+        return header;
+    }
+
+    /** Map the given file, checking that it was written with the graph the header was read with. */
+    static EdgeGeometryFile map(File file, Header header) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Geometries file " + file + " is too large to be mapped.");
+            }
+            // The mapping remains valid after the channel is closed.
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getLong(0) != header.token) {
+                throw new IOException("Geometries file " + file + " was not saved with this graph.");
+            }
+            buffer.position(Long.BYTES);
+            return new EdgeGeometryFile(buffer.slice().asIntBuffer());
+        }
+    }
+
+    /** @return the compacted geometry of the street edge with the given id, see CompactLineString. */
+    public int[] get(int edgeId) {
+        int start = ints.get(1 + 2 * edgeId);
+        int length = ints.get(2 + 2 * edgeId);
+        if (length == 0) {
+            return STRAIGHT_LINE;
+        }
+        int[] geometry = new int[length];
+        for (int i = 0; i < length; i++) {
+            geometry[i] = ints.get(start + i);
+        }
+        return geometry;
+    }
+}
@@ -3,9 +3,13 @@ package org.opentripplanner.routing.graph;
 import com.conveyal.kryo.TIntArrayListSerializer;
 import com.conveyal.kryo.TIntIntHashMapSerializer;
 import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.factories.SerializerFactory;
+import com.esotericsoftware.kryo.io.ByteBufferInput;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 import com.esotericsoftware.kryo.serializers.ExternalizableSerializer;
+import com.esotericsoftware.kryo.serializers.FieldSerializer;
 import com.esotericsoftware.kryo.serializers.JavaSerializer;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.*;
@@ -41,6 +45,8 @@ import org.opentripplanner.kryo.HashBiMapSerializer;
 import org.opentripplanner.model.GraphBundle;
 import org.opentripplanner.profile.StopClusterMode;
 import org.opentripplanner.routing.alertpatch.AlertPatch;
+import org.opentripplanner.routing.alertpatch.AlertPatchIndex;
+import org.opentripplanner.routing.algorithm.strategies.HeuristicSearchCache;
 import org.opentripplanner.routing.core.MortonVertexComparatorFactory;
 import org.opentripplanner.routing.core.TransferTable;
 import org.opentripplanner.routing.core.TraverseMode;
@@ -49,6 +55,8 @@ import org.opentripplanner.routing.edgetype.StreetEdge;
 import org.opentripplanner.routing.edgetype.TripPattern;
 import org.opentripplanner.routing.flex.FlexIndex;
 import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+import org.opentripplanner.routing.impl.PersistedStreetIndex;
+import org.opentripplanner.routing.impl.StreetVertexIndexServiceImpl;
 import org.opentripplanner.routing.services.StreetVertexIndexFactory;
 import org.opentripplanner.routing.services.StreetVertexIndexService;
 import org.opentripplanner.routing.services.notes.StreetNotesService;
@@ -59,12 +67,17 @@ import org.opentripplanner.updater.GraphUpdaterConfigurator;
 import org.opentripplanner.updater.GraphUpdaterManager;
 import org.opentripplanner.updater.stoptime.TimetableSnapshotSource;
 import org.opentripplanner.util.WorldEnvelope;
+import org.opentripplanner.util.monitoring.RoutingMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.prefs.Preferences;
 /**
  * A graph is really just one or more indexes into a set of vertexes. It used to keep edgelists for each vertex, but those are in the vertex now.
@@ -80,6 +93,7 @@ public class Graph implements Serializable {
     // TODO Remove this field, use Router.routerId ?
     public String routerId;
 
+    /** The alert patches of each edge, as modified by the alert patch services. Guarded by itself. */
     private final Map<Edge, Set<AlertPatch>> alertPatches = new HashMap<Edge, Set<AlertPatch>>(0);
 
     private final Map<Edge, List<TurnRestriction>> turnRestrictions = Maps.newHashMap();
@@ -113,6 +127,28 @@ public class Graph implements Serializable {
 
     public transient FlexIndex flexIndex;
 
+    /** Compact view of the adjacency and street edge attributes used by A*, or null if it was not built. */
+    public transient CompactStreetGraph compactStreetGraph;
+
+    /** Results of the street searches of the transit heuristic kept for reuse, or null if they are not cached. */
+    public transient HeuristicSearchCache heuristicSearchCache;
+
+    /** Created on first use, as transient fields are not initialized when a graph is deserialized. */
+    private transient volatile RoutingMetrics routingMetrics;
+
+    /** One more than the largest index of the vertices added to this graph, see {@link #getVertexIndexBound()}. */
+    private transient volatile int vertexIndexBound;
+
+    /**
+     * The alert patches of each edge as seen by the routing threads, replaced as a whole after each change or batch
+     * of changes (see {@link #updateAlertPatches}). Created on first use, as transient fields are not initialized
+     * when a graph is deserialized.
+     */
+    private transient volatile AlertPatchIndex<Edge> alertPatchIndex;
+
+    /** Number of nested batches of alert patch changes in progress. Guarded by {@link #alertPatches}. */
+    private transient int alertPatchBatches;
+
     private transient GeometryIndex geomIndex;
 
     private transient SampleFactory sampleFactory;
@@ -215,6 +251,12 @@ public class Graph implements Serializable {
     /** Areas for flex service */
     public Map<FeedScopedId, Geometry> flexAreasById = new HashMap<>();
 
+    /** Size in meters of the grid cells on which flex street searches are cached, or 0 for no caching. */
+    public transient double flexHopCacheCellSize = 0;
+
+    /** Maximum number of flex street search results cached. */
+    public transient int flexHopCacheSize = 0;
+
     public Graph(Graph basedOn) {
         this();
         this.bundle = basedOn.getBundle();
@@ -226,10 +268,23 @@ public class Graph implements Serializable {
         this.vertexById = new ConcurrentHashMap<Integer, Vertex>();
     }
 
+    /**
+     * Add vertices that were saved apart from the edges of this graph, like the vertices without any edge, which are
+     * not saved with the graph.
+     */
+    public void addSavedVertices(Collection<Vertex> savedVertices) {
+        for (Vertex v : savedVertices) {
+            Vertex.reserveIndices(v.getIndex());
+            v.initEdgeListsIfNeeded();
+            addVertex(v);
+        }
+    }
+
     /**
      * Add the given vertex to the graph. Ideally, only vertices should add themselves to the graph, when they are constructed or deserialized.
      */
     public void addVertex(Vertex v) {
+        includeVertexIndex(v);
         Vertex old = vertices.put(v.getLabel(), v);
         if (old != null) {
             if (old == v)
@@ -239,6 +294,26 @@ public class Graph implements Serializable {
         }
     }
 
+    private void includeVertexIndex(Vertex v) {
+        int bound = v.getIndex() + 1;
+        if (bound > vertexIndexBound) {
+            synchronized (this) {
+                if (bound > vertexIndexBound) {
+                    vertexIndexBound = bound;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return one more than the largest index of the vertices added to this graph. Unlike {@link Vertex#getMaxIndex()},
+     *         this does not grow with the temporary vertices created for each request, which are never added to the
+     *         graph, so it can be used to size arrays indexed by the vertices of the graph.
+     */
+    public int getVertexIndexBound() {
+        return vertexIndexBound;
+    }
+
     /**
      * Removes a vertex from the graph.
      *
@@ -261,7 +336,9 @@ public class Graph implements Serializable {
     public void removeEdge(Edge e) {
         if (e != null) {
             synchronized (alertPatches) {   // This synchronization is somewhat silly because this
-                alertPatches.remove(e);     // method isn't thread-safe anyway, but it is consistent
+                if (alertPatches.remove(e) != null) {   // method isn't thread-safe anyway, but it is
+                    publishAlertPatches();              // consistent
+                }
             }
 
             turnRestrictions.remove(e);
@@ -343,6 +420,33 @@ public class Graph implements Serializable {
         return edges;
     }
 
+    /**
+     * Make the given changes to the alert patches of the edges, which the routing threads will then see all at once.
+     * Changes made outside such a batch are seen after each call to {@link #addAlertPatch} or
+     * {@link #removeAlertPatch}, at the cost of indexing the patches of all edges again for each of them.
+     */
+    public void updateAlertPatches(Runnable changes) {
+        synchronized (alertPatches) {
+            alertPatchBatches++;
+            try {
+                changes.run();
+            } finally {
+                alertPatchBatches--;
+                publishAlertPatches();
+            }
+        }
+    }
+
+    /**
+     * Replace the alert patch index seen by the routing threads, unless a batch of changes is in progress. Must be
+     * called with the lock on {@link #alertPatches}.
+     */
+    private void publishAlertPatches() {
+        if (alertPatchBatches == 0) {
+            alertPatchIndex = AlertPatchIndex.of(alertPatches);
+        }
+    }
+
     /**
      * Add an {@link AlertPatch} to the {@link AlertPatch} {@link Set} belonging to an {@link Edge}.
      * @param edge
@@ -362,6 +466,7 @@ public class Graph implements Serializable {
                     this.alertPatches.put(edge, alertPatches);
                 }
             }
+            publishAlertPatches();
         }
     }
 
@@ -381,25 +486,27 @@ public class Graph implements Serializable {
                 } else {
                     alertPatches.remove(alertPatch);
                 }
+                publishAlertPatches();
             }
         }
     }
 
     /**
-     * Get the {@link AlertPatch} {@link Set} that belongs to an {@link Edge} and build a new array.
+     * Get the {@link AlertPatch}es that belong to an {@link Edge}, without locking or allocating.
      * @param edge
-     * @return The {@link AlertPatch} array that belongs to the {@link Edge}
+     * @return The {@link AlertPatch} array that belongs to the {@link Edge}, which must not be modified
      */
     public AlertPatch[] getAlertPatches(Edge edge) {
-        if (edge != null) {
+        AlertPatchIndex<Edge> index = alertPatchIndex;
+        if (index == null) {
             synchronized (alertPatches) {
-                Set<AlertPatch> alertPatches = this.alertPatches.get(edge);
-                if (alertPatches != null) {
-                    return alertPatches.toArray(new AlertPatch[alertPatches.size()]);
+                if (alertPatchIndex == null) {
+                    alertPatchIndex = AlertPatchIndex.of(alertPatches);
                 }
+                index = alertPatchIndex;
             }
         }
-        return new AlertPatch[0];
+        return index.get(edge);
     }
 
     /**
@@ -669,9 +776,30 @@ public class Graph implements Serializable {
 
     /* (de) serialization */
 
+    /**
+     * Load a graph from a file. The file is memory-mapped and read from the mapped buffer when it is
+     * small enough to be mapped at once (2GB), which avoids copying it through stream buffers and lets
+     * the OS read it ahead and page it in as needed. If the graph was saved with a geometries file,
+     * that file is mapped too and the street edge geometries stay in it, see {@link EdgeGeometryFile}.
+     */
     public static Graph load(File file) throws IOException {
+        return load(file, null);
+    }
+
+    /**
+     * Load a graph saved with an attachment, passing the attachment to the given consumer once it is read, before the
+     * graph is indexed.
+     */
+    public static Graph load(File file, Consumer<Object> attachmentConsumer) throws IOException {
         LOG.info("Reading graph " + file.getAbsolutePath() + " ...");
-        return load(new FileInputStream(file));
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() <= Integer.MAX_VALUE) {
+                // The mapping remains valid after the channel is closed.
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                return load(new ByteBufferInput(buffer), attachmentConsumer, file);
+            }
+        }
+        return load(new Input(new FileInputStream(file)), attachmentConsumer, file);
     }
 
     /**
@@ -682,10 +810,16 @@ public class Graph implements Serializable {
      * TODO: do we really need a factory for different street vertex indexes?
      */
     public void index (StreetVertexIndexFactory indexFactory) {
-        streetIndex = indexFactory.newIndex(this);
-        LOG.debug("street index built.");
+        index(indexFactory, null);
+    }
+
+    /** Index the graph, restoring the transit maps of the GraphIndex from the given saved index if not null. */
+    private void index (StreetVertexIndexFactory indexFactory, PersistedTransitIndex savedTransitIndex) {
+        // Done first as a street index saved with the graph is restored from vertex and edge ids.
         LOG.debug("Rebuilding edge and vertex indices.");
         rebuildVertexAndEdgeIndices();
+        streetIndex = indexFactory.newIndex(this);
+        LOG.debug("street index built.");
         Set<TripPattern> tableTripPatterns = Sets.newHashSet();
         for (PatternArriveVertex pav : Iterables.filter(this.getVertices(), PatternArriveVertex.class)) {
             tableTripPatterns.add(pav.getTripPattern());
@@ -694,7 +828,7 @@ public class Graph implements Serializable {
             if (ttp != null) ttp.scheduledTimetable.finish(); // skip frequency-based patterns with no table (null)
         }
         // TODO: Move this ^ stuff into the graph index
-        this.index = new GraphIndex(this);
+        this.index = new GraphIndex(this, savedTransitIndex);
         if (useFlexService ) {
             this.flexIndex = new FlexIndex();
             flexIndex.init(this);
@@ -702,10 +836,33 @@ public class Graph implements Serializable {
     }
     
     public static Graph load(InputStream in) {
+        return load(new Input(in), null, null);
+    }
+
+    /**
+     * @param graphFile the file the graph is read from, next to which its geometries file is, or null
+     *                  if it is read from a stream.
+     */
+    private static Graph load(Input input, Consumer<Object> attachmentConsumer, File graphFile) {
         // TODO store version information, halt load if versions mismatch
-        Input input = new Input(in);
         Kryo kryo = makeKryo();
-        Graph graph = (Graph) kryo.readClassAndObject(input);
+        Object first = kryo.readClassAndObject(input);
+        EdgeGeometryFile geometryFile = null;
+        if (first instanceof EdgeGeometryFile.Header) {
+            if (graphFile == null) {
+                throw new IllegalStateException("Graph was saved with a separate geometries file, it must be loaded from its file.");
+            }
+            File file = EdgeGeometryFile.forGraph(graphFile);
+            LOG.debug("Mapping geometries file {}", file);
+            try {
+                geometryFile = EdgeGeometryFile.map(file, (EdgeGeometryFile.Header) first);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            kryo = makeKryo(true);
+            first = kryo.readClassAndObject(input);
+        }
+        Graph graph = (Graph) first;
         LOG.debug("Basic graph info read.");
         if (graph.graphVersionMismatch()) {
             throw new RuntimeException("Graph version mismatch detected.");
@@ -714,11 +871,43 @@ public class Graph implements Serializable {
         // vertex list is transient because it can be reconstructed from edges.
         LOG.debug("Loading edges...");
         List<Edge> edges = (ArrayList<Edge>) kryo.readClassAndObject(input);
+        // Graphs saved before the street index was saved with them end here.
+        StreetVertexIndexFactory streetIndexFactory = new DefaultStreetVertexIndexFactory();
+        if (!input.eof()) {
+            LOG.debug("Loading street index...");
+            streetIndexFactory = (PersistedStreetIndex) kryo.readClassAndObject(input);
+        }
+        // Graphs saved before the transit index was saved with them go on with the attachment, if any.
+        PersistedTransitIndex transitIndex = null;
+        Object attachment = null;
+        if (!input.eof()) {
+            LOG.debug("Loading transit index...");
+            Object next = kryo.readClassAndObject(input);
+            if (next instanceof PersistedTransitIndex) {
+                transitIndex = (PersistedTransitIndex) next;
+            } else {
+                attachment = next;
+            }
+        }
+        if (attachmentConsumer != null && attachment == null && !input.eof()) {
+            LOG.debug("Loading attachment...");
+            attachment = kryo.readClassAndObject(input);
+        }
+        if (attachmentConsumer != null && attachment != null) {
+            attachmentConsumer.accept(attachment);
+        }
         graph.vertices = new ConcurrentHashMap<>(); // why is this concurrent?
 
         for (Edge e : edges) {
             Vertex fromVertex = e.getFromVertex();
             Vertex toVertex = e.getToVertex();
+            // Kryo restores the saved IDs without the generators, vertices and edges added to this graph later
+            // (by real-time updates or a later graph build) must not reuse them.
+            Edge.reserveIds(e.getId());
+            Vertex.reserveIndices(fromVertex.getIndex());
+            Vertex.reserveIndices(toVertex.getIndex());
+            graph.includeVertexIndex(fromVertex);
+            graph.includeVertexIndex(toVertex);
             graph.vertices.put(fromVertex.getLabel(), fromVertex);
             graph.vertices.put(toVertex.getLabel(), toVertex);
             // Compensating for the fact that we're not using the standard Java de/serialization methods.
@@ -726,10 +915,13 @@ public class Graph implements Serializable {
             toVertex.initEdgeListsIfNeeded();
             fromVertex.addOutgoing(e);
             toVertex.addIncoming(e);
+            if (geometryFile != null && e instanceof StreetEdge) {
+                ((StreetEdge) e).setGeometryFile(geometryFile);
+            }
         }
 
         LOG.info("Main graph read. |V|={} |E|={}", graph.countVertices(), graph.countEdges());
-        graph.index(new DefaultStreetVertexIndexFactory());
+        graph.index(streetIndexFactory, transitIndex);
         return graph;
     }
 
@@ -776,6 +968,14 @@ public class Graph implements Serializable {
      * Java serialization methods Kryo will not automatically use those, a JavaSerializer must be registered.
      */
     public static Kryo makeKryo() {
+        return makeKryo(false);
+    }
+
+    /**
+     * @param omitEdgeGeometries whether street edges are serialized without their geometries, which are then saved
+     *                           in a separate file.
+     */
+    private static Kryo makeKryo(boolean omitEdgeGeometries) {
         // For generating a histogram of serialized classes with associated serializers:
         // Kryo kryo = new Kryo(new InstanceCountingClassResolver(), new MapReferenceResolver(), new DefaultStreamFactory());
         Kryo kryo = new Kryo();
@@ -807,14 +1007,42 @@ public class Graph implements Serializable {
         // constructor (which can be private). The setInstantiatorStrategy method completely replaces that default
         // strategy. The nesting below specifies the Java approach as a fallback strategy to the default strategy.
         kryo.setInstantiatorStrategy(new Kryo.DefaultInstantiatorStrategy(new SerializingInstantiatorStrategy()));
+        if (omitEdgeGeometries) {
+            kryo.addDefaultSerializer(StreetEdge.class, new SerializerFactory() {
+                @Override
+                public Serializer makeSerializer(Kryo kryo, Class<?> type) {
+                    FieldSerializer<?> serializer = new FieldSerializer<>(kryo, type);
+                    serializer.removeField("compactGeometry");
+                    return serializer;
+                }
+            });
+        }
         return kryo;
     }
 
     public void save(File file) throws IOException {
+        save(file, null);
+    }
+
+    /** Save the graph followed by an attachment, see {@link #save(OutputStream, Object)}. */
+    public void save(File file, Object attachment) throws IOException {
+        save(file, attachment, false);
+    }
+
+    /**
+     * Save the graph followed by an attachment. With separateGeometries, the geometries of the street edges are saved
+     * in a file next to the graph file rather than in it, which is mapped rather than read when the graph is loaded.
+     * The graph can then only be loaded from its file, with {@link #load(File)}.
+     */
+    public void save(File file, Object attachment, boolean separateGeometries) throws IOException {
         LOG.info("Main graph size: |V|={} |E|={}", this.countVertices(), this.countEdges());
         LOG.info("Writing graph " + file.getAbsolutePath() + " ...");
         try {
-            save(new FileOutputStream(file));
+            EdgeGeometryFile.Header geometries = null;
+            if (separateGeometries) {
+                geometries = EdgeGeometryFile.write(EdgeGeometryFile.forGraph(file), getEdges());
+            }
+            save(new FileOutputStream(file), attachment, geometries);
         } catch (Exception e) {
             file.delete(); // remove half-written file
             throw e;
@@ -822,9 +1050,27 @@ public class Graph implements Serializable {
     }
 
     public void save(OutputStream outputStream) {
-        Kryo kryo = makeKryo();
+        save(outputStream, null);
+    }
+
+    /**
+     * Save the graph, followed by the given object if it is not null. The object is written by the same Kryo instance
+     * as the graph, so it can refer to the vertices and edges of the graph, and is read back with
+     * {@link #load(File, Consumer)}.
+     */
+    public void save(OutputStream outputStream, Object attachment) {
+        save(outputStream, attachment, null);
+    }
+
+    /** @param geometries if not null, the header of the geometries file already written for this graph. */
+    private void save(OutputStream outputStream, Object attachment, EdgeGeometryFile.Header geometries) {
+        Kryo kryo = makeKryo(geometries != null);
         LOG.debug("Consolidating edges...");
         Output output = new Output(outputStream);
+        if (geometries != null) {
+            // Written by another Kryo instance, as the graph is read by one set up according to this header.
+            makeKryo().writeClassAndObject(output, geometries);
+        }
         // this is not space efficient
         List<Edge> edges = new ArrayList<Edge>(this.countEdges());
         for (Vertex v : getVertices()) {
@@ -839,6 +1085,17 @@ public class Graph implements Serializable {
         LOG.debug("Writing edges...");
         kryo.writeClassAndObject(output, this);
         kryo.writeClassAndObject(output, edges);
+        // Build a fresh street index rather than using the current one, which may have been
+        // modified since it was built and refers to edges by id.
+        LOG.debug("Writing street index...");
+        kryo.writeClassAndObject(output, new PersistedStreetIndex(new StreetVertexIndexServiceImpl(this)));
+        // Likewise the current GraphIndex may hold patterns added by real-time updates.
+        LOG.debug("Writing transit index...");
+        kryo.writeClassAndObject(output, new PersistedTransitIndex(new GraphIndex(this)));
+        if (attachment != null) {
+            LOG.debug("Writing attachment...");
+            kryo.writeClassAndObject(output, attachment);
+        }
         output.close();
         LOG.info("Graph written.");
         // Summarize serialized classes and associated serializers:
@@ -849,6 +1106,18 @@ public class Graph implements Serializable {
         return edge.getId();
     }
 
+    /** @return the metrics on routing and realtime updates on this graph. */
+    public RoutingMetrics getRoutingMetrics() {
+        if (routingMetrics == null) {
+            synchronized (this) {
+                if (routingMetrics == null) {
+                    routingMetrics = new RoutingMetrics();
+                }
+            }
+        }
+        return routingMetrics;
+    }
+
     public CalendarService getCalendarService() {
         if (calendarService == null) {
             CalendarServiceData data = this.getService(CalendarServiceData.class);
@@ -1082,6 +1351,15 @@ public class Graph implements Serializable {
         return transitServiceEnds;
     }
 
+    /** Set up caching of flex street searches, see FlexHopCache. Takes effect immediately if the flex index exists. */
+    public void setFlexHopCache(double cellSizeMeters, int maxSize) {
+        this.flexHopCacheCellSize = cellSizeMeters;
+        this.flexHopCacheSize = maxSize;
+        if (flexIndex != null) {
+            flexIndex.initHopCache(cellSizeMeters, maxSize);
+        }
+    }
+
     public void setUseFlexService(boolean useFlexService) {
         // when passing in graph from memory, router config had not loaded when "index()" called
         if (useFlexService && !this.useFlexService) {
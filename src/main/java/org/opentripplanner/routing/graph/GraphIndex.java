@@ -71,7 +71,8 @@ import java.util.concurrent.Executors;
 /**
  * This class contains all the transient indexes of graph elements -- those that are not
  * serialized with the graph. Caching these maps is essentially an optimization, but a big one.
- * The index is bootstrapped from the graph's list of edges.
+ * The index is bootstrapped from the graph's list of edges, and the pattern maps can be restored
+ * from a {@link PersistedTransitIndex} saved with the graph.
  */
 public class GraphIndex {
 
@@ -124,6 +125,14 @@ public class GraphIndex {
     private transient StopTreeCache stopTreeCache = null;
 
     public GraphIndex (Graph graph) {
+        this(graph, null);
+    }
+
+    /**
+     * Index the given graph, restoring the pattern maps from the given transit index saved with it
+     * when there is one and it matches the patterns of the graph.
+     */
+    public GraphIndex (Graph graph, PersistedTransitIndex savedTransitIndex) {
         LOG.info("Indexing graph...");
 
         for (String feedId : graph.getFeedIds()) {
@@ -163,20 +172,8 @@ public class GraphIndex {
             stopSpatialIndex.insert(envelope, stopVertex);
         }
 
-        for (TripPattern pattern : patternForId.values()) {
-            patternsForFeedId.put(pattern.getFeedId(), pattern);
-            patternsForRoute.put(pattern.route, pattern);
-
-            for (Trip trip : pattern.getTrips()) {
-                patternForTrip.put(trip, pattern);
-                tripForId.put(trip.getId(), trip);
-            }
-            for (Stop stop: pattern.getStops()) {
-                patternsForStop.put(stop, pattern);
-            }
-        }
-        for (Route route : patternsForRoute.asMap().keySet()) {
-            routeForId.put(route.getId(), route);
+        if (savedTransitIndex == null || !savedTransitIndex.restore(this)) {
+            indexPatterns();
         }
 
         // Copy these two service indexes from the graph until we have better ones.
@@ -199,6 +196,24 @@ public class GraphIndex {
         LOG.info("Done indexing graph.");
     }
 
+    private void indexPatterns() {
+        for (TripPattern pattern : patternForId.values()) {
+            patternsForFeedId.put(pattern.getFeedId(), pattern);
+            patternsForRoute.put(pattern.route, pattern);
+
+            for (Trip trip : pattern.getTrips()) {
+                patternForTrip.put(trip, pattern);
+                tripForId.put(trip.getId(), trip);
+            }
+            for (Stop stop: pattern.getStops()) {
+                patternsForStop.put(stop, pattern);
+            }
+        }
+        for (Route route : patternsForRoute.asMap().keySet()) {
+            routeForId.put(route.getId(), route);
+        }
+    }
+
     /**
      * Stop clustering is slow to perform and only used in profile routing for the moment.
      * Therefore it is not done automatically, and any method requiring stop clusters should call this method
@@ -0,0 +1,129 @@
+package org.opentripplanner.routing.graph;
+
+import com.google.common.collect.Multimap;
+import org.opentripplanner.model.Route;
+import org.opentripplanner.model.Trip;
+import org.opentripplanner.routing.edgetype.TripPattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The transit side of a GraphIndex (patterns by trip, stop, route and feed) in a form that can be
+ * saved with the graph: the patterns of the graph, and for each trip, stop, route and feed the
+ * positions of its patterns among them. The trips, stops and routes themselves are saved by
+ * reference, so they are the objects of the graph they are saved with.
+ *
+ * Restoring these maps when the graph is loaded skips walking the trips and stops of every pattern.
+ * If the patterns of the loaded graph are not the ones saved, the maps are rebuilt.
+ */
+public class PersistedTransitIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PersistedTransitIndex.class);
+
+    private final TripPattern[] patterns;
+
+    private final Trip[] trips;
+
+    /** position of the pattern of trips[i] in patterns */
+    private final int[] tripPatterns;
+
+    private final Groups patternsForFeedId;
+
+    private final Groups patternsForRoute;
+
+    private final Groups patternsForStop;
+
+    /** Record the transit maps of the given index, which must not have been modified by real-time updates. */
+    public PersistedTransitIndex(GraphIndex index) {
+        patterns = index.patternForId.values().toArray(new TripPattern[0]);
+        Map<TripPattern, Integer> positions = new IdentityHashMap<>();
+        for (int i = 0; i < patterns.length; i++) {
+            positions.put(patterns[i], i);
+        }
+        trips = new Trip[index.patternForTrip.size()];
+        tripPatterns = new int[trips.length];
+        int n = 0;
+        for (Map.Entry<Trip, TripPattern> entry : index.patternForTrip.entrySet()) {
+            trips[n] = entry.getKey();
+            tripPatterns[n++] = positions.get(entry.getValue());
+        }
+        patternsForFeedId = new Groups(index.patternsForFeedId, positions);
+        patternsForRoute = new Groups(index.patternsForRoute, positions);
+        patternsForStop = new Groups(index.patternsForStop, positions);
+    }
+
+    /**
+     * Fill the transit maps of the given index, whose patternForId map must already hold the patterns
+     * of its graph.
+     * @return false if the saved patterns are not those of the index, which is left unchanged.
+     */
+    boolean restore(GraphIndex index) {
+        if (index.patternForId.size() != patterns.length) {
+            LOG.warn("Saved transit index has {} patterns, graph has {}, rebuilding it.",
+                    patterns.length, index.patternForId.size());
+            return false;
+        }
+        for (TripPattern pattern : patterns) {
+            if (index.patternForId.get(pattern.code) != pattern) {
+                LOG.warn("Pattern {} of the saved transit index is not in the graph, rebuilding it.", pattern.code);
+                return false;
+            }
+        }
+        for (int i = 0; i < trips.length; i++) {
+            index.patternForTrip.put(trips[i], patterns[tripPatterns[i]]);
+            index.tripForId.put(trips[i].getId(), trips[i]);
+        }
+        patternsForFeedId.restore(index.patternsForFeedId, patterns);
+        patternsForRoute.restore(index.patternsForRoute, patterns);
+        patternsForStop.restore(index.patternsForStop, patterns);
+        for (Route route : index.patternsForRoute.keySet()) {
+            index.routeForId.put(route.getId(), route);
+        }
+        LOG.debug("Transit index restored.");
+        return true;
+    }
+
+    /** The keys of a multimap of patterns, with the positions of their patterns in consecutive slices of an array. */
+    private static class Groups {
+
+        /** Feed ids, routes or stops. */
+        private final Object[] keys;
+
+        /** patterns of keys[i] are at positions[starts[i]] to positions[starts[i + 1]] (exclusive). */
+        private final int[] starts;
+
+        private final int[] positions;
+
+        Groups(Multimap<?, TripPattern> multimap, Map<TripPattern, Integer> patternPositions) {
+            Map<?, ? extends Collection<TripPattern>> groups = multimap.asMap();
+            keys = groups.keySet().toArray();
+            starts = new int[keys.length + 1];
+            positions = new int[multimap.size()];
+            int n = 0;
+            for (int i = 0; i < keys.length; i++) {
+                starts[i] = n;
+                for (TripPattern pattern : groups.get(keys[i])) {
+                    positions[n++] = patternPositions.get(pattern);
+                }
+            }
+            starts[keys.length] = n;
+        }
+
+        @SuppressWarnings("unchecked")
+        <K> void restore(Multimap<K, TripPattern> multimap, TripPattern[] patterns) {
+            for (int i = 0; i < keys.length; i++) {
+                List<TripPattern> group = new ArrayList<>(starts[i + 1] - starts[i]);
+                for (int n = starts[i]; n < starts[i + 1]; n++) {
+                    group.add(patterns[positions[n]]);
+                }
+                multimap.putAll((K) keys[i], group);
+            }
+        }
+    }
+}
@@ -6,6 +6,7 @@ import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.*;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.bind.annotation.XmlTransient;
 
@@ -29,7 +30,11 @@ public abstract class Vertex implements Serializable, Cloneable {
 
     private static final Logger LOG = LoggerFactory.getLogger(Vertex.class);
 
-    private static int maxIndex = 0;
+    /**
+     * Atomic because vertices are created concurrently, by the graph updaters of different lanes and by routing requests
+     * creating temporary vertices.
+     */
+    private static final AtomicInteger maxIndex = new AtomicInteger();
 
     private int index;
     
@@ -54,7 +59,7 @@ public abstract class Vertex implements Serializable, Cloneable {
         this.label = label;
         this.x = x;
         this.y = y;
-        this.index = maxIndex  ++;
+        this.index = maxIndex.getAndIncrement();
         // null graph means temporary vertex
         if (g != null)
             g.addVertex(this);
@@ -186,6 +191,19 @@ public abstract class Vertex implements Serializable, Cloneable {
         return Arrays.asList(incoming);
     }
 
+    /**
+     * The outgoing edge array itself, which is replaced rather than modified when edges are added or
+     * removed. For CompactStreetGraph, which uses its identity to detect changes.
+     */
+    Edge[] getOutgoingArray() {
+        return outgoing;
+    }
+
+    /** The incoming edge array itself, see getOutgoingArray. */
+    Edge[] getIncomingArray() {
+        return incoming;
+    }
+
     @XmlTransient
     public int getDegreeOut() {
         return outgoing.length;
@@ -263,7 +281,12 @@ public abstract class Vertex implements Serializable, Cloneable {
     }
 
     public static int getMaxIndex() {
-        return maxIndex;
+        return maxIndex.get();
+    }
+
+    /** Make sure the vertices created from now on get indices above the given one, e.g. after deserialization. */
+    static void reserveIndices(int index) {
+        maxIndex.accumulateAndGet(index + 1, Math::max);
     }
 
 
@@ -278,7 +301,7 @@ public abstract class Vertex implements Serializable, Cloneable {
         in.defaultReadObject();
         this.incoming = new Edge[0];
         this.outgoing = new Edge[0];
-        index = maxIndex++;
+        index = maxIndex.getAndIncrement();
     }
 
     /* UTILITY METHODS FOR SEARCHING, GRAPH BUILDING, AND GENERATING WALKSTEPS */
@@ -1,6 +1,7 @@
 package org.opentripplanner.routing.impl;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -11,12 +12,18 @@ import java.util.Set;
 
 import org.opentripplanner.model.FeedScopedId;
 import org.opentripplanner.routing.alertpatch.AlertPatch;
+import org.opentripplanner.routing.alertpatch.AlertPatchIndex;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.services.AlertPatchService;
 
 import com.google.common.collect.LinkedListMultimap;
 import com.google.common.collect.ListMultimap;
 
+/**
+ * Keeps the alert patches by id, stop and route, and applies them to the edges of the graph. Changes are made under
+ * the lock of this service, and published at the end of each change or batch of changes (see {@link #update}) as
+ * immutable indexes, which are read without locking.
+ */
 public class AlertPatchServiceImpl implements AlertPatchService {
 
     private Graph graph;
@@ -25,84 +32,101 @@ public class AlertPatchServiceImpl implements AlertPatchService {
     private ListMultimap<FeedScopedId, AlertPatch> patchesByRoute = LinkedListMultimap.create();
     private ListMultimap<FeedScopedId, AlertPatch> patchesByStop = LinkedListMultimap.create();
 
+    /** Number of nested batches of changes in progress. Guarded by this. */
+    private int batches = 0;
+
+    private volatile List<AlertPatch> publishedPatches = Collections.emptyList();
+    private volatile AlertPatchIndex<FeedScopedId> publishedRoutePatches = AlertPatchIndex.empty();
+    private volatile AlertPatchIndex<FeedScopedId> publishedStopPatches = AlertPatchIndex.empty();
+
     public AlertPatchServiceImpl(Graph graph) {
         this.graph = graph;
     }
 
     @Override
     public Collection<AlertPatch> getAllAlertPatches() {
-        return alertPatches.values();
+        return publishedPatches;
     }
 
     @Override
     public Collection<AlertPatch> getStopPatches(FeedScopedId stop) {
-        List<AlertPatch> result = patchesByStop.get(stop);
-        if (result == null) {
-            result = Collections.emptyList();
-        }
-        return result;
+        return Collections.unmodifiableList(Arrays.asList(publishedStopPatches.get(stop)));
     }
 
     @Override
     public Collection<AlertPatch> getRoutePatches(FeedScopedId route) {
-        List<AlertPatch> result = patchesByRoute.get(route);
-        if (result == null) {
-            result = Collections.emptyList();
-        }
-        return result;
-
+        return Collections.unmodifiableList(Arrays.asList(publishedRoutePatches.get(route)));
     }
 
     @Override
-    public synchronized void apply(AlertPatch alertPatch) {
-        if (alertPatches.containsKey(alertPatch.getId())) {
-            expire(alertPatches.get(alertPatch.getId()));
+    public synchronized void update(Runnable changes) {
+        batches++;
+        try {
+            graph.updateAlertPatches(changes);
+        } finally {
+            batches--;
+            publish();
         }
+    }
 
-        alertPatch.apply(graph);
-        alertPatches.put(alertPatch.getId(), alertPatch);
+    @Override
+    public void apply(AlertPatch alertPatch) {
+        update(() -> {
+            if (alertPatches.containsKey(alertPatch.getId())) {
+                expire(alertPatches.get(alertPatch.getId()));
+            }
 
-        FeedScopedId stop = alertPatch.getStop();
-        if (stop != null) {
-            patchesByStop.put(stop, alertPatch);
-        }
-        FeedScopedId route = alertPatch.getRoute();
-        if (route != null) {
-            patchesByRoute.put(route, alertPatch);
-        }
+            alertPatch.apply(graph);
+            alertPatches.put(alertPatch.getId(), alertPatch);
+
+            FeedScopedId stop = alertPatch.getStop();
+            if (stop != null) {
+                patchesByStop.put(stop, alertPatch);
+            }
+            FeedScopedId route = alertPatch.getRoute();
+            if (route != null) {
+                patchesByRoute.put(route, alertPatch);
+            }
+        });
     }
 
     @Override
     public void expire(Set<String> purge) {
-        for (String patchId : purge) {
-            if (alertPatches.containsKey(patchId)) {
-                expire(alertPatches.get(patchId));
+        update(() -> {
+            for (String patchId : purge) {
+                if (alertPatches.containsKey(patchId)) {
+                    expire(alertPatches.get(patchId));
+                }
             }
-        }
 
-        alertPatches.keySet().removeAll(purge);
+            alertPatches.keySet().removeAll(purge);
+        });
     }
 
     @Override
     public void expireAll() {
-        for (AlertPatch alertPatch : alertPatches.values()) {
-            expire(alertPatch);
-        }
-        alertPatches.clear();
+        update(() -> {
+            for (AlertPatch alertPatch : alertPatches.values()) {
+                expire(alertPatch);
+            }
+            alertPatches.clear();
+        });
     }
 
     @Override
     public void expireAllExcept(Set<String> retain) {
-        ArrayList<String> toRemove = new ArrayList<String>();
-
-        for (Entry<String, AlertPatch> entry : alertPatches.entrySet()) {
-            final String key = entry.getKey();
-            if (!retain.contains(key)) {
-                toRemove.add(key);
-                expire(entry.getValue());
+        update(() -> {
+            ArrayList<String> toRemove = new ArrayList<String>();
+
+            for (Entry<String, AlertPatch> entry : alertPatches.entrySet()) {
+                final String key = entry.getKey();
+                if (!retain.contains(key)) {
+                    toRemove.add(key);
+                    expire(entry.getValue());
+                }
             }
-        }
-        alertPatches.keySet().removeAll(toRemove);
+            alertPatches.keySet().removeAll(toRemove);
+        });
     }
 
     private void expire(AlertPatch alertPatch) {
@@ -117,4 +141,13 @@ public class AlertPatchServiceImpl implements AlertPatchService {
 
         alertPatch.remove(graph);
     }
+
+    /** Replace the published indexes, unless a batch of changes is in progress. Must be called holding this lock. */
+    private void publish() {
+        if (batches == 0) {
+            publishedPatches = Collections.unmodifiableList(new ArrayList<>(alertPatches.values()));
+            publishedRoutePatches = AlertPatchIndex.of(patchesByRoute.asMap());
+            publishedStopPatches = AlertPatchIndex.of(patchesByStop.asMap());
+        }
+    }
 }
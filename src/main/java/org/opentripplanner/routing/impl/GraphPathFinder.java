@@ -26,6 +26,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinTask;
 import java.util.stream.Collectors;
 
 /**
@@ -78,6 +79,8 @@ public class GraphPathFinder {
 
         // Reuse one instance of AStar for all N requests, which are carried out sequentially
         AStar aStar = new AStar();
+        // We only use the paths to the target from each search, never the SPT itself, so its storage can be recycled.
+        aStar.setReuseShortestPathTree(router.reuseShortestPathTrees);
         if (options.rctx == null) {
             options.setRoutingContext(router.graph);
             // The special long-distance heuristic should be sufficient to constrain the search to the right area.
@@ -96,21 +99,8 @@ public class GraphPathFinder {
         LOG.debug("rreq={}", options);
 
         // Choose an appropriate heuristic for goal direction.
-        RemainingWeightHeuristic heuristic;
-        RemainingWeightHeuristic reversedSearchHeuristic;
-        if (options.disableRemainingWeightHeuristic) {
-            heuristic = new TrivialRemainingWeightHeuristic();
-            reversedSearchHeuristic = new TrivialRemainingWeightHeuristic();
-        } else if (options.modes.isTransit()) {
-            // Only use the BiDi heuristic for transit. It is not very useful for on-street modes.
-            // heuristic = new InterleavedBidirectionalHeuristic(options.rctx.graph);
-            // Use a simplistic heuristic until BiDi heuristic is improved, see #2153
-            heuristic = new InterleavedBidirectionalHeuristic();
-            reversedSearchHeuristic = new InterleavedBidirectionalHeuristic();
-        } else {
-            heuristic = new EuclideanRemainingWeightHeuristic();
-            reversedSearchHeuristic = new EuclideanRemainingWeightHeuristic();
-        }
+        RemainingWeightHeuristic heuristic = createHeuristic(options);
+        RemainingWeightHeuristic reversedSearchHeuristic = createHeuristic(options);
         options.rctx.remainingWeightHeuristic = heuristic;
 
 
@@ -136,6 +126,7 @@ public class GraphPathFinder {
         if (options.maxWalkDistance > CLAMP_MAX_WALK) options.maxWalkDistance = CLAMP_MAX_WALK;
         if (options.modes.isTransit() && router.graph.useFlexService) {
             // create temporary flex stops/hops (just once even if we run multiple searches)
+            long flexBeginNanos = System.nanoTime();
             FlagStopGraphModifier flagStopGraphModifier = new FlagStopGraphModifier(router.graph);
             DeviatedRouteGraphModifier deviatedRouteGraphModifier = new DeviatedRouteGraphModifier(router.graph);
             flagStopGraphModifier.createForwardHops(options);
@@ -146,11 +137,19 @@ public class GraphPathFinder {
             if (options.flexUseReservationServices) {
                 deviatedRouteGraphModifier.createBackwardHops(options);
             }
+            router.graph.getRoutingMetrics().flexModifierTime.recordMicrosSince(flexBeginNanos);
         }
         long searchBeginTime = System.currentTimeMillis();
         LOG.debug("BEGIN SEARCH");
         List<GraphPath> paths = Lists.newArrayList();
-        while (paths.size() < options.numItineraries) {
+        if (router.speculativeSearchPool != null && options.modes.isTransit() && options.numItineraries > 1) {
+            // Look for all itineraries at once, then fall back on the sequential searches below if some are missing.
+            paths.addAll(getSpeculativePaths(options, originalReq, searchBeginTime));
+            for (GraphPath path : paths) {
+                banTripsUsedBy(options, path);
+            }
+        }
+        while (paths.size() < options.numItineraries && !options.rctx.aborted) {
             // TODO pull all this timeout logic into a function near org.opentripplanner.util.DateUtils.absoluteTimeout()
             int timeoutIndex = paths.size();
             if (timeoutIndex >= router.timeouts.length) {
@@ -184,49 +183,143 @@ public class GraphPathFinder {
             // Find all trips used in this path and ban them for the remaining searches
             for (GraphPath path : newPaths) {
                 // path.dump();
-                List<FeedScopedId> tripIds = path.getTrips();
-                List<FeedScopedId> callAndRideTripIds = path.getCallAndRideTrips();
-                for (FeedScopedId tripId : tripIds) {
-                    if (!callAndRideTripIds.contains(tripId)) {
-                        options.banTrip(tripId);
-                    }
-                }
-                if (tripIds.isEmpty()) {
-                    // This path does not use transit (is entirely on-street). Do not repeatedly find the same one.
-                    options.onlyTransitTrips = true;
-                }
-                // Call-and-Ride trips should not use regular trip-banning, since call-and-ride trips can beused in
-                // multiple ways (e.g. from origin to destination, or from origin to a transfer stop.) Instead,
-                // after an itinerary which uses call-and-ride is found, reduce the allowable call-and-ride duration
-                // so that the same leg cannot be found in a subsequent search.
-                if (tripIds.size() < 2) {
-                    int duration = path.getCallAndRideDuration();
-                    if (duration > 0) { // only true if there are call-and-ride legs
-                        int constantLimit = Math.min(0, duration - options.flexReduceCallAndRideSeconds);
-                        int ratioLimit = (int) Math.round(options.flexReduceCallAndRideRatio * duration);
-                        options.flexMaxCallAndRideSeconds = Math.min(constantLimit, ratioLimit);
-                    }
-                }
+                banTripsUsedBy(options, path);
             }
 
             paths.addAll(newPaths.stream()
-                    .filter(path -> {
-                        double duration = options.useRequestedDateTimeInMaxHours
-                            ? options.arriveBy
-                                ? options.dateTime - path.getStartTime()
-                                : path.getEndTime() - options.dateTime
-                            : path.getDuration();
-                        return duration < options.maxHours * 60 * 60;
-                    })
+                    .filter(path -> withinMaxHours(options, path))
                     .collect(Collectors.toList()));
 
             LOG.debug("we have {} paths", paths.size());
         }
         LOG.debug("END SEARCH ({} msec)", System.currentTimeMillis() - searchBeginTime);
+        if (options.rctx.aborted) {
+            router.graph.getRoutingMetrics().abortedRequests.increment();
+        }
         Collections.sort(paths, options.getPathComparator(options.arriveBy));
         return paths;
     }
 
+    /**
+     * Choose an appropriate heuristic for goal direction. A new instance is returned on every call, as the more
+     * sophisticated heuristics keep per-search state.
+     */
+    private static RemainingWeightHeuristic createHeuristic(RoutingRequest options) {
+        if (options.disableRemainingWeightHeuristic) {
+            return new TrivialRemainingWeightHeuristic();
+        } else if (options.modes.isTransit()) {
+            // Only use the BiDi heuristic for transit. It is not very useful for on-street modes.
+            // heuristic = new InterleavedBidirectionalHeuristic(options.rctx.graph);
+            // Use a simplistic heuristic until BiDi heuristic is improved, see #2153
+            return new InterleavedBidirectionalHeuristic();
+        } else {
+            return new EuclideanRemainingWeightHeuristic();
+        }
+    }
+
+    /** Find all trips used in the given path and ban them for the remaining searches. */
+    private static void banTripsUsedBy(RoutingRequest options, GraphPath path) {
+        List<FeedScopedId> tripIds = path.getTrips();
+        List<FeedScopedId> callAndRideTripIds = path.getCallAndRideTrips();
+        for (FeedScopedId tripId : tripIds) {
+            if (!callAndRideTripIds.contains(tripId)) {
+                options.banTrip(tripId);
+            }
+        }
+        if (tripIds.isEmpty()) {
+            // This path does not use transit (is entirely on-street). Do not repeatedly find the same one.
+            options.onlyTransitTrips = true;
+        }
+        // Call-and-Ride trips should not use regular trip-banning, since call-and-ride trips can beused in
+        // multiple ways (e.g. from origin to destination, or from origin to a transfer stop.) Instead,
+        // after an itinerary which uses call-and-ride is found, reduce the allowable call-and-ride duration
+        // so that the same leg cannot be found in a subsequent search.
+        if (tripIds.size() < 2) {
+            int duration = path.getCallAndRideDuration();
+            if (duration > 0) { // only true if there are call-and-ride legs
+                int constantLimit = Math.min(0, duration - options.flexReduceCallAndRideSeconds);
+                int ratioLimit = (int) Math.round(options.flexReduceCallAndRideRatio * duration);
+                options.flexMaxCallAndRideSeconds = Math.min(constantLimit, ratioLimit);
+            }
+        }
+    }
+
+    /** @return whether the path is shorter than the maximum duration allowed by the request. */
+    private static boolean withinMaxHours(RoutingRequest options, GraphPath path) {
+        double duration = options.useRequestedDateTimeInMaxHours
+            ? options.arriveBy
+                ? options.dateTime - path.getStartTime()
+                : path.getEndTime() - options.dateTime
+            : path.getDuration();
+        return duration < options.maxHours * 60 * 60;
+    }
+
+    /**
+     * Speculatively search for all requested itineraries at once on the router's speculative search pool.
+     *
+     * Banning the trips of earlier itineraries forces each sequential search to wait for the previous one. Instead,
+     * search k departs k * speculativeSearchOffset seconds after the requested time (or arrives that much earlier for
+     * arrive-by searches), which in practice tends to find the same later departures that trip banning finds. Each
+     * search has its own copy of the request, routing context, heuristic and AStar, and they share the time budget of
+     * the first search. The results are sorted and itineraries using the same trips are dropped; if fewer distinct
+     * itineraries than requested remain, the caller finds the rest sequentially.
+     */
+    private List<GraphPath> getSpeculativePaths(RoutingRequest options, RoutingRequest originalReq,
+                                                long searchBeginTime) {
+        List<RoutingRequest> requests = new ArrayList<>();
+        List<ForkJoinTask<List<GraphPath>>> tasks = new ArrayList<>();
+        for (int i = 0; i < options.numItineraries; i++) {
+            long offset = (long) i * router.speculativeSearchOffset;
+            RoutingRequest request = options.clone();
+            request.dateTime = options.arriveBy ? options.dateTime - offset : options.dateTime + offset;
+            request.rctx = options.rctx.copyForConcurrentSearch(request);
+            request.rctx.remainingWeightHeuristic = createHeuristic(request);
+            requests.add(request);
+            tasks.add(router.speculativeSearchPool.submit(
+                    () -> runSpeculativeSearch(request, originalReq, searchBeginTime)));
+        }
+        List<GraphPath> candidates = new ArrayList<>();
+        for (ForkJoinTask<List<GraphPath>> task : tasks) {
+            candidates.addAll(task.join());
+        }
+        if (requests.get(0).rctx.aborted) {
+            // The search at the requested time did not complete, there is no point in trying again sequentially.
+            options.rctx.aborted = true;
+        }
+        Collections.sort(candidates, options.getPathComparator(options.arriveBy));
+        List<GraphPath> paths = new ArrayList<>();
+        Set<List<FeedScopedId>> tripsUsed = new HashSet<>();
+        for (GraphPath path : candidates) {
+            if (paths.size() >= options.numItineraries) break;
+            if (withinMaxHours(options, path) && tripsUsed.add(path.getTrips())) {
+                paths.add(path);
+            }
+        }
+        LOG.debug("{} speculative searches found {} distinct paths", tasks.size(), paths.size());
+        return paths;
+    }
+
+    private List<GraphPath> runSpeculativeSearch(RoutingRequest request, RoutingRequest originalReq,
+                                                 long searchBeginTime) {
+        AStar aStar = new AStar();
+        aStar.setReuseShortestPathTree(router.reuseShortestPathTrees);
+        double timeout = (searchBeginTime + router.timeouts[0] * 1000 - System.currentTimeMillis()) / 1000;
+        if (timeout <= 0) {
+            request.rctx.aborted = true;
+            return Collections.emptyList();
+        }
+        aStar.getShortestPathTree(request, timeout);
+        if (request.rctx.aborted) {
+            return Collections.emptyList();
+        }
+        List<GraphPath> newPaths = aStar.getPathsToTarget();
+        if (!newPaths.isEmpty() && request.compactLegsByReversedSearch) {
+            newPaths = compactLegsByReversedSearch(aStar, originalReq, request, newPaths, timeout,
+                    createHeuristic(request));
+        }
+        return newPaths;
+    }
+
     /**
      * Do a full reversed search to compact the legs of the path.
      *
@@ -239,6 +332,7 @@ public class GraphPathFinder {
     private List<GraphPath> compactLegsByReversedSearch(AStar aStar, RoutingRequest originalReq, RoutingRequest options,
                                                         List<GraphPath> newPaths, double timeout,
                                                         RemainingWeightHeuristic remainingWeightHeuristic){
+        long beginNanos = System.nanoTime();
         List<GraphPath> reversedPaths = new ArrayList<>();
         for(GraphPath newPath : newPaths){
             State targetAcceptedState = options.arriveBy ? newPath.states.getLast().reverse() : newPath.states.getLast();
@@ -312,6 +406,7 @@ public class GraphPathFinder {
                 reversedPaths.addAll(joinedPaths);
             }
         }
+        router.graph.getRoutingMetrics().reversedSearchTime.recordMicrosSince(beginNanos);
         return reversedPaths.isEmpty() ? newPaths : reversedPaths;
     }
 
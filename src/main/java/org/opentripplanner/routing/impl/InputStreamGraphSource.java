@@ -177,20 +177,35 @@ public class InputStreamGraphSource implements GraphSource {
      */
     private Router loadGraph() {
         final Graph newGraph;
-        try (InputStream is = streams.getGraphInputStream()) {
+        File graphFile = streams.getGraphFile();
+        if (graphFile != null) {
+            // Load from the file itself so it can be memory-mapped.
+            if (!graphFile.canRead()) {
+                LOG.warn("Graph file not found or not openable for routerId '{}': {}", routerId, graphFile);
+                return null;
+            }
             LOG.info("Loading graph...");
             try {
-                newGraph = Graph.load(is);
+                newGraph = Graph.load(graphFile);
             } catch (Exception ex) {
                 LOG.error("Exception while loading graph '{}'.", routerId, ex);
                 return null;
             }
-
-            newGraph.routerId = (routerId);
-        } catch (IOException e) {
-            LOG.warn("Graph file not found or not openable for routerId '{}': {}", routerId, e);
-            return null;
+        } else {
+            try (InputStream is = streams.getGraphInputStream()) {
+                LOG.info("Loading graph...");
+                try {
+                    newGraph = Graph.load(is);
+                } catch (Exception ex) {
+                    LOG.error("Exception while loading graph '{}'.", routerId, ex);
+                    return null;
+                }
+            } catch (IOException e) {
+                LOG.warn("Graph file not found or not openable for routerId '{}': {}", routerId, e);
+                return null;
+            }
         }
+        newGraph.routerId = (routerId);
 
         // Decorate the graph TODO how are we "decorating" it? This appears to refer to loading its configuration.
         // Even if a config file is not present on disk one could be bundled inside.
@@ -224,6 +239,9 @@ public class InputStreamGraphSource implements GraphSource {
     private interface Streams {
         public abstract InputStream getGraphInputStream() throws IOException;
 
+        /** @return the graph file if the graph is read from a file, null otherwise. */
+        public abstract File getGraphFile();
+
         public abstract InputStream getConfigInputStream() throws IOException;
 
         public abstract long getLastModified();
@@ -244,6 +262,13 @@ public class InputStreamGraphSource implements GraphSource {
             return new FileInputStream(graphFile);
         }
 
+        @Override
+        public File getGraphFile() {
+            File graphFile = new File(path, GRAPH_FILENAME);
+            LOG.debug("Loading graph from file '{}'", graphFile.getPath());
+            return graphFile;
+        }
+
         @Override
         public InputStream getConfigInputStream() throws IOException {
             File configFile = new File(path, Router.ROUTER_CONFIG_FILENAME);
@@ -278,6 +303,11 @@ public class InputStreamGraphSource implements GraphSource {
                     .getResourceAsStream(graphFile.getPath());
         }
 
+        @Override
+        public File getGraphFile() {
+            return null;
+        }
+
         @Override
         public InputStream getConfigInputStream() {
             File configFile = new File(path, Router.ROUTER_CONFIG_FILENAME);
@@ -0,0 +1,154 @@
+package org.opentripplanner.routing.impl;
+
+import gnu.trove.map.hash.TLongObjectHashMap;
+import org.locationtech.jts.index.SpatialIndex;
+import org.opentripplanner.common.geometry.HashGridSpatialIndex;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.services.StreetVertexIndexFactory;
+import org.opentripplanner.routing.services.StreetVertexIndexService;
+import org.opentripplanner.routing.vertextype.TransitStop;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * The hash grid spatial indexes of a StreetVertexIndexServiceImpl in a form that can be saved with
+ * the graph: for each bin its key and the ids of the edges (or indexes of the vertices) it holds.
+ * Restoring the indexes when the graph is loaded only looks up these ids, which is much faster than
+ * rasterizing the geometry of every edge again.
+ *
+ * Ids are only meaningful for the graph the indexes were built for. If the graph loaded does not
+ * have distinct ids for all its edges and vertices, or an id is missing, the indexes are rebuilt.
+ */
+public class PersistedStreetIndex implements StreetVertexIndexFactory {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PersistedStreetIndex.class);
+
+    private final Grid edges;
+
+    private final Grid transitStops;
+
+    private final Grid vertices;
+
+    /**
+     * Record the indexes of the given service, which must use hash grids and must not have been
+     * modified since it was built (for instance by splitting edges), as ids are saved as they are.
+     */
+    @SuppressWarnings("unchecked")
+    public PersistedStreetIndex(StreetVertexIndexServiceImpl index) {
+        edges = new Grid((HashGridSpatialIndex<Edge>) hashGrid(index.getEdgeTree()), Edge::getId);
+        transitStops = new Grid((HashGridSpatialIndex<TransitStop>) hashGrid(index.getTransitStopTree()), Vertex::getIndex);
+        vertices = new Grid((HashGridSpatialIndex<Vertex>) hashGrid(index.getVerticesTree()), Vertex::getIndex);
+    }
+
+    private static HashGridSpatialIndex<?> hashGrid(SpatialIndex tree) {
+        if (!(tree instanceof HashGridSpatialIndex)) {
+            throw new IllegalArgumentException("Only hash grid spatial indexes can be saved.");
+        }
+        return (HashGridSpatialIndex<?>) tree;
+    }
+
+    /**
+     * Restore the indexes for the given graph, falling back on building them if they do not match
+     * it. The vertex and edge indices of the graph must be up to date.
+     */
+    @Override
+    public StreetVertexIndexService newIndex(Graph graph) {
+        if (!hasUniqueIds(graph)) {
+            LOG.warn("Vertex or edge ids of the graph are not unique, rebuilding street index.");
+            return new StreetVertexIndexServiceImpl(graph);
+        }
+        try {
+            HashGridSpatialIndex<Edge> edgeTree = edges.restore(graph::getEdgeById);
+            HashGridSpatialIndex<TransitStop> transitStopTree = transitStops.restore(i -> (TransitStop) graph.getVertexById(i));
+            HashGridSpatialIndex<Vertex> verticesTree = vertices.restore(graph::getVertexById);
+            LOG.debug("Street index restored.");
+            return new StreetVertexIndexServiceImpl(graph, edgeTree, transitStopTree, verticesTree);
+        } catch (IllegalStateException | ClassCastException e) {
+            LOG.warn("Saved street index does not match the graph ({}), rebuilding it.", e.getMessage());
+            return new StreetVertexIndexServiceImpl(graph);
+        }
+    }
+
+    private static boolean hasUniqueIds(Graph graph) {
+        for (Vertex v : graph.getVertices()) {
+            if (graph.getVertexById(v.getIndex()) != v) {
+                return false;
+            }
+            for (Edge e : v.getOutgoing()) {
+                if (graph.getEdgeById(e.getId()) != e) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /** The bins of one hash grid, with the ids of their contents in consecutive slices of an array. */
+    private static class Grid {
+
+        private final double xBinSize;
+
+        private final double yBinSize;
+
+        private final int objectCount;
+
+        private final long[] keys;
+
+        /** ids of the objects in bin i are ids[starts[i]] to ids[starts[i + 1]] (exclusive). */
+        private final int[] starts;
+
+        private final int[] ids;
+
+        <T> Grid(HashGridSpatialIndex<T> grid, ToIntFunction<T> id) {
+            List<Long> binKeys = new ArrayList<>();
+            List<List<T>> bins = new ArrayList<>();
+            grid.forEachBin((key, bin) -> {
+                binKeys.add(key);
+                bins.add(bin);
+                return true;
+            });
+            xBinSize = grid.getXBinSize();
+            yBinSize = grid.getYBinSize();
+            objectCount = grid.getObjectCount();
+            keys = new long[bins.size()];
+            starts = new int[bins.size() + 1];
+            int nEntries = 0;
+            for (List<T> bin : bins) {
+                nEntries += bin.size();
+            }
+            ids = new int[nEntries];
+            int n = 0;
+            for (int i = 0; i < bins.size(); i++) {
+                keys[i] = binKeys.get(i);
+                starts[i] = n;
+                for (T item : bins.get(i)) {
+                    ids[n++] = id.applyAsInt(item);
+                }
+            }
+            starts[bins.size()] = n;
+        }
+
+        <T> HashGridSpatialIndex<T> restore(IntFunction<T> lookup) {
+            TLongObjectHashMap<List<T>> bins = new TLongObjectHashMap<>(keys.length);
+            for (int i = 0; i < keys.length; i++) {
+                List<T> bin = new ArrayList<>(starts[i + 1] - starts[i]);
+                for (int n = starts[i]; n < starts[i + 1]; n++) {
+                    T item = lookup.apply(ids[n]);
+                    if (item == null) {
+                        throw new IllegalStateException("no object with id " + ids[n]);
+                    }
+                    bin.add(item);
+                }
+                bins.put(keys[i], bin);
+            }
+            return new HashGridSpatialIndex<>(xBinSize, yBinSize, bins, objectCount);
+        }
+    }
+}
@@ -98,6 +98,31 @@ public class StreetVertexIndexServiceImpl implements StreetVertexIndexService {
 
     }
 
+    /**
+     * Use hash grid spatial indexes which were already built for this graph, for instance saved
+     * with it (see {@link PersistedStreetIndex}), rather than indexing all its edges and vertices.
+     */
+    StreetVertexIndexServiceImpl(Graph graph, HashGridSpatialIndex<Edge> edgeTree,
+            HashGridSpatialIndex<TransitStop> transitStopTree, HashGridSpatialIndex<Vertex> verticesTree) {
+        this.graph = graph;
+        this.edgeTree = edgeTree;
+        this.transitStopTree = transitStopTree;
+        this.verticesTree = verticesTree;
+        simpleStreetSplitter = new SimpleStreetSplitter(this.graph, edgeTree, transitStopTree, false);
+    }
+
+    SpatialIndex getEdgeTree() {
+        return edgeTree;
+    }
+
+    SpatialIndex getTransitStopTree() {
+        return transitStopTree;
+    }
+
+    SpatialIndex getVerticesTree() {
+        return verticesTree;
+    }
+
     /**
      * Creates a TemporaryStreetLocation on the given street (set of PlainStreetEdges). How far
      * along is controlled by the location parameter, which represents a distance along the edge
@@ -20,4 +20,10 @@ public interface AlertPatchService {
     void expireAll();
 
     void expireAllExcept(Set<String> ids);
+
+    /**
+     * Make the given changes, by calls to the other methods of this service, so that the routing threads see them all
+     * at once. Each of these methods otherwise publishes its own changes.
+     */
+    void update(Runnable changes);
 }
@@ -18,6 +18,7 @@ import java.util.*;
  * We no longer have different implementations of ShortestPathTree because the label-setting (multi-state) approach
  * used in public transit routing, turn restrictions, bike rental, etc. is a generalization of the basic Dijkstra 
  * (single-state) approach. It is much more straightforward to use the more general SPT implementation in all cases.
+ * The only subclass, {@link VertexArrayShortestPathTree}, has the same semantics and only changes how states are stored.
  *
  * Note that turn restrictions make all searches multi-state; however turn restrictions do not apply when walking.
  * The turn restriction handling is done in the base dominance function implementation, and applies to all subclasses.
@@ -39,6 +40,18 @@ public class ShortestPathTree {
         stateSets = new IdentityHashMap<Vertex, List<State>>();
     }
 
+    /**
+     * Constructor for subclasses that store their states in some other way. Such subclasses must override every
+     * method that reads or writes the states.
+     */
+    protected ShortestPathTree (RoutingRequest options, DominanceFunction dominanceFunction, boolean allocateMap) {
+        this.options = options;
+        this.dominanceFunction = dominanceFunction;
+        if (allocateMap) {
+            stateSets = new IdentityHashMap<Vertex, List<State>>();
+        }
+    }
+
     /** @return a list of GraphPaths, sometimes empty but never null. */
     public List<GraphPath> getPaths(Vertex dest, boolean optimize) {
         List<? extends State> stateList = getStates(dest);
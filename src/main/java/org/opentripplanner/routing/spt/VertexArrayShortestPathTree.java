@@ -0,0 +1,301 @@
+package org.opentripplanner.routing.spt;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+import gnu.trove.list.array.TIntArrayList;
+import org.opentripplanner.routing.core.RoutingContext;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A ShortestPathTree that stores its states in an array indexed by {@link Vertex#getIndex()} rather than in a hash map
+ * keyed on the vertices. Most vertices only ever hold a single non-dominated state, so that state is stored directly
+ * in the array slot and a list is only created when a vertex holds several co-dominant states.
+ *
+ * The array is as large as the number of vertices, so it is not allocated per search. Instead each thread keeps one
+ * set of slots that is handed to successive trees by {@link #reuseForCurrentThread(RoutingRequest, DominanceFunction)}
+ * and cleared by resetting only the slots touched by the previous search. This means a tree obtained that way is only
+ * valid until the next tree is obtained on the same thread: it must not be retained by the caller (the paths extracted
+ * from it remain valid, as they only refer to the states). Accessing a tree whose slots have been handed on throws an
+ * IllegalStateException.
+ *
+ * The slots are sized for the vertices of the graph being searched ({@link Graph#getVertexIndexBound()}). Temporary
+ * vertices created for the origin and destination of each request, and vertices added to the graph after the slots were
+ * allocated, have indexes beyond the end of the array and are kept in a small overflow map.
+ */
+public class VertexArrayShortestPathTree extends ShortestPathTree {
+
+    private static final Logger LOG = LoggerFactory.getLogger(VertexArrayShortestPathTree.class);
+
+    private static final ThreadLocal<Slots> SLOTS_FOR_THREAD = new ThreadLocal<>();
+
+    private final Slots slots;
+
+    /** The use of the slots that this tree corresponds to. */
+    private final int generation;
+
+    /** Create a tree with its own freshly allocated slots, which will not be reused by any other tree. */
+    public VertexArrayShortestPathTree(RoutingRequest options, DominanceFunction dominanceFunction) {
+        this(options, dominanceFunction, new Slots(slotCount(options)));
+    }
+
+    private VertexArrayShortestPathTree(RoutingRequest options, DominanceFunction dominanceFunction, Slots slots) {
+        super(options, dominanceFunction, false);
+        this.slots = slots;
+        this.generation = slots.reset();
+    }
+
+    /**
+     * Create a tree reusing the slots of the previous tree created on this thread. The previous tree must no longer be
+     * used after this call. The slots are reallocated when the graph searched has many more or many fewer vertices than
+     * they were allocated for, for example because a new graph was loaded.
+     */
+    public static VertexArrayShortestPathTree reuseForCurrentThread(RoutingRequest options,
+                                                                    DominanceFunction dominanceFunction) {
+        Slots slots = SLOTS_FOR_THREAD.get();
+        int slotCount = slotCount(options);
+        if (slots == null
+                || slotCount > slots.states.length + slots.states.length / 2
+                || slotCount < slots.states.length / 2) {
+            slots = new Slots(slotCount);
+            SLOTS_FOR_THREAD.set(slots);
+        }
+        return new VertexArrayShortestPathTree(options, dominanceFunction, slots);
+    }
+
+    /**
+     * The number of slots to allocate for a search with the given options. Without a graph, all the vertices created so
+     * far are counted.
+     */
+    private static int slotCount(RoutingRequest options) {
+        RoutingContext rctx = options.getRoutingContext();
+        return rctx == null || rctx.graph == null ? Vertex.getMaxIndex() : rctx.graph.getVertexIndexBound();
+    }
+
+    @Override
+    public boolean add(State newState) {
+        checkGeneration();
+        Vertex vertex = newState.getVertex();
+        Object slot = slots.get(vertex);
+
+        // if the vertex has no states, add one and return
+        if (slot == null) {
+            slots.put(vertex, newState);
+            return true;
+        }
+
+        // the common case: a single state at this vertex, held without a list
+        if (slot instanceof State) {
+            State oldState = (State) slot;
+            // order is important, because in the case of a tie we want to reject the new state
+            if (dominanceFunction.betterOrEqualAndComparable(oldState, newState))
+                return false;
+            if (dominanceFunction.betterOrEqualAndComparable(newState, oldState)) {
+                slots.put(vertex, newState);
+            } else {
+                List<State> states = new ArrayList<>(2);
+                states.add(oldState);
+                states.add(newState);
+                slots.put(vertex, states);
+            }
+            return true;
+        }
+
+        // if the vertex has any states that dominate the new state, don't add the state
+        // if the new state dominates any old states, remove them
+        @SuppressWarnings("unchecked")
+        List<State> states = (List<State>) slot;
+        Iterator<State> it = states.iterator();
+        while (it.hasNext()) {
+            State oldState = it.next();
+            if (dominanceFunction.betterOrEqualAndComparable(oldState, newState))
+                return false;
+            if (dominanceFunction.betterOrEqualAndComparable(newState, oldState))
+                it.remove();
+        }
+
+        // any states remaining are co-dominant with the new state
+        states.add(newState);
+        return true;
+    }
+
+    @Override
+    public boolean visit(State state) {
+        checkGeneration();
+        Object slot = slots.get(state.getVertex());
+        if (slot == state) {
+            return true;
+        }
+        if (slot instanceof List) {
+            for (Object s : (List<?>) slot) {
+                if (s == state) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public State getState(Vertex dest) {
+        checkGeneration();
+        State ret = null;
+        for (State s : statesIn(slots.get(dest))) {
+            if ((ret == null || s.weight < ret.weight) && s.isFinal()) {
+                ret = s;
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public List<State> getStates(Vertex dest) {
+        checkGeneration();
+        Object slot = slots.get(dest);
+        return slot == null ? null : statesIn(slot);
+    }
+
+    @Override
+    public Set<Vertex> getVertices() {
+        checkGeneration();
+        Set<Vertex> vertices = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Object slot : slots.occupied()) {
+            for (State state : statesIn(slot)) {
+                vertices.add(state.getVertex());
+                break;
+            }
+        }
+        return vertices;
+    }
+
+    @Override
+    public int getVertexCount() {
+        checkGeneration();
+        return slots.size();
+    }
+
+    @Override
+    public Collection<State> getAllStates() {
+        checkGeneration();
+        ArrayList<State> allStates = new ArrayList<>();
+        for (Object slot : slots.occupied()) {
+            allStates.addAll(statesIn(slot));
+        }
+        return allStates;
+    }
+
+    @Override
+    public void dump() {
+        checkGeneration();
+        Multiset<Integer> histogram = HashMultiset.create();
+        int statesCount = 0;
+        int maxSize = 0;
+        for (Object slot : slots.occupied()) {
+            int size = statesIn(slot).size();
+            histogram.add(size);
+            statesCount += size;
+            if (size > maxSize) {
+                maxSize = size;
+            }
+        }
+        LOG.info("SPT: vertices: " + slots.size() + " states: total: "
+                + statesCount + " per vertex max: " + maxSize + " avg: "
+                + (statesCount * 1.0 / slots.size()));
+        List<Integer> nStates = new ArrayList<Integer>(histogram.elementSet());
+        Collections.sort(nStates);
+        for (Integer nState : nStates) {
+            LOG.info(nState + " states: " + histogram.count(nState) + " vertices.");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "VertexArrayShortestPathTree(" + slots.size() + " vertices)";
+    }
+
+    private void checkGeneration() {
+        if (slots.generation != generation) {
+            throw new IllegalStateException("This shortest path tree has been reused by a later search.");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<State> statesIn(Object slot) {
+        if (slot == null) return Collections.emptyList();
+        if (slot instanceof State) return Collections.singletonList((State) slot);
+        return (List<State>) slot;
+    }
+
+    /**
+     * The storage for one tree at a time: for each vertex index either nothing, a single State or a List of States.
+     * The indexes of all occupied slots are recorded so they can be cleared without scanning the whole array.
+     */
+    private static class Slots {
+
+        final Object[] states;
+
+        final TIntArrayList touched = new TIntArrayList();
+
+        final Map<Vertex, Object> overflow = new IdentityHashMap<>();
+
+        int generation = 0;
+
+        Slots(int size) {
+            states = new Object[size];
+        }
+
+        Object get(Vertex vertex) {
+            int index = vertex.getIndex();
+            return index < states.length ? states[index] : overflow.get(vertex);
+        }
+
+        void put(Vertex vertex, Object slot) {
+            int index = vertex.getIndex();
+            if (index < states.length) {
+                if (states[index] == null) {
+                    touched.add(index);
+                }
+                states[index] = slot;
+            } else {
+                overflow.put(vertex, slot);
+            }
+        }
+
+        int size() {
+            return touched.size() + overflow.size();
+        }
+
+        List<Object> occupied() {
+            List<Object> occupied = new ArrayList<>(size());
+            for (int i = 0; i < touched.size(); i++) {
+                occupied.add(states[touched.get(i)]);
+            }
+            occupied.addAll(overflow.values());
+            return occupied;
+        }
+
+        /** Empty all slots for use by a new tree, returning the new generation number. */
+        int reset() {
+            for (int i = 0; i < touched.size(); i++) {
+                states[touched.get(i)] = null;
+            }
+            touched.resetQuick();
+            overflow.clear();
+            return ++generation;
+        }
+    }
+
+}
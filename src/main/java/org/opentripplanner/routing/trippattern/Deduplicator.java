@@ -10,6 +10,7 @@ import java.util.Map;
 /**
  * Does the same thing as String.intern, but for several different types.
  * Java's String.intern uses perm gen space and is broken anyway.
+ * The methods are synchronized, so that trips can be deduplicated while they are prepared on several threads.
  */
 public class Deduplicator implements Serializable {
     private static final long serialVersionUID = 20140524L;
@@ -21,7 +22,7 @@ public class Deduplicator implements Serializable {
     private final Map<StringArray, StringArray> canonicalStringArrays = Maps.newHashMap();
 
     /** Free up any memory used by the deduplicator. */
-    public void reset() {
+    public synchronized void reset() {
         canonicalIntArrays.clear();
         canonicalDoubleArrays.clear();
         canonicalStrings.clear();
@@ -30,7 +31,7 @@ public class Deduplicator implements Serializable {
     }
 
     /** Used to deduplicate time and stop sequence arrays. The same times may occur in many trips. */
-    public int[] deduplicateIntArray(int[] original) {
+    public synchronized int[] deduplicateIntArray(int[] original) {
         if (original == null) return null;
         IntArray intArray = new IntArray(original);
         IntArray canonical = canonicalIntArrays.get(intArray);
@@ -41,7 +42,7 @@ public class Deduplicator implements Serializable {
         return canonical.array;
     }
 
-    public double[] deduplicateDoubleArray(double[] original) {
+    public synchronized double[] deduplicateDoubleArray(double[] original) {
         if (original == null) return null;
         DoubleArray doubleArray = new DoubleArray(original);
         DoubleArray canonical = canonicalDoubleArrays.get(doubleArray);
@@ -52,7 +53,7 @@ public class Deduplicator implements Serializable {
         return canonical.array;
     }
 
-    public String deduplicateString(String original) {
+    public synchronized String deduplicateString(String original) {
         if (original == null) return null;
         String canonical = canonicalStrings.get(original);
         if (canonical == null) {
@@ -62,7 +63,7 @@ public class Deduplicator implements Serializable {
         return canonical;
     }
 
-    public BitSet deduplicateBitSet(BitSet original) {
+    public synchronized BitSet deduplicateBitSet(BitSet original) {
         if (original == null) return null;
         BitSet canonical = canonicalBitSets.get(original);
         if (canonical == null) {
@@ -72,7 +73,7 @@ public class Deduplicator implements Serializable {
         return canonical;
     }
 
-    public String[] deduplicateStringArray(String[] original) {
+    public synchronized String[] deduplicateStringArray(String[] original) {
         if (original == null) return null;
         StringArray canonical = canonicalStringArrays.get(new StringArray(original, false));
         if (canonical == null) {
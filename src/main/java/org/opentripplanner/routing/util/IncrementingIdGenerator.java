@@ -1,14 +1,16 @@
 package org.opentripplanner.routing.util;
 
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Generates unique identifiers by incrementing an internal counter.
+ * Generates unique identifiers by incrementing an internal counter. The counter is atomic, so identifiers can be
+ * generated from several threads at once.
  * 
  * @author avi
  */
 public class IncrementingIdGenerator<T> implements UniqueIdGenerator<T> {
     
-    private int next;
+    private final AtomicInteger next;
     
     public IncrementingIdGenerator() {
         this(0);
@@ -22,7 +24,7 @@ public class IncrementingIdGenerator<T> implements UniqueIdGenerator<T> {
      * @param start
      */
     public IncrementingIdGenerator(int start) {
-        next = start;
+        next = new AtomicInteger(start);
     }
     
     /**
@@ -31,6 +33,15 @@ public class IncrementingIdGenerator<T> implements UniqueIdGenerator<T> {
      * @return 
      */
     public int getId(T elem) {
-        return next++;
+        return next.getAndIncrement();
+    }
+
+    /**
+     * Make sure the identifiers generated from now on are above the given one.
+     *
+     * @param id
+     */
+    public void reserve(int id) {
+        next.accumulateAndGet(id + 1, Math::max);
     }
 }
@@ -1,6 +1,7 @@
 package org.opentripplanner.routing.vertextype;
 
 import org.opentripplanner.common.MavenVersion;
+import org.opentripplanner.routing.bike_rental.BikeRentalAvailability;
 import org.opentripplanner.routing.bike_rental.BikeRentalStation;
 import org.opentripplanner.routing.core.TraverseMode;
 import org.opentripplanner.routing.graph.Graph;
@@ -25,6 +26,12 @@ public class BikeRentalStationVertex extends Vertex {
 
     private String id;
 
+    /**
+     * The index of this station in the real-time {@link BikeRentalAvailability}, or -1 if the availability of this
+     * station is not updated in real time.
+     */
+    private int availabilityIndex = -1;
+
     /** Some car rental systems and flex transit systems work exactly like bike rental, but with cars. */
     private boolean isCarStation;
 
@@ -53,6 +60,14 @@ public class BikeRentalStationVertex extends Vertex {
         this.spacesAvailable = spaces;
     }
 
+    public int getAvailabilityIndex() {
+        return availabilityIndex;
+    }
+
+    public void setAvailabilityIndex(int availabilityIndex) {
+        this.availabilityIndex = availabilityIndex;
+    }
+
     public String getId() {
         return id;
     }
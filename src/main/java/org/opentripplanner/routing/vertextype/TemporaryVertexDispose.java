@@ -118,7 +118,8 @@ class TemporaryVertexDispose {
         if(v instanceof TemporaryVertex) {
             addVertexToProcessTodoList(v);
         }
-        else if (dispose) {
+        // Request-scoped temporary edges are not listed by main graph vertices, so there is nothing to remove.
+        else if (dispose && connectedEdge.isListedBy(v)) {
             removeEdgeFromMainGraphVertex(v, connectedEdge, incoming);
         }
     }
@@ -65,6 +65,10 @@ public class CommandLineParameters implements Cloneable {
             description = "Pass the graph to the server in-memory after building it, and saving to disk.")
     public boolean preFlight;
 
+    @Parameter(names = {"--resumeFrom"},
+            description = "Resume the graph build at the given builder module, from the last checkpoint saved before it.")
+    public String resumeFrom;
+
     @Parameter(names = { "--version", },
             description = "Print the version, and then exit.")
     public boolean version = false;
@@ -2,6 +2,7 @@ package org.opentripplanner.standalone;
 
 import org.opentripplanner.api.common.RoutingResource;
 import org.opentripplanner.graph_builder.module.ned.ElevationModule;
+import org.opentripplanner.graph_builder.module.osm.OSMNodeStore;
 import org.opentripplanner.graph_builder.module.osm.WayPropertySetSource;
 import org.opentripplanner.graph_builder.services.osm.CustomNamer;
 import org.opentripplanner.profile.StopClusterMode;
@@ -11,6 +12,7 @@ import org.opentripplanner.routing.services.FareServiceFactory;
 
 import com.fasterxml.jackson.databind.JsonNode;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -181,6 +183,12 @@ public class GraphBuilderParameters {
      */
     public final double maxTransferDistance;
 
+    /**
+     * The number of threads searching for nearby stops when pre-calculating transfers. Defaults to the number of
+     * processors. The transfers created do not depend on this number.
+     */
+    public final int transferThreads;
+
     /**
      * This will add extra edges when linking a stop to a platform, to prevent detours along the platform edge.
      */
@@ -216,6 +224,51 @@ public class GraphBuilderParameters {
      */
     public boolean multiThreadElevationCalculations;
 
+    /**
+     * How to store OSM nodes while building the street graph. The compact and mapped stores keep the coordinates of
+     * untagged nodes in primitive arrays, in memory or in a memory-mapped temporary file, so that large regions can be
+     * built with less heap. The default is to keep every node as an object in memory.
+     */
+    public final OSMNodeStore.Type osmNodeStore;
+
+    /**
+     * The number of threads decompressing and decoding the blocks of OSM PBF files. Defaults to the number of
+     * processors. The entities read do not depend on this number.
+     */
+    public final int osmReaderThreads;
+
+    /**
+     * Whether to save the graph to StreetGraph.obj once the streets are built, before transit data is added. Elevation
+     * data is then applied before transit data rather than after linking, so that it is in the saved street graph.
+     */
+    public final boolean saveStreetGraph;
+
+    /**
+     * Whether to start from the streets saved in StreetGraph.obj by an earlier build, rather than building them from
+     * the OSM and elevation data. This allows rebuilding a graph quickly when only the transit data has changed.
+     */
+    public final boolean loadStreetGraph;
+
+    /**
+     * Whether to save the geometries of the street edges to Graph.obj.geometries next to the graph file rather than in
+     * it. That file is memory-mapped when the graph is loaded, so the geometries are not held on the heap.
+     */
+    public final boolean separateEdgeGeometries;
+
+    /**
+     * Whether to read the stop times of GTFS feeds one trip at a time while building the trip patterns, rather than
+     * loading all of them first. This bounds the memory used by the stop times of large feeds. It only applies to feeds
+     * whose stop_times.txt has the rows of each trip next to each other; other feeds are loaded as usual.
+     */
+    public final boolean streamStopTimes;
+
+    /**
+     * The graph builder modules, by simple class name, after which the graph and the other build state are saved in
+     * the checkpoints directory. A later build with the --resumeFrom command line parameter starts from the last of
+     * these checkpoints instead of running the modules before it again.
+     */
+    public final List<String> checkpoints;
+
     /**
      * Set all parameters from the given Jackson JSON tree, applying defaults.
      * Supplying MissingNode.getInstance() will cause all the defaults to be applied.
@@ -251,11 +304,22 @@ public class GraphBuilderParameters {
         banDiscouragedWalking = config.path("banDiscouragedWalking").asBoolean(false);
         banDiscouragedBiking = config.path("banDiscouragedBiking").asBoolean(false);
         maxTransferDistance = config.path("maxTransferDistance").asDouble(2000);
+        transferThreads = config.path("transferThreads").asInt(Runtime.getRuntime().availableProcessors());
         extraEdgesStopPlatformLink = config.path("extraEdgesStopPlatformLink").asBoolean(false);
         readCachedElevations = config.path("readCachedElevations").asBoolean(true);
         writeCachedElevations = config.path("writeCachedElevations").asBoolean(false);
         includeEllipsoidToGeoidDifference = config.path("includeEllipsoidToGeoidDifference").asBoolean(false);
         multiThreadElevationCalculations = config.path("multiThreadElevationCalculations").asBoolean(false);
+        osmNodeStore = enumValueOf(config, "osmNodeStore", OSMNodeStore.Type.memory);
+        osmReaderThreads = config.path("osmReaderThreads").asInt(Runtime.getRuntime().availableProcessors());
+        saveStreetGraph = config.path("saveStreetGraph").asBoolean(false);
+        loadStreetGraph = config.path("loadStreetGraph").asBoolean(false);
+        separateEdgeGeometries = config.path("separateEdgeGeometries").asBoolean(false);
+        streamStopTimes = config.path("streamStopTimes").asBoolean(false);
+        checkpoints = new ArrayList<>();
+        for (JsonNode module : config.path("checkpoints")) {
+            checkpoints.add(module.asText());
+        }
     }
 
 
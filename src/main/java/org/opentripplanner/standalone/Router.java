@@ -11,8 +11,10 @@ import org.opentripplanner.analyst.request.*;
 import org.opentripplanner.analyst.scenario.ScenarioStore;
 import org.opentripplanner.inspector.TileRendererManager;
 import org.opentripplanner.reflect.ReflectiveInitializer;
+import org.opentripplanner.routing.algorithm.strategies.HeuristicSearchCache;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.graph.CompactStreetGraph;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.updater.GraphUpdaterConfigurator;
 import org.opentripplanner.util.ElevationUtils;
@@ -21,6 +23,7 @@ import org.opentripplanner.visualizer.GraphVisualizer;
 import org.slf4j.LoggerFactory;
 
 import java.util.EnumMap;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Represents the configuration of a single router (a single graph for a specific geographic area)
@@ -32,10 +35,32 @@ public class Router {
 
     public static final String ROUTER_CONFIG_FILENAME = "router-config.json";
 
+    /** Number of flex street search results cached when flexHopCacheCellSize is set but not flexHopCacheSize. */
+    public static final int DEFAULT_FLEX_HOP_CACHE_SIZE = 10000;
+
     public String id;
     public Graph graph;
     public double[] timeouts = {5, 4, 2};
 
+    /**
+     * If true, point-to-point searches store their states in a per-thread array indexed by vertex, which is reused
+     * from one search to the next, rather than allocating a new hash-based shortest path tree for every search.
+     */
+    public boolean reuseShortestPathTrees = false;
+
+    /**
+     * If greater than zero, transit searches for several itineraries start that many searches at once on a pool of
+     * this many threads, each departing (arriving) a multiple of speculativeSearchOffset seconds later (earlier)
+     * than requested, instead of finding one itinerary after another. See GraphPathFinder.
+     */
+    public int speculativeSearchThreads = 0;
+
+    /** The time offset in seconds between the departure times of successive speculative searches. */
+    public int speculativeSearchOffset = 600;
+
+    /** The pool on which speculative searches are run, or null if they are disabled. */
+    public ForkJoinPool speculativeSearchPool = null;
+
     /**
      *  Separate logger for incoming requests. This should be handled with a Logback logger rather than something
      *  simple like a PrintStream because requests come in multi-threaded.
@@ -154,6 +179,48 @@ public class Router {
             }
         }
 
+        /* Set whether to recycle vertex-indexed shortest path trees between searches */
+        JsonNode reuseShortestPathTrees = config.get("reuseShortestPathTrees");
+        if (reuseShortestPathTrees != null) {
+            this.reuseShortestPathTrees = reuseShortestPathTrees.asBoolean(false);
+        }
+
+        /* Build a compact, read-only view of the street graph for routing */
+        JsonNode compactStreetGraph = config.get("compactStreetGraph");
+        if (compactStreetGraph != null && compactStreetGraph.asBoolean(false)) {
+            graph.compactStreetGraph = new CompactStreetGraph(graph);
+        }
+
+        /* Set up caching of the street searches of the transit heuristic */
+        JsonNode heuristicCacheSize = config.get("heuristicCacheSize");
+        if (heuristicCacheSize != null && heuristicCacheSize.asLong(0) > 0) {
+            graph.heuristicSearchCache = new HeuristicSearchCache(heuristicCacheSize.asLong());
+            LOG.info("Caching heuristic street searches up to a total of {} vertices.", heuristicCacheSize.asLong());
+        }
+
+        /* Set up parallel speculative itinerary searches */
+        JsonNode speculativeSearchThreads = config.get("speculativeSearchThreads");
+        if (speculativeSearchThreads != null) {
+            this.speculativeSearchThreads = speculativeSearchThreads.asInt(0);
+        }
+        JsonNode speculativeSearchOffset = config.get("speculativeSearchOffset");
+        if (speculativeSearchOffset != null) {
+            this.speculativeSearchOffset = speculativeSearchOffset.asInt(this.speculativeSearchOffset);
+        }
+        if (this.speculativeSearchThreads > 0) {
+            this.speculativeSearchPool = new ForkJoinPool(this.speculativeSearchThreads);
+            LOG.info("Running up to {} speculative itinerary searches in parallel, {} seconds apart.",
+                    this.speculativeSearchThreads, this.speculativeSearchOffset);
+        }
+
+        /* Set up caching of flex street searches, before the flex index may be created below */
+        JsonNode flexHopCacheCellSize = config.get("flexHopCacheCellSize");
+        if (flexHopCacheCellSize != null) {
+            JsonNode flexHopCacheSize = config.get("flexHopCacheSize");
+            graph.setFlexHopCache(flexHopCacheCellSize.asDouble(0),
+                    flexHopCacheSize == null ? DEFAULT_FLEX_HOP_CACHE_SIZE : flexHopCacheSize.asInt());
+        }
+
         /* Set whether to use flex service */
         JsonNode useFlexService = config.get("useFlexService");
         if (useFlexService != null) {
@@ -178,6 +245,9 @@ public class Router {
     /** Shut down this router when evicted or (auto-)reloaded. Stop any real-time updater threads. */
     public void shutdown() {
         GraphUpdaterConfigurator.shutdownGraph(this.graph);
+        if (speculativeSearchPool != null) {
+            speculativeSearchPool.shutdown();
+        }
     }
 
     /**
@@ -4,17 +4,21 @@ import com.beust.jcommander.internal.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.util.monitoring.Histogram;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -27,7 +31,8 @@ import org.slf4j.LoggerFactory;
  * 
  * Each updater will run in its own thread. When changes to the graph have to be made by these
  * updaters, this should be done via the execute method of this manager to prevent race conditions
- * between graph write operations.
+ * between graph write operations. The graph writers are executed in lanes according to the state
+ * they modify (see {@link GraphWriterLane}), so a slow writer only delays the writers of its lane.
  * 
  */
 public class GraphUpdaterManager {
@@ -46,12 +51,11 @@ public class GraphUpdaterManager {
 
     /**
      * OTP's multi-version concurrency control model for graph updating allows simultaneous reads,
-     * but never simultaneous writes. We ensure this policy is respected by having a single writer
-     * thread, which sequentially executes all graph updater tasks. Each task is a runnable that is
-     * scheduled with the ExecutorService to run at regular intervals.
-     * FIXME in reality we're not using scheduleAtFixedInterval. We're scheduling for immediate execution from separate threads that sleep in a loop.
+     * but never simultaneous writes of the same state. We ensure this policy is respected by having
+     * a single writer thread for each lane, which sequentially executes the graph updater tasks of
+     * that lane. Writers of different lanes modify different state, and run concurrently.
      */
-    private ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final Map<GraphWriterLane, Lane> lanes = new EnumMap<>(GraphWriterLane.class);
 
     /**
      * A pool of threads on which the updaters will run.
@@ -70,11 +74,26 @@ public class GraphUpdaterManager {
      */
     private Graph graph;
 
+    /**
+     * Number of graph writer tasks submitted and not yet finished, in all lanes.
+     */
+    private final AtomicInteger queueDepth = new AtomicInteger();
+
     /**
      * Constructor.
      * @param graph is the Graph that will be updated.
      */
     public GraphUpdaterManager(Graph graph) {
+        this(graph, null);
+    }
+
+    /**
+     * Constructor.
+     * @param graph is the Graph that will be updated.
+     * @param laneExecutors creates the executor of each lane, which must execute its tasks one after
+     *                      the other. Lanes may share an executor. If null, each lane gets a thread of its own.
+     */
+    public GraphUpdaterManager(Graph graph, Function<GraphWriterLane, ExecutorService> laneExecutors) {
         this.graph = graph;
         
         String routerId = graph.routerId;
@@ -82,8 +101,18 @@ public class GraphUpdaterManager {
             routerId = DEFAULT_ROUTER_ID;
         
         threadFactory = new ThreadFactoryBuilder().setNameFormat("GraphUpdater-" + routerId + "-%d").build();
-        scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
         updaterPool = Executors.newCachedThreadPool(threadFactory);
+
+        for (GraphWriterLane lane : GraphWriterLane.values()) {
+            ExecutorService executor;
+            if (laneExecutors == null) {
+                executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                        .setNameFormat("GraphWriter-" + routerId + "-" + lane).build());
+            } else {
+                executor = laneExecutors.apply(lane);
+            }
+            lanes.put(lane, new Lane(executor));
+        }
     }
 
     public void stop() {
@@ -107,12 +136,16 @@ public class GraphUpdaterManager {
         }
         updaterList.clear();
 
-        // Shutdown scheduler
-        scheduler.shutdownNow();
+        // Shutdown graph writer lanes
+        for (Lane lane : lanes.values()) {
+            lane.executor.shutdownNow();
+        }
         try {
-            boolean ok = scheduler.awaitTermination(30, TimeUnit.SECONDS);
-            if (!ok) {
-                LOG.warn("Timeout waiting for scheduled task to finish.");
+            for (Lane lane : lanes.values()) {
+                boolean ok = lane.executor.awaitTermination(30, TimeUnit.SECONDS);
+                if (!ok) {
+                    LOG.warn("Timeout waiting for scheduled task to finish.");
+                }
             }
         } catch (InterruptedException e) {
             // This should not happen
@@ -130,22 +163,57 @@ public class GraphUpdaterManager {
     }
 
     /**
-     * This is the method to use to modify the graph from the updaters. The runnables will be
-     * scheduled after each other, guaranteeing that only one of these runnables will be active at
-     * any time.
+     * This is the method to use to modify the graph from the updaters. The runnables of a lane will
+     * be scheduled after each other, guaranteeing that only one runnable of each lane will be active
+     * at any time.
      * 
      * @param runnable is a graph writer runnable
      */
     public void execute(GraphWriterRunnable runnable) {
-        scheduler.submit(() -> {
+        Lane lane = lanes.get(runnable.getLane());
+        graph.getRoutingMetrics().updaterQueueDepth.record(queueDepth.getAndIncrement());
+        lane.queueDepth.record(lane.depth.getAndIncrement());
+        long submitNanos = System.nanoTime();
+        lane.executor.submit(() -> {
+            lane.waitTime.recordMicrosSince(submitNanos);
+            long runNanos = System.nanoTime();
             try {
                 runnable.run(graph);
             } catch (Exception e) {
                 LOG.error("Error while running graph writer {}:", runnable.getClass().getName(), e);
+            } finally {
+                lane.runTime.recordMicrosSince(runNanos);
+                lane.depth.decrementAndGet();
+                queueDepth.decrementAndGet();
             }
         });
     }
 
+    /**
+     * @return the number of graph writer tasks waiting for or being run by the graph writer threads.
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * @return the number of graph writer tasks waiting for or being run in each lane, and the
+     *         distributions of their queue depth, waiting time and running time in microseconds.
+     */
+    public Map<String, Object> summarizeLanes() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        for (Map.Entry<GraphWriterLane, Lane> entry : lanes.entrySet()) {
+            Lane lane = entry.getValue();
+            Map<String, Object> laneSummary = new LinkedHashMap<>();
+            laneSummary.put("queueLength", lane.depth.get());
+            laneSummary.put("queueDepth", lane.queueDepth.summarize());
+            laneSummary.put("waitTime", lane.waitTime.summarize());
+            laneSummary.put("runTime", lane.runTime.summarize());
+            summary.put(entry.getKey().name(), laneSummary);
+        }
+        return summary;
+    }
+
     public int size() {
         return updaterList.size();
     }
@@ -188,4 +256,26 @@ public class GraphUpdaterManager {
         if (id >= updaterList.size()) return null;
         return updaterList.get(id);
     }
+
+    /** The executor of a lane and the metrics of the graph writer tasks submitted to it. */
+    private static class Lane {
+
+        final ExecutorService executor;
+
+        /** Number of tasks submitted to this lane and not yet finished. */
+        final AtomicInteger depth = new AtomicInteger();
+
+        /** Number of tasks waiting for or being run in this lane when a new one is queued. */
+        final Histogram queueDepth = new Histogram();
+
+        /** Time from the submission of each task to the start of its run. */
+        final Histogram waitTime = new Histogram();
+
+        /** Duration of the run of each task. */
+        final Histogram runTime = new Histogram();
+
+        Lane(ExecutorService executor) {
+            this.executor = executor;
+        }
+    }
 }
@@ -0,0 +1,29 @@
+package org.opentripplanner.updater;
+
+/**
+ * The part of the graph state a {@link GraphWriterRunnable} modifies. The GraphUpdaterManager runs the writers of each
+ * lane one after the other on a thread of their own, so a slow writer only delays the writers of its own lane.
+ * Writers of different lanes run at the same time, and must therefore never modify the state of another lane. They may
+ * all add vertices and edges to the graph: vertex indexes and edge ids are drawn from atomic counters, the graph keeps
+ * its vertices in concurrent maps and each vertex synchronizes changes to its edge lists.
+ */
+public enum GraphWriterLane {
+
+    /** Realtime trip updates, applied to the timetable snapshot source and its trip patterns. */
+    TIMETABLES,
+
+    /** Realtime service alerts. */
+    ALERTS,
+
+    /**
+     * Bike rental stations and bike parks. They share a lane because both link their new vertices to the street
+     * graph, splitting the same street edges.
+     */
+    STREETS,
+
+    /** Street notes read from WFS sources. */
+    STREET_NOTES,
+
+    /** Writers which do not tell which state they modify. */
+    DEFAULT
+}
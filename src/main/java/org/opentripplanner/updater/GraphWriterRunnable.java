@@ -6,9 +6,10 @@ import org.opentripplanner.routing.graph.Graph;
  * The graph should only be modified by a runnable implementing this interface, executed by the
  * GraphUpdaterManager.
  * A few notes:
- * - Don't spend more time in this runnable than necessary, it might block other graph writer runnables.
- * - Be aware that while only one graph writer runnable is running to write to the graph, several
- *   request-threads might be reading the graph.
+ * - Don't spend more time in this runnable than necessary, it might block other graph writer runnables
+ *   of its lane.
+ * - Be aware that while only one graph writer runnable of each lane is running to write to the graph,
+ *   runnables of other lanes and several request-threads might be accessing the graph.
  * - Be sure that the request-threads always see a consistent view of the graph while planning.
  * 
  * @see GraphUpdaterManager.execute
@@ -19,4 +20,12 @@ public interface GraphWriterRunnable {
      * This function is executed to modify the graph.
      */
     public void run(Graph graph);
+
+    /**
+     * The lane this runnable is executed in. Runnables of the same lane are executed one after the other, in the
+     * order they were submitted.
+     */
+    default GraphWriterLane getLane() {
+        return GraphWriterLane.DEFAULT;
+    }
 }
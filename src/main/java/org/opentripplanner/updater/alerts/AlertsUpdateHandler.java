@@ -41,17 +41,20 @@ public class AlertsUpdateHandler {
     private GtfsRealtimeFuzzyTripMatcher fuzzyTripMatcher;
 
     public void update(FeedMessage message) {
-        alertPatchService.expire(patchIds);
-        patchIds.clear();
-
-        for (FeedEntity entity : message.getEntityList()) {
-            if (!entity.hasAlert()) {
-                continue;
+        // Replace the alerts of the previous message at once, so routing never sees a partial set of alerts
+        alertPatchService.update(() -> {
+            alertPatchService.expire(patchIds);
+            patchIds.clear();
+
+            for (FeedEntity entity : message.getEntityList()) {
+                if (!entity.hasAlert()) {
+                    continue;
+                }
+                GtfsRealtime.Alert alert = entity.getAlert();
+                String id = entity.getId();
+                handleAlert(id, alert);
             }
-            GtfsRealtime.Alert alert = entity.getAlert();
-            String id = entity.getId();
-            handleAlert(id, alert);
-        }
+        });
     }
 
     private void handleAlert(String id, GtfsRealtime.Alert alert) {
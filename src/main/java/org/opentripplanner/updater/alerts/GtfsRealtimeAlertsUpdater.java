@@ -7,6 +7,7 @@ import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.impl.AlertPatchServiceImpl;
 import org.opentripplanner.routing.services.AlertPatchService;
 import org.opentripplanner.updater.GraphUpdaterManager;
+import org.opentripplanner.updater.GraphWriterLane;
 import org.opentripplanner.updater.GraphWriterRunnable;
 import org.opentripplanner.updater.GtfsRealtimeFuzzyTripMatcher;
 import org.opentripplanner.updater.PollingGraphUpdater;
@@ -107,6 +108,11 @@ public class GtfsRealtimeAlertsUpdater extends PollingGraphUpdater {
                 public void run(Graph graph) {
                     updateHandler.update(feed);
                 }
+
+                @Override
+                public GraphWriterLane getLane() {
+                    return GraphWriterLane.ALERTS;
+                }
             });
 
             lastTimestamp = feedTimestamp;
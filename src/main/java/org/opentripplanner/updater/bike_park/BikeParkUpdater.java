@@ -19,6 +19,7 @@ import org.opentripplanner.routing.edgetype.BikeParkEdge;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.vertextype.BikeParkVertex;
 import org.opentripplanner.updater.GraphUpdaterManager;
+import org.opentripplanner.updater.GraphWriterLane;
 import org.opentripplanner.updater.GraphWriterRunnable;
 import org.opentripplanner.updater.PollingGraphUpdater;
 import org.opentripplanner.updater.JsonConfigurable;
@@ -116,6 +117,11 @@ public class BikeParkUpdater extends PollingGraphUpdater {
             this.bikeParks = bikeParks;
         }
 
+        @Override
+        public GraphWriterLane getLane() {
+            return GraphWriterLane.STREETS;
+        }
+
         @Override
         public void run(Graph graph) {
             // Apply stations to graph
@@ -18,6 +18,7 @@ import org.opentripplanner.routing.edgetype.RentABikeOnEdge;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.vertextype.BikeRentalStationVertex;
 import org.opentripplanner.updater.GraphUpdaterManager;
+import org.opentripplanner.updater.GraphWriterLane;
 import org.opentripplanner.updater.GraphWriterRunnable;
 import org.opentripplanner.updater.JsonConfigurable;
 import org.opentripplanner.updater.PollingGraphUpdater;
@@ -150,12 +151,17 @@ public class BikeRentalUpdater extends PollingGraphUpdater {
             this.stations = stations;
         }
 
+        @Override
+        public GraphWriterLane getLane() {
+            return GraphWriterLane.STREETS;
+        }
+
 		@Override
         public void run(Graph graph) {
             // Apply stations to graph
             Set<BikeRentalStation> stationSet = new HashSet<>();
             Set<String> defaultNetworks = new HashSet<>(Arrays.asList(network));
-            /* add any new stations and update bike counts for existing stations */
+            /* add any new stations, which are not in service until the availability below is published */
             for (BikeRentalStation station : stations) {
                 if (station.networks == null) {
                     /* API did not provide a network list, use default */
@@ -166,6 +172,7 @@ public class BikeRentalUpdater extends PollingGraphUpdater {
                 BikeRentalStationVertex vertex = verticesByStation.get(station);
                 if (vertex == null) {
                     vertex = new BikeRentalStationVertex(graph, station);
+                    service.addAvailabilityIndex(vertex);
                     if (!linker.link(vertex)) {
                         // the toString includes the text "Bike rental station"
                         LOG.warn("{} not near any streets; it will not be usable.", station);
@@ -174,29 +181,31 @@ public class BikeRentalUpdater extends PollingGraphUpdater {
                     new RentABikeOnEdge(vertex, vertex, station.networks);
                     if (station.allowDropoff)
                         new RentABikeOffEdge(vertex, vertex, station.networks);
-                } else {
-                    vertex.setBikesAvailable(station.bikesAvailable);
-                    vertex.setSpacesAvailable(station.spacesAvailable);
                 }
             }
-            /* remove existing stations that were not present in the update */
-            List<BikeRentalStation> toRemove = new ArrayList<BikeRentalStation>();
+            /*
+             * Existing stations that were not present in the update are taken out of service rather than removed from
+             * the graph, so requests running meanwhile do not see the edges change. They are put back in service if
+             * they come back in a later update.
+             */
+            List<BikeRentalStationVertex> outOfService = new ArrayList<>();
             for (Entry<BikeRentalStation, BikeRentalStationVertex> entry : verticesByStation.entrySet()) {
                 BikeRentalStation station = entry.getKey();
                 if (stationSet.contains(station))
                     continue;
-                BikeRentalStationVertex vertex = entry.getValue();
-                if (graph.containsVertex(vertex)) {
-                    graph.removeVertexAndEdges(vertex);
-                }
-                toRemove.add(station);
+                outOfService.add(entry.getValue());
                 service.removeBikeRentalStation(station);
-                // TODO: need to unsplit any streets that were split
-            }
-            for (BikeRentalStation station : toRemove) {
-                // post-iteration removal to avoid concurrent modification
-                verticesByStation.remove(station);
             }
+            /* publish the new bike counts, which requests starting from now on will use */
+            service.updateAvailability(availability -> {
+                for (BikeRentalStation station : stations) {
+                    availability.setAvailable(verticesByStation.get(station), station.bikesAvailable,
+                            station.spacesAvailable);
+                }
+                for (BikeRentalStationVertex vertex : outOfService) {
+                    availability.setOutOfService(vertex);
+                }
+            });
         }
     }
 }
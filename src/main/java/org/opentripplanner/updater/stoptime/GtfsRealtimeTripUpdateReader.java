@@ -0,0 +1,76 @@
+package org.opentripplanner.updater.stoptime;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.ExtensionRegistryLite;
+import com.google.protobuf.WireFormat;
+import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.google.transit.realtime.GtfsRealtime.FeedHeader;
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate;
+
+/**
+ * Reads the trip updates of a GTFS-RT feed message one entity at a time, instead of parsing the whole
+ * FeedMessage first. Only the trip updates are kept, so the entities of a large feed and any alerts or vehicle
+ * positions in it can be collected as soon as they are read, and the protobuf size limit applies to each entity
+ * rather than to the whole message.
+ */
+class GtfsRealtimeTripUpdateReader {
+
+    private final List<TripUpdate> updates = new ArrayList<>();
+
+    private boolean fullDataset = true;
+
+    private GtfsRealtimeTripUpdateReader() {
+    }
+
+    public static GtfsRealtimeTripUpdateReader read(InputStream is) throws IOException {
+        return read(CodedInputStream.newInstance(is));
+    }
+
+    public static GtfsRealtimeTripUpdateReader read(byte[] message) throws IOException {
+        return read(CodedInputStream.newInstance(message));
+    }
+
+    private static GtfsRealtimeTripUpdateReader read(CodedInputStream input) throws IOException {
+        GtfsRealtimeTripUpdateReader reader = new GtfsRealtimeTripUpdateReader();
+        ExtensionRegistryLite registry = ExtensionRegistryLite.getEmptyRegistry();
+        int tag;
+        while ((tag = input.readTag()) != 0) {
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case FeedMessage.HEADER_FIELD_NUMBER:
+                    FeedHeader header = input.readMessage(FeedHeader.PARSER, registry);
+                    // Change fullDataset value if this is an incremental update
+                    if (header.hasIncrementality()
+                            && header.getIncrementality() == FeedHeader.Incrementality.DIFFERENTIAL) {
+                        reader.fullDataset = false;
+                    }
+                    break;
+                case FeedMessage.ENTITY_FIELD_NUMBER:
+                    FeedEntity entity = input.readMessage(FeedEntity.PARSER, registry);
+                    if (entity.hasTripUpdate()) {
+                        reader.updates.add(entity.getTripUpdate());
+                    }
+                    break;
+                default:
+                    input.skipField(tag);
+            }
+            input.resetSizeCounter();
+        }
+        return reader;
+    }
+
+    /** The trip updates of the message, in the order of their entities. */
+    public List<TripUpdate> getUpdates() {
+        return updates;
+    }
+
+    /** False iff the header of the message declares it DIFFERENTIAL. */
+    public boolean isFullDataset() {
+        return fullDataset;
+    }
+}
@@ -53,6 +53,11 @@ public class PollingStoptimeUpdater extends PollingGraphUpdater {
      */
     private Boolean purgeExpiredData;
 
+    /**
+     * Property to set on the RealtimeDataSnapshotSource
+     */
+    private Boolean skipUnchangedTripUpdates;
+
     /**
      * Feed id that is used for the trip ids in the TripUpdates
      */
@@ -99,6 +104,7 @@ public class PollingStoptimeUpdater extends PollingGraphUpdater {
             this.maxSnapshotFrequency = maxSnapshotFrequency;
         }
         this.purgeExpiredData = config.path("purgeExpiredData").asBoolean(true);
+        this.skipUnchangedTripUpdates = config.path("skipUnchangedTripUpdates").asBoolean(false);
         if (config.path("fuzzyTripMatching").asBoolean(false)) {
             this.fuzzyTripMatcher = new GtfsRealtimeFuzzyTripMatcher(graph.index);
         }
@@ -124,6 +130,9 @@ public class PollingStoptimeUpdater extends PollingGraphUpdater {
         if (purgeExpiredData != null) {
             snapshotSource.purgeExpiredData = (purgeExpiredData);
         }
+        if (skipUnchangedTripUpdates != null) {
+            snapshotSource.skipUnchangedTripUpdates = (skipUnchangedTripUpdates);
+        }
         if (fuzzyTripMatcher != null) {
             snapshotSource.fuzzyTripMatcher = fuzzyTripMatcher;
         }
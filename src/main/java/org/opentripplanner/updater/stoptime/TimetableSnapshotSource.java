@@ -4,9 +4,13 @@ import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Calendar;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.opentripplanner.model.Agency;
@@ -25,6 +29,7 @@ import org.opentripplanner.routing.graph.GraphIndex;
 import org.opentripplanner.routing.trippattern.RealTimeState;
 import org.opentripplanner.routing.trippattern.TripTimes;
 import org.opentripplanner.updater.GtfsRealtimeFuzzyTripMatcher;
+import org.opentripplanner.util.monitoring.RoutingMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -64,9 +69,17 @@ public class TimetableSnapshotSource {
 
     /**
      * The last committed snapshot that was handed off to a routing thread. This snapshot may be
-     * given to more than one routing thread if the maximum snapshot frequency is exceeded.
+     * given to more than one routing thread if the maximum snapshot frequency is exceeded. It is
+     * only replaced by the thread holding {@link #bufferLock}, and routing threads read it without
+     * taking any lock.
      */
-    private volatile TimetableSnapshot snapshot = null;
+    private final AtomicReference<TimetableSnapshot> snapshot = new AtomicReference<>();
+
+    /**
+     * True when the buffer contains changes that were not committed at the end of the last update
+     * because of the maximum snapshot frequency. Only then do routing threads try to commit them.
+     */
+    private volatile boolean commitPending = false;
 
     /**
      * The working copy of the timetable snapshot. Should not be visible to routing threads. Should
@@ -76,9 +89,9 @@ public class TimetableSnapshotSource {
     private final TimetableSnapshot buffer = new TimetableSnapshot();
 
     /**
-     * Lock to indicate that buffer is in use
+     * Lock to indicate that buffer is in use. Routing threads never wait for it.
      */
-    private final ReentrantLock bufferLock = new ReentrantLock(true);
+    private final ReentrantLock bufferLock = new ReentrantLock();
 
     /**
      * A synchronized cache of trip patterns that are added to the graph due to GTFS-realtime messages.
@@ -88,6 +101,19 @@ public class TimetableSnapshotSource {
     /** Should expired realtime data be purged from the graph. */
     public boolean purgeExpiredData = true;
 
+    /**
+     * Skip trip updates which are equal to the last update applied for the same trip, instead of applying them again.
+     * Most trips of a feed polled every few seconds are unchanged from one message to the next.
+     */
+    public boolean skipUnchangedTripUpdates = false;
+
+    /**
+     * The last trip update applied for each trip descriptor, by feed id. The updates are kept as received, before
+     * fuzzy trip matching. Only used when {@link #skipUnchangedTripUpdates} is set, and only accessed by the thread
+     * holding {@link #bufferLock}.
+     */
+    private final Map<String, Map<TripDescriptor, TripUpdate>> appliedTripUpdates = new HashMap<>();
+
     protected ServiceDate lastPurgeDate = null;
 
     protected long lastSnapshotTime = -1;
@@ -98,11 +124,14 @@ public class TimetableSnapshotSource {
 
     private final Agency dummyAgency;
 
+    private final RoutingMetrics metrics;
+
     public GtfsRealtimeFuzzyTripMatcher fuzzyTripMatcher;
 
     public TimetableSnapshotSource(final Graph graph) {
         timeZone = graph.getTimeZone();
         graphIndex = graph.index;
+        metrics = graph.getRoutingMetrics();
 
         // Create dummy agency for added trips
         dummyAgency = new Agency();
@@ -117,23 +146,17 @@ public class TimetableSnapshotSource {
      *         release its reference to the snapshot to release resources.
      */
     public TimetableSnapshot getTimetableSnapshot() {
-        TimetableSnapshot snapshotToReturn;
-
-        // Try to get a lock on the buffer
-        if (bufferLock.tryLock()) {
-            // Make a new snapshot if necessary
+        // The updater commits its changes itself at the end of each update, so usually the published
+        // snapshot is up to date. Only when that commit was postponed because of the maximum snapshot
+        // frequency, try to commit the remaining changes, unless the buffer is in use at this moment.
+        if (commitPending && bufferLock.tryLock()) {
             try {
-                snapshotToReturn = getTimetableSnapshot(false);
+                return getTimetableSnapshot(false);
             } finally {
                 bufferLock.unlock();
             }
-        } else {
-            // No lock could be obtained because there is either a snapshot commit busy or updates
-            // are applied at this moment, just return the current snapshot
-            snapshotToReturn = snapshot;
         }
-
-        return snapshotToReturn;
+        return snapshot.get();
     }
 
     private TimetableSnapshot getTimetableSnapshot(final boolean force) {
@@ -141,15 +164,19 @@ public class TimetableSnapshotSource {
         if (force || now - lastSnapshotTime > maxSnapshotFrequency) {
             if (force || buffer.isDirty()) {
                 LOG.debug("Committing {}", buffer.toString());
-                snapshot = buffer.commit(force);
+                long commitBeginNanos = System.nanoTime();
+                snapshot.set(buffer.commit(force));
+                metrics.snapshotCommitTime.recordMicrosSince(commitBeginNanos);
             } else {
                 LOG.debug("Buffer was unchanged, keeping old snapshot.");
             }
             lastSnapshotTime = System.currentTimeMillis();
+            commitPending = false;
         } else {
-            LOG.debug("Snapshot frequency exceeded. Reusing snapshot {}", snapshot);
+            LOG.debug("Snapshot frequency exceeded. Reusing snapshot {}", snapshot.get());
+            commitPending = buffer.isDirty();
         }
-        return snapshot;
+        return snapshot.get();
     }
 
     /**
@@ -179,14 +206,36 @@ public class TimetableSnapshotSource {
         bufferLock.lock();
 
         try {
-            if (fullDataset) {
+            Map<TripDescriptor, TripUpdate> appliedUpdates = null;
+            if (skipUnchangedTripUpdates) {
+                appliedUpdates = appliedTripUpdates.computeIfAbsent(feedId, id -> new HashMap<>());
+            }
+
+            if (fullDataset && !containsAllTrips(updates, appliedUpdates)) {
                 // Remove all updates from the buffer
                 buffer.clear(feedId);
+                if (appliedUpdates != null) {
+                    appliedUpdates.clear();
+                }
             }
 
             LOG.debug("message contains {} trip updates", updates.size());
             int uIndex = 0;
+            int skipped = 0;
+            boolean failedToReplace = false;
             for (TripUpdate tripUpdate : updates) {
+                final TripDescriptor receivedTrip = tripUpdate.hasTrip() ? tripUpdate.getTrip() : null;
+                final TripUpdate receivedUpdate = tripUpdate;
+                boolean replacesAppliedUpdate = false;
+                if (appliedUpdates != null && receivedTrip != null) {
+                    final TripUpdate previousUpdate = appliedUpdates.get(receivedTrip);
+                    if (tripUpdate.equals(previousUpdate)) {
+                        skipped++;
+                        continue;
+                    }
+                    replacesAppliedUpdate = previousUpdate != null;
+                }
+
                 if (fuzzyTripMatcher != null && tripUpdate.hasTrip()) {
                     final TripDescriptor trip = fuzzyTripMatcher.match(feedId, tripUpdate.getTrip());
                     tripUpdate = tripUpdate.toBuilder().setTrip(trip).build();
@@ -241,22 +290,35 @@ public class TimetableSnapshotSource {
 
                 if (applied) {
                     appliedBlockCount++;
+                    if (appliedUpdates != null) {
+                        appliedUpdates.put(receivedTrip, receivedUpdate);
+                    }
                 } else {
                     LOG.warn("Failed to apply TripUpdate.");
                     LOG.trace(" Contents: {}", tripUpdate);
+                    failedToReplace |= replacesAppliedUpdate;
                 }
 
                 if (appliedBlockCount % logFrequency == 0) {
                     LOG.info("Applied {} trip updates.", appliedBlockCount);
                 }
             }
-            LOG.debug("end of update message");
+            LOG.debug("end of update message, {} unchanged trip updates skipped", skipped);
+
+            if (failedToReplace) {
+                // The buffer still holds the previous update of a trip, so apply the next full dataset from scratch
+                appliedUpdates.clear();
+            }
 
             // Make a snapshot after each message in anticipation of incoming requests
             // Purge data if necessary (and force new snapshot if anything was purged)
             // Make sure that the public (locking) getTimetableSnapshot function is not called.
             if (purgeExpiredData) {
                 final boolean modified = purgeExpiredData();
+                if (modified) {
+                    // The purged updates have to be applied again if they are still in the feed
+                    appliedTripUpdates.clear();
+                }
                 getTimetableSnapshot(modified);
             } else {
                 getTimetableSnapshot(false);
@@ -267,6 +329,29 @@ public class TimetableSnapshotSource {
         }
     }
 
+    /**
+     * Check whether the updates of a full dataset include all trips of the previously applied updates. Only then can
+     * the unchanged updates be skipped: the trips which are no longer in the feed have to be reverted to their
+     * schedule, which is done by clearing the buffer and applying all updates again.
+     *
+     * @param updates GTFS-RT TripUpdate's of a full dataset
+     * @param appliedUpdates the updates applied since the buffer was last cleared, or null when not skipping
+     * @return true if the buffer does not need to be cleared
+     */
+    private boolean containsAllTrips(final List<TripUpdate> updates,
+            final Map<TripDescriptor, TripUpdate> appliedUpdates) {
+        if (appliedUpdates == null || appliedUpdates.isEmpty()) {
+            return false;
+        }
+        final Set<TripDescriptor> trips = new HashSet<>(updates.size());
+        for (final TripUpdate tripUpdate : updates) {
+            if (tripUpdate.hasTrip()) {
+                trips.add(tripUpdate.getTrip());
+            }
+        }
+        return trips.containsAll(appliedUpdates.keySet());
+    }
+
     /**
      * Determine how the trip update should be handled.
      *
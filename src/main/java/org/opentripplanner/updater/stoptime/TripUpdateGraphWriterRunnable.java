@@ -3,6 +3,7 @@ package org.opentripplanner.updater.stoptime;
 import java.util.List;
 
 import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.updater.GraphWriterLane;
 import org.opentripplanner.updater.GraphWriterRunnable;
 import org.opentripplanner.updater.stoptime.TimetableSnapshotSource;
 import org.slf4j.Logger;
@@ -38,6 +39,11 @@ public class TripUpdateGraphWriterRunnable implements GraphWriterRunnable {
         this.feedId = feedId;
     }
 
+    @Override
+    public GraphWriterLane getLane() {
+        return GraphWriterLane.TIMETABLES;
+    }
+
     @Override
     public void run(Graph graph) {
         // Apply updates to graph using realtime snapshot source
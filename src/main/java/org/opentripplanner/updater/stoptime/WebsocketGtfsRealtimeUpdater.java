@@ -1,6 +1,6 @@
 package org.opentripplanner.updater.stoptime;
 
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -13,10 +13,6 @@ import org.opentripplanner.updater.stoptime.TimetableSnapshotSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.protobuf.InvalidProtocolBufferException;
-import com.google.transit.realtime.GtfsRealtime;
-import com.google.transit.realtime.GtfsRealtime.FeedEntity;
-import com.google.transit.realtime.GtfsRealtime.FeedMessage;
 import com.google.transit.realtime.GtfsRealtime.TripUpdate;
 import com.ning.http.client.AsyncHttpClient;
 import com.ning.http.client.websocket.DefaultWebSocketListener;
@@ -151,31 +147,14 @@ public class WebsocketGtfsRealtimeUpdater implements GraphUpdater {
     private class Listener extends DefaultWebSocketListener {
         @Override
         public void onMessage(byte[] message) {
-            FeedMessage feedMessage = null;
-            List<FeedEntity> feedEntityList = null;
             List<TripUpdate> updates = null;
             boolean fullDataset = true;
             try {
-                // Decode message
-                feedMessage = FeedMessage.PARSER.parseFrom(message);
-                feedEntityList = feedMessage.getEntityList();
-                
-                // Change fullDataset value if this is an incremental update
-                if (feedMessage.hasHeader()
-                        && feedMessage.getHeader().hasIncrementality()
-                        && feedMessage.getHeader().getIncrementality()
-                                .equals(GtfsRealtime.FeedHeader.Incrementality.DIFFERENTIAL)) {
-                    fullDataset = false;
-                }
-                
-                // Create List of TripUpdates
-                updates = new ArrayList<TripUpdate>(feedEntityList.size());
-                for (FeedEntity feedEntity : feedEntityList) {
-                    if (feedEntity.hasTripUpdate()) {
-                        updates.add(feedEntity.getTripUpdate());
-                    }
-                }
-            } catch (InvalidProtocolBufferException e) {
+                // Decode message entity by entity
+                GtfsRealtimeTripUpdateReader reader = GtfsRealtimeTripUpdateReader.read(message);
+                fullDataset = reader.isFullDataset();
+                updates = reader.getUpdates();
+            } catch (IOException e) {
                 LOG.error("Could not decode gtfs-rt message:", e);
             }
 
@@ -24,6 +24,7 @@ import org.opentripplanner.routing.services.notes.MatcherAndAlert;
 import org.opentripplanner.routing.services.notes.NoteMatcher;
 import org.opentripplanner.routing.services.notes.StreetNotesService;
 import org.opentripplanner.updater.GraphUpdaterManager;
+import org.opentripplanner.updater.GraphWriterLane;
 import org.opentripplanner.updater.GraphWriterRunnable;
 import org.opentripplanner.updater.PollingGraphUpdater;
 import org.slf4j.Logger;
@@ -164,6 +165,11 @@ public abstract class WFSNotePollingGraphUpdater extends PollingGraphUpdater {
         public void run(Graph graph) {
             notesSource.setNotes(notesForEdge);
         }
+
+        @Override
+        public GraphWriterLane getLane() {
+            return GraphWriterLane.STREET_NOTES;
+        }
     }
 
     /**
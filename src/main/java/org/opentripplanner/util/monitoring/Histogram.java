@@ -0,0 +1,98 @@
+package org.opentripplanner.util.monitoring;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of non-negative long values, such as durations or numbers of states, in buckets of
+ * exponentially increasing size. Values are recorded without locking, so any number of routing
+ * threads can record into the same histogram. Percentiles are approximate: they are reported as the
+ * upper bound of the bucket they fall in, so within a factor of two of the true value.
+ */
+public class Histogram {
+
+    /* Bucket 0 holds the value 0, bucket i > 0 holds values from 2^(i-1) to 2^i - 1. */
+    private static final int N_BUCKETS = 64;
+
+    private final LongAdder[] buckets = new LongAdder[N_BUCKETS];
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder sum = new LongAdder();
+
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public Histogram() {
+        for (int i = 0; i < N_BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /** Record a value. Negative values are recorded as 0. */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets[N_BUCKETS - Long.numberOfLeadingZeros(value)].increment();
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /** Record the time elapsed since the given System.nanoTime(), in microseconds. */
+    public void recordMicrosSince(long startNanos) {
+        record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * @param p percentile, between 0 and 100
+     * @return the upper bound of the bucket holding the given percentile, at most the maximum value
+     */
+    public long getPercentile(double p) {
+        long n = count.sum();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(p / 100 * n);
+        long seen = 0;
+        for (int i = 0; i < N_BUCKETS; i++) {
+            seen += buckets[i].sum();
+            if (seen >= rank && seen > 0) {
+                long upperBound = i == 0 ? 0 : (1L << i) - 1;
+                return Math.min(upperBound, getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /** Summary of this histogram for reporting, in a form suitable for JSON serialization. */
+    public Map<String, Object> summarize() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("count", getCount());
+        summary.put("mean", getMean());
+        summary.put("p50", getPercentile(50));
+        summary.put("p90", getPercentile(90));
+        summary.put("p99", getPercentile(99));
+        summary.put("max", getMax());
+        return summary;
+    }
+}
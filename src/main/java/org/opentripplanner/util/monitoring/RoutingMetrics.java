@@ -0,0 +1,72 @@
+package org.opentripplanner.util.monitoring;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics on the phases of trip planning and on realtime updates for one router, so one can tell
+ * which phase takes the time in production. Recording is cheap and lock-free, so it is always on.
+ * Durations are in microseconds. The metrics are reported by the /routers/{routerId}/metrics
+ * web service and accumulate from router startup.
+ */
+public class RoutingMetrics {
+
+    /** Duration of each A* search (including heuristic initialization). */
+    public final Histogram searchTime = new Histogram();
+
+    /** States taken off the priority queue by each A* search and not dominated. */
+    public final Histogram statesVisited = new Histogram();
+
+    /** States added to the priority queue by each A* search. */
+    public final Histogram statesEnqueued = new Histogram();
+
+    /** Duration of the initialization of the bidirectional heuristic, when its target changes. */
+    public final Histogram heuristicInitTime = new Histogram();
+
+    /** Duration of the creation of temporary GTFS-Flex stops and hops for a request. */
+    public final Histogram flexModifierTime = new Histogram();
+
+    /** Duration of the reversed searches compacting the legs of the paths found by one search. */
+    public final Histogram reversedSearchTime = new Histogram();
+
+    /** Duration of the conversion of the paths found for a request to a trip plan. */
+    public final Histogram tripPlanTime = new Histogram();
+
+    /** Duration of each commit of the realtime timetable snapshot. */
+    public final Histogram snapshotCommitTime = new Histogram();
+
+    /** Number of graph writer tasks waiting for the updater threads of all lanes when a new one is queued. */
+    public final Histogram updaterQueueDepth = new Histogram();
+
+    /** A* searches which timed out, including during heuristic initialization. */
+    public final LongAdder searchTimeouts = new LongAdder();
+
+    /** Heuristic street searches reused from the heuristic search cache. */
+    public final LongAdder heuristicCacheHits = new LongAdder();
+
+    /** Heuristic street searches which could have been cached but were not found in the cache. */
+    public final LongAdder heuristicCacheMisses = new LongAdder();
+
+    /** Requests which stopped searching for itineraries because a search timed out or was aborted. */
+    public final LongAdder abortedRequests = new LongAdder();
+
+    /** Summary of all metrics for reporting, in a form suitable for JSON serialization. */
+    public Map<String, Object> summarize() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("searchTime", searchTime.summarize());
+        summary.put("statesVisited", statesVisited.summarize());
+        summary.put("statesEnqueued", statesEnqueued.summarize());
+        summary.put("heuristicInitTime", heuristicInitTime.summarize());
+        summary.put("flexModifierTime", flexModifierTime.summarize());
+        summary.put("reversedSearchTime", reversedSearchTime.summarize());
+        summary.put("tripPlanTime", tripPlanTime.summarize());
+        summary.put("snapshotCommitTime", snapshotCommitTime.summarize());
+        summary.put("updaterQueueDepth", updaterQueueDepth.summarize());
+        summary.put("searchTimeouts", searchTimeouts.sum());
+        summary.put("abortedRequests", abortedRequests.sum());
+        summary.put("heuristicCacheHits", heuristicCacheHits.sum());
+        summary.put("heuristicCacheMisses", heuristicCacheMisses.sum());
+        return summary;
+    }
+}
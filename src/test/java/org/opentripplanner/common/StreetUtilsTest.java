@@ -0,0 +1,56 @@
+package org.opentripplanner.common;
+
+import org.junit.Test;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.StreetVertex;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class StreetUtilsTest {
+
+    /** A line of 50 connected vertices, and a separate line of 3 vertices. */
+    private static Graph makeGraph() {
+        Graph graph = new Graph();
+        makeLine(graph, "main", 50, 0);
+        makeLine(graph, "island", 3, 1);
+        return graph;
+    }
+
+    private static void makeLine(Graph graph, String name, int n, double lat) {
+        StreetVertex previous = null;
+        for (int i = 0; i < n; i++) {
+            StreetVertex v = new IntersectionVertex(graph, name + i, i * 0.001, lat);
+            if (previous != null) {
+                new StreetEdge(previous, v, GeometryUtils.makeLineString(previous.getX(), previous.getY(), v.getX(),
+                        v.getY()), name, 100, StreetTraversalPermission.PEDESTRIAN, false);
+            }
+            previous = v;
+        }
+    }
+
+    @Test
+    public void testPruneFloatingIslands() {
+        for (boolean parallel : new boolean[] { false, true }) {
+            Graph graph = makeGraph();
+            StreetUtils.pruneFloatingIslands(graph, 40, 5, null, parallel);
+            assertEquals(50, graph.getVertices().size());
+            assertNotNull(graph.getVertex("main0"));
+            assertNull(graph.getVertex("island0"));
+            assertEquals(1, graph.getBuilderAnnotations().size());
+        }
+    }
+
+    @Test
+    public void testKeepLargeIslands() {
+        Graph graph = makeGraph();
+        StreetUtils.pruneFloatingIslands(graph, 3, 5, null);
+        assertEquals(53, graph.getVertices().size());
+        assertEquals(0, graph.getBuilderAnnotations().size());
+    }
+}
@@ -59,4 +59,20 @@ public class TestDisjointSet  extends TestCase{
         }
         assertEquals(700, sizeSum);
     }
+
+    public void testIntDisjointSet() {
+        IntDisjointSet set = new IntDisjointSet(5);
+        assertEquals(5, set.size());
+        set.union(0, 1);
+        set.union(3, 4);
+        set.union(1, 4);
+        assertEquals(set.find(0), set.find(3));
+        assertEquals(4, set.setSize(set.find(4)));
+        assertEquals(1, set.setSize(set.find(2)));
+        int added = set.add();
+        assertEquals(5, added);
+        set.union(added, 2);
+        assertEquals(set.find(2), set.find(5));
+        assertTrue(set.find(2) != set.find(0));
+    }
 }
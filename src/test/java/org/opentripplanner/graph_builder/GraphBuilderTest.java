@@ -0,0 +1,140 @@
+package org.opentripplanner.graph_builder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.MissingNode;
+import org.junit.Test;
+import org.opentripplanner.graph_builder.annotation.Graphwide;
+import org.opentripplanner.graph_builder.module.FakeGraph;
+import org.opentripplanner.graph_builder.services.GraphBuilderModule;
+import org.opentripplanner.routing.edgetype.FreeEdge;
+import org.opentripplanner.routing.edgetype.StreetTransitLink;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.standalone.GraphBuilderParameters;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class GraphBuilderTest {
+
+    /**
+     * Tests that transit data can be added to a street graph saved by an earlier build and linked to its streets, as
+     * in builds with the loadStreetGraph parameter.
+     */
+    @Test
+    public void testAddTransitToSavedStreetGraph() throws Exception {
+        File file = File.createTempFile("graph", "streets");
+        try {
+            FakeGraph.buildGraphNoTransit().save(file);
+
+            GraphBuilder builder = new GraphBuilder(file.getParentFile(),
+                    new GraphBuilderParameters(MissingNode.getInstance()));
+            builder.setBaseGraph(file.getPath());
+            Graph graph = builder.getGraph();
+            assertTrue(graph.hasStreets);
+            assertNull(graph.index);
+            Set<Integer> streetEdgeIds = graph.getEdges().stream().map(Edge::getId).collect(Collectors.toSet());
+
+            FakeGraph.addTransitMultipleLines(graph);
+            FakeGraph.link(graph);
+
+            int nLinks = 0;
+            for (Edge e : graph.getEdges()) {
+                if (e instanceof StreetTransitLink) {
+                    // Edges added after loading must not reuse the IDs of the loaded edges.
+                    assertFalse(streetEdgeIds.contains(e.getId()));
+                    nLinks++;
+                }
+            }
+            assertTrue(nLinks > 0);
+        } finally {
+            file.delete();
+        }
+    }
+
+    /** Tests that a build resumed from a checkpoint skips the modules before it and gets the state they left. */
+    @Test
+    public void testResumeFromCheckpoint() throws Exception {
+        File dir = Files.createTempDirectory("graph").toFile();
+        File checkpoint = new File(new File(dir, GraphBuilder.CHECKPOINT_DIRECTORY), "AddStreetsModule.obj");
+        try {
+            GraphBuilderParameters params = new GraphBuilderParameters(
+                    new ObjectMapper().readTree("{\"checkpoints\": [\"AddStreetsModule\"]}"));
+
+            AddStreetsModule addStreets = new AddStreetsModule();
+            CheckStreetsModule checkStreets = new CheckStreetsModule();
+            GraphBuilder builder = new GraphBuilder(dir, params);
+            builder.serializeGraph = false;
+            builder.setGraphBuilders(Arrays.asList(addStreets, checkStreets));
+            builder.run();
+            assertEquals(1, addStreets.runs);
+            assertEquals(1, checkStreets.runs);
+            assertTrue(checkpoint.exists());
+
+            addStreets = new AddStreetsModule();
+            checkStreets = new CheckStreetsModule();
+            builder = new GraphBuilder(dir, params);
+            builder.serializeGraph = false;
+            builder.setGraphBuilders(Arrays.asList(addStreets, checkStreets));
+            builder.setResumeFrom("CheckStreetsModule");
+            builder.run();
+            assertEquals(0, addStreets.runs);
+            assertEquals(1, checkStreets.runs);
+            assertNull(builder.getGraph().index);
+        } finally {
+            checkpoint.delete();
+            checkpoint.getParentFile().delete();
+            dir.delete();
+        }
+    }
+
+    private static class AddStreetsModule implements GraphBuilderModule {
+
+        int runs = 0;
+
+        @Override
+        public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
+            IntersectionVertex a = new IntersectionVertex(graph, "a", 0, 0);
+            IntersectionVertex b = new IntersectionVertex(graph, "b", 0.001, 0);
+            new FreeEdge(a, b);
+            new IntersectionVertex(graph, "isolated", 0.002, 0);
+            graph.addBuilderAnnotation(new Graphwide("streets added"));
+            extra.put(IntersectionVertex.class, a);
+            runs++;
+        }
+
+        @Override
+        public void checkInputs() { }
+    }
+
+    private static class CheckStreetsModule implements GraphBuilderModule {
+
+        int runs = 0;
+
+        @Override
+        public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
+            assertEquals(3, graph.countVertices());
+            assertEquals(1, graph.countEdges());
+            assertNotNull(graph.getVertex("isolated"));
+            assertEquals(1, graph.getBuilderAnnotations().size());
+            // The objects passed between modules still refer to the vertices of the graph.
+            assertSame(graph.getVertex("a"), extra.get(IntersectionVertex.class));
+            runs++;
+        }
+
+        @Override
+        public void checkInputs() { }
+    }
+}
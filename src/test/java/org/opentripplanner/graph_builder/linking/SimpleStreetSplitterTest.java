@@ -1,13 +1,30 @@
 package org.opentripplanner.graph_builder.linking;
 
 
+import com.google.common.collect.Iterables;
 import org.junit.Before;
 import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.LineString;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
 import org.opentripplanner.common.model.GenericLocation;
+import org.opentripplanner.model.FeedScopedId;
+import org.opentripplanner.model.Stop;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTransitLink;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.SplitterVertex;
+import org.opentripplanner.routing.vertextype.TransitStop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
@@ -40,4 +57,47 @@ public class SimpleStreetSplitterTest {
         spySimpleStreetSplitter.getClosestVertex(genericLocation, routingRequest, true);
         verify(spySimpleStreetSplitter).link(any(Vertex.class), eq(TraverseMode.WALK), eq(routingRequest));
     }
+
+    /**
+     * Tests that an edge is split once at all the points where stops are linked to it, with stops at the same point
+     * sharing a splitter vertex, and that the pieces add up to the original edge.
+     */
+    @Test
+    public void testLinkSeveralStopsToOneEdge() {
+        Graph graph = new Graph();
+        IntersectionVertex a = new IntersectionVertex(graph, "a", 10.0, 59.0);
+        IntersectionVertex b = new IntersectionVertex(graph, "b", 10.01, 59.0);
+        LineString geometry = GeometryUtils.getGeometryFactory().createLineString(
+                new Coordinate[] { a.getCoordinate(), b.getCoordinate() });
+        double length = SphericalDistanceLibrary.distance(a.getCoordinate(), b.getCoordinate());
+        StreetEdge edge = new StreetEdge(a, b, geometry, "street", length, StreetTraversalPermission.ALL, false);
+
+        TransitStop s1 = addStop(graph, "s1", 10.006, 59.0001);
+        TransitStop s2 = addStop(graph, "s2", 10.002, 59.0001);
+        TransitStop s3 = addStop(graph, "s3", 10.006, 58.9999);
+
+        new SimpleStreetSplitter(graph).link();
+
+        assertFalse(a.getOutgoing().contains(edge));
+        assertEquals(2, Iterables.size(Iterables.filter(graph.getVertices(), SplitterVertex.class)));
+        double total = 0;
+        for (StreetEdge e : Iterables.filter(graph.getEdges(), StreetEdge.class)) {
+            total += e.getDistance();
+        }
+        assertEquals(edge.getDistance(), total, 0.001);
+        assertEquals(linkedVertex(s1), linkedVertex(s3));
+        assertNotEquals(linkedVertex(s1), linkedVertex(s2));
+    }
+
+    private static Vertex linkedVertex(TransitStop stop) {
+        return Iterables.getOnlyElement(Iterables.filter(stop.getOutgoing(), StreetTransitLink.class)).getToVertex();
+    }
+
+    private static TransitStop addStop(Graph graph, String id, double lon, double lat) {
+        Stop stop = new Stop();
+        stop.setId(new FeedScopedId("TEST", id));
+        stop.setLon(lon);
+        stop.setLat(lat);
+        return new TransitStop(graph, stop);
+    }
 }
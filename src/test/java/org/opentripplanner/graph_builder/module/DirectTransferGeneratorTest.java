@@ -0,0 +1,43 @@
+package org.opentripplanner.graph_builder.module;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import junit.framework.TestCase;
+import org.opentripplanner.routing.edgetype.SimpleTransfer;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.vertextype.TransitStop;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+public class DirectTransferGeneratorTest extends TestCase {
+
+    /** The transfers, and the order in which they are created, must not depend on the number of threads. */
+    public void testSameTransfersWithAnyNumberOfThreads() {
+        List<String> singleThreaded = buildTransfers(1);
+        assertFalse(singleThreaded.isEmpty());
+        assertEquals(singleThreaded, buildTransfers(4));
+    }
+
+    private List<String> buildTransfers(int threads) {
+        Graph graph = FakeGraph.buildGraphNoTransit();
+        FakeGraph.addTransitMultipleLines(graph);
+        FakeGraph.link(graph);
+        new DirectTransferGenerator(1000, threads).buildGraph(graph, new HashMap<>());
+
+        List<TransitStop> stops = Lists.newArrayList(Iterables.filter(graph.getVertices(), TransitStop.class));
+        stops.sort(Comparator.comparing(TransitStop::getLabel));
+        List<String> transfers = new ArrayList<>();
+        for (TransitStop stop : stops) {
+            for (Edge e : stop.getOutgoing()) {
+                if (e instanceof SimpleTransfer) {
+                    transfers.add(stop.getLabel() + " " + e.getToVertex().getLabel() + " " + e.getDistance());
+                }
+            }
+        }
+        return transfers;
+    }
+}
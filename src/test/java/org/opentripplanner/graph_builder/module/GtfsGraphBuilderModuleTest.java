@@ -1,21 +1,31 @@
 package org.opentripplanner.graph_builder.module;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Supplier;
 
 import com.beust.jcommander.internal.Lists;
 import org.junit.Test;
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.graph_builder.annotation.GraphBuilderAnnotation;
 import org.opentripplanner.model.FeedScopedId;
 import org.opentripplanner.model.IdentityBean;
 import org.opentripplanner.model.Trip;
 import org.opentripplanner.gtfs.MockGtfs;
 import org.opentripplanner.graph_builder.model.GtfsBundle;
 import org.opentripplanner.gtfs.BikeAccess;
+import org.opentripplanner.routing.edgetype.PatternHop;
 import org.opentripplanner.routing.edgetype.TripPattern;
+import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
 
@@ -83,6 +93,80 @@ public class GtfsGraphBuilderModuleTest {
                 BikeAccess.fromTrip(withId(trips, new FeedScopedId(feedId.getId(), "t1"))));
     }
 
+    /** Streaming the stop times gives the same patterns, hops and annotations as loading them all at once. */
+    @Test
+    public void testStreamStopTimesSameAsLoaded() throws IOException {
+        assertSameGraphs(() -> {
+            GtfsBundle bundle = new GtfsBundle(new File(ConstantsForTests.FAKE_GTFS));
+            bundle.setFeedId(new GtfsFeedId.Builder().id("FEED").build());
+            return bundle;
+        });
+    }
+
+    /**
+     * Trips are added in the order of trips.txt even when stop_times.txt lists them in another order, and trips without
+     * stop times are reported in their turn.
+     */
+    @Test
+    public void testStreamStopTimesInTripOrder() throws IOException {
+        MockGtfs gtfs = MockGtfs.create();
+        gtfs.putAgencies(1);
+        gtfs.putRoutes(1);
+        gtfs.putStops(2);
+        gtfs.putCalendars(1);
+        gtfs.putTrips(3, "r0", "sid0");
+        gtfs.putLines("stop_times.txt", "trip_id,stop_id,stop_sequence,arrival_time,departure_time",
+                "t2,s0,0,09:00:00,09:00:00", "t2,s1,1,09:10:00,09:10:00",
+                "t0,s0,0,08:00:00,08:00:00", "t0,s1,1,08:10:00,08:10:00");
+        assertSameGraphs(() -> getGtfsAsBundleList(gtfs).get(0));
+    }
+
+    private static void assertSameGraphs(Supplier<GtfsBundle> bundles) {
+        Graph loadedGraph = buildGraph(bundles.get(), false);
+        Graph streamedGraph = buildGraph(bundles.get(), true);
+        Map<String, String> loadedHops = describeHops(loadedGraph);
+        assertFalse(loadedHops.isEmpty());
+        assertEquals(loadedHops, describeHops(streamedGraph));
+        assertEquals(annotationMessages(loadedGraph), annotationMessages(streamedGraph));
+    }
+
+    private static Graph buildGraph(GtfsBundle bundle, boolean streamStopTimes) {
+        List<GtfsBundle> bundleList = Lists.newArrayList();
+        bundleList.add(bundle);
+        GtfsModule module = new GtfsModule(bundleList);
+        module.setStreamStopTimes(streamStopTimes);
+        Graph graph = new Graph();
+        module.buildGraph(graph, _extra);
+        return graph;
+    }
+
+    /** The route, direction and geometry of each hop, keyed by the trips of its pattern and its stop index. */
+    private static Map<String, String> describeHops(Graph graph) {
+        Map<String, String> hops = new TreeMap<>();
+        for (Edge edge : graph.getEdges()) {
+            if (!(edge instanceof PatternHop)) {
+                continue;
+            }
+            PatternHop hop = (PatternHop) edge;
+            TripPattern pattern = hop.getPattern();
+            StringBuilder key = new StringBuilder();
+            for (Trip trip : pattern.getTrips()) {
+                key.append(trip.getId()).append(' ');
+            }
+            key.append(hop.getStopIndex());
+            hops.put(key.toString(), pattern.route.getId() + " " + pattern.directionId + " " + hop.getGeometry());
+        }
+        return hops;
+    }
+
+    private static List<String> annotationMessages(Graph graph) {
+        List<String> messages = new ArrayList<>();
+        for (GraphBuilderAnnotation annotation : graph.getBuilderAnnotations()) {
+            messages.add(annotation.getMessage());
+        }
+        return messages;
+    }
+
     private MockGtfs getSimpleGtfs() throws IOException {
         MockGtfs gtfs = MockGtfs.create();
         gtfs.putAgencies(1);
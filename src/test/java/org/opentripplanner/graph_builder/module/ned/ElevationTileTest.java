@@ -0,0 +1,122 @@
+package org.opentripplanner.graph_builder.module.ned;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.Test;
+import org.locationtech.jts.geom.Envelope;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.common.geometry.PackedCoordinateSequence;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ElevationTileTest {
+
+    /**
+     * A 3x3 grid over (0, 0, 3, 3) whose cell centers are at 0.5, 1.5 and 2.5 degrees, with values that grow by one per
+     * column eastward and by ten per row southward, so that bilinear interpolation is exact.
+     */
+    private static GridCoverage2D makeCoverage() {
+        float[][] values = new float[3][3];
+        for (int row = 0; row < 3; row++) {
+            for (int column = 0; column < 3; column++) {
+                values[row][column] = column + 10 * row;
+            }
+        }
+        ReferencedEnvelope envelope = new ReferencedEnvelope(0, 3, 0, 3, DefaultGeographicCRS.WGS84);
+        return new GridCoverageFactory().create("test", values, envelope);
+    }
+
+    private static ElevationTile makeTile() {
+        List<ElevationTile> tiles = ElevationTile.split(makeCoverage());
+        assertNotNull(tiles);
+        assertEquals(1, tiles.size());
+        return tiles.get(0);
+    }
+
+    @Test
+    public void testSample() {
+        ElevationTile tile = makeTile();
+        tile.load();
+        assertEquals(0, tile.sample(0.5, 2.5), 1e-6);
+        assertEquals(15.75, tile.sample(1.25, 1.0), 1e-6);
+        // points on the last row and column
+        assertEquals(22, tile.sample(2.5, 0.5), 1e-6);
+        assertTrue(Double.isNaN(tile.sample(0.25, 1.0)));
+        tile.release();
+    }
+
+    @Test
+    public void testContains() {
+        ElevationTile tile = makeTile();
+        assertTrue(tile.contains(new Envelope(1, 2, 1, 2)));
+        assertTrue(tile.contains(new Envelope(0.5, 2.5, 0.5, 2.5)));
+        assertFalse(tile.contains(new Envelope(0.2, 1, 1, 1)));
+    }
+
+    @Test
+    public void testSplit() {
+        List<ElevationTile> tiles = ElevationTile.split(makeCoverage(), Collections.emptyList(), 2);
+        assertEquals(4, tiles.size());
+        // Neighboring windows share a row or column, so that every point between cell centers is in some window.
+        double[][] points = { { 0.5, 2.5 }, { 1.25, 1.0 }, { 2.5, 0.5 }, { 1.5, 1.5 }, { 2.0, 2.0 } };
+        double[] expected = { 0, 15.75, 22, 11, 6.5 };
+        for (int i = 0; i < points.length; i++) {
+            double x = points[i][0];
+            double y = points[i][1];
+            int containing = 0;
+            for (ElevationTile tile : tiles) {
+                if (tile.contains(new Envelope(x, x, y, y))) {
+                    containing++;
+                    tile.load();
+                    assertEquals(expected[i], tile.sample(x, y), 1e-6);
+                    tile.release();
+                }
+            }
+            assertTrue(containing > 0);
+        }
+    }
+
+    @Test
+    public void testCache() throws Exception {
+        File file = File.createTempFile("elevations", ".bin");
+        file.deleteOnExit();
+        long hash1 = ElevationCache.hash(GeometryUtils.makeLineString(0, 0, 1, 1));
+        long hash2 = ElevationCache.hash(GeometryUtils.makeLineString(0, 0, 1, 2));
+        PackedCoordinateSequence profile1 = new PackedCoordinateSequence.Double(new double[] { 0, 10, 5, 12 }, 2);
+        PackedCoordinateSequence profile2 = new PackedCoordinateSequence.Double(new double[] { 0, 3, 8, 4, 9, 1 }, 2);
+
+        ElevationCache cache = ElevationCache.create(file);
+        cache.append(new long[] { hash1 }, Arrays.asList(profile1));
+        cache.close();
+
+        // Simulate an interrupted append, which must be ignored and overwritten.
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length());
+            raf.writeLong(hash2);
+        }
+        cache = ElevationCache.open(file);
+        assertEquals(1, cache.size());
+        assertNull(cache.get(hash2));
+        cache.append(new long[] { hash2 }, Arrays.asList(profile2));
+        cache.close();
+
+        cache = ElevationCache.open(file);
+        assertEquals(2, cache.size());
+        assertArrayEquals(profile1.toCoordinateArray(), cache.get(hash1).toCoordinateArray());
+        assertArrayEquals(profile2.toCoordinateArray(), cache.get(hash2).toCoordinateArray());
+        cache.close();
+    }
+}
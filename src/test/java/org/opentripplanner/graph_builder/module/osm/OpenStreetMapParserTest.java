@@ -5,7 +5,9 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 
+import java.io.FileInputStream;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.io.File;
@@ -14,16 +16,19 @@ import java.net.URLDecoder;
 
 import org.junit.Test;
 
-
+import crosby.binary.file.BlockInputStream;
 
 import org.opentripplanner.openstreetmap.model.OSMMap;
 import org.opentripplanner.openstreetmap.model.OSMNode;
+import org.opentripplanner.openstreetmap.model.OSMRelation;
 import org.opentripplanner.openstreetmap.model.OSMWay;
 import org.opentripplanner.openstreetmap.impl.AnyFileBasedOpenStreetMapProviderImpl;
 import org.opentripplanner.openstreetmap.impl.BinaryFileBasedOpenStreetMapProviderImpl;
 import org.opentripplanner.openstreetmap.impl.FileBasedOpenStreetMapProviderImpl;
 import org.opentripplanner.openstreetmap.impl.OpenStreetMapParser;
+import org.opentripplanner.openstreetmap.impl.BinaryOpenStreetMapParser;
 import org.opentripplanner.openstreetmap.impl.StreamedFileBasedOpenStreetMapProviderImpl;
+import org.opentripplanner.openstreetmap.services.OpenStreetMapContentHandler;
 
 public class OpenStreetMapParserTest {
     @Test
@@ -53,6 +58,69 @@ public class OpenStreetMapParserTest {
         testParser(map);
     }
 
+    /**
+     * The binary provider decodes blocks in parallel and skips blocks in later passes; the handler
+     * must still see the entities in the order of a single-threaded three-pass parse.
+     */
+    @Test
+    public void testParallelBinaryParserOrder() throws Exception {
+        File file = new File(URLDecoder.decode(getClass().getResource("map.osm.pbf").getPath(), "UTF-8"));
+
+        RecordingHandler expected = new RecordingHandler();
+        BinaryOpenStreetMapParser parser = new BinaryOpenStreetMapParser(expected);
+        parser.setParseNodes(false);
+        parser.setParseWays(false);
+        new BlockInputStream(new FileInputStream(file), parser).process();
+        expected.doneFirstPhaseRelations();
+        parser.setParseRelations(false);
+        parser.setParseWays(true);
+        new BlockInputStream(new FileInputStream(file), parser).process();
+        expected.doneSecondPhaseWays();
+        parser.setParseNodes(true);
+        parser.setParseWays(false);
+        new BlockInputStream(new FileInputStream(file), parser).process();
+        expected.doneThirdPhaseNodes();
+
+        for (int threads : new int[] {1, 4}) {
+            BinaryFileBasedOpenStreetMapProviderImpl pr = new BinaryFileBasedOpenStreetMapProviderImpl();
+            pr.setPath(file);
+            pr.setThreads(threads);
+            RecordingHandler actual = new RecordingHandler();
+            pr.readOSM(actual);
+            assertEquals(expected.events, actual.events);
+        }
+    }
+
+    /** Records the entities and phase ends a handler receives, in order. */
+    private static class RecordingHandler implements OpenStreetMapContentHandler {
+
+        List<String> events = new ArrayList<>();
+
+        public void addNode(OSMNode node) {
+            events.add("n" + node.getId());
+        }
+
+        public void addWay(OSMWay way) {
+            events.add("w" + way.getId());
+        }
+
+        public void addRelation(OSMRelation relation) {
+            events.add("r" + relation.getId());
+        }
+
+        public void doneFirstPhaseRelations() {
+            events.add("relations");
+        }
+
+        public void doneSecondPhaseWays() {
+            events.add("ways");
+        }
+
+        public void doneThirdPhaseNodes() {
+            events.add("nodes");
+        }
+    }
+
     @Test
     public void testXMLParser() throws Exception {
         FileBasedOpenStreetMapProviderImpl pr = new FileBasedOpenStreetMapProviderImpl();
@@ -13,7 +13,12 @@ import org.opentripplanner.common.TurnRestriction;
 import org.opentripplanner.common.model.P2;
 import org.opentripplanner.openstreetmap.model.OSMWay;
 import org.opentripplanner.openstreetmap.model.OSMWithTags;
+import org.opentripplanner.openstreetmap.impl.AnyFileBasedOpenStreetMapProviderImpl;
 import org.opentripplanner.openstreetmap.impl.FileBasedOpenStreetMapProviderImpl;
+import org.opentripplanner.openstreetmap.model.OSMNode;
+import org.opentripplanner.openstreetmap.model.OSMRelation;
+import org.opentripplanner.openstreetmap.services.OpenStreetMapContentHandler;
+import org.opentripplanner.openstreetmap.services.OpenStreetMapProvider;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.TraverseModeSet;
 import org.opentripplanner.routing.edgetype.StreetEdge;
@@ -95,6 +100,93 @@ public class TestOpenStreetMapGraphBuilder extends TestCase {
                 .getName().contains("Mariana Smoluchowskiego"));
     }
 
+    /**
+     * The compact node stores must give the same graph as keeping all nodes in memory.
+     */
+    @Test
+    public void testNodeStores() throws Exception {
+        FileBasedOpenStreetMapProviderImpl provider = new FileBasedOpenStreetMapProviderImpl();
+        provider.setPath(new File(URLDecoder.decode(getClass().getResource("map.osm.gz").getFile(), "UTF-8")));
+        checkNodeStores(provider);
+    }
+
+    @Test
+    public void testNodeStoresPbf() throws Exception {
+        checkNodeStores(new AnyFileBasedOpenStreetMapProviderImpl(
+                new File(URLDecoder.decode(getClass().getResource("map.osm.pbf").getFile(), "UTF-8"))));
+    }
+
+    private void checkNodeStores(OpenStreetMapProvider provider) {
+        Graph expected = null;
+        for (OSMNodeStore.Type type : OSMNodeStore.Type.values()) {
+            Graph gg = new Graph();
+            OpenStreetMapModule loader = new OpenStreetMapModule();
+            loader.setDefaultWayPropertySetSource(new DefaultWayPropertySetSource());
+            loader.nodeStore = type;
+            loader.setProvider(provider);
+            loader.buildGraph(gg, extra);
+
+            if (expected == null) {
+                expected = gg;
+                continue;
+            }
+            assertEquals(type.name(), expected.countVertices(), gg.countVertices());
+            assertEquals(type.name(), expected.countEdges(), gg.countEdges());
+            for (Vertex v : expected.getVertices()) {
+                Vertex other = gg.getVertex(v.getLabel());
+                assertNotNull(type.name() + " " + v.getLabel(), other);
+                // Coordinates of packed nodes are rounded to the 1e-7 degree precision of OSM
+                assertEquals(v.getLabel(), v.getX(), other.getX(), 1e-9);
+                assertEquals(v.getLabel(), v.getY(), other.getY(), 1e-9);
+            }
+        }
+    }
+
+    /**
+     * Coordinates read from PBF files are not exact multiples of 1e-7 as doubles, but the nodes
+     * without tags must still be packed.
+     */
+    @Test
+    public void testPbfNodesArePacked() throws Exception {
+        File file = new File(URLDecoder.decode(getClass().getResource("map.osm.pbf").getFile(), "UTF-8"));
+        CompactNodeStore store = new CompactNodeStore(false);
+        List<OSMNode> untagged = new ArrayList<>();
+        new AnyFileBasedOpenStreetMapProviderImpl(file).readOSM(new OpenStreetMapContentHandler() {
+            @Override
+            public synchronized void addNode(OSMNode node) {
+                store.put(node);
+                if (node.getTags() == null) {
+                    untagged.add(node);
+                }
+            }
+
+            @Override
+            public void addWay(OSMWay way) { }
+
+            @Override
+            public void addRelation(OSMRelation relation) { }
+
+            @Override
+            public void doneFirstPhaseRelations() { }
+
+            @Override
+            public void doneSecondPhaseWays() { }
+
+            @Override
+            public void doneThirdPhaseNodes() { }
+        });
+
+        assertTrue(store.size() > 0);
+        assertTrue(store.packedSize() > store.size() / 2);
+        assertEquals(untagged.size(), store.packedSize());
+        for (OSMNode node : untagged) {
+            OSMNode packed = store.get(node.getId());
+            assertEquals(node.lat, packed.lat, 1e-7);
+            assertEquals(node.lon, packed.lon, 1e-7);
+        }
+        store.close();
+    }
+
     /**
      * Detailed testing of OSM graph building using a very small chunk of NYC (SOHO-ish).
      * @throws Exception
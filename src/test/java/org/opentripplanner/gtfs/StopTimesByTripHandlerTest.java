@@ -0,0 +1,95 @@
+package org.opentripplanner.gtfs;
+
+import org.junit.Test;
+import org.onebusaway.csv_entities.FileCsvInputSource;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class StopTimesByTripHandlerTest {
+
+    private static Trip trip(String id) {
+        Trip trip = new Trip();
+        trip.setId(new AgencyAndId("F", id));
+        return trip;
+    }
+
+    private static StopTime stopTime(Trip trip, int stopSequence) {
+        StopTime stopTime = new StopTime();
+        stopTime.setTrip(trip);
+        stopTime.setStopSequence(stopSequence);
+        return stopTime;
+    }
+
+    @Test
+    public void testGrouping() {
+        Trip trip1 = trip("1");
+        Trip trip2 = trip("2");
+        List<Trip> trips = new ArrayList<>();
+        List<List<StopTime>> groups = new ArrayList<>();
+        StopTimesByTripHandler handler = new StopTimesByTripHandler((trip, stopTimes) -> {
+            trips.add(trip);
+            groups.add(stopTimes);
+        });
+        handler.handleEntity(stopTime(trip1, 2));
+        handler.handleEntity(stopTime(trip1, 1));
+        handler.handleEntity(stopTime(trip2, 1));
+        assertEquals(1, trips.size());
+        handler.finish();
+
+        assertEquals(2, trips.size());
+        assertSame(trip1, trips.get(0));
+        assertSame(trip2, trips.get(1));
+        assertEquals(1, groups.get(0).get(0).getStopSequence());
+        assertEquals(2, groups.get(0).get(1).getStopSequence());
+        assertEquals(1, groups.get(1).size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTripNotGrouped() {
+        Trip trip1 = trip("1");
+        StopTimesByTripHandler handler = new StopTimesByTripHandler((trip, stopTimes) -> {});
+        handler.handleEntity(stopTime(trip1, 1));
+        handler.handleEntity(stopTime(trip("2"), 1));
+        handler.handleEntity(stopTime(trip1, 2));
+    }
+
+    @Test
+    public void testSplitLine() {
+        assertEquals(Arrays.asList("a", "", "b,c", "d\"e"), StopTimesByTripHandler.splitLine("a,,\"b,c\",\"d\"\"e\""));
+        assertEquals(Arrays.asList(""), StopTimesByTripHandler.splitLine(""));
+        assertNull(StopTimesByTripHandler.splitLine("a,\"b"));
+    }
+
+    @Test
+    public void testIsGroupedByTrip() throws Exception {
+        File dir = Files.createTempDirectory("gtfs").toFile();
+        File file = new File(dir, "stop_times.txt");
+        try {
+            Files.write(file.toPath(), ("\uFEFFstop_sequence,trip_id\n1,a\n2,a\n1,\"b\"\n\n2,b\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            assertTrue(StopTimesByTripHandler.isGroupedByTrip(new FileCsvInputSource(dir)));
+            Files.write(file.toPath(), "trip_id,stop_sequence\na,1\nb,1\na,2\n".getBytes(StandardCharsets.UTF_8));
+            assertFalse(StopTimesByTripHandler.isGroupedByTrip(new FileCsvInputSource(dir)));
+            // A quoted field spanning two lines shifts the columns of the second line, so the file is not streamed.
+            Files.write(file.toPath(), "stop_headsign,trip_id\n\"x\ny\",a\nz,a\n".getBytes(StandardCharsets.UTF_8));
+            assertFalse(StopTimesByTripHandler.isGroupedByTrip(new FileCsvInputSource(dir)));
+        } finally {
+            file.delete();
+            dir.delete();
+        }
+    }
+}
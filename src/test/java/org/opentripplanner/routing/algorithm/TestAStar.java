@@ -8,12 +8,16 @@ import org.opentripplanner.model.calendar.CalendarServiceData;
 import org.opentripplanner.ConstantsForTests;
 import org.opentripplanner.gtfs.GtfsContext;
 import org.opentripplanner.gtfs.GtfsLibrary;
+import org.opentripplanner.routing.algorithm.strategies.HeuristicSearchCache;
+import org.opentripplanner.routing.algorithm.strategies.InterleavedBidirectionalHeuristic;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.edgetype.factory.PatternHopFactory;
+import org.opentripplanner.routing.graph.CompactStreetGraph;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.spt.GraphPath;
 import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.spt.VertexArrayShortestPathTree;
 import org.opentripplanner.util.TestUtils;
 
 import static org.opentripplanner.calendar.impl.CalendarServiceDataFactoryImpl.createCalendarServiceData;
@@ -86,4 +90,113 @@ public class TestAStar extends TestCase {
         assertNull(path);        
     }
 
+    public void testReusedShortestPathTree() {
+
+        Graph graph = ConstantsForTests.getInstance().getPortlandGraph();
+        String feedId = graph.getFeedIds().iterator().next();
+        Vertex start = graph.getVertex(feedId + ":8371");
+        Vertex end = graph.getVertex(feedId + ":8374");
+
+        RoutingRequest options = new RoutingRequest();
+        options.dateTime = TestUtils.dateInSeconds("America/Los_Angeles", 2009, 11, 1, 12, 34, 25);
+        options.setRoutingContext(graph, start, end);
+
+        ShortestPathTree spt = aStar.getShortestPathTree(options);
+        GraphPath path = spt.getPath(end, true);
+        assertNotNull(path);
+
+        AStar reusingAStar = new AStar();
+        reusingAStar.setReuseShortestPathTree(true);
+        ShortestPathTree first = reusingAStar.getShortestPathTree(options);
+        assertTrue(first instanceof VertexArrayShortestPathTree);
+        GraphPath firstPath = first.getPath(end, true);
+        assertNotNull(firstPath);
+        assertEquals(path.getEndTime(), firstPath.getEndTime());
+        assertEquals(path.getWeight(), firstPath.getWeight());
+        assertEquals(spt.getVertexCount(), first.getVertexCount());
+
+        // A second search on the same thread recycles the storage of the first tree
+        ShortestPathTree second = reusingAStar.getShortestPathTree(options);
+        assertEquals(path.getEndTime(), second.getPath(end, true).getEndTime());
+        try {
+            first.getState(end);
+            fail("A recycled shortest path tree should not be usable.");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        // Paths extracted from the first tree remain valid
+        assertEquals(path.getEndTime(), firstPath.getEndTime());
+    }
+
+    public void testCompactStreetGraph() {
+
+        Graph graph = ConstantsForTests.getInstance().getPortlandGraph();
+        String feedId = graph.getFeedIds().iterator().next();
+        Vertex start = graph.getVertex(feedId + ":8371");
+        Vertex end = graph.getVertex(feedId + ":8374");
+
+        for (boolean arriveBy : new boolean[] { false, true }) {
+            RoutingRequest options = new RoutingRequest();
+            options.dateTime = TestUtils.dateInSeconds("America/Los_Angeles", 2009, 11, 1, 12, 34, 25);
+            options.setArriveBy(arriveBy);
+            options.setRoutingContext(graph, start, end);
+            Vertex target = arriveBy ? start : end;
+
+            ShortestPathTree spt = aStar.getShortestPathTree(options);
+            GraphPath path = spt.getPath(target, true);
+            assertNotNull(path);
+
+            graph.compactStreetGraph = new CompactStreetGraph(graph);
+            try {
+                assertTrue(graph.compactStreetGraph.covers(start, arriveBy));
+                ShortestPathTree compactSpt = new AStar().getShortestPathTree(options);
+                GraphPath compactPath = compactSpt.getPath(target, true);
+                assertNotNull(compactPath);
+                assertEquals(path.getStartTime(), compactPath.getStartTime());
+                assertEquals(path.getEndTime(), compactPath.getEndTime());
+                assertEquals(path.getWeight(), compactPath.getWeight());
+                assertEquals(path.edges, compactPath.edges);
+                assertEquals(spt.getVertexCount(), compactSpt.getVertexCount());
+            } finally {
+                graph.compactStreetGraph = null;
+            }
+        }
+    }
+
+    public void testHeuristicSearchCache() {
+
+        Graph graph = ConstantsForTests.getInstance().getPortlandGraph();
+        String feedId = graph.getFeedIds().iterator().next();
+        Vertex start = graph.getVertex(feedId + ":8371");
+        Vertex end = graph.getVertex(feedId + ":8374");
+
+        RoutingRequest options = new RoutingRequest();
+        options.dateTime = TestUtils.dateInSeconds("America/Los_Angeles", 2009, 11, 1, 12, 34, 25);
+        options.setRoutingContext(graph, start, end);
+        options.rctx.remainingWeightHeuristic = new InterleavedBidirectionalHeuristic();
+        GraphPath path = aStar.getShortestPathTree(options.clone()).getPath(end, true);
+        assertNotNull(path);
+
+        graph.heuristicSearchCache = new HeuristicSearchCache(100000);
+        try {
+            long hits = graph.getRoutingMetrics().heuristicCacheHits.sum();
+            for (int i = 0; i < 2; i++) {
+                RoutingRequest request = new RoutingRequest();
+                request.dateTime = options.dateTime;
+                request.setRoutingContext(graph, start, end);
+                request.rctx.remainingWeightHeuristic = new InterleavedBidirectionalHeuristic();
+                GraphPath cachedPath = new AStar().getShortestPathTree(request).getPath(end, true);
+                assertNotNull(cachedPath);
+                assertEquals(path.getEndTime(), cachedPath.getEndTime());
+                assertEquals(path.getWeight(), cachedPath.getWeight());
+                assertEquals(path.edges, cachedPath.edges);
+            }
+            // The second search reused both street searches of the first one.
+            assertEquals(2, graph.getRoutingMetrics().heuristicCacheHits.sum() - hits);
+            assertEquals(2, graph.heuristicSearchCache.size());
+        } finally {
+            graph.heuristicSearchCache = null;
+        }
+    }
+
 }
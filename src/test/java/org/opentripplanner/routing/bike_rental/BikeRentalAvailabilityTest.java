@@ -0,0 +1,97 @@
+package org.opentripplanner.routing.bike_rental;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.RentABikeOnEdge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.vertextype.BikeRentalStationVertex;
+import org.opentripplanner.util.NonLocalizedString;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BikeRentalAvailabilityTest {
+
+    private Graph graph;
+
+    private BikeRentalStationService service;
+
+    private BikeRentalStationVertex staticStation;
+
+    private BikeRentalStationVertex updatedStation;
+
+    private RentABikeOnEdge rentEdge;
+
+    @Before
+    public void setUp() {
+        graph = new Graph();
+        service = graph.getService(BikeRentalStationService.class, true);
+        staticStation = new BikeRentalStationVertex(graph, station("static", 4));
+        updatedStation = new BikeRentalStationVertex(graph, station("updated", 4));
+        service.addAvailabilityIndex(updatedStation);
+        rentEdge = new RentABikeOnEdge(updatedStation, updatedStation, Collections.singleton("default"));
+    }
+
+    private static BikeRentalStation station(String id, int bikes) {
+        BikeRentalStation station = new BikeRentalStation();
+        station.id = id;
+        station.name = new NonLocalizedString(id);
+        station.bikesAvailable = bikes;
+        station.spacesAvailable = 10 - bikes;
+        return station;
+    }
+
+    private RoutingRequest request() {
+        RoutingRequest options = new RoutingRequest(new TraverseModeSet("WALK,BICYCLE"));
+        options.setRoutingContext(graph, updatedStation, staticStation);
+        return options;
+    }
+
+    @Test
+    public void testStationsWithoutIndexUseVertex() {
+        BikeRentalAvailability availability = service.getAvailability();
+        assertTrue(availability.isInService(staticStation));
+        assertEquals(4, availability.getBikesAvailable(staticStation));
+        assertEquals(6, availability.getSpacesAvailable(staticStation));
+        // An updated station is not in service before the first update.
+        assertFalse(availability.isInService(updatedStation));
+        assertEquals(0, availability.getBikesAvailable(updatedStation));
+    }
+
+    @Test
+    public void testRequestKeepsItsVersion() {
+        service.updateAvailability(availability -> availability.setAvailable(updatedStation, 3, 7));
+        RoutingRequest before = request();
+        assertEquals(1, before.rctx.bikeRentalAvailability.version);
+
+        service.updateAvailability(availability -> availability.setOutOfService(updatedStation));
+        RoutingRequest after = request();
+        assertEquals(2, after.rctx.bikeRentalAvailability.version);
+
+        // The request started before the second update still sees the station in service.
+        assertTrue(before.rctx.bikeRentalAvailability.isInService(updatedStation));
+        assertEquals(3, before.rctx.bikeRentalAvailability.getBikesAvailable(updatedStation));
+        assertNotNull(rentEdge.traverse(new State(before)));
+
+        assertFalse(after.rctx.bikeRentalAvailability.isInService(updatedStation));
+        assertNull(rentEdge.traverse(new State(after)));
+    }
+
+    @Test
+    public void testNoBikesAvailable() {
+        service.updateAvailability(availability -> availability.setAvailable(updatedStation, 0, 10));
+        RoutingRequest options = request();
+        options.useBikeRentalAvailabilityInformation = true;
+        assertNull(rentEdge.traverse(new State(options)));
+        options.useBikeRentalAvailabilityInformation = false;
+        assertNotNull(rentEdge.traverse(new State(options)));
+    }
+}
@@ -73,16 +73,29 @@ public class RoutingContextDestroyTest {
         // And When:
         subject.destroy();
 
-        // Then - permanent vertexes
-        for (Vertex v : permanentVertexes) {
-            // - does not reference the any temporary nodes any more
-            for (Edge e : v.getIncoming()) {
-                assertVertexEdgeIsNotReferencingTemporaryElements(v, e, e.getFromVertex());
-            }
-            for (Edge e : v.getOutgoing()) {
-                assertVertexEdgeIsNotReferencingTemporaryElements(v, e, e.getToVertex());
-            }
-        }
+        // Then - permanent vertexes do not reference any temporary nodes any more
+        assertPermanentVertexesNotReferencingTemporaryElements();
+    }
+
+    @Test public void permanentVertexesNotChangedByContext() {
+        // Given - A request
+        RoutingRequest request = new RoutingRequest();
+        request.from = from;
+        request.to = to;
+
+        // When - the context is created
+        subject = new RoutingContext(request, g);
+
+        // Then - the temporary edges are only seen through the context
+        originAndDestinationInsertedCorrect();
+        assertPermanentVertexesNotReferencingTemporaryElements();
+        // - like the partial edge from A to the destination on the road from A to C
+        assertEquals(a.getOutgoing().size() + 1, subject.getOutgoing(a).size());
+
+        // And - a context for another request does not see them
+        RoutingContext other = new RoutingContext(new RoutingRequest(), g, a, b);
+        assertEquals(a.getOutgoing().size(), other.getOutgoing(a).size());
+        subject.destroy();
     }
 
     private void originAndDestinationInsertedCorrect() {
@@ -122,22 +135,33 @@ public class RoutingContextDestroyTest {
         new StreetEdge(v0, v1, geom, name, dist, StreetTraversalPermission.ALL, false);
     }
 
-    private static <T extends Collection<String>> T findAllReachableVertexes(Vertex vertex,
+    private <T extends Collection<String>> T findAllReachableVertexes(Vertex vertex,
             boolean forward, T list) {
         if (list.contains(vertex.getName()))
             return list;
 
         list.add(vertex.getName());
         if (forward) {
-            vertex.getOutgoing()
+            subject.getOutgoing(vertex)
                     .forEach(it -> findAllReachableVertexes(it.getToVertex(), forward, list));
         } else {
-            vertex.getIncoming()
+            subject.getIncoming(vertex)
                     .forEach(it -> findAllReachableVertexes(it.getFromVertex(), forward, list));
         }
         return list;
     }
 
+    private void assertPermanentVertexesNotReferencingTemporaryElements() {
+        for (Vertex v : permanentVertexes) {
+            for (Edge e : v.getIncoming()) {
+                assertVertexEdgeIsNotReferencingTemporaryElements(v, e, e.getFromVertex());
+            }
+            for (Edge e : v.getOutgoing()) {
+                assertVertexEdgeIsNotReferencingTemporaryElements(v, e, e.getToVertex());
+            }
+        }
+    }
+
     private void assertVertexEdgeIsNotReferencingTemporaryElements(Vertex src, Edge e, Vertex v) {
         String sourceName = src.getName();
         assertFalse(sourceName + " -> " + e.getName(), e instanceof TemporaryEdge);
@@ -5,6 +5,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.opentripplanner.calendar.impl.CalendarServiceDataFactoryImpl.createCalendarServiceData;
 
@@ -202,6 +203,42 @@ public class TimetableSnapshotTest {
         snapshot.commit();
     }
 
+    @Test
+    public void testCommitIsNotAffectedByLaterUpdates() {
+        ServiceDate today = new ServiceDate();
+        TripPattern pattern = patternIndex.get(new FeedScopedId("agency", "1.1"));
+        TripPattern otherPattern = patternIndex.get(new FeedScopedId("agency", "2.1"));
+        TimetableSnapshot resolver = new TimetableSnapshot();
+
+        assertTrue(updateResolver(resolver, pattern, cancellation("1.1"), "agency", today));
+        TimetableSnapshot snapshotA = resolver.commit();
+
+        // an update to another pattern is only visible in the next snapshot
+        assertTrue(updateResolver(resolver, otherPattern, cancellation("2.1"), "agency", today));
+        TimetableSnapshot snapshotB = resolver.commit();
+        assertSame(otherPattern.scheduledTimetable, snapshotA.resolve(otherPattern, today));
+        assertNotSame(otherPattern.scheduledTimetable, snapshotB.resolve(otherPattern, today));
+
+        // the timetable of the unchanged pattern is shared between both snapshots
+        assertNotSame(pattern.scheduledTimetable, snapshotA.resolve(pattern, today));
+        assertSame(snapshotA.resolve(pattern, today), snapshotB.resolve(pattern, today));
+
+        // clearing the buffer does not affect either snapshot
+        resolver.clear("agency");
+        assertSame(pattern.scheduledTimetable, resolver.resolve(pattern, today));
+        assertNotSame(pattern.scheduledTimetable, snapshotA.resolve(pattern, today));
+        assertNotSame(otherPattern.scheduledTimetable, snapshotB.resolve(otherPattern, today));
+    }
+
+    private static TripUpdate cancellation(String tripId) {
+        TripDescriptor.Builder tripDescriptorBuilder = TripDescriptor.newBuilder();
+        tripDescriptorBuilder.setTripId(tripId);
+        tripDescriptorBuilder.setScheduleRelationship(ScheduleRelationship.CANCELED);
+        TripUpdate.Builder tripUpdateBuilder = TripUpdate.newBuilder();
+        tripUpdateBuilder.setTrip(tripDescriptorBuilder);
+        return tripUpdateBuilder.build();
+    }
+
     @Test
     public void testPurge() {
         ServiceDate today = new ServiceDate();
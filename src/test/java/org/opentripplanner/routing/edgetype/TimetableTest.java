@@ -3,11 +3,13 @@ package org.opentripplanner.routing.edgetype;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.opentripplanner.calendar.impl.CalendarServiceDataFactoryImpl.createCalendarServiceData;
 import static org.opentripplanner.util.TestUtils.AUGUST;
 
 import java.io.File;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.TimeZone;
 
@@ -23,6 +25,8 @@ import org.opentripplanner.gtfs.GtfsContext;
 import org.opentripplanner.gtfs.GtfsLibrary;
 import org.opentripplanner.routing.algorithm.AStar;
 import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.ServiceDay;
+import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.edgetype.factory.PatternHopFactory;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
@@ -305,4 +309,31 @@ public class TimetableTest {
         updatedTripTimes = timetable.createUpdatedTripTimes(tripUpdate, timeZone, serviceDate); 
         assertNull(updatedTripTimes);
     }
+
+    @Test
+    public void testIndexedSearchMatchesLinearScan() {
+        String feedId = graph.getFeedIds().iterator().next();
+        Vertex stop_a = graph.getVertex(feedId + ":A");
+        Vertex stop_c = graph.getVertex(feedId + ":C");
+        long startTime = TestUtils.dateInSeconds("America/New_York", 2009, AUGUST, 7, 0, 0, 0);
+        RoutingRequest options = new RoutingRequest();
+        options.dateTime = startTime;
+        options.setRoutingContext(graph, stop_a, stop_c);
+
+        for (TripPattern tripPattern : new HashSet<>(patternIndex.values())) {
+            Timetable tt = tripPattern.scheduledTimetable;
+            for (ServiceDay serviceDay : options.rctx.serviceDays) {
+                for (int stopIndex = 0; stopIndex < tripPattern.getStops().size(); stopIndex++) {
+                    for (int seconds = -3600; seconds < 30 * 3600; seconds += 120) {
+                        State s0 = new State(stop_a, startTime + seconds, options);
+                        for (boolean boarding : new boolean[] {true, false}) {
+                            TripTimes scanned = tt.getNextTrip(s0, serviceDay, stopIndex, boarding, 0, 0, 0, false);
+                            TripTimes indexed = tt.getNextTrip(s0, serviceDay, stopIndex, boarding, 0, 0, 0, true);
+                            assertSame(scanned, indexed);
+                        }
+                    }
+                }
+            }
+        }
+    }
 }
@@ -1,17 +1,32 @@
 package org.opentripplanner.routing.edgetype.factory;
 
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import org.junit.Test;
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.graph_builder.annotation.GraphBuilderAnnotation;
 import org.opentripplanner.gtfs.MockGtfs;
 import org.opentripplanner.graph_builder.module.GtfsFeedId;
 import org.opentripplanner.gtfs.GtfsLibrary;
+import org.opentripplanner.model.OtpTransitService;
+import org.opentripplanner.model.Trip;
+import org.opentripplanner.routing.edgetype.PatternHop;
 import org.opentripplanner.routing.edgetype.TransitBoardAlight;
 import org.opentripplanner.routing.edgetype.TripPattern;
 import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
 public class PatternHopFactoryTest {
 
     @Test
@@ -41,4 +56,101 @@ public class PatternHopFactoryTest {
         }
     }
 
+    /** Preparing the trips in parallel gives the same patterns, geometries and annotations as preparing them in turn. */
+    @Test
+    public void testParallelSameAsSerial() throws IOException {
+        Graph serialGraph = buildGraph(false);
+        Graph parallelGraph = buildGraph(true);
+        Map<String, String> serialHops = describeHops(serialGraph);
+        assertFalse(serialHops.isEmpty());
+        assertEquals(serialHops, describeHops(parallelGraph));
+        assertEquals(annotationMessages(serialGraph), annotationMessages(parallelGraph));
+    }
+
+    /**
+     * Trips handed over before the trips that come before them in the feed wait for their turn, but only the first one
+     * with a shape of each pattern keeps its stop times to make the pattern geometry.
+     */
+    @Test
+    public void testTripsAheadDropStopTimes() throws IOException {
+        MockGtfs gtfs = MockGtfs.create();
+        gtfs.putAgencies(1);
+        gtfs.putRoutes(1);
+        gtfs.putLines("stops.txt", "stop_id,stop_name,stop_lat,stop_lon",
+                "s0,Stop 0,45.0,-122.0", "s1,Stop 1,45.01,-122.0");
+        gtfs.putCalendars(1);
+        gtfs.putLines("trips.txt", "route_id,service_id,trip_id,shape_id",
+                "r0,sid0,t0,sh0", "r0,sid0,t1,sh0", "r0,sid0,t2,sh0", "r0,sid0,t3,sh0");
+        gtfs.putLines("shapes.txt", "shape_id,shape_pt_lat,shape_pt_lon,shape_pt_sequence",
+                "sh0,45.0,-122.0,0", "sh0,45.005,-122.001,1", "sh0,45.01,-122.0,2");
+        gtfs.putLines("stop_times.txt", "trip_id,stop_id,stop_sequence,arrival_time,departure_time",
+                "t0,s0,0,08:00:00,08:00:00", "t0,s1,1,08:10:00,08:10:00",
+                "t1,s0,0,09:00:00,09:00:00", "t1,s1,1,09:10:00,09:10:00",
+                "t2,s0,0,10:00:00,10:00:00", "t2,s1,1,10:10:00,10:10:00",
+                "t3,s0,0,11:00:00,11:00:00", "t3,s1,1,11:10:00,11:10:00");
+        OtpTransitService transitService = gtfs.read();
+        PatternHopFactory factory = new PatternHopFactory(
+                GtfsLibrary.createContext(new GtfsFeedId.Builder().id("FEED").build(), transitService));
+        Graph graph = new Graph();
+        factory.startTrips(graph);
+
+        // Hand the trips over in reverse feed order, so they all wait for the first one.
+        List<Trip> trips = new ArrayList<>(transitService.getAllTrips());
+        for (int i = trips.size() - 1; i > 0; i--) {
+            Trip trip = trips.get(i);
+            factory.addTrip(graph, trip, transitService.getStopTimesForTrip(trip));
+        }
+        assertEquals(3, factory.countTripsAhead());
+        assertEquals(1, factory.countTripsAheadWithStopTimes());
+
+        factory.addTrip(graph, trips.get(0), transitService.getStopTimesForTrip(trips.get(0)));
+        assertEquals(0, factory.countTripsAhead());
+        factory.finishTrips(graph);
+
+        // The trips are still added in feed order, and the hops get the geometry of the trip that kept its stop times.
+        for (Edge edge : graph.getEdges()) {
+            if (edge instanceof PatternHop) {
+                List<String> tripIds = new ArrayList<>();
+                for (Trip trip : ((PatternHop) edge).getPattern().getTrips()) {
+                    tripIds.add(trip.getId().getId());
+                }
+                assertEquals(Arrays.asList("t0", "t1", "t2", "t3"), tripIds);
+                assertNotNull(edge.getGeometry());
+            }
+        }
+    }
+
+    private static Graph buildGraph(boolean parallel) throws IOException {
+        PatternHopFactory factory = new PatternHopFactory(GtfsLibrary.readGtfs(new File(ConstantsForTests.FAKE_GTFS)));
+        factory.setParallel(parallel);
+        Graph graph = new Graph();
+        factory.run(graph);
+        return graph;
+    }
+
+    /** The geometry of each hop, keyed by the trips of its pattern and its stop index. */
+    private static Map<String, String> describeHops(Graph graph) {
+        Map<String, String> hops = new TreeMap<>();
+        for (Edge edge : graph.getEdges()) {
+            if (!(edge instanceof PatternHop)) {
+                continue;
+            }
+            PatternHop hop = (PatternHop) edge;
+            StringBuilder key = new StringBuilder();
+            for (Trip trip : hop.getPattern().getTrips()) {
+                key.append(trip.getId()).append(' ');
+            }
+            key.append(hop.getStopIndex());
+            hops.put(key.toString(), String.valueOf(hop.getGeometry()));
+        }
+        return hops;
+    }
+
+    private static List<String> annotationMessages(Graph graph) {
+        List<String> messages = new ArrayList<>();
+        for (GraphBuilderAnnotation annotation : graph.getBuilderAnnotations()) {
+            messages.add(annotation.getMessage());
+        }
+        return messages;
+    }
 }
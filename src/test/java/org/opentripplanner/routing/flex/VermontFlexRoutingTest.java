@@ -151,6 +151,36 @@ public class VermontFlexRoutingTest {
         options.rctx.destroy();
     }
 
+    // Nearby requests reuse the cached flag stop and deviated-route searches
+    @Test
+    public void testHopCache() {
+        graph.setFlexHopCache(200, 100);
+        try {
+            for (int i = 0; i < 2; i++) {
+                RoutingRequest options = buildRequest("44.4214596,-72.019371", "44.4277732,-72.01203514",
+                        "2018-05-23", "1:37pm");
+                GraphPath path = getPathToDestination(options);
+                List<Ride> rides = Ride.createRides(path);
+                assertEquals(1, rides.size());
+                Ride ride = rides.get(0);
+                assertEquals("1382", ride.getRoute().getId());
+                assertEquals(BoardAlightType.FLAG_STOP, ride.getBoardType());
+                assertEquals(BoardAlightType.FLAG_STOP, ride.getAlightType());
+                assertTrue(graph.flexIndex.getHopCache().size() > 0);
+                options.rctx.destroy();
+            }
+            RoutingRequest options = buildRequest("44.38485134435363,-72.05881118774415", "44.422379116722084,-72.0198440551758",
+                    "2018-05-23", "1:37pm");
+            List<Ride> rides = Ride.createRides(getPathToDestination(options));
+            assertEquals(1, rides.size());
+            assertEquals("7415", rides.get(0).getRoute().getId());
+            assertEquals(BoardAlightType.DEVIATED, rides.get(0).getBoardType());
+            options.rctx.destroy();
+        } finally {
+            graph.setFlexHopCache(0, 0);
+        }
+    }
+
     // Deviated Route on both ends
     @Test
     public void testMultipleThreads() throws InterruptedException, ExecutionException {
@@ -1,6 +1,7 @@
 package org.opentripplanner.routing.graph;
 
 import com.conveyal.object_differ.ObjectDiffer;
+import com.google.common.collect.Multimap;
 import org.locationtech.jts.geom.LineString;
 import org.locationtech.jts.geom.Polygon;
 import org.geotools.util.WeakValueHashMap;
@@ -8,17 +9,29 @@ import org.jets3t.service.io.TempFile;
 import org.junit.Test;
 import org.opentripplanner.ConstantsForTests;
 import org.opentripplanner.common.geometry.HashGridSpatialIndex;
+import org.opentripplanner.routing.edgetype.StreetEdge;
 import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+import org.opentripplanner.routing.impl.StreetVertexIndexServiceImpl;
+import org.opentripplanner.routing.services.StreetVertexIndexService;
 import org.opentripplanner.routing.trippattern.Deduplicator;
 import org.opentripplanner.routing.vertextype.TransitStation;
+import org.opentripplanner.routing.vertextype.TransitStop;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.BitSet;
+import java.util.HashSet;
 import java.util.List;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.stream.Collectors;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 
 /**
@@ -57,6 +70,111 @@ public class GraphSerializationTest {
         assertNoDifferences(copiedGraph1, copiedGraph2);
     }
 
+    /**
+     * Tests that the street index saved with a graph and restored when loading it finds the same
+     * vertices as an index built from scratch for the loaded graph.
+     */
+    @Test
+    public void testStreetIndexRoundTrip () throws Exception {
+        Graph originalGraph = ConstantsForTests.getInstance().getPortlandGraph();
+        originalGraph.index(new DefaultStreetVertexIndexFactory());
+        File tempFile = TempFile.createTempFile("graph", "pdx");
+        originalGraph.save(tempFile);
+        Graph copiedGraph = Graph.load(tempFile);
+        StreetVertexIndexService restored = copiedGraph.streetIndex;
+        StreetVertexIndexService rebuilt = new StreetVertexIndexServiceImpl(copiedGraph);
+        int nStops = 0;
+        for (Vertex v : copiedGraph.getVertices()) {
+            if (!(v instanceof TransitStop)) {
+                continue;
+            }
+            assertEquals(new HashSet<>(rebuilt.getNearbyTransitStops(v.getCoordinate(), 500)),
+                    new HashSet<>(restored.getNearbyTransitStops(v.getCoordinate(), 500)));
+            nStops++;
+        }
+        assertTrue(nStops > 0);
+        tempFile.delete();
+    }
+
+    /**
+     * Tests that the pattern maps of the transit index saved with a graph and restored when loading it
+     * are the same as those of an index built from scratch for the loaded graph, and that the saved
+     * index is not restored for another graph.
+     */
+    @Test
+    public void testTransitIndexRoundTrip () throws Exception {
+        Graph originalGraph = ConstantsForTests.getInstance().getPortlandGraph();
+        originalGraph.index(new DefaultStreetVertexIndexFactory());
+        File tempFile = TempFile.createTempFile("graph", "pdx");
+        originalGraph.save(tempFile);
+        Graph copiedGraph = Graph.load(tempFile);
+        GraphIndex restored = copiedGraph.index;
+        GraphIndex rebuilt = new GraphIndex(copiedGraph);
+        assertFalse(rebuilt.patternForTrip.isEmpty());
+        assertEquals(rebuilt.patternForTrip, restored.patternForTrip);
+        assertEquals(rebuilt.tripForId, restored.tripForId);
+        assertEquals(rebuilt.routeForId, restored.routeForId);
+        assertSameGroups(rebuilt.patternsForFeedId, restored.patternsForFeedId);
+        assertSameGroups(rebuilt.patternsForRoute, restored.patternsForRoute);
+        assertSameGroups(rebuilt.patternsForStop, restored.patternsForStop);
+        // The patterns of the original graph are other objects with the same codes.
+        assertFalse(new PersistedTransitIndex(restored).restore(originalGraph.index));
+        tempFile.delete();
+    }
+
+    /**
+     * Tests that the street edge geometries saved in a separate file are read back from it, and that the graph cannot
+     * be loaded without that file or with the geometries of another graph.
+     */
+    @Test
+    public void testSeparateGeometriesRoundTrip () throws Exception {
+        Graph originalGraph = ConstantsForTests.getInstance().getPortlandGraph();
+        File tempFile = TempFile.createTempFile("graph", "pdx");
+        File geometriesFile = EdgeGeometryFile.forGraph(tempFile);
+        originalGraph.save(tempFile, null, true);
+        assertTrue(geometriesFile.exists());
+        Graph copiedGraph = Graph.load(tempFile);
+        int nCurved = 0;
+        for (StreetEdge copiedEdge : copiedGraph.getStreetEdges()) {
+            StreetEdge originalEdge = (StreetEdge) originalGraph.getEdgeById(copiedEdge.getId());
+            assertTrue(originalEdge.getGeometry().equalsExact(copiedEdge.getGeometry()));
+            if (copiedEdge.getGeometry().getNumPoints() > 2) {
+                nCurved++;
+            }
+        }
+        assertTrue(nCurved > 0);
+
+        try (InputStream in = new FileInputStream(tempFile)) {
+            Graph.load(in);
+            fail("graph loaded without its geometries file");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        File otherFile = TempFile.createTempFile("graph", "pdx");
+        originalGraph.save(otherFile, null, true);
+        Files.copy(EdgeGeometryFile.forGraph(otherFile).toPath(), geometriesFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        try {
+            Graph.load(tempFile);
+            fail("graph loaded with the geometries file of another graph");
+        } catch (RuntimeException e) {
+            // expected
+        }
+        tempFile.delete();
+        geometriesFile.delete();
+        otherFile.delete();
+        EdgeGeometryFile.forGraph(otherFile).delete();
+    }
+
+    private static <K, V> void assertSameGroups (Multimap<K, V> expected, Multimap<K, V> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (K key : expected.keySet()) {
+            assertEquals(new HashSet<>(expected.get(key)), new HashSet<>(actual.get(key)));
+            assertEquals(expected.get(key).size(), actual.get(key).size());
+        }
+    }
+
     // Ideally we'd also test comparing two separate but identical complex graphs, built separately from the same inputs.
     // A test that builds the same graph twice will currently fail for the following reasons:
     // There is global state in Vertex.index and the feeds IDs that mean if you build the same graph twice the feed IDs
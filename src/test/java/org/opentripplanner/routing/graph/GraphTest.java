@@ -2,6 +2,7 @@ package org.opentripplanner.routing.graph;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.opentripplanner.util.ArrayUtils.contains;
 
@@ -9,6 +10,19 @@ import org.junit.Test;
 import org.opentripplanner.routing.alertpatch.AlertPatch;
 
 public class GraphTest {
+    @Test
+    public final void testVertexIndexBound() {
+        Graph graph = new Graph();
+        new SimpleConcreteVertex(graph, "Vertex 0", 0, 0);
+        Vertex vertex1 = new SimpleConcreteVertex(graph, "Vertex 1", 0, 180);
+        assertEquals(vertex1.getIndex() + 1, graph.getVertexIndexBound());
+
+        // Temporary vertices are not added to the graph and must not grow its bound.
+        Vertex temporary = new SimpleConcreteVertex(null, "Temporary", 1, 1);
+        assertTrue(temporary.getIndex() >= graph.getVertexIndexBound());
+        assertEquals(vertex1.getIndex() + 1, graph.getVertexIndexBound());
+    }
+
     @Test
     public final void testAlertPatch() {
         final AlertPatch alertPatches[][] = new AlertPatch[10][];
@@ -111,4 +125,33 @@ public class GraphTest {
         assertFalse(contains (alertPatches[9], alertPatch2));
         assertFalse(contains (alertPatches[9], alertPatch3));
     }
+
+    @Test
+    public final void testAlertPatchBatch() {
+        Graph graph = new Graph();
+        Vertex vertex0 = new SimpleConcreteVertex(graph, "Vertex 0", 0, 0);
+        Vertex vertex1 = new SimpleConcreteVertex(graph, "Vertex 1", 0, 180);
+        Edge edge0 = new SimpleConcreteEdge(vertex0, vertex1);
+        Edge edge1 = new SimpleConcreteEdge(vertex1, vertex0);
+        AlertPatch alertPatch0 = new AlertPatch();
+        AlertPatch alertPatch1 = new AlertPatch();
+        alertPatch0.setId("A");
+        alertPatch1.setId("B");
+
+        // Edges without patches share the same empty array
+        assertSame(graph.getAlertPatches(edge0), graph.getAlertPatches(edge1));
+
+        graph.updateAlertPatches(() -> {
+            graph.addAlertPatch(edge0, alertPatch0);
+            graph.addAlertPatch(edge0, alertPatch1);
+            graph.addAlertPatch(edge1, alertPatch1);
+            // Changes are not seen before the end of the batch
+            assertEquals(0, graph.getAlertPatches(edge0).length);
+        });
+
+        AlertPatch[] patches = graph.getAlertPatches(edge0);
+        assertEquals(2, patches.length);
+        assertSame(patches, graph.getAlertPatches(edge0));
+        assertEquals(1, graph.getAlertPatches(edge1).length);
+    }
 }
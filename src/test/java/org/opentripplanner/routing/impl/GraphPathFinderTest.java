@@ -0,0 +1,75 @@
+package org.opentripplanner.routing.impl;
+
+import org.junit.Test;
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.model.FeedScopedId;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.standalone.Router;
+import org.opentripplanner.util.TestUtils;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GraphPathFinderTest {
+
+    @Test
+    public void testSpeculativeSearches() {
+        Graph graph = ConstantsForTests.getInstance().getPortlandGraph();
+        String feedId = graph.getFeedIds().iterator().next();
+        Vertex start = graph.getVertex(feedId + ":8371");
+        Vertex end = graph.getVertex(feedId + ":8374");
+        long dateTime = TestUtils.dateInSeconds("America/Los_Angeles", 2009, 11, 1, 12, 34, 25);
+
+        Router router = new Router("default", graph);
+        // Count the searches submitted, to tell the speculative searches from the sequential fallback.
+        AtomicInteger submitted = new AtomicInteger();
+        router.speculativeSearchPool = new ForkJoinPool(2) {
+            @Override
+            public <T> ForkJoinTask<T> submit(Callable<T> task) {
+                submitted.incrementAndGet();
+                return super.submit(task);
+            }
+        };
+        // An offset much longer than the headways, so that the itineraries found by each speculative search depart
+        // later than those the sequential searches would find by banning trips.
+        router.speculativeSearchOffset = 3600;
+        try {
+            RoutingRequest options = new RoutingRequest();
+            options.dateTime = dateTime;
+            options.numItineraries = 3;
+            options.setRoutingContext(graph, start, end);
+
+            List<GraphPath> paths = new GraphPathFinder(router).getPaths(options);
+            assertEquals(3, submitted.get());
+            assertEquals(3, paths.size());
+            for (int i = 0; i < paths.size(); i++) {
+                assertTrue("Itinerary " + i + " should come from the search departing " + i + " hours later.",
+                        paths.get(i).getStartTime() >= dateTime + i * router.speculativeSearchOffset);
+            }
+            Set<List<FeedScopedId>> trips = new HashSet<>();
+            long previousEndTime = 0;
+            for (GraphPath path : paths) {
+                assertTrue(path.getStartTime() >= dateTime);
+                assertTrue(path.getEndTime() >= previousEndTime);
+                previousEndTime = path.getEndTime();
+                assertFalse(path.getTrips().isEmpty());
+                assertTrue("Each itinerary should use different trips.", trips.add(path.getTrips()));
+            }
+        } finally {
+            router.speculativeSearchPool.shutdown();
+        }
+    }
+
+}
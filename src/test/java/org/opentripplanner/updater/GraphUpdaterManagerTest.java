@@ -0,0 +1,91 @@
+package org.opentripplanner.updater;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opentripplanner.routing.graph.Graph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GraphUpdaterManagerTest {
+
+    private GraphUpdaterManager manager;
+
+    @Before
+    public void setUp() {
+        manager = new GraphUpdaterManager(new Graph());
+    }
+
+    @After
+    public void tearDown() {
+        manager.stop();
+    }
+
+    private static GraphWriterRunnable writer(GraphWriterLane lane, Runnable runnable) {
+        return new GraphWriterRunnable() {
+            @Override
+            public void run(Graph graph) {
+                runnable.run();
+            }
+
+            @Override
+            public GraphWriterLane getLane() {
+                return lane;
+            }
+        };
+    }
+
+    @Test
+    public void testSlowLaneDoesNotBlockOtherLanes() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch alertsDone = new CountDownLatch(1);
+        manager.execute(writer(GraphWriterLane.TIMETABLES, () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        manager.execute(writer(GraphWriterLane.ALERTS, alertsDone::countDown));
+
+        assertTrue(alertsDone.await(10, TimeUnit.SECONDS));
+        // The alerts writer is only removed from the queue after it returns, so wait for that to happen.
+        long deadline = System.currentTimeMillis() + 10000;
+        while (manager.getQueueDepth() > 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, manager.getQueueDepth());
+        release.countDown();
+    }
+
+    @Test
+    public void testLaneKeepsOrder() throws InterruptedException {
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(100);
+        for (int i = 0; i < 100; i++) {
+            int n = i;
+            manager.execute(writer(GraphWriterLane.STREETS, () -> {
+                order.add(n);
+                done.countDown();
+            }));
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, (int) order.get(i));
+        }
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> streets = (Map<String, Object>) manager.summarizeLanes().get("STREETS");
+        @SuppressWarnings("unchecked")
+        Map<String, Object> queueDepth = (Map<String, Object>) streets.get("queueDepth");
+        assertEquals(100L, queueDepth.get("count"));
+    }
+}
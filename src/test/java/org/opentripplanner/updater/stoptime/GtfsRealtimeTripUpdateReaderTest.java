@@ -0,0 +1,105 @@
+package org.opentripplanner.updater.stoptime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.transit.realtime.GtfsRealtime.Alert;
+import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.google.transit.realtime.GtfsRealtime.FeedHeader;
+import com.google.transit.realtime.GtfsRealtime.FeedHeader.Incrementality;
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+import com.google.transit.realtime.GtfsRealtime.TripDescriptor;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate.StopTimeEvent;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate.StopTimeUpdate;
+import com.google.transit.realtime.GtfsRealtime.VehiclePosition;
+
+public class GtfsRealtimeTripUpdateReaderTest {
+
+    private static final TripUpdate UPDATE_1 = tripUpdate("1.1", 60);
+
+    private static final TripUpdate UPDATE_2 = tripUpdate("1.2", -30);
+
+    private static TripUpdate tripUpdate(String tripId, int delay) {
+        return TripUpdate.newBuilder()
+                .setTrip(TripDescriptor.newBuilder().setTripId(tripId))
+                .addStopTimeUpdate(StopTimeUpdate.newBuilder()
+                        .setStopSequence(1)
+                        .setArrival(StopTimeEvent.newBuilder().setDelay(delay)))
+                .build();
+    }
+
+    private static FeedHeader header(Incrementality incrementality) {
+        return FeedHeader.newBuilder()
+                .setGtfsRealtimeVersion("1.0")
+                .setIncrementality(incrementality)
+                .setTimestamp(1234567890L)
+                .build();
+    }
+
+    /** Trip updates mixed with alert and vehicle position entities, without the header. */
+    private static FeedMessage.Builder entities() {
+        return FeedMessage.newBuilder()
+                .addEntity(FeedEntity.newBuilder().setId("1").setTripUpdate(UPDATE_1))
+                .addEntity(FeedEntity.newBuilder().setId("2").setAlert(Alert.newBuilder()))
+                .addEntity(FeedEntity.newBuilder().setId("3")
+                        .setVehicle(VehiclePosition.newBuilder().setTrip(UPDATE_1.getTrip())))
+                .addEntity(FeedEntity.newBuilder().setId("4").setTripUpdate(UPDATE_2));
+    }
+
+    @Test
+    public void testFullDataset() throws IOException {
+        byte[] message = entities().setHeader(header(Incrementality.FULL_DATASET)).build().toByteArray();
+
+        GtfsRealtimeTripUpdateReader reader = GtfsRealtimeTripUpdateReader.read(message);
+        assertTrue(reader.isFullDataset());
+        assertEquals(Arrays.asList(UPDATE_1, UPDATE_2), reader.getUpdates());
+
+        reader = GtfsRealtimeTripUpdateReader.read(new ByteArrayInputStream(message));
+        assertTrue(reader.isFullDataset());
+        assertEquals(Arrays.asList(UPDATE_1, UPDATE_2), reader.getUpdates());
+    }
+
+    @Test
+    public void testDifferentialHeaderAfterEntitiesAndUnknownFields() throws IOException {
+        // Concatenated protobuf messages are read as one message, so this puts the header after the entities.
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        entities().buildPartial().writeTo(bytes);
+        CodedOutputStream output = CodedOutputStream.newInstance(bytes);
+        output.writeInt64(1000, 42L);
+        output.writeString(1001, "unknown");
+        output.flush();
+        FeedMessage.newBuilder().setHeader(header(Incrementality.DIFFERENTIAL)).buildPartial().writeTo(bytes);
+        byte[] message = bytes.toByteArray();
+
+        // The whole message is still valid for the generated parser.
+        FeedMessage parsed = FeedMessage.parseFrom(message);
+        assertEquals(Incrementality.DIFFERENTIAL, parsed.getHeader().getIncrementality());
+        assertEquals(4, parsed.getEntityCount());
+
+        GtfsRealtimeTripUpdateReader reader = GtfsRealtimeTripUpdateReader.read(message);
+        assertFalse(reader.isFullDataset());
+        assertEquals(Arrays.asList(UPDATE_1, UPDATE_2), reader.getUpdates());
+    }
+
+    @Test
+    public void testWithoutTripUpdates() throws IOException {
+        byte[] message = FeedMessage.newBuilder()
+                .setHeader(header(Incrementality.FULL_DATASET))
+                .addEntity(FeedEntity.newBuilder().setId("1").setAlert(Alert.newBuilder()))
+                .build().toByteArray();
+
+        GtfsRealtimeTripUpdateReader reader = GtfsRealtimeTripUpdateReader.read(message);
+        assertTrue(reader.isFullDataset());
+        assertTrue(reader.getUpdates().isEmpty());
+    }
+}
@@ -12,6 +12,7 @@ import java.io.File;
 import java.text.ParseException;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.List;
 
 import org.junit.Before;
@@ -472,6 +473,33 @@ public class TimetableSnapshotSourceTest {
         }
     }
 
+    @Test
+    public void testSkipUnchangedTripUpdates() throws InvalidProtocolBufferException {
+        final FeedScopedId tripId = new FeedScopedId(feedId, "1.1");
+        final Trip trip = graph.index.tripForId.get(tripId);
+        final TripPattern pattern = graph.index.patternForTrip.get(trip);
+        final int tripIndex = pattern.scheduledTimetable.getTripIndex(tripId);
+
+        updater.maxSnapshotFrequency = (-1);
+        updater.skipUnchangedTripUpdates = (true);
+
+        final List<TripUpdate> updates = Arrays.asList(TripUpdate.parseFrom(cancellation));
+        updater.applyTripUpdates(graph, true, updates, feedId);
+        final TimetableSnapshot snapshotA = updater.getTimetableSnapshot();
+        assertEquals(RealTimeState.CANCELED,
+                snapshotA.resolve(pattern, serviceDate).getTripTimes(tripIndex).getRealTimeState());
+
+        // The same full dataset again does not change the buffer
+        updater.applyTripUpdates(graph, true, updates, feedId);
+        assertSame(snapshotA, updater.getTimetableSnapshot());
+
+        // A full dataset without the trip reverts it to its schedule
+        updater.applyTripUpdates(graph, true, Collections.<TripUpdate>emptyList(), feedId);
+        final TimetableSnapshot snapshotB = updater.getTimetableSnapshot();
+        assertNotSame(snapshotA, snapshotB);
+        assertSame(snapshotB.resolve(pattern, null), snapshotB.resolve(pattern, serviceDate));
+    }
+
     @Test
     public void testPurgeExpiredData() throws InvalidProtocolBufferException {
         final FeedScopedId tripId = new FeedScopedId(feedId, "1.1");
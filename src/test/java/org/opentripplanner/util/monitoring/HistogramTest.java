@@ -0,0 +1,36 @@
+package org.opentripplanner.util.monitoring;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+    @Test
+    public void testEmpty() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(50));
+        assertEquals(0, histogram.getMean(), 0);
+    }
+
+    @Test
+    public void testPercentiles() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        histogram.record(-5); // recorded as 0
+        assertEquals(1001, histogram.getCount());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(500500, histogram.getSum());
+        // Percentiles are bucket upper bounds, within a factor of two above the true value.
+        long median = histogram.getPercentile(50);
+        assertTrue(median >= 500 && median < 1000);
+        long p99 = histogram.getPercentile(99);
+        assertTrue(p99 >= 990 && p99 <= 1000);
+        assertEquals(0, histogram.getPercentile(0));
+        assertEquals(1000, histogram.getPercentile(100));
+    }
+}